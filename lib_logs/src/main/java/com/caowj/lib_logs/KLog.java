@@ -1,11 +1,15 @@
 package com.caowj.lib_logs;
 
+import android.support.annotation.IntDef;
 import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.caowj.lib_utils.JsonPrettyPrinter;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 日志工具
@@ -24,19 +28,85 @@ import org.json.JSONObject;
 public class KLog {
 
     private static final String DEFAULT_MESSAGE = "execute";
-    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
     private static final int JSON_INDENT = 4;
-    private static final int V = 0x1;
-    private static final int D = 0x2;
-    private static final int I = 0x3;
-    private static final int W = 0x4;
-    private static final int E = 0x5;
-    private static final int A = 0x6;
-    private static final int JSON = 0x7;
+    // logcat每条日志的长度有限，json分块输出
+    private static final int JSON_CHUNK_SIZE = 3200;
+    // json最多输出的字符数，超过时截断
+    private static final int JSON_MAX_LENGTH = 256 * 1024;
+    // 级别的取值与lib_logs_plugin中的一致，不能修改
+    static final int V = 0x1;
+    static final int D = 0x2;
+    static final int I = 0x3;
+    static final int W = 0x4;
+    static final int E = 0x5;
+    static final int A = 0x6;
+    static final int JSON = 0x7;
+    // 缓存的调用位置数，超过时清空
+    private static final int CALLER_CACHE_SIZE = 512;
     private static boolean IS_SHOW_LOG = false;
+    private static int CALLER_LOCATION = CallerLocation.STACK_TRACE;
+    // 每个调用位置格式化后的前缀；查找前仍需获取完整调用栈，只省去重复的字符串拼接
+    private static final Map<StackTraceElement, Caller> CALLER_CACHE = new ConcurrentHashMap<>();
+    // 不获取调用位置时使用
+    private static final Caller NO_CALLER = new Caller(KLog.class.getSimpleName(), "");
+
+    /**
+     * 获取调用位置的方式
+     */
+    @IntDef({CallerLocation.STACK_TRACE, CallerLocation.THROWABLE, CallerLocation.NONE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface CallerLocation {
+        /**
+         * Thread.getStackTrace()，每次都获取完整的调用栈并格式化，最慢；默认方式
+         */
+        int STACK_TRACE = 0;
+        /**
+         * 在当前线程创建Throwable取调用栈，不经过Thread的调用栈接口；每个调用位置格式化后的前缀会缓存。
+         * 仍然会获取完整的调用栈并生成每个栈帧，只比STACK_TRACE略快
+         */
+        int THROWABLE = 1;
+        /**
+         * 不获取调用位置，TAG为空时使用"KLog"，日志中没有"[ (文件:行号)#方法 ]"前缀；适合在循环中打印。
+         * 需要调用位置又不想获取调用栈时，使用lib_logs_plugin在编译时确定位置(logAt)
+         */
+        int NONE = 2;
+    }
+
+    /**
+     * 调用位置：默认TAG及日志前缀
+     */
+    private static class Caller {
+        final String mFileName;
+        final String mPrefix;
+
+        Caller(String fileName, String prefix) {
+            mFileName = fileName;
+            mPrefix = prefix;
+        }
+
+        Caller(String fileName, String methodName, int lineNumber) {
+            this(fileName, "[ (" + fileName + ":" + lineNumber + ")#"
+                    + methodName.substring(0, 1).toUpperCase() + methodName.substring(1) + " ] ");
+        }
+    }
 
+    /**
+     * 调用位置使用{@link CallerLocation#STACK_TRACE}，每条日志都会获取调用栈；
+     * 不获取调用栈的方式只有{@link CallerLocation#NONE}和lib_logs_plugin编译时确定位置的logAt
+     */
     public static void init(boolean isShowLog) {
+        init(isShowLog, CallerLocation.STACK_TRACE);
+    }
+
+    /**
+     * 编译时使用了lib_logs_plugin的调用位置已在编译时确定，不受callerLocation影响
+     *
+     * @param isShowLog      是否打印日志
+     * @param callerLocation 获取调用位置的方式
+     */
+    public static void init(boolean isShowLog, @CallerLocation int callerLocation) {
         IS_SHOW_LOG = isShowLog;
+        CALLER_LOCATION = callerLocation;
     }
 
     public static void v() {
@@ -121,24 +191,86 @@ public class KLog {
     }
 
 
+    /**
+     * 以下logAt方法由编译插件lib_logs_plugin替换KLog的调用时生成，调用位置在编译时确定，不需要在运行时获取调用栈；
+     * 不要直接调用
+     *
+     * @param type       级别
+     * @param fileName   调用所在的源文件
+     * @param methodName 调用所在的方法
+     * @param lineNumber 调用所在的行号
+     */
+    public static void logAt(int type, String fileName, String methodName, int lineNumber) {
+        if (IS_SHOW_LOG) {
+            printLog(type, null, DEFAULT_MESSAGE, new Caller(fileName, methodName, lineNumber));
+        }
+    }
+
+    public static void logAt(Object msg, int type, String fileName, String methodName, int lineNumber) {
+        if (IS_SHOW_LOG) {
+            printLog(type, null, msg, new Caller(fileName, methodName, lineNumber));
+        }
+    }
+
+    public static void logAt(String tag, Object msg, int type, String fileName, String methodName, int lineNumber) {
+        if (IS_SHOW_LOG) {
+            printLog(type, tag, msg, new Caller(fileName, methodName, lineNumber));
+        }
+    }
+
     private static void printLog(int type, String tagStr, Object objectMsg) {
-        String msg;
         if (!IS_SHOW_LOG) {
             return;
         }
 
-        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+        Caller caller;
+        switch (CALLER_LOCATION) {
+            case CallerLocation.NONE:
+                caller = NO_CALLER;
+                break;
+            case CallerLocation.STACK_TRACE: {
+                StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
 
-        int index = 4;
-        String className = stackTrace[index].getFileName();
-        String methodName = stackTrace[index].getMethodName();
-        int lineNumber = stackTrace[index].getLineNumber();
+                int index = 4;
+                caller = new Caller(stackTrace[index].getFileName(), stackTrace[index].getMethodName(),
+                        stackTrace[index].getLineNumber());
+            }
+            break;
+            default:
+                caller = findCaller(new Throwable().getStackTrace());
+                break;
+        }
+        printLog(type, tagStr, objectMsg, caller);
+    }
 
-        String tag = (tagStr == null ? className : tagStr);
-        methodName = methodName.substring(0, 1).toUpperCase() + methodName.substring(1);
+    /**
+     * 调用栈中第一个不在KLog中的栈帧，格式化结果按栈帧缓存(调用栈已经完整获取，缓存只省去格式化)
+     */
+    private static Caller findCaller(StackTraceElement[] stackTrace) {
+        String className = KLog.class.getName();
+        for (StackTraceElement element : stackTrace) {
+            if (className.equals(element.getClassName())) {
+                continue;
+            }
+            Caller caller = CALLER_CACHE.get(element);
+            if (caller == null) {
+                if (CALLER_CACHE.size() >= CALLER_CACHE_SIZE) {
+                    CALLER_CACHE.clear();
+                }
+                caller = new Caller(element.getFileName(), element.getMethodName(), element.getLineNumber());
+                CALLER_CACHE.put(element, caller);
+            }
+            return caller;
+        }
+        return NO_CALLER;
+    }
+
+    private static void printLog(int type, String tagStr, Object objectMsg, Caller caller) {
+        String msg;
+        String tag = (tagStr == null ? caller.mFileName : tagStr);
 
         StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("[ (").append(className).append(":").append(lineNumber).append(")#").append(methodName).append(" ] ");
+        stringBuilder.append(caller.mPrefix);
 
         if (objectMsg == null) {
             msg = "Log with null Object";
@@ -177,50 +309,24 @@ public class KLog {
                     return;
                 }
 
-                String message = null;
-
-                try {
-                    if (msg.startsWith("{")) {
-                        JSONObject jsonObject = new JSONObject(msg);
-                        message = jsonObject.toString(JSON_INDENT);
-                    } else if (msg.startsWith("[")) {
-                        JSONArray jsonArray = new JSONArray(msg);
-                        message = jsonArray.toString(JSON_INDENT);
-                    }
-                } catch (JSONException e) {
-                    e(tag, e.getCause().getMessage() + "\n" + msg);
-                    return;
-                }
-
                 printLine(tag, true);
-                message = logStr + LINE_SEPARATOR + message;
-                String[] lines = message.split(LINE_SEPARATOR);
-                StringBuilder jsonContent = new StringBuilder();
-                for (String line : lines) {
-                    jsonContent.append("║ ").append(line).append(LINE_SEPARATOR);
-                }
-                //Log.i(tag, jsonContent.toString());
-
-                if (jsonContent.toString().length() > 3200) {
-                    Log.w(tag, "jsonContent.length = " + jsonContent.toString().length());
-                    int chunkCount = jsonContent.toString().length() / 3200;
-                    for (int i = 0; i <= chunkCount; i++) {
-                        int max = 3200 * (i + 1);
-                        if (max >= jsonContent.toString().length()) {
-
-                            Log.w(tag, jsonContent.toString().substring(3200 * i));
-
-                        } else {
-
-                            Log.w(tag, jsonContent.toString().substring(3200 * i, max));
-
-                        }
-
-                    }
-
-                } else {
-                    Log.w(tag, jsonContent.toString());
-
+                Log.w(tag, "║ " + logStr);
+                final String jsonTag = tag;
+                // 逐字符格式化，按块输出，不解析成JSONObject
+                int result = new JsonPrettyPrinter(JSON_INDENT)
+                        .linePrefix("║ ")
+                        .chunkSize(JSON_CHUNK_SIZE)
+                        .maxLength(JSON_MAX_LENGTH)
+                        .print(msg, new JsonPrettyPrinter.Sink() {
+                            @Override
+                            public void onChunk(CharSequence chunk) {
+                                Log.w(jsonTag, chunk.toString());
+                            }
+                        });
+                if (result == JsonPrettyPrinter.RESULT_INVALID) {
+                    // 不是json时没有输出任何格式化内容，只打印一次原内容
+                    Log.e(tag, "Invalid json content: "
+                            + (msg.length() > JSON_CHUNK_SIZE ? msg.substring(0, JSON_CHUNK_SIZE) : msg));
                 }
                 printLine(tag, false);
             }
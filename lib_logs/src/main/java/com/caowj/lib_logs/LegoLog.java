@@ -5,9 +5,11 @@ import android.util.Log;
 
 import com.caowj.lib_logs.helper.LogPriority;
 import com.caowj.lib_logs.helper.LogRecord;
+import com.caowj.lib_logs.helper.LogRenderer;
+import com.caowj.lib_logs.helper.LogSupplier;
 import com.caowj.lib_logs.helper.LogTypeEnum;
 
-import java.util.List;
+import java.nio.CharBuffer;
 
 
 /**
@@ -19,6 +21,7 @@ import java.util.List;
  */
 public class LegoLog {
     private static final int LOG_MAX_LENGTH = 4000;
+    private static final String PLACEHOLDER = "{}";
     private static boolean open = true;
     private static String tag = LegoLog.class.getSimpleName();
 
@@ -28,14 +31,14 @@ public class LegoLog {
     }
 
     /**
-     * 打开控制台日志输出功能
+     * 打开日志输出功能
      */
     public static void logOn() {
         LegoLog.open = true;
     }
 
     /**
-     * 关闭控制台日志输出功能
+     * 关闭日志输出功能，关闭后只有recordLog=true的日志会输出到控制台并记录到文件
      */
     public static void logOff() {
         LegoLog.open = false;
@@ -50,6 +53,29 @@ public class LegoLog {
         return LegoLog.open;
     }
 
+    /**
+     * 指定级别的日志是否会被输出到控制台，输出的日志按文件记录的配置记录到文件中；
+     * {@link #logOff()}之后除recordLog=true的日志外都不输出也不记录
+     * <p>
+     * 拼接比较耗时的日志内容前可以先调用此方法判断
+     *
+     * @param tag      tag标签
+     * @param priority 日志级别
+     * @return true-会被输出
+     */
+    public static boolean isLoggable(String tag, LogPriority priority) {
+        return open;
+    }
+
+    /**
+     * 因缓冲区满或限流被丢弃、没有写入文件的日志条数，可以上报用于判断日志是否完整
+     *
+     * @return 启动以来的总条数
+     */
+    public static long getDroppedCount() {
+        return LogRecord.getDroppedCount();
+    }
+
     /**
      * 设置默认的日志标签
      *
@@ -282,9 +308,284 @@ public class LegoLog {
         handleLog(tag, msgObject, logType.E, recordLog, throwable);
     }
 
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     * <p>
+     * 注意：只有一个boolean基本类型参数时会匹配到{@link #v(String, Object, boolean)}
+     *
+     * @param tag    tag标签
+     * @param format 日志格式，如 "user={} took={}ms"
+     * @param arg    参数
+     */
+    public static void v(String tag, String format, Object arg) {
+        if (isLoggable(tag, LogPriority.Verbose)) {
+            handleFormatLog(tag, logType.V, format, new Object[]{arg});
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式，如 "user={} took={}ms"
+     * @param arg1   参数1
+     * @param arg2   参数2，如果是多余的Throwable则作为异常输出
+     */
+    public static void v(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, LogPriority.Verbose)) {
+            handleFormatLog(tag, logType.V, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式
+     * @param args   参数，最后一个多余的Throwable参数作为异常输出
+     */
+    public static void v(String tag, String format, Object... args) {
+        if (isLoggable(tag, LogPriority.Verbose)) {
+            handleFormatLog(tag, logType.V, format, args);
+        }
+    }
+
+    /**
+     * 延迟生成日志内容，日志被过滤时不会调用supplier
+     *
+     * @param tag      tag标签
+     * @param supplier 日志内容
+     */
+    public static void v(String tag, LogSupplier supplier) {
+        if (isLoggable(tag, LogPriority.Verbose)) {
+            handleLog(tag, get(supplier), logType.V, false);
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     * <p>
+     * 注意：只有一个boolean基本类型参数时会匹配到{@link #d(String, Object, boolean)}
+     *
+     * @param tag    tag标签
+     * @param format 日志格式，如 "user={} took={}ms"
+     * @param arg    参数
+     */
+    public static void d(String tag, String format, Object arg) {
+        if (isLoggable(tag, LogPriority.Debug)) {
+            handleFormatLog(tag, logType.D, format, new Object[]{arg});
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式，如 "user={} took={}ms"
+     * @param arg1   参数1
+     * @param arg2   参数2，如果是多余的Throwable则作为异常输出
+     */
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, LogPriority.Debug)) {
+            handleFormatLog(tag, logType.D, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式
+     * @param args   参数，最后一个多余的Throwable参数作为异常输出
+     */
+    public static void d(String tag, String format, Object... args) {
+        if (isLoggable(tag, LogPriority.Debug)) {
+            handleFormatLog(tag, logType.D, format, args);
+        }
+    }
+
+    /**
+     * 延迟生成日志内容，日志被过滤时不会调用supplier
+     *
+     * @param tag      tag标签
+     * @param supplier 日志内容
+     */
+    public static void d(String tag, LogSupplier supplier) {
+        if (isLoggable(tag, LogPriority.Debug)) {
+            handleLog(tag, get(supplier), logType.D, false);
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     * <p>
+     * 注意：只有一个boolean基本类型参数时会匹配到{@link #i(String, Object, boolean)}
+     *
+     * @param tag    tag标签
+     * @param format 日志格式，如 "user={} took={}ms"
+     * @param arg    参数
+     */
+    public static void i(String tag, String format, Object arg) {
+        if (isLoggable(tag, LogPriority.Info)) {
+            handleFormatLog(tag, logType.I, format, new Object[]{arg});
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式，如 "user={} took={}ms"
+     * @param arg1   参数1
+     * @param arg2   参数2，如果是多余的Throwable则作为异常输出
+     */
+    public static void i(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, LogPriority.Info)) {
+            handleFormatLog(tag, logType.I, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式
+     * @param args   参数，最后一个多余的Throwable参数作为异常输出
+     */
+    public static void i(String tag, String format, Object... args) {
+        if (isLoggable(tag, LogPriority.Info)) {
+            handleFormatLog(tag, logType.I, format, args);
+        }
+    }
+
+    /**
+     * 延迟生成日志内容，日志被过滤时不会调用supplier
+     *
+     * @param tag      tag标签
+     * @param supplier 日志内容
+     */
+    public static void i(String tag, LogSupplier supplier) {
+        if (isLoggable(tag, LogPriority.Info)) {
+            handleLog(tag, get(supplier), logType.I, false);
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     * <p>
+     * 注意：只有一个boolean基本类型参数时会匹配到{@link #w(String, Object, boolean)}
+     *
+     * @param tag    tag标签
+     * @param format 日志格式，如 "user={} took={}ms"
+     * @param arg    参数
+     */
+    public static void w(String tag, String format, Object arg) {
+        if (isLoggable(tag, LogPriority.Warn)) {
+            handleFormatLog(tag, logType.W, format, new Object[]{arg});
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式，如 "user={} took={}ms"
+     * @param arg1   参数1
+     * @param arg2   参数2，如果是多余的Throwable则作为异常输出
+     */
+    public static void w(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, LogPriority.Warn)) {
+            handleFormatLog(tag, logType.W, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式
+     * @param args   参数，最后一个多余的Throwable参数作为异常输出
+     */
+    public static void w(String tag, String format, Object... args) {
+        if (isLoggable(tag, LogPriority.Warn)) {
+            handleFormatLog(tag, logType.W, format, args);
+        }
+    }
+
+    /**
+     * 延迟生成日志内容，日志被过滤时不会调用supplier
+     *
+     * @param tag      tag标签
+     * @param supplier 日志内容
+     */
+    public static void w(String tag, LogSupplier supplier) {
+        if (isLoggable(tag, LogPriority.Warn)) {
+            handleLog(tag, get(supplier), logType.W, false);
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式，如 "user={} took={}ms"
+     * @param arg1   参数1
+     * @param arg2   参数2，如果是多余的Throwable则作为异常输出
+     */
+    public static void e(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(tag, LogPriority.Error)) {
+            handleFormatLog(tag, logType.E, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    /**
+     * 参数化日志，格式中的{}依次替换为参数，日志被过滤时不会拼接字符串
+     *
+     * @param tag    tag标签
+     * @param format 日志格式
+     * @param args   参数，最后一个多余的Throwable参数作为异常输出
+     */
+    public static void e(String tag, String format, Object... args) {
+        if (isLoggable(tag, LogPriority.Error)) {
+            handleFormatLog(tag, logType.E, format, args);
+        }
+    }
+
+    /**
+     * 延迟生成日志内容，日志被过滤时不会调用supplier
+     *
+     * @param tag      tag标签
+     * @param supplier 日志内容
+     */
+    public static void e(String tag, LogSupplier supplier) {
+        if (isLoggable(tag, LogPriority.Error)) {
+            handleLog(tag, get(supplier), logType.E, false);
+        }
+    }
+
+    /**
+     * 延迟生成日志内容，日志被过滤时不会调用supplier
+     *
+     * @param tag       tag标签
+     * @param supplier  日志内容
+     * @param throwable 异常
+     */
+    public static void e(String tag, LogSupplier supplier, Throwable throwable) {
+        if (isLoggable(tag, LogPriority.Error)) {
+            handleLog(tag, get(supplier), logType.E, false, throwable);
+        }
+    }
+
+    /**
+     * 传入null字面量时会匹配到LogSupplier的重载，与Object的重载一样输出"null"
+     */
+    private static Object get(LogSupplier supplier) {
+        return supplier == null ? null : supplier.get();
+    }
+
     /**
      * 根据需要打印的对象不同来进行不同的处理
-     * 程序已经支持的会自动拼接的类型：数组、List
+     * 非String对象按类型使用{@link LogRenderer}格式化，集合、数组等限制输出的元素个数和长度
      */
     private static void handleLog(String tag, Object msgObject, logType logType, boolean recordLog) {
         handleLog(tag, msgObject, logType, recordLog, null);
@@ -292,50 +593,93 @@ public class LegoLog {
 
     /**
      * 根据需要打印的对象不同来进行不同的处理
-     * 程序已经支持的会自动拼接的类型：数组、List
+     * 非CharSequence对象按类型使用{@link LogRenderer}格式化，集合、数组等限制输出的元素个数和长度
      */
     private static void handleLog(String tag, Object msgObject, logType logType, boolean recordLog, Throwable throwable) {
-        if (open || recordLog) {
-            if (msgObject != null) {
-                if (msgObject instanceof String) {
-                    handleStringLog(tag, (String) msgObject, logType, recordLog,throwable);
-                } else if (msgObject.getClass().isArray()) {
-                    Object[] msgArray = (Object[]) msgObject;
-                    StringBuffer msgBuffer = new StringBuffer();
-                    msgBuffer.append('[');
-                    for (int i = 0; i < msgArray.length; i++) {
-                        msgBuffer.append(msgArray[i] == null ? "null" : msgArray[i].toString());
-                        if (i != msgArray.length - 1) {
-                            msgBuffer.append(", ");
-                        }
-                    }
-                    msgBuffer.append("]");
-                    handleStringLog(tag, msgBuffer.toString(), logType, recordLog,throwable);
-                } else if (msgObject instanceof List) {
-                    List msgList = (List) msgObject;
-                    StringBuffer msgBuffer = new StringBuffer();
-                    msgBuffer.append('[');
-                    for (int i = 0; i < msgList.size(); i++) {
-                        Object listObject = msgList.get(i);
-                        msgBuffer.append(listObject == null ? "null" : listObject.toString());
-                        if (i != msgList.size() - 1) {
-                            msgBuffer.append(", ");
-                        }
-                    }
-                    msgBuffer.append("]");
-                    handleStringLog(tag, msgBuffer.toString(), logType, recordLog,throwable);
-                } else {
-                    handleStringLog(tag, msgObject.toString(), logType, recordLog, throwable);
-                }
-            } else {
+        if (recordLog || isLoggable(tag, toLogPriority(logType))) {
+            if (msgObject == null) {
                 log(tag, "null", logType, recordLog, throwable);
+            } else if (msgObject instanceof CharSequence) {
+                // String、StringBuilder等直接分段输出，不先复制到LogRenderer中
+                handleStringLog(tag, (CharSequence) msgObject, logType, recordLog, throwable);
+            } else {
+                LogRenderer.Output output = LogRenderer.obtain();
+                try {
+                    output.appendValue(msgObject);
+                    handleStringLog(tag, output, logType, recordLog, throwable);
+                } finally {
+                    output.recycle();
+                }
             }
         }
     }
 
     /**
-     * 根据字符串的长度是否超过定义的最大长度来做决定是否做分段打印
+     * 处理参数化日志，调用前已经判断过日志级别
      */
+    private static void handleFormatLog(String tag, logType logType, String format, Object[] args) {
+        int argCount = args == null ? 0 : args.length;
+        Throwable throwable = null;
+        // 与slf4j一致：占位符之外多出的最后一个Throwable参数作为异常输出
+        if (argCount > 0 && args[argCount - 1] instanceof Throwable && countPlaceholders(format) < argCount) {
+            throwable = (Throwable) args[argCount - 1];
+            argCount--;
+        }
+        if (format == null || argCount == 0) {
+            handleStringLog(tag, format == null ? "null" : format, logType, false, throwable);
+            return;
+        }
+        LogRenderer.Output output = LogRenderer.obtain();
+        try {
+            formatMessage(output, format, args, argCount);
+            handleStringLog(tag, output, logType, false, throwable);
+        } finally {
+            output.recycle();
+        }
+    }
+
+    private static int countPlaceholders(String format) {
+        int count = 0;
+        int index = format == null ? -1 : format.indexOf(PLACEHOLDER);
+        while (index >= 0) {
+            count++;
+            index = format.indexOf(PLACEHOLDER, index + PLACEHOLDER.length());
+        }
+        return count;
+    }
+
+    /**
+     * 依次把{}替换为参数，参数按类型使用{@link LogRenderer}格式化
+     */
+    private static void formatMessage(LogRenderer.Output output, String format, Object[] args, int argCount) {
+        int start = 0;
+        for (int i = 0; i < argCount; i++) {
+            int index = format.indexOf(PLACEHOLDER, start);
+            if (index < 0) {
+                break;
+            }
+            output.append(format, start, index).appendValue(args[i]);
+            start = index + PLACEHOLDER.length();
+        }
+        output.append(format, start, format.length());
+    }
+
+    private static LogPriority toLogPriority(logType logType) {
+        switch (logType) {
+            case V:
+                return LogPriority.Verbose;
+            case D:
+                return LogPriority.Debug;
+            case I:
+                return LogPriority.Info;
+            case W:
+                return LogPriority.Warn;
+            case E:
+            default:
+                return LogPriority.Error;
+        }
+    }
+
 //    private static void handleStringLog(String tag, String msg, logType logType, boolean recordLog,Throwable throwable) {
 //        handleStringLog(tag, msg, logType, recordLog, null);
 //    }
@@ -343,27 +687,31 @@ public class LegoLog {
     /**
      * 根据字符串的长度是否超过定义的最大长度来做决定是否做分段打印
      */
-    private static void handleStringLog(String tag, String msg, logType logType, boolean recordLog, Throwable throwable) {
-        // 日志长度超过最大长度分段打印
-        if (msg.length() > LOG_MAX_LENGTH) {
-            for (int index = 0; index < msg.length(); index += LOG_MAX_LENGTH) {
-                String subMsg;
-                if (msg.length() <= index + LOG_MAX_LENGTH) {
-                    subMsg = msg.substring(index);
-                } else {
-                    subMsg = msg.substring(index, index + LOG_MAX_LENGTH);
-                }
-                log(tag, subMsg, logType, recordLog, throwable);
-            }
-        } else {
+    private static void handleStringLog(String tag, CharSequence msg, logType logType, boolean recordLog, Throwable throwable) {
+        int length = msg.length();
+        if (length <= LOG_MAX_LENGTH) {
             log(tag, msg, logType, recordLog, throwable);
+            return;
+        }
+        // 日志长度超过最大长度分段打印，每段是原内容的视图，不复制
+        int start = 0;
+        while (start < length) {
+            int end = Math.min(start + LOG_MAX_LENGTH, length);
+            if (end < length && Character.isHighSurrogate(msg.charAt(end - 1))) {
+                // 不把代理对拆到两段中
+                end--;
+            }
+            log(tag, CharBuffer.wrap(msg, start, end), logType, recordLog, throwable);
+            start = end;
         }
     }
 
     /**
      * 调用Android系统Log类进行日志打印
      */
-    private static void log(String tag, String msg, logType logType, boolean recordLog, Throwable throwable) {
+    private static void log(String tag, CharSequence message, logType logType, boolean recordLog, Throwable throwable) {
+        // android.util.Log只接受String：String不复制，StringBuilder等及分段的视图在这里复制一次，控制台和文件共用
+        String msg = message.toString();
 
 //        if(!tag.contains("-LegoHttpLog-")){
 //            StackTraceElement element = findCurrentStackTraceElement();
@@ -374,30 +722,28 @@ public class LegoLog {
             logType = LegoLog.logType.E;
         }
 
-        LogPriority logPriority = LogPriority.Debug;
+        LogPriority logPriority = toLogPriority(logType);
 
         switch (logType) {
             case V:
                 Log.v(tag, msg);
-                logPriority = LogPriority.Verbose;
                 break;
             case D:
                 Log.d(tag, msg);
-                logPriority = LogPriority.Debug;
                 break;
             case I:
                 Log.i(tag, msg);
-                logPriority = LogPriority.Info;
                 break;
             case W:
                 Log.w(tag, msg);
-                logPriority = LogPriority.Warn;
                 break;
             case E:
                 Log.e(tag, msg, throwable);
-                logPriority = LogPriority.Error;
         }
 
+        if (!recordLog && !LogRecord.isLoggable(tag, logPriority)) {
+            return;
+        }
         if (throwable != null) {
             String trace = Log.getStackTraceString(throwable);
             if (TextUtils.isEmpty(trace)) {
@@ -0,0 +1,407 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 崩溃去重索引，放在崩溃日志目录中，文件名为{@link #FILE_NAME}
+ * <p>
+ * 每次崩溃按异常类型和根异常最上面{@link #FINGERPRINT_FRAMES}个栈帧(类名、方法名，不含行号)计算指纹，
+ * 相同指纹只记录次数、首次和最近一次的时间，以及一份完整崩溃日志的位置；崩溃循环时不再重复写入相同的崩溃栈。
+ * 文件大小固定，初始化时映射到内存，崩溃时只修改内存中的记录，不分配内存，进程退出后由系统写回文件。
+ * <p>
+ * 文件结构：
+ * <pre>
+ * 文件头：MAGIC("LCRI") | 版本(4字节) | 记录数(4字节) | 保留(4字节)
+ * 记录：指纹(8字节) | 次数(4字节) | 首次时间(8字节) | 最近时间(8字节) | 完整日志的日期(4字节，yyyyMMdd) |
+ *      完整日志在文件中的位置(8字节) | 标题长度(4字节) | 标题(UTF-8，{@link #TITLE_SIZE}字节)
+ * </pre>
+ */
+public class CrashIndex {
+
+    public static final String FILE_NAME = "crash" + LogIndex.EXTENSION;
+    // 参与计算指纹的栈帧数
+    static final int FINGERPRINT_FRAMES = 5;
+    // 最多记录的不同崩溃数，满了之后替换最久没有出现的
+    static final int MAX_ENTRIES = 128;
+    static final int TITLE_SIZE = 96;
+    static final int MAGIC = 0x4C435249;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+    private static final int ENTRY_SIZE = 144;
+    private static final int FINGERPRINT = 0;
+    private static final int COUNT = 8;
+    private static final int FIRST_SEEN = 12;
+    private static final int LAST_SEEN = 20;
+    private static final int DUMP_DATE = 28;
+    private static final int DUMP_OFFSET = 32;
+    private static final int TITLE_LENGTH = 40;
+    private static final int TITLE = 44;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mFolderPath;
+    private final MappedByteBuffer mBuffer;
+    private final long[] mFingerprints = new long[MAX_ENTRIES];
+    // 记录对应的完整崩溃日志是否还在(可能已被清理)
+    private final boolean[] mDumpExists = new boolean[MAX_ENTRIES];
+    private int mCount;
+
+    /**
+     * 一种崩溃
+     */
+    public static class Entry {
+        private final long mFingerprint;
+        private final int mCount;
+        private final long mFirstSeen;
+        private final long mLastSeen;
+        private final String mDumpPath;
+        private final long mDumpOffset;
+        private final String mTitle;
+
+        Entry(long fingerprint, int count, long firstSeen, long lastSeen, String dumpPath, long dumpOffset, String title) {
+            mFingerprint = fingerprint;
+            mCount = count;
+            mFirstSeen = firstSeen;
+            mLastSeen = lastSeen;
+            mDumpPath = dumpPath;
+            mDumpOffset = dumpOffset;
+            mTitle = title;
+        }
+
+        public long fingerprint() {
+            return mFingerprint;
+        }
+
+        /**
+         * 出现次数
+         */
+        public int count() {
+            return mCount;
+        }
+
+        public long firstSeen() {
+            return mFirstSeen;
+        }
+
+        public long lastSeen() {
+            return mLastSeen;
+        }
+
+        /**
+         * 完整崩溃日志所在的文件，可能已被清理
+         */
+        public String dumpPath() {
+            return mDumpPath;
+        }
+
+        /**
+         * 完整崩溃日志在文件中的位置
+         */
+        public long dumpOffset() {
+            return mDumpOffset;
+        }
+
+        /**
+         * 异常类型及最上面的栈帧
+         */
+        public String title() {
+            return mTitle;
+        }
+    }
+
+    private CrashIndex(String folderPath, MappedByteBuffer buffer) {
+        mFolderPath = folderPath;
+        mBuffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            // 新文件或版本不符，重新开始
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        }
+        mCount = Math.max(0, Math.min(buffer.getInt(COUNT_OFFSET), MAX_ENTRIES));
+        for (int i = 0; i < mCount; i++) {
+            mFingerprints[i] = buffer.getLong(entryOffset(i) + FINGERPRINT);
+            String dumpPath = dumpPath(i);
+            mDumpExists[i] = dumpPath != null && new File(dumpPath).exists();
+        }
+    }
+
+    /**
+     * 打开(没有时新建)崩溃日志目录中的索引，映射到内存
+     *
+     * @param folderPath 崩溃日志目录
+     */
+    static CrashIndex open(String folderPath) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(new File(folderPath, FILE_NAME), "rw");
+        try {
+            int size = HEADER_SIZE + MAX_ENTRIES * ENTRY_SIZE;
+            if (randomAccessFile.length() != size) {
+                randomAccessFile.setLength(size);
+            }
+            // 关闭文件后映射仍然有效
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new CrashIndex(folderPath, buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * 崩溃的指纹：最外层及根异常的类型，根异常最上面几个栈帧的类名和方法名；不分配内存
+     */
+    static long fingerprint(Throwable ex) {
+        Throwable root = rootCause(ex);
+        long hash = FNV_OFFSET;
+        hash = hash(hash, ex.getClass().getName(), 0, ex.getClass().getName().length());
+        hash = hash(hash, root.getClass().getName(), 0, root.getClass().getName().length());
+        StackTraceElement[] trace = root.getStackTrace();
+        for (int i = 0; i < trace.length && i < FINGERPRINT_FRAMES; i++) {
+            String className = trace[i].getClassName();
+            hash = hash(hash, className, 0, normalizedLength(className, "$$Lambda$"));
+            String methodName = trace[i].getMethodName();
+            hash = hash(hash, methodName, 0, normalizedLength(methodName, null));
+        }
+        return hash;
+    }
+
+    /**
+     * 去掉编译器生成的、每次编译可能变化的部分：lambda类名后缀，lambda方法名末尾的序号
+     */
+    private static int normalizedLength(String name, String marker) {
+        if (marker != null) {
+            int index = name.indexOf(marker);
+            if (index >= 0) {
+                return index;
+            }
+            return name.length();
+        }
+        if (name.startsWith("lambda$")) {
+            int end = name.length();
+            while (end > 0 && Character.isDigit(name.charAt(end - 1))) {
+                end--;
+            }
+            if (end > 0 && name.charAt(end - 1) == '$') {
+                return end - 1;
+            }
+        }
+        return name.length();
+    }
+
+    private static long hash(long hash, String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            hash ^= s.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        // 分隔符，避免相邻字段拼接后相同
+        hash ^= 0xFF;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+
+    static Throwable rootCause(Throwable ex) {
+        Throwable root = ex;
+        for (int i = 0; i < 16 && root.getCause() != null && root.getCause() != root; i++) {
+            root = root.getCause();
+        }
+        return root;
+    }
+
+    /**
+     * 指纹对应的记录
+     *
+     * @return 记录序号，没有时返回-1
+     */
+    synchronized int find(long fingerprint) {
+        for (int i = 0; i < mCount; i++) {
+            if (mFingerprints[i] == fingerprint) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 记录是否还有完整的崩溃日志，没有时需要重新写入一份
+     */
+    synchronized boolean hasDump(int index) {
+        return index >= 0 && mDumpExists[index];
+    }
+
+    /**
+     * 记录一次崩溃；不分配内存
+     *
+     * @param index      {@link #find(long)}的结果，-1表示新的崩溃
+     * @param ex         异常，新的崩溃用来生成标题
+     * @param time       崩溃时间
+     * @param dumpDate   写入了完整日志时为日志文件的日期(yyyyMMdd)，否则为0
+     * @param dumpOffset 完整日志在文件中的位置
+     * @return 该崩溃出现的次数
+     */
+    synchronized int record(int index, long fingerprint, Throwable ex, long time, int dumpDate, long dumpOffset) {
+        if (index < 0) {
+            index = mCount < MAX_ENTRIES ? mCount++ : oldest();
+            int offset = entryOffset(index);
+            mFingerprints[index] = fingerprint;
+            mDumpExists[index] = false;
+            mBuffer.putLong(offset + FINGERPRINT, fingerprint);
+            mBuffer.putInt(offset + COUNT, 0);
+            mBuffer.putLong(offset + FIRST_SEEN, time);
+            mBuffer.putInt(offset + DUMP_DATE, 0);
+            mBuffer.putLong(offset + DUMP_OFFSET, 0);
+            putTitle(offset, ex);
+            mBuffer.putInt(COUNT_OFFSET, mCount);
+        }
+        int offset = entryOffset(index);
+        int count = mBuffer.getInt(offset + COUNT) + 1;
+        mBuffer.putInt(offset + COUNT, count);
+        mBuffer.putLong(offset + LAST_SEEN, time);
+        if (dumpDate != 0) {
+            mBuffer.putInt(offset + DUMP_DATE, dumpDate);
+            mBuffer.putLong(offset + DUMP_OFFSET, dumpOffset);
+            mDumpExists[index] = true;
+        }
+        return count;
+    }
+
+    /**
+     * 最久没有出现的记录
+     */
+    private int oldest() {
+        int oldest = 0;
+        for (int i = 1; i < mCount; i++) {
+            if (mBuffer.getLong(entryOffset(i) + LAST_SEEN) < mBuffer.getLong(entryOffset(oldest) + LAST_SEEN)) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * 标题：根异常类型 at 最上面的栈帧，UTF-8编码，超长截断
+     */
+    private void putTitle(int offset, Throwable ex) {
+        Throwable root = rootCause(ex);
+        int position = offset + TITLE;
+        int end = position + TITLE_SIZE;
+        position = putString(position, end, root.getClass().getName());
+        StackTraceElement[] trace = root.getStackTrace();
+        if (trace.length > 0) {
+            position = putString(position, end, " at ");
+            position = putString(position, end, trace[0].getClassName());
+            position = putString(position, end, ".");
+            position = putString(position, end, trace[0].getMethodName());
+        }
+        mBuffer.putInt(offset + TITLE_LENGTH, position - offset - TITLE);
+    }
+
+    private int putString(int position, int end, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int length = c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            if (Character.isSurrogate(c)) {
+                c = '?';
+                length = 1;
+            }
+            if (position + length > end) {
+                break;
+            }
+            if (length == 1) {
+                mBuffer.put(position++, (byte) c);
+            } else if (length == 2) {
+                mBuffer.put(position++, (byte) (0xC0 | (c >> 6)));
+                mBuffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+            } else {
+                mBuffer.put(position++, (byte) (0xE0 | (c >> 12)));
+                mBuffer.put(position++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                mBuffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return position;
+    }
+
+    private String dumpPath(int index) {
+        return dumpPath(mFolderPath, mBuffer, entryOffset(index));
+    }
+
+    private static String dumpPath(String folderPath, ByteBuffer buffer, int offset) {
+        int date = buffer.getInt(offset + DUMP_DATE);
+        if (date == 0) {
+            return null;
+        }
+        return new File(folderPath, String.format(Locale.US, "crash-%04d-%02d-%02d.log",
+                date / 10000, date / 100 % 100, date % 100)).getPath();
+    }
+
+    private static int entryOffset(int index) {
+        return HEADER_SIZE + index * ENTRY_SIZE;
+    }
+
+    /**
+     * 出现次数最多的崩溃
+     *
+     * @param folderPath 崩溃日志目录
+     * @param limit      最多返回的条数
+     * @return 按次数从多到少排序，没有索引时返回空列表
+     */
+    public static List<Entry> top(String folderPath, int limit) {
+        List<Entry> entries = new ArrayList<>();
+        File file = new File(folderPath, FILE_NAME);
+        if (!file.exists()) {
+            return entries;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            byte[] bytes = new byte[(int) Math.min(randomAccessFile.length(), HEADER_SIZE + MAX_ENTRIES * ENTRY_SIZE)];
+            randomAccessFile.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (bytes.length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return entries;
+            }
+            int count = Math.min(buffer.getInt(COUNT_OFFSET), (bytes.length - HEADER_SIZE) / ENTRY_SIZE);
+            for (int i = 0; i < count; i++) {
+                int offset = entryOffset(i);
+                int titleLength = Math.max(0, Math.min(buffer.getInt(offset + TITLE_LENGTH), TITLE_SIZE));
+                entries.add(new Entry(buffer.getLong(offset + FINGERPRINT), buffer.getInt(offset + COUNT),
+                        buffer.getLong(offset + FIRST_SEEN), buffer.getLong(offset + LAST_SEEN),
+                        dumpPath(folderPath, buffer, offset), buffer.getLong(offset + DUMP_OFFSET),
+                        new String(bytes, offset + TITLE, titleLength, UTF_8)));
+            }
+        } catch (IOException e) {
+            return entries;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+
+                }
+            }
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                if (o1.mCount != o2.mCount) {
+                    return o1.mCount > o2.mCount ? -1 : 1;
+                }
+                return o1.mLastSeen > o2.mLastSeen ? -1 : o1.mLastSeen < o2.mLastSeen ? 1 : 0;
+            }
+        });
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+}
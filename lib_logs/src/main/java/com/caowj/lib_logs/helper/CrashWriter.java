@@ -0,0 +1,366 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * 崩溃日志的写入，崩溃时只分配打开文件所需的少量对象
+ * <p>
+ * 初始化时只预先分配缓冲区、准备好设备信息，并算好当天和第二天的文件路径，不访问文件；
+ * 第一次崩溃时才创建目录、打开(追加写入)对应日期的文件和去重索引，没有崩溃的启动不会留下空文件。
+ * 崩溃时直接遍历异常栈，逐个字符编码(UTF-8)到缓冲区中，缓冲区满了就写入文件，不经过StringWriter/PrintWriter，
+ * OutOfMemoryError时也能完整记录。新文件不在崩溃时加入目录表，下次扫描目录时加入。
+ * <p>
+ * 相同的崩溃({@link CrashIndex}指纹相同)只保留一份完整的崩溃栈，之后只写一行摘要并在索引中计数。
+ */
+class CrashWriter {
+
+    static final String TAG = "CrashWriter";
+    // 写入缓冲区的大小
+    static final int BUFFER_SIZE = 32 * 1024;
+    // 异常链最多记录的层数，防止循环引用
+    private static final int MAX_CAUSE_DEPTH = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mFolderPath;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPosition;
+    // 本次写入的内容是否超过了缓冲区，超过时缓冲区中只有最后一部分
+    private boolean mOverflow;
+    // 本次是重复的崩溃，只写了摘要
+    private boolean mDuplicate;
+    // 崩溃去重索引，第一次崩溃时打开，打开失败时为null，每次都写完整的崩溃栈
+    private CrashIndex mIndex;
+    private boolean mIndexOpened;
+    private final byte[] mDeviceInfo;
+    private final Calendar mCalendar = Calendar.getInstance();
+    private FileOutputStream mOutputStream;
+    private FileChannel mChannel;
+    private String mPath;
+    // 当前文件的日期，yyyyMMdd
+    private int mFileDate;
+    // 当前文件对应日期的结束时间，之后崩溃时切换到新文件
+    private long mFileEndTime;
+    // 第二天的文件路径和日期，初始化时算好，崩溃时不再格式化日期
+    private String mNextPath;
+    private int mNextFileDate;
+
+    /**
+     * @param folderPath 崩溃日志目录
+     * @param deviceInfo 设备信息，写在每次崩溃的时间之后
+     */
+    CrashWriter(String folderPath, String deviceInfo) {
+        mFolderPath = folderPath;
+        mDeviceInfo = deviceInfo.getBytes(UTF_8);
+    }
+
+    /**
+     * 算好当天和第二天的文件路径，不访问文件
+     */
+    synchronized void open() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        long now = System.currentTimeMillis();
+        mPath = new File(mFolderPath, fileName(dateFormat, now)).getPath();
+        mFileDate = fileDate(now);
+        mCalendar.setTimeInMillis(now);
+        mCalendar.set(Calendar.HOUR_OF_DAY, 0);
+        mCalendar.set(Calendar.MINUTE, 0);
+        mCalendar.set(Calendar.SECOND, 0);
+        mCalendar.set(Calendar.MILLISECOND, 0);
+        mCalendar.add(Calendar.DAY_OF_MONTH, 1);
+        mFileEndTime = mCalendar.getTimeInMillis();
+        mNextPath = new File(mFolderPath, fileName(dateFormat, mFileEndTime)).getPath();
+        mNextFileDate = fileDate(mFileEndTime);
+    }
+
+    private static String fileName(SimpleDateFormat dateFormat, long time) {
+        return "crash-" + dateFormat.format(new Date(time)) + ".log";
+    }
+
+    private int fileDate(long time) {
+        mCalendar.setTimeInMillis(time);
+        return mCalendar.get(Calendar.YEAR) * 10000 + (mCalendar.get(Calendar.MONTH) + 1) * 100
+                + mCalendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * 写入一次崩溃
+     *
+     * @return 崩溃日志文件路径
+     */
+    synchronized String write(Throwable ex) throws IOException {
+        long now = System.currentTimeMillis();
+        if (now >= mFileEndTime && mNextPath != null) {
+            nextDay();
+        }
+        if (mOutputStream == null) {
+            openFile();
+        }
+        mPosition = 0;
+        mOverflow = false;
+        mDuplicate = false;
+        long fingerprint = CrashIndex.fingerprint(ex);
+        int index = -1;
+        if (mIndex != null) {
+            index = mIndex.find(fingerprint);
+            mDuplicate = mIndex.hasDump(index);
+        }
+        long dumpOffset = mChannel.position();
+        int count = 0;
+        if (mIndex != null) {
+            count = mIndex.record(index, fingerprint, ex, now, mDuplicate ? 0 : mFileDate, dumpOffset);
+        }
+        append("\r\n");
+        appendTime(now);
+        append(' ');
+        if (mDuplicate) {
+            // 完整的崩溃栈已经记录过，只写一行摘要
+            append("重复崩溃(第");
+            appendInt(count);
+            append("次，指纹");
+            appendHex(fingerprint);
+            append("): ");
+            append(ex.getClass().getName());
+            String message = ex.getMessage();
+            if (message != null) {
+                append(": ");
+                append(message);
+            }
+            append('\n');
+        } else {
+            appendBytes(mDeviceInfo);
+            appendThrowable(ex);
+        }
+        flush();
+        mOutputStream.getFD().sync();
+        return mPath;
+    }
+
+    /**
+     * 第一次崩溃时创建目录，打开当前的文件和去重索引
+     */
+    private void openFile() throws IOException {
+        File dir = new File(mFolderPath);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        mOutputStream = new FileOutputStream(mPath, true);
+        mChannel = mOutputStream.getChannel();
+        if (!mIndexOpened) {
+            mIndexOpened = true;
+            try {
+                mIndex = CrashIndex.open(mFolderPath);
+            } catch (IOException e) {
+                // 没有索引时不去重
+            }
+        }
+    }
+
+    /**
+     * 跨天后切换到初始化时算好的第二天的文件：还没有打开文件时直接使用新路径；
+     * 已打开时只打开新文件，打开失败时继续写入原来的文件
+     */
+    private void nextDay() {
+        if (mOutputStream == null) {
+            mPath = mNextPath;
+            mFileDate = mNextFileDate;
+            mNextPath = null;
+            return;
+        }
+        FileOutputStream outputStream;
+        try {
+            outputStream = new FileOutputStream(mNextPath, true);
+        } catch (IOException e) {
+            mNextPath = null;
+            return;
+        }
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+
+        }
+        mOutputStream = outputStream;
+        mChannel = outputStream.getChannel();
+        mPath = mNextPath;
+        mFileDate = mNextFileDate;
+        mNextPath = null;
+    }
+
+    /**
+     * 最近一次写入的内容，用于回调；内容超过缓冲区或只写了摘要时返回null，由调用者另行生成
+     */
+    synchronized String lastReport() {
+        return mOverflow || mDuplicate ? null : new String(mBuffer, 0, mPosition, UTF_8);
+    }
+
+    /**
+     * 与{@link Throwable#printStackTrace()}的格式相同，与上一层相同的栈帧省略为"... n more"
+     */
+    private void appendThrowable(Throwable ex) {
+        StackTraceElement[] enclosing = null;
+        Throwable throwable = ex;
+        for (int depth = 0; throwable != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            if (depth > 0) {
+                append("Caused by: ");
+            }
+            append(throwable.getClass().getName());
+            String message = throwable.getMessage();
+            if (message != null) {
+                append(": ");
+                append(message);
+            }
+            append('\n');
+            StackTraceElement[] trace = throwable.getStackTrace();
+            int m = trace.length - 1;
+            if (enclosing != null) {
+                int n = enclosing.length - 1;
+                while (m >= 0 && n >= 0 && trace[m].equals(enclosing[n])) {
+                    m--;
+                    n--;
+                }
+            }
+            for (int i = 0; i <= m; i++) {
+                appendFrame(trace[i]);
+            }
+            int common = trace.length - 1 - m;
+            if (common > 0) {
+                append("\t... ");
+                appendInt(common);
+                append(" more\n");
+            }
+            enclosing = trace;
+            Throwable cause = throwable.getCause();
+            throwable = cause == throwable ? null : cause;
+        }
+    }
+
+    private void appendFrame(StackTraceElement element) {
+        append("\tat ");
+        append(element.getClassName());
+        append('.');
+        append(element.getMethodName());
+        append('(');
+        if (element.isNativeMethod()) {
+            append("Native Method");
+        } else if (element.getFileName() == null) {
+            append("Unknown Source");
+        } else {
+            append(element.getFileName());
+            if (element.getLineNumber() >= 0) {
+                append(':');
+                appendInt(element.getLineNumber());
+            }
+        }
+        append(")\n");
+    }
+
+    /**
+     * MM-dd HH:mm:ss
+     */
+    private void appendTime(long time) {
+        mCalendar.setTimeInMillis(time);
+        appendTwoDigits(mCalendar.get(Calendar.MONTH) + 1);
+        append('-');
+        appendTwoDigits(mCalendar.get(Calendar.DAY_OF_MONTH));
+        append(' ');
+        appendTwoDigits(mCalendar.get(Calendar.HOUR_OF_DAY));
+        append(':');
+        appendTwoDigits(mCalendar.get(Calendar.MINUTE));
+        append(':');
+        appendTwoDigits(mCalendar.get(Calendar.SECOND));
+    }
+
+    private void appendTwoDigits(int value) {
+        append((char) ('0' + value / 10 % 10));
+        append((char) ('0' + value % 10));
+    }
+
+    private void appendInt(int value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    private void appendHex(long value) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            int digit = (int) (value >>> shift) & 0xF;
+            append((char) (digit < 10 ? '0' + digit : 'a' + digit - 10));
+        }
+    }
+
+    private void append(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                appendCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+            } else {
+                append(c);
+            }
+        }
+    }
+
+    private void append(char c) {
+        if (Character.isSurrogate(c)) {
+            c = '?';
+        }
+        appendCodePoint(c);
+    }
+
+    private void appendCodePoint(int c) {
+        if (mPosition + 4 > mBuffer.length) {
+            flushQuietly();
+        }
+        if (c < 0x80) {
+            mBuffer[mPosition++] = (byte) c;
+        } else if (c < 0x800) {
+            mBuffer[mPosition++] = (byte) (0xC0 | (c >> 6));
+            mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3F));
+        } else if (c < 0x10000) {
+            mBuffer[mPosition++] = (byte) (0xE0 | (c >> 12));
+            mBuffer[mPosition++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            mBuffer[mPosition++] = (byte) (0xF0 | (c >> 18));
+            mBuffer[mPosition++] = (byte) (0x80 | ((c >> 12) & 0x3F));
+            mBuffer[mPosition++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void appendBytes(byte[] bytes) {
+        for (byte b : bytes) {
+            if (mPosition == mBuffer.length) {
+                flushQuietly();
+            }
+            mBuffer[mPosition++] = b;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // 写入失败时丢弃这部分，继续记录后面的内容
+        }
+        mPosition = 0;
+        mOverflow = true;
+    }
+
+    private void flush() throws IOException {
+        mOutputStream.write(mBuffer, 0, mPosition);
+    }
+}
@@ -15,20 +15,18 @@ import android.widget.Toast;
 
 import com.caowj.lib_logs.ui.CrashDialog;
 import com.caowj.lib_utils.AppUtil;
-import com.caowj.lib_utils.FileUtil;
 import com.caowj.lib_utils.SdCardUtil;
 import com.caowj.lib_utils.SystemUtil;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
@@ -52,6 +50,8 @@ class LegoCrashHandler implements Thread.UncaughtExceptionHandler {
     Object lock = new Object();
 
     volatile boolean  isFinishBlockMainThread = false;
+    // 初始化时准备好的崩溃日志写入，为null时退化为崩溃时再拼接字符串写文件
+    private CrashWriter nCrashWriter;
     /**
      * 默认捕获到异常后退出应用
      */
@@ -91,11 +91,12 @@ class LegoCrashHandler implements Thread.UncaughtExceptionHandler {
             // 设置该CrashHandler为程序的默认处理器
             Thread.setDefaultUncaughtExceptionHandler(this);
             nContext = context;
+            // 设备信息只收集一次，崩溃时直接使用
+            collectDeviceInfo(nContext);
+            openCrashWriter();
 
-            //自动销毁autoClearDay天前的日志文件
-            if (autoClearDay > 0) {
-                autoClear(autoClearDay);
-            }
+            //自动销毁autoClearDay天前的日志文件；不按天数删除时也登记目录，崩溃日志计入总配额
+            autoClear(autoClearDay);
         }
         return this;
 
@@ -158,8 +159,6 @@ class LegoCrashHandler implements Thread.UncaughtExceptionHandler {
 
         try {
 
-            // 收集设备参数信息
-            collectDeviceInfo(nContext);
             // 保存日志文件
             crashFileFullPath = saveCrashInfoFile(ex);
 
@@ -255,6 +254,22 @@ class LegoCrashHandler implements Thread.UncaughtExceptionHandler {
 
     }
 
+    /**
+     * 预先分配崩溃日志的缓冲区并算好文件路径，第一次崩溃时才创建文件；崩溃时(包括OutOfMemoryError)只分配打开文件所需的少量对象
+     */
+    private void openCrashWriter() {
+        if (!SdCardUtil.isSDCardEnableByEnvironment()) {
+            return;
+        }
+        try {
+            CrashWriter crashWriter = new CrashWriter(getGlobalPath(), nInfos.toString());
+            crashWriter.open();
+            nCrashWriter = crashWriter;
+        } catch (Exception e) {
+            Log.e(TAG, "openCrashWriter 异常", e);
+        }
+    }
+
     /**
      * 保存错误信息到文件中
      *
@@ -262,6 +277,23 @@ class LegoCrashHandler implements Thread.UncaughtExceptionHandler {
      * @return 返回文件名称, 便于将文件传送到服务器
      */
     protected String saveCrashInfoFile(Throwable ex) throws Exception {
+        if (nCrashWriter != null) {
+            try {
+                String fullPath = nCrashWriter.write(ex);
+                // 文件已经写完，回调用的字符串可以分配内存
+                try {
+                    errorMsg = nCrashWriter.lastReport();
+                    if (errorMsg == null) {
+                        errorMsg = Log.getStackTraceString(ex);
+                    }
+                } catch (Throwable e) {
+                    errorMsg = "";
+                }
+                return fullPath;
+            } catch (IOException e) {
+                Log.e(TAG, "an error occured while writing file...", e);
+            }
+        }
         StringBuffer sb = new StringBuffer();
         try {
             @SuppressLint("SimpleDateFormat") SimpleDateFormat sDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss");
@@ -329,6 +361,7 @@ class LegoCrashHandler implements Thread.UncaughtExceptionHandler {
             fos.write(sb.getBytes());
             fos.flush();
             fos.close();
+            LogCatalog.onFileCreated(fullPath);
         }
         return fullPath;
     }
@@ -341,29 +374,12 @@ class LegoCrashHandler implements Thread.UncaughtExceptionHandler {
 
 
     /**
-     * 文件删除
+     * 文件删除，由{@link LogRetention}在后台进行，崩溃日志也计入总配额
      *
-     * @param autoClearDay 文件保存天数
+     * @param autoClearDay 文件保存天数，0或负数表示不按天数删除，只受总配额限制
      */
     public void autoClear(final int autoClearDay) {
-        FileUtil.deleteFilesInDirWithFilter(getGlobalPath(), new FileFilter() {
-
-            @Override
-            public boolean accept(File pathname) {
-                String s = FileUtil.getFileNameWithoutExtension(pathname);
-                int day = autoClearDay < 0 ? autoClearDay : -1 * autoClearDay;
-                String date = "crash-" + getOtherDay(day);
-                return date.compareTo(s) >= 0;
-            }
-        });
-
-    }
-
-    private static String getOtherDay(int day) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(new Date());
-        calendar.add(Calendar.DAY_OF_YEAR, day);
-        return formatter.format(calendar.getTime());
+        LogRetention.getInstance().register(LogTypeEnum.Crash, getGlobalPath(), Math.max(0, autoClearDay));
     }
 
 
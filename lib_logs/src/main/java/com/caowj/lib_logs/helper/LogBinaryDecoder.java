@@ -0,0 +1,287 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二进制格式日志文件的解码，还原成与文本格式相同的日志行
+ * <p>
+ * 文件结构：
+ * <pre>
+ * 文件头：MAGIC("LGB1") | 版本(1字节) | PID(varint) | 进程名长度(varint) | 进程名(UTF-8)
+ * 数据块：0xFE | 基准时间(8字节，毫秒) | 日志记录...
+ * 日志记录：头(1字节：低3位为级别，第4位表示新TAG) | TAG | 时间差(zigzag varint，毫秒) | 内容长度(varint) | 内容(UTF-8)
+ * TAG：新TAG为 长度(varint) + UTF-8，并按出现顺序编号；否则为块内编号(varint)
+ * </pre>
+ * 每个数据块独立解码，TAG编号和时间差只在块内有效，写入文件时每次落盘都会开始新的数据块，
+ * 所以文件中任意一个数据块都可以作为解码起点。
+ * <p>
+ * 只依赖JDK，可以在PC上解码：java com.caowj.lib_logs.helper.LogBinaryDecoder &lt;日志文件&gt; [输出文件]
+ *
+ * @see LogBuilder#logFormat(int)
+ */
+public class LogBinaryDecoder extends LogFileReader {
+
+    public static final String EXTENSION = ".lgb";
+    static final byte[] MAGIC = {'L', 'G', 'B', '1'};
+    static final int VERSION = 1;
+    static final int BLOCK_MARKER = 0xFE;
+    static final int BLOCK_HEADER_SIZE = 9;
+    static final int FLAG_NEW_TAG = 0x08;
+    static final int PRIORITY_MASK = 0x07;
+    // 位置的低12位为块内的记录序号，高位为数据块的偏移量
+    static final int RECORD_INDEX_BITS = 12;
+    static final int MAX_BLOCK_RECORDS = (1 << RECORD_INDEX_BITS) - 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final LogInput mInput;
+    private final LogEncoder mEncoder = new LogEncoder();
+    private final List<String> mTags = new ArrayList<>();
+    private byte[] mContent = new byte[256];
+
+    private String mProcessInfo;
+    private long mBlockOffset;
+    private int mRecordIndex;
+    private long mLastTime;
+
+    public LogBinaryDecoder(String path) throws IOException {
+        this(LogInput.open(path));
+    }
+
+    LogBinaryDecoder(LogInput input) throws IOException {
+        mInput = input;
+        try {
+            seek(0);
+        } catch (IOException e) {
+            mInput.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 是否是二进制格式的日志文件(包括压缩后的)
+     */
+    public static boolean isBinary(String path) {
+        LogInput input = null;
+        try {
+            input = LogInput.open(path);
+            return isBinary(input);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+
+                }
+            }
+        }
+    }
+
+    static boolean isBinary(LogInput input) throws IOException {
+        input.seek(0);
+        for (byte b : MAGIC) {
+            if (input.read() != (b & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 文件头
+     */
+    static byte[] fileHeader(int pid, String processName) {
+        byte[] name = String.valueOf(processName).getBytes(UTF_8);
+        byte[] header = new byte[MAGIC.length + 1 + 5 + 5 + name.length];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        int offset = MAGIC.length;
+        header[offset++] = VERSION;
+        offset = putVarint(header, offset, pid);
+        offset = putVarint(header, offset, name.length);
+        System.arraycopy(name, 0, header, offset, name.length);
+        return Arrays.copyOf(header, offset + name.length);
+    }
+
+    private static int putVarint(byte[] bytes, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        try {
+            while (true) {
+                int head = mInput.read();
+                if (head < 0) {
+                    return null;
+                }
+                if (head == BLOCK_MARKER) {
+                    readBlockHeader();
+                    continue;
+                }
+                StringBuilder line = readRecord(head, true);
+                // 去掉换行符
+                line.setLength(line.length() - 1);
+                return line.toString();
+            }
+        } catch (EOFException e) {
+            // 最后一条记录没有写完整
+            return null;
+        }
+    }
+
+    @Override
+    public long position() {
+        return mBlockOffset == 0 ? 0 : (mBlockOffset << RECORD_INDEX_BITS) | mRecordIndex;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        if (position == 0) {
+            mInput.seek(0);
+            readFileHeader();
+            mBlockOffset = 0;
+            mRecordIndex = 0;
+            mTags.clear();
+            return;
+        }
+        long blockOffset = position >>> RECORD_INDEX_BITS;
+        int recordIndex = (int) (position & MAX_BLOCK_RECORDS);
+        mInput.seek(blockOffset);
+        if (mInput.read() != BLOCK_MARKER) {
+            throw new IOException("invalid position " + position);
+        }
+        readBlockHeader();
+        try {
+            while (mRecordIndex < recordIndex) {
+                int head = mInput.read();
+                if (head < 0) {
+                    return;
+                }
+                readRecord(head, false);
+            }
+        } catch (EOFException e) {
+            // 最后一条记录没有写完整
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    private void readFileHeader() throws IOException {
+        for (byte b : MAGIC) {
+            if (mInput.read() != (b & 0xFF)) {
+                throw new IOException("not a binary log file");
+            }
+        }
+        int version = mInput.read();
+        if (version != VERSION) {
+            throw new IOException("unsupported version " + version);
+        }
+        int pid = (int) readVarint();
+        String processName = readString((int) readVarint());
+        mProcessInfo = " " + pid + "-" + processName + "/? ";
+    }
+
+    private void readBlockHeader() throws IOException {
+        mBlockOffset = mInput.offset() - 1;
+        long time = 0;
+        for (int i = 0; i < 8; i++) {
+            time = (time << 8) | mInput.readByte();
+        }
+        mLastTime = time;
+        mRecordIndex = 0;
+        mTags.clear();
+    }
+
+    /**
+     * 读取一条记录
+     *
+     * @param format 是否需要格式化为文本，跳过记录时不需要
+     */
+    private StringBuilder readRecord(int head, boolean format) throws IOException {
+        String tag;
+        if ((head & FLAG_NEW_TAG) != 0) {
+            tag = readString((int) readVarint());
+            mTags.add(tag);
+        } else {
+            int id = (int) readVarint();
+            tag = id < mTags.size() ? mTags.get(id) : "?";
+        }
+        long delta = readVarint();
+        mLastTime += (delta >>> 1) ^ -(delta & 1);
+        int length = (int) readVarint();
+        mRecordIndex++;
+        if (!format) {
+            mInput.skip(length);
+            return null;
+        }
+        String content = readString(length);
+        LogPriority[] priorities = LogPriority.values();
+        int priority = Math.min(head & PRIORITY_MASK, priorities.length - 1);
+        return mEncoder.format(mLastTime, mProcessInfo, priorities[priority], tag, content);
+    }
+
+    private String readString(int length) throws IOException {
+        if (mContent.length < length) {
+            mContent = new byte[Math.max(length, mContent.length * 2)];
+        }
+        mInput.readFully(mContent, length);
+        return new String(mContent, 0, length, UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = mInput.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * 命令行解码：LogBinaryDecoder &lt;日志文件&gt; [输出文件]，不指定输出文件时输出到控制台
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: LogBinaryDecoder <log file> [output file]");
+            return;
+        }
+        LogFileReader reader = LogFileReader.open(args[0]);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(args.length > 1
+                ? new FileOutputStream(new File(args[1])) : System.out, UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.flush();
+            if (args.length > 1) {
+                writer.close();
+            }
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 二进制格式日志的编码，只在写文件线程中使用，每个日志文件一个实例
+ * <p>
+ * 格式见{@link LogBinaryDecoder}。每条记录先在{@link LogFile}中申请连续的空间再写入，
+ * 文件每次落盘({@link LogFile#generation()}变化)后开始新的数据块，保证数据块不会跨文件，
+ * mmap暂存区中恢复的数据也总是从数据块开头开始。
+ */
+class LogBinaryEncoder {
+
+    // 记录头(1) + 时间差(最多10) + TAG编号或长度(最多5) + 内容长度(最多5)
+    private static final int RECORD_OVERHEAD = 1 + 10 + 5 + 5;
+    // 缓存的TAG编码结果的上限，超过后清空
+    private static final int MAX_CACHED_TAGS = 1024;
+
+    private final LogFile mLogFile;
+    // 当前数据块中TAG的编号
+    private final Map<String, Integer> mTagIds = new HashMap<>();
+    // TAG的UTF-8编码结果，跨数据块复用
+    private final Map<String, byte[]> mTagBytes = new HashMap<>();
+    private long mBlockGeneration = -1;
+    private long mLastTime;
+    private int mRecordCount;
+    // 当前数据块在LogFile当前批次中的偏移量，用于行索引
+    private int mBlockOffset;
+
+    LogBinaryEncoder(LogFile logFile) {
+        mLogFile = logFile;
+    }
+
+    void write(LogEncoder encoder, long time, LogPriority priority, String tag, String content) throws IOException {
+        byte[] tagBytes = tagBytes(tag);
+        ByteBuffer contentBytes = encoder.utf8(content);
+        int overhead = LogBinaryDecoder.BLOCK_HEADER_SIZE + RECORD_OVERHEAD + tagBytes.length;
+        int maxContent = mLogFile.maxContiguous() - overhead;
+        if (contentBytes.remaining() > maxContent) {
+            // 单条记录不能超过一块缓冲区，超长的内容被截断
+            contentBytes.limit(contentBytes.position() + Math.max(0, maxContent));
+        }
+
+        ByteBuffer out = mLogFile.buffer(overhead + contentBytes.remaining());
+        if (mBlockGeneration != mLogFile.generation() || mRecordCount >= LogBinaryDecoder.MAX_BLOCK_RECORDS) {
+            startBlock(out, time);
+        }
+        mLogFile.markRecord(mBlockOffset, mRecordCount, time);
+
+        Integer tagId = mTagIds.get(tag);
+        if (tagId == null) {
+            mTagIds.put(tag, mTagIds.size());
+            out.put((byte) (priority.ordinal() | LogBinaryDecoder.FLAG_NEW_TAG));
+            putVarint(out, tagBytes.length);
+            out.put(tagBytes);
+        } else {
+            out.put((byte) priority.ordinal());
+            putVarint(out, tagId);
+        }
+        long delta = time - mLastTime;
+        putVarint(out, (delta << 1) ^ (delta >> 63));
+        mLastTime = time;
+        putVarint(out, contentBytes.remaining());
+        out.put(contentBytes);
+        mRecordCount++;
+    }
+
+    private void startBlock(ByteBuffer out, long time) {
+        mBlockOffset = mLogFile.stagedLength();
+        out.put((byte) LogBinaryDecoder.BLOCK_MARKER);
+        out.putLong(time);
+        mLastTime = time;
+        mRecordCount = 0;
+        mTagIds.clear();
+        mBlockGeneration = mLogFile.generation();
+    }
+
+    private byte[] tagBytes(String tag) {
+        byte[] bytes = mTagBytes.get(tag);
+        if (bytes == null) {
+            if (mTagBytes.size() >= MAX_CACHED_TAGS) {
+                mTagBytes.clear();
+            }
+            bytes = tag.getBytes(StandardCharsets.UTF_8);
+            mTagBytes.put(tag, bytes);
+        }
+        return bytes;
+    }
+
+    private static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
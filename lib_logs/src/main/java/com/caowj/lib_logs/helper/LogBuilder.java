@@ -5,6 +5,8 @@ import android.support.annotation.IntDef;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * 日志配置构建
@@ -18,6 +20,11 @@ public class LogBuilder {
     static final int LOG_FILE_MAX_SIZE = Constance.LOG_FILE_MAX_SIZE; //10M
     static final int LOG_FILE_MIN_SIZE = 1024 ; //1KB
     static final int LOG_FILE_DEFAULT_SIZE = Constance.LOG_FILE_MAX_SIZE ; //10M
+    static final int RING_BUFFER_DEFAULT_SIZE = 4096;
+    static final int BATCH_DEFAULT_SIZE = 256;
+    static final long BATCH_DEFAULT_LATENCY_US = 1000; //1ms
+    static final long DROP_SUMMARY_DEFAULT_INTERVAL_MS = 10 * 1000; //10s
+    static final long REPEAT_COLLAPSE_DEFAULT_WINDOW_MS = 10 * 1000; //10s
     private boolean recordLog;
     private boolean recordJavaCrash;
     private boolean showJavaCrashDialog = true;
@@ -28,6 +35,23 @@ public class LogBuilder {
     private String expr;
     private int maxFileSize = LOG_FILE_DEFAULT_SIZE;
     private int logSource = LogSource.LegoLog;
+    private int ringBufferSize = RING_BUFFER_DEFAULT_SIZE;
+    private int waitStrategy = WaitStrategy.PARK;
+    private boolean mmapBuffer = true;
+    private int batchSize = BATCH_DEFAULT_SIZE;
+    private long batchLatencyUs = BATCH_DEFAULT_LATENCY_US;
+    private boolean overloadShedding = true;
+    private Map<String, LogOverloadPolicy.RateLimit> tagRateLimits;
+    private LogOverloadPolicy.RateLimit defaultRateLimit;
+    private long dropSummaryIntervalMs = DROP_SUMMARY_DEFAULT_INTERVAL_MS;
+    private long repeatCollapseWindowMs = REPEAT_COLLAPSE_DEFAULT_WINDOW_MS;
+    private int logFormat = LogFormat.TEXT;
+    private boolean compressRotated = true;
+    private boolean lineIndex = true;
+    private boolean searchIndex = true;
+    private long totalQuota = LogRetention.TOTAL_QUOTA_DEFAULT;
+    private Map<LogTypeEnum, Long> minQuotas;
+    private Map<String, LogTypeEnum> logcatRoutes;
 
     private LogBuilder() {
 
@@ -160,12 +184,249 @@ public class LogBuilder {
     }
 
 
+    /**
+     * LegoLog日志缓冲区容量(条数)，默认4096，会向上取整为2的幂，范围[64, 65536]
+     * <p>
+     * 缓冲区写满时低级别日志会被丢弃，不会阻塞调用线程，见{@link #overloadShedding(boolean)}
+     *
+     * @param size 缓冲区可容纳的日志条数
+     * @return LogBuilder
+     */
+    public LogBuilder ringBufferSize(int size) {
+        this.ringBufferSize = size;
+        return this;
+    }
+
+    /**
+     * 写文件线程在缓冲区为空时的等待策略，默认{@link WaitStrategy#PARK}
+     *
+     * @param value 等待策略
+     * @return LogBuilder
+     */
+    public LogBuilder waitStrategy(@WaitStrategy int value) {
+        this.waitStrategy = value;
+        return this;
+    }
+
+
+    /**
+     * 是否使用mmap暂存区缓存LegoLog日志(默认开启)
+     * <p>
+     * 日志先写入映射内存再整块写入文件，进程被杀时未写入文件的日志会在下次启动时恢复
+     *
+     * @param value 开启与否
+     * @return LogBuilder
+     */
+    public LogBuilder mmapBuffer(boolean value) {
+        this.mmapBuffer = value;
+        return this;
+    }
+
+
+    /**
+     * 写文件线程每批最多合并写入的日志条数，默认256
+     * <p>
+     * 一批日志编码到同一块缓冲区中，每个文件只调用一次写入
+     *
+     * @param size &gt;=1
+     * @return LogBuilder
+     */
+    public LogBuilder batchSize(int size) {
+        this.batchSize = Math.max(1, size);
+        return this;
+    }
+
+    /**
+     * 写文件线程凑满一批日志的最长等待时间(微秒)，默认1000us；0表示不等待，取完缓冲区中已有的日志即写入
+     *
+     * @param micros &gt;=0
+     * @return LogBuilder
+     */
+    public LogBuilder batchLatency(long micros) {
+        this.batchLatencyUs = Math.max(0, micros);
+        return this;
+    }
+
+
+    /**
+     * 缓冲区占用过高时是否按级别丢弃日志(默认开启)
+     * <p>
+     * 占用超过1/2丢弃Verbose，超过3/4丢弃Debug，超过7/8丢弃Info和Warn；
+     * Error及强制记录(isRecord=true)的日志不会被丢弃
+     *
+     * @param value 开启与否
+     * @return LogBuilder
+     */
+    public LogBuilder overloadShedding(boolean value) {
+        this.overloadShedding = value;
+        return this;
+    }
+
+    /**
+     * 指定TAG的限流(令牌桶)，超出的日志被丢弃；Error及强制记录的日志不受限制
+     *
+     * @param tag            日志TAG
+     * @param linesPerSecond 每秒允许写入的条数
+     * @param burst          突发允许写入的最大条数
+     * @return LogBuilder
+     */
+    public LogBuilder rateLimit(String tag, int linesPerSecond, int burst) {
+        if (tagRateLimits == null) {
+            tagRateLimits = new HashMap<>();
+        }
+        tagRateLimits.put(tag, new LogOverloadPolicy.RateLimit(linesPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * 未通过{@link #rateLimit(String, int, int)}单独配置的TAG的限流，每个TAG各自计算，默认不限流
+     *
+     * @param linesPerSecond 每秒允许写入的条数，&lt;=0 表示不限流
+     * @param burst          突发允许写入的最大条数
+     * @return LogBuilder
+     */
+    public LogBuilder defaultRateLimit(int linesPerSecond, int burst) {
+        this.defaultRateLimit = linesPerSecond > 0 ? new LogOverloadPolicy.RateLimit(linesPerSecond, burst) : null;
+        return this;
+    }
+
+    /**
+     * 丢弃汇总("N lines dropped for tag X")的写入间隔(秒)，默认10秒
+     *
+     * @param seconds &gt;=1
+     * @return LogBuilder
+     */
+    public LogBuilder dropSummaryInterval(long seconds) {
+        this.dropSummaryIntervalMs = Math.max(1, seconds) * 1000;
+        return this;
+    }
+
+
+    /**
+     * 连续重复日志合并的时间窗口(毫秒)，默认10秒；0表示不合并
+     * <p>
+     * TAG、级别、内容都相同的连续日志在窗口内只写第一条，之后写一行"last message repeated N times"
+     *
+     * @param millis &gt;=0
+     * @return LogBuilder
+     */
+    public LogBuilder repeatCollapseWindow(long millis) {
+        this.repeatCollapseWindowMs = Math.max(0, millis);
+        return this;
+    }
+
+
+    /**
+     * LegoLog日志文件的格式，默认{@link LogFormat#TEXT}
+     * <p>
+     * 二进制格式的文件可以在日志查看页面直接查看，也可以在PC上用{@link LogBinaryDecoder}还原成文本
+     *
+     * @param value 日志格式
+     * @return LogBuilder
+     */
+    public LogBuilder logFormat(@LogFormat int value) {
+        this.logFormat = value;
+        return this;
+    }
+
+
+    /**
+     * 日志文件达到最大尺寸切分后，是否在后台压缩为.gz文件(默认开启)
+     * <p>
+     * 压缩后的文件可以在日志查看页面直接查看
+     *
+     * @param value 开启与否
+     * @return LogBuilder
+     */
+    public LogBuilder compressRotated(boolean value) {
+        this.compressRotated = value;
+        return this;
+    }
+
+
+    /**
+     * 日志文件(包括logcat的日志文件)是否同时生成行索引(默认开启)
+     * <p>
+     * 每256行记录一次行号、位置和时间，日志查看页面可以直接跳转到任意行或时间，并立即显示总行数
+     *
+     * @param value 开启与否
+     * @return LogBuilder
+     */
+    public LogBuilder lineIndex(boolean value) {
+        this.lineIndex = value;
+        return this;
+    }
+
+
+    /**
+     * 日志文件切分后是否在后台生成搜索索引(默认开启)
+     * <p>
+     * 日志查看页面搜索时只读取可能包含关键字的部分，不需要扫描整个文件
+     *
+     * @param value 开启与否
+     * @return LogBuilder
+     */
+    public LogBuilder searchIndex(boolean value) {
+        this.searchIndex = value;
+        return this;
+    }
+
+
+    /**
+     * logcat中TAG包含tag的行写入logType对应的日志文件，其余写入Logcat文件
+     * <p>
+     * 只从Logcat记录({@link LogSource#Logcat})时，网络日志默认写入Net文件
+     *
+     * @param tag     TAG中包含的字符串
+     * @param logType 日志类型
+     * @return LogBuilder
+     */
+    public LogBuilder logcatRoute(String tag, LogTypeEnum logType) {
+        if (logcatRoutes == null) {
+            logcatRoutes = new HashMap<>();
+        }
+        logcatRoutes.put(tag, logType);
+        return this;
+    }
+
+
+    /**
+     * 所有日志(包括崩溃日志)的总大小配额，默认500M
+     * <p>
+     * 超过配额时在后台从最早的文件开始删除，正在写入的文件不删除
+     *
+     * @param bytes 字节数，0表示不限制
+     * @return LogBuilder
+     */
+    public LogBuilder totalQuota(long bytes) {
+        this.totalQuota = Math.max(0, bytes);
+        return this;
+    }
+
+
+    /**
+     * 某种日志的最小保留量，按总配额删除时不会低于这个大小；崩溃日志默认5M
+     *
+     * @param logType 日志类型
+     * @param bytes   字节数
+     * @return LogBuilder
+     */
+    public LogBuilder minQuota(LogTypeEnum logType, long bytes) {
+        if (minQuotas == null) {
+            minQuotas = new HashMap<>();
+        }
+        minQuotas.put(logType, Math.max(0, bytes));
+        return this;
+    }
+
+
     /**
      * 设置参数，开启日志记录
      *
      * @param context Android Content
      */
     public void build(Context context) {
+        LogRetention.getInstance().setQuota(totalQuota, minQuotas);
         if (recordJavaCrash) {
             LegoCrashHandler handler = LegoCrashHandler.getInstance().init(context, day, this.showJavaCrashDialog);
             if (crashCallback != null) {
@@ -182,6 +443,21 @@ public class LogBuilder {
             logcatConfig.expr = expr;
             logcatConfig.maxFileSize = maxFileSize;
             logcatConfig.logSource = logSource;
+            logcatConfig.ringBufferSize = ringBufferSize;
+            logcatConfig.waitStrategy = waitStrategy;
+            logcatConfig.mmapBuffer = mmapBuffer;
+            logcatConfig.batchSize = batchSize;
+            logcatConfig.batchLatencyUs = batchLatencyUs;
+            logcatConfig.overloadShedding = overloadShedding;
+            logcatConfig.tagRateLimits = tagRateLimits;
+            logcatConfig.defaultRateLimit = defaultRateLimit;
+            logcatConfig.dropSummaryIntervalMs = dropSummaryIntervalMs;
+            logcatConfig.repeatCollapseWindowMs = repeatCollapseWindowMs;
+            logcatConfig.logFormat = logFormat;
+            logcatConfig.compressRotated = compressRotated;
+            logcatConfig.lineIndex = lineIndex;
+            logcatConfig.searchIndex = searchIndex;
+            logcatConfig.logcatRoutes = logcatRoutes;
             new LogcatRecord(context).startRecord(logcatConfig);
 
 
@@ -208,4 +484,34 @@ public class LogBuilder {
         int LegoLog =2;
     }
 
+    @IntDef({WaitStrategy.SPIN, WaitStrategy.YIELD, WaitStrategy.PARK})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface WaitStrategy {
+        /**
+         * 忙等待，延迟最低，但会一直占用一个CPU核心
+         */
+        int SPIN = 0;
+        /**
+         * 自旋若干次后让出CPU
+         */
+        int YIELD = 1;
+        /**
+         * 挂起线程，有日志写入时唤醒，最省电
+         */
+        int PARK = 2;
+    }
+
+    @IntDef({LogFormat.TEXT, LogFormat.BINARY})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface LogFormat {
+        /**
+         * 文本格式，每行一条日志
+         */
+        int TEXT = 0;
+        /**
+         * 二进制格式，时间差、TAG编号压缩存储，文件更小
+         */
+        int BINARY = 1;
+    }
+
 }
@@ -0,0 +1,371 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 日志目录的内存目录表，每个日志目录一个实例
+ * <p>
+ * 第一次使用时扫描一次目录，之后新建、切分、压缩和删除文件时增量更新，写文件线程新建文件不再遍历目录；
+ * 写日志、清理过期日志和日志列表页面共用同一份数据。
+ * 其他进程写入的文件只在下次扫描时加入，新建文件时会检查文件是否已存在，不会覆盖。
+ * <p>
+ * 日志文件名：日期_序号_开始时间[-结束时间].扩展名[.gz]，如 2020-01-01_001_10-00-00-10-30-00.log.gz
+ */
+public class LogCatalog {
+
+    // 日期_序号_开始时间[-结束时间]
+    private static final Pattern FILE_NAME_PATTERN = Pattern.compile(
+            "(\\d{4}-\\d{1,2}-\\d{1,2})_(\\d+)_(\\d{1,2}-\\d{1,2}-\\d{1,2})(?:-(\\d{1,2}-\\d{1,2}-\\d{1,2}))?\\..*");
+    private static final Map<String, LogCatalog> sCatalogs = new HashMap<>();
+
+    private final String mFolderPath;
+    // 按开始时间排序，最早的在前
+    private final List<Entry> mEntries = new ArrayList<>();
+    // 每天的下一个序号
+    private final Map<String, Integer> mNextSequences = new HashMap<>();
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("HH-mm-ss");
+    private final SimpleDateFormat mDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss");
+
+    /**
+     * 目录中的一个日志文件
+     */
+    public static class Entry {
+        private final String mFolderPath;
+        private String mFileName;
+        private final String mDate;
+        private final int mSequence;
+        private final long mStartTime;
+        private long mEndTime;
+        private volatile long mSize;
+        // 正在写入，清理时跳过
+        private boolean mActive;
+
+        Entry(String folderPath, String fileName, String date, int sequence, long startTime, long endTime, long size) {
+            mFolderPath = folderPath;
+            mFileName = fileName;
+            mDate = date;
+            mSequence = sequence;
+            mStartTime = startTime;
+            mEndTime = endTime;
+            mSize = size;
+        }
+
+        Entry copy() {
+            Entry entry = new Entry(mFolderPath, mFileName, mDate, mSequence, mStartTime, mEndTime, mSize);
+            entry.mActive = mActive;
+            return entry;
+        }
+
+        public String fileName() {
+            return mFileName;
+        }
+
+        public String path() {
+            return mFolderPath + File.separator + mFileName;
+        }
+
+        /**
+         * 日期，yyyy-MM-dd
+         */
+        public String date() {
+            return mDate;
+        }
+
+        /**
+         * 当天的序号，文件名不符合日志文件名格式时为0
+         */
+        public int sequence() {
+            return mSequence;
+        }
+
+        public long startTime() {
+            return mStartTime;
+        }
+
+        /**
+         * 结束时间，正在写入的文件为0
+         */
+        public long endTime() {
+            return mEndTime;
+        }
+
+        /**
+         * 文件大小，正在写入的文件每次落盘后更新
+         */
+        public long size() {
+            return mSize;
+        }
+
+        void setSize(long size) {
+            mSize = size;
+        }
+
+        /**
+         * 是否是本进程正在写入的文件
+         */
+        boolean active() {
+            return mActive;
+        }
+    }
+
+    private LogCatalog(String folderPath) {
+        mFolderPath = folderPath;
+    }
+
+    /**
+     * 日志目录的目录表，第一次调用时扫描目录
+     *
+     * @param folderPath 日志目录
+     */
+    public static LogCatalog get(String folderPath) {
+        // 去掉末尾的分隔符，同一目录只有一个实例
+        folderPath = new File(folderPath).getPath();
+        synchronized (sCatalogs) {
+            LogCatalog catalog = sCatalogs.get(folderPath);
+            if (catalog == null) {
+                catalog = new LogCatalog(folderPath);
+                catalog.scan();
+                sCatalogs.put(folderPath, catalog);
+            }
+            return catalog;
+        }
+    }
+
+    /**
+     * 已经扫描过的目录表，没有时返回null，不触发扫描
+     */
+    private static LogCatalog peek(String folderPath) {
+        synchronized (sCatalogs) {
+            return sCatalogs.get(new File(folderPath).getPath());
+        }
+    }
+
+    /**
+     * 目录外新建了日志文件(如崩溃日志)，已经扫描过的目录表加入该文件
+     */
+    static void onFileCreated(String path) {
+        File file = new File(path);
+        LogCatalog catalog = peek(file.getParent());
+        if (catalog != null) {
+            catalog.add(file);
+        }
+    }
+
+    /**
+     * 日志文件被重命名(如压缩后)
+     */
+    static void onFileRenamed(String oldPath, String newPath) {
+        LogCatalog catalog = peek(new File(oldPath).getParent());
+        if (catalog != null) {
+            catalog.renamed(new File(oldPath).getName(), new File(newPath));
+        }
+    }
+
+    /**
+     * 重新扫描目录，加入其他进程新建的文件，去掉已不存在的文件
+     */
+    public synchronized void scan() {
+        File[] files = new File(mFolderPath).listFiles();
+        // 保留已有的记录，写文件线程持有的记录继续有效
+        Map<String, Entry> existing = new HashMap<>();
+        for (Entry entry : mEntries) {
+            existing.put(entry.mFileName, entry);
+        }
+        mEntries.clear();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Entry entry = existing.get(file.getName());
+            if (entry != null) {
+                entry.mSize = file.length();
+                mEntries.add(entry);
+            } else {
+                addEntry(file);
+            }
+        }
+        sort();
+    }
+
+    private synchronized void add(File file) {
+        if (find(file.getName()) < 0 && addEntry(file)) {
+            sort();
+        }
+    }
+
+    private boolean addEntry(File file) {
+        String name = file.getName();
+        if (file.isDirectory() || LogIndex.isIndexFile(name) || LogCompressor.isTempFile(name)) {
+            return false;
+        }
+        mEntries.add(parse(name, file.lastModified(), file.length()));
+        return true;
+    }
+
+    /**
+     * 从文件名中解析日期、序号和起止时间，不符合日志文件名格式时使用修改时间
+     */
+    private Entry parse(String fileName, long lastModified, long size) {
+        Matcher matcher = FILE_NAME_PATTERN.matcher(fileName);
+        if (matcher.matches()) {
+            String date = matcher.group(1);
+            int sequence = Integer.parseInt(matcher.group(2));
+            try {
+                long startTime = mDateTimeFormat.parse(date + " " + matcher.group(3)).getTime();
+                long endTime = 0;
+                if (matcher.group(4) != null) {
+                    endTime = mDateTimeFormat.parse(date + " " + matcher.group(4)).getTime();
+                    if (endTime < startTime) {
+                        // 跨天
+                        endTime += 24 * 60 * 60 * 1000L;
+                    }
+                }
+                Integer next = mNextSequences.get(date);
+                if (next == null || next <= sequence) {
+                    mNextSequences.put(date, sequence + 1);
+                }
+                return new Entry(mFolderPath, fileName, date, sequence, startTime, endTime, size);
+            } catch (ParseException e) {
+                // 按普通文件处理
+            }
+        }
+        return new Entry(mFolderPath, fileName, mDateFormat.format(new Date(lastModified)), 0, lastModified, lastModified, size);
+    }
+
+    private void sort() {
+        Collections.sort(mEntries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                if (o1.mStartTime != o2.mStartTime) {
+                    return o1.mStartTime < o2.mStartTime ? -1 : 1;
+                }
+                if (o1.mSequence != o2.mSequence) {
+                    return o1.mSequence < o2.mSequence ? -1 : 1;
+                }
+                return o1.mFileName.compareTo(o2.mFileName);
+            }
+        });
+    }
+
+    private int find(String fileName) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (mEntries.get(i).mFileName.equals(fileName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 新建日志文件：当天的下一个序号，开始时间为当前时间
+     *
+     * @param extension 文件扩展名，如".log"
+     */
+    synchronized Entry create(String extension) throws FileNotFoundException {
+        File folder = new File(mFolderPath);
+        if (!folder.exists() && !folder.mkdirs()) {
+            // 当第一次启用应用时，没有读取SD卡的权限，就会创建失败
+            throw new FileNotFoundException(mFolderPath + "创建失败");
+        }
+        Date now = new Date();
+        String date = mDateFormat.format(now);
+        String time = mTimeFormat.format(now);
+        Integer next = mNextSequences.get(date);
+        int sequence = next == null ? 1 : next;
+        String fileName;
+        do {
+            // 其他进程可能已经使用了这个序号
+            fileName = date + "_" + String.format("%03d", sequence) + "_" + time + extension;
+            sequence++;
+        } while (new File(folder, fileName).exists());
+        mNextSequences.put(date, sequence);
+        Entry entry = new Entry(mFolderPath, fileName, date, sequence - 1, now.getTime() / 1000 * 1000, 0, 0);
+        entry.mActive = true;
+        mEntries.add(entry);
+        return entry;
+    }
+
+    /**
+     * 文件写满后在文件名上追加结束时间
+     *
+     * @param path 日志文件路径
+     * @return 重命名后的文件路径，失败时返回原路径
+     */
+    synchronized String appendEndTime(String path) {
+        File file = new File(path);
+        String name = file.getName();
+        int extensionIndex = name.indexOf('.');
+        if (extensionIndex < 0) {
+            extensionIndex = name.length();
+        }
+        Date now = new Date();
+        String newName = name.substring(0, extensionIndex) + "-" + mTimeFormat.format(now) + name.substring(extensionIndex);
+        File newFile = new File(file.getParentFile(), newName);
+        if (!file.renameTo(newFile)) {
+            return path;
+        }
+        int index = find(name);
+        if (index >= 0) {
+            Entry entry = mEntries.get(index);
+            entry.mFileName = newName;
+            entry.mEndTime = now.getTime();
+            entry.mActive = false;
+            entry.mSize = newFile.length();
+        } else {
+            addEntry(newFile);
+            sort();
+        }
+        return newFile.getPath();
+    }
+
+    private synchronized void renamed(String oldName, File newFile) {
+        int index = find(oldName);
+        if (index >= 0) {
+            Entry entry = mEntries.get(index);
+            entry.mFileName = newFile.getName();
+            entry.mSize = newFile.length();
+        } else {
+            add(newFile);
+        }
+    }
+
+    /**
+     * 删除日志文件及其索引文件
+     *
+     * @param fileName 文件名
+     */
+    public synchronized void delete(String fileName) {
+        int index = find(fileName);
+        if (index >= 0) {
+            mEntries.remove(index);
+        }
+        String path = mFolderPath + File.separator + fileName;
+        new File(path).delete();
+        LogIndex.delete(path);
+    }
+
+    /**
+     * 所有文件的快照，最早的在前
+     */
+    public synchronized List<Entry> entries() {
+        List<Entry> entries = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries) {
+            entries.add(entry.copy());
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,206 @@
+package com.caowj.lib_logs.helper;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 切分后的日志文件在后台压缩(gzip)
+ * <p>
+ * 在低优先级的单线程中流式压缩，只占用固定大小的缓冲区；先写入临时文件，完成后再替换原文件，
+ * 压缩过程中进程被杀不会丢失日志，下次启动时重新压缩。
+ * 读取时{@link LogFileReader}会自动解压，日志查看页面不需要区分。
+ *
+ * @see LogBuilder#compressRotated(boolean)
+ */
+public class LogCompressor {
+
+    static final String TAG = "LogCompressor";
+    public static final String EXTENSION = ".gz";
+    static final String TEMP_EXTENSION = ".gz.tmp";
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    // 已经切分(文件名带结束时间)的日志文件
+    static final Pattern ROTATED_FILE_PATTERN =
+            Pattern.compile(".*_\\d{1,2}-\\d{1,2}-\\d{1,2}-\\d{1,2}-\\d{1,2}-\\d{1,2}\\.(log|lgb)");
+
+    private static ExecutorService sExecutor;
+    // 等待压缩或正在压缩的文件
+    private static final Set<String> sPendingFiles = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * 是否是压缩后的日志文件
+     */
+    public static boolean isCompressed(String path) {
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(path);
+            int b1 = inputStream.read();
+            int b2 = inputStream.read();
+            return b1 >= 0 && b2 >= 0 && (b1 | (b2 << 8)) == GZIP_MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+
+                }
+            }
+        }
+    }
+
+    /**
+     * 是否是压缩过程中的临时文件，日志列表中不显示
+     */
+    public static boolean isTempFile(String fileName) {
+        return fileName.endsWith(TEMP_EXTENSION);
+    }
+
+    /**
+     * 在后台压缩一个已切分的日志文件
+     *
+     * @param path 日志文件路径
+     */
+    static void compressAsync(final String path) {
+        if (path == null || !sPendingFiles.add(path)) {
+            return;
+        }
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compress(new File(path));
+                } finally {
+                    sPendingFiles.remove(path);
+                }
+            }
+        });
+    }
+
+    /**
+     * 压缩目录中尚未压缩的已切分文件，清理上次未完成的临时文件
+     *
+     * @param folderPath 日志目录
+     */
+    static void compressRotatedAsync(final String folderPath) {
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = new File(folderPath).listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    String path = file.getPath();
+                    if (isTempFile(path)) {
+                        if (!sPendingFiles.contains(path.substring(0, path.length() - TEMP_EXTENSION.length()))) {
+                            file.delete();
+                        }
+                    } else if (ROTATED_FILE_PATTERN.matcher(file.getName()).matches()) {
+                        compressAsync(path);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 后台低优先级的单线程，压缩和生成搜索索引({@link LogSearchIndex})都在这里排队
+     */
+    static synchronized ExecutorService executor() {
+        if (sExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    /**
+     * 压缩为 原文件名.gz，成功后删除原文件
+     *
+     * @return true-压缩成功
+     */
+    static boolean compress(File file) {
+        if (!file.exists() || isCompressed(file.getPath())) {
+            return false;
+        }
+        File tempFile = new File(file.getPath() + TEMP_EXTENSION);
+        File targetFile = new File(file.getPath() + EXTENSION);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream inputStream = null;
+        FileOutputStream fileOutputStream = null;
+        GZIPOutputStream outputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            fileOutputStream = new FileOutputStream(tempFile);
+            outputStream = new GZIPOutputStream(fileOutputStream, BUFFER_SIZE);
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            outputStream.finish();
+            fileOutputStream.getFD().sync();
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(targetFile)) {
+                tempFile.delete();
+                return false;
+            }
+            file.delete();
+            LogCatalog.onFileRenamed(file.getPath(), targetFile.getPath());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "compress 异常", e);
+            tempFile.delete();
+            return false;
+        } finally {
+            closeQuietly(inputStream);
+            if (outputStream != null) {
+                closeQuietly(outputStream);
+            } else {
+                closeQuietly(fileOutputStream);
+            }
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+
+            }
+        }
+    }
+}
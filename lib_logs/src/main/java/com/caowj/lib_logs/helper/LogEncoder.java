@@ -0,0 +1,175 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+
+/**
+ * 日志行编码
+ * <p>
+ * 每个线程一个实例({@link #get()})，复用StringBuilder、字符数组和UTF-8编码器，
+ * 日志行直接编码到{@link LogFile}的批量缓冲区中，不再产生中间String和byte[]。
+ * 时间前缀"yyyy-MM-dd HH:mm:ss."按秒缓存，同一秒内只更新毫秒，
+ * 也不再使用线程不安全的共享SimpleDateFormat。
+ */
+class LogEncoder {
+
+    // UTF-8单个字符最多4个字节
+    private static final int MAX_BYTES_PER_CHAR = 4;
+    // 超过该长度的缓冲区用完后释放，避免一条超长日志长期占用内存
+    private static final int MAX_RETAINED_CHARS = 32 * 1024;
+    private static final int DEFAULT_CHARS = 512;
+    private static final int TIME_PREFIX_LENGTH = 20;
+
+    private static final ThreadLocal<LogEncoder> ENCODERS = new ThreadLocal<LogEncoder>() {
+        @Override
+        protected LogEncoder initialValue() {
+            return new LogEncoder();
+        }
+    };
+
+    private StringBuilder mBuilder = new StringBuilder(DEFAULT_CHARS);
+    private char[] mChars = new char[DEFAULT_CHARS];
+    private CharBuffer mCharBuffer = CharBuffer.wrap(mChars);
+    private ByteBuffer mBytes = ByteBuffer.allocate(DEFAULT_CHARS);
+    private final CharsetEncoder mCharsetEncoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    // 缓存的时间前缀 "yyyy-MM-dd HH:mm:ss."
+    private final char[] mTimePrefix = new char[TIME_PREFIX_LENGTH];
+    private long mCachedSecond = Long.MIN_VALUE;
+
+    static LogEncoder get() {
+        return ENCODERS.get();
+    }
+
+    /**
+     * 格式化一行日志：时间 PID-进程名/? 级别/TAG: 内容\n
+     *
+     * @param time        日志时间
+     * @param processInfo " PID-进程名/? "
+     * @return 复用的StringBuilder，下次调用前有效
+     */
+    StringBuilder format(long time, String processInfo, LogPriority priority, String tag, String content) {
+        StringBuilder builder = builder();
+        appendTime(builder, time);
+        builder.append(processInfo).append(priority).append('/')
+                .append(tag).append(": ").append(content).append('\n');
+        return builder;
+    }
+
+    /**
+     * 复用的StringBuilder，已清空
+     */
+    StringBuilder builder() {
+        if (mBuilder.capacity() > MAX_RETAINED_CHARS) {
+            mBuilder = new StringBuilder(DEFAULT_CHARS);
+        } else {
+            mBuilder.setLength(0);
+        }
+        return mBuilder;
+    }
+
+    /**
+     * 追加 "yyyy-MM-dd HH:mm:ss.SSS"
+     */
+    void appendTime(StringBuilder builder, long time) {
+        long second = time / 1000;
+        int millis = (int) (time - second * 1000);
+        if (millis < 0) {
+            second--;
+            millis += 1000;
+        }
+        if (second != mCachedSecond) {
+            mCachedSecond = second;
+            mCalendar.setTimeInMillis(second * 1000);
+            writeDigits(mTimePrefix, 0, mCalendar.get(Calendar.YEAR), 4);
+            mTimePrefix[4] = '-';
+            writeDigits(mTimePrefix, 5, mCalendar.get(Calendar.MONTH) + 1, 2);
+            mTimePrefix[7] = '-';
+            writeDigits(mTimePrefix, 8, mCalendar.get(Calendar.DAY_OF_MONTH), 2);
+            mTimePrefix[10] = ' ';
+            writeDigits(mTimePrefix, 11, mCalendar.get(Calendar.HOUR_OF_DAY), 2);
+            mTimePrefix[13] = ':';
+            writeDigits(mTimePrefix, 14, mCalendar.get(Calendar.MINUTE), 2);
+            mTimePrefix[16] = ':';
+            writeDigits(mTimePrefix, 17, mCalendar.get(Calendar.SECOND), 2);
+            mTimePrefix[19] = '.';
+        }
+        builder.append(mTimePrefix, 0, TIME_PREFIX_LENGTH);
+        builder.append((char) ('0' + millis / 100))
+                .append((char) ('0' + millis / 10 % 10))
+                .append((char) ('0' + millis % 10));
+    }
+
+    private static void writeDigits(char[] chars, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * 将字符以UTF-8编码直接写入文件的批量缓冲区
+     */
+    void encode(CharSequence chars, LogFile logFile) throws IOException {
+        prepareChars(chars);
+        mCharsetEncoder.reset();
+        CoderResult result;
+        do {
+            // 缓冲区剩余空间不足一个字符时，LogFile会切换到下一块缓冲区
+            result = mCharsetEncoder.encode(mCharBuffer, logFile.buffer(MAX_BYTES_PER_CHAR), true);
+        } while (result.isOverflow());
+        while (mCharsetEncoder.flush(logFile.buffer(MAX_BYTES_PER_CHAR)).isOverflow()) {
+            // UTF-8编码器flush不会输出内容，这里只是保证语义完整
+        }
+    }
+
+    /**
+     * 将字符以UTF-8编码到复用的缓冲区中
+     *
+     * @return 复用的缓冲区，position到limit为编码结果，下次调用前有效
+     */
+    ByteBuffer utf8(CharSequence chars) {
+        prepareChars(chars);
+        int maxBytes = chars.length() * MAX_BYTES_PER_CHAR;
+        if (mBytes.capacity() < maxBytes || mBytes.capacity() > MAX_RETAINED_CHARS * MAX_BYTES_PER_CHAR) {
+            mBytes = ByteBuffer.allocate(Math.max(maxBytes, DEFAULT_CHARS));
+        }
+        mBytes.clear();
+        mCharsetEncoder.reset();
+        mCharsetEncoder.encode(mCharBuffer, mBytes, true);
+        mCharsetEncoder.flush(mBytes);
+        mBytes.flip();
+        return mBytes;
+    }
+
+    /**
+     * 将字符复制到复用的字符缓冲区中
+     */
+    private void prepareChars(CharSequence chars) {
+        int length = chars.length();
+        if (mChars.length < length || mChars.length > MAX_RETAINED_CHARS) {
+            mChars = new char[Math.max(length, DEFAULT_CHARS)];
+            mCharBuffer = CharBuffer.wrap(mChars);
+        }
+        if (chars instanceof StringBuilder) {
+            ((StringBuilder) chars).getChars(0, length, mChars, 0);
+        } else if (chars instanceof String) {
+            ((String) chars).getChars(0, length, mChars, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                mChars[i] = chars.charAt(i);
+            }
+        }
+        mCharBuffer.clear();
+        mCharBuffer.limit(length);
+    }
+}
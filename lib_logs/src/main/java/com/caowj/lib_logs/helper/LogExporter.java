@@ -0,0 +1,467 @@
+package com.caowj.lib_logs.helper;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 把选中的日志文件打包成zip导出，用于分享日志
+ * <p>
+ * 在后台线程中逐个文件流式写入，只占用固定大小的缓冲区；日志文件的索引文件({@link LogIndex}、{@link LogSearchIndex})一起导出。
+ * 已经gzip压缩过的文件不再压缩，以STORED方式原样存入，其余文件用最快的压缩级别。
+ * 写入过程中回调进度，可以随时取消；可以直接写入{@link Uri}(如ACTION_CREATE_DOCUMENT选择的位置)，不需要中间文件。
+ * <pre>
+ * LogExporter.Task task = new LogExporter(paths)
+ *         .listener(listener)
+ *         .exportTo(context, uri);
+ * ...
+ * task.cancel();
+ * </pre>
+ */
+public class LogExporter {
+
+    static final String TAG = "LogExporter";
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static ExecutorService sExecutor;
+
+    private final List<String> mPaths;
+    private boolean mIncludeIndexes = true;
+    private OnExportListener mListener;
+
+    /**
+     * 导出回调，都在主线程中调用
+     */
+    public interface OnExportListener {
+        /**
+         * @param exportedBytes 已读取的文件字节数
+         * @param totalBytes    所有文件的总字节数
+         */
+        void onProgress(long exportedBytes, long totalBytes);
+
+        /**
+         * @param fileCount 导出的文件个数，包括索引文件
+         */
+        void onFinish(int fileCount);
+
+        /**
+         * 取消后调用；导出到文件时已删除不完整的文件，导出到Uri时由调用方处理
+         */
+        void onCancel();
+
+        void onError(IOException e);
+    }
+
+    /**
+     * 一次导出，用于取消
+     */
+    public static class Task {
+        private volatile boolean mCancelled;
+
+        Task() {
+        }
+
+        /**
+         * 取消导出，正在写入的文件写完当前缓冲区后停止
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * 打开导出的目标，在后台线程中调用
+     */
+    interface OutputOpener {
+        OutputStream open() throws IOException;
+
+        /**
+         * 取消或失败后清理不完整的输出
+         */
+        void discard();
+    }
+
+    /**
+     * @param paths 日志文件路径
+     */
+    public LogExporter(List<String> paths) {
+        mPaths = new ArrayList<>(paths);
+    }
+
+    /**
+     * 是否同时导出索引文件，默认true
+     */
+    public LogExporter includeIndexes(boolean includeIndexes) {
+        mIncludeIndexes = includeIndexes;
+        return this;
+    }
+
+    public LogExporter listener(OnExportListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * 导出到文件，取消或失败时删除该文件
+     */
+    public Task exportTo(final File zipFile) {
+        return start(new OutputOpener() {
+            @Override
+            public OutputStream open() throws IOException {
+                File parent = zipFile.getParentFile();
+                if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                    throw new IOException(parent + "创建失败");
+                }
+                return new FileOutputStream(zipFile);
+            }
+
+            @Override
+            public void discard() {
+                zipFile.delete();
+            }
+        });
+    }
+
+    /**
+     * 直接写入Uri对应的输出流，如ACTION_CREATE_DOCUMENT返回的Uri
+     */
+    public Task exportTo(Context context, final Uri uri) {
+        final Context appContext = context.getApplicationContext();
+        return start(new OutputOpener() {
+            @Override
+            public OutputStream open() throws IOException {
+                OutputStream outputStream = appContext.getContentResolver().openOutputStream(uri);
+                if (outputStream == null) {
+                    throw new IOException("无法打开" + uri);
+                }
+                return outputStream;
+            }
+
+            @Override
+            public void discard() {
+            }
+        });
+    }
+
+    private Task start(final OutputOpener opener) {
+        final Task task = new Task();
+        final List<String> paths = mPaths;
+        final boolean includeIndexes = mIncludeIndexes;
+        final OnExportListener listener = mListener;
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                export(task, paths, includeIndexes, opener, new MainThreadListener(listener));
+            }
+        });
+        return task;
+    }
+
+    static void export(Task task, List<String> paths, boolean includeIndexes, OutputOpener opener,
+                       OnExportListener listener) {
+        try {
+            List<File> files = collect(paths, includeIndexes);
+            int count;
+            OutputStream outputStream = opener.open();
+            try {
+                count = writeZip(task, files, outputStream, listener);
+            } finally {
+                outputStream.close();
+            }
+            if (count < 0) {
+                opener.discard();
+                listener.onCancel();
+            } else {
+                listener.onFinish(count);
+            }
+        } catch (IOException e) {
+            opener.discard();
+            listener.onError(e);
+        } catch (RuntimeException e) {
+            // 如openOutputStream没有权限(SecurityException)，也要回调，否则调用方一直等待
+            opener.discard();
+            listener.onError(new IOException(e));
+        }
+    }
+
+    /**
+     * 要导出的文件；正在压缩的文件导出时可能已替换为.gz，不存在的文件(已被清理)跳过，
+     * 同一个文件(如重复的路径，或压缩前后的两个路径)只导出一次
+     */
+    static List<File> collect(List<String> paths, boolean includeIndexes) {
+        Set<File> files = new LinkedHashSet<>(includeIndexes ? paths.size() * 3 : paths.size());
+        for (String path : paths) {
+            File file = new File(path).getAbsoluteFile();
+            if (!file.isFile() && !path.endsWith(LogCompressor.EXTENSION)) {
+                file = new File(file.getPath() + LogCompressor.EXTENSION);
+            }
+            if (!file.isFile()) {
+                continue;
+            }
+            files.add(file);
+            if (includeIndexes) {
+                addIfExists(files, new File(LogIndex.indexPath(file.getPath())));
+                addIfExists(files, new File(LogSearchIndex.indexPath(file.getPath())));
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static void addIfExists(Set<File> files, File file) {
+        if (file.isFile()) {
+            files.add(file);
+        }
+    }
+
+    /**
+     * 把文件依次写入zip，条目名为"日志目录名/文件名"，重名时(不同位置的同名目录)在文件名前加序号
+     *
+     * @return 写入的文件个数，取消时返回-1
+     */
+    static int writeZip(Task task, List<File> files, OutputStream outputStream, OnExportListener listener)
+            throws IOException {
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        Progress progress = new Progress(listener, total);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ExportZipOutputStream zipOutputStream = new ExportZipOutputStream(outputStream);
+        zipOutputStream.setLevel(Deflater.BEST_SPEED);
+        try {
+            return writeEntries(task, files, zipOutputStream, buffer, progress);
+        } finally {
+            zipOutputStream.release();
+        }
+    }
+
+    private static int writeEntries(Task task, List<File> files, ZipOutputStream zipOutputStream, byte[] buffer,
+                                    Progress progress) throws IOException {
+        int count = 0;
+        Set<String> names = new HashSet<>();
+        for (File file : files) {
+            if (task.isCancelled()) {
+                return -1;
+            }
+            ZipEntry entry = new ZipEntry(entryName(file, names));
+            entry.setTime(file.lastModified());
+            boolean stored = file.getName().endsWith(LogCompressor.EXTENSION);
+            if (stored) {
+                // STORED需要事先知道大小和CRC，多读一遍；文件刚读过，第二遍基本在页缓存中
+                entry.setMethod(ZipEntry.STORED);
+                long size = crc(task, file, buffer, entry);
+                if (size < 0) {
+                    return -1;
+                }
+                entry.setSize(size);
+                entry.setCompressedSize(size);
+            }
+            zipOutputStream.putNextEntry(entry);
+            InputStream inputStream = new FileInputStream(file);
+            try {
+                long remaining = stored ? entry.getSize() : Long.MAX_VALUE;
+                int length;
+                while (remaining > 0
+                        && (length = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                    if (task.isCancelled()) {
+                        // 不再写入zip的结尾，由调用方关闭输出流
+                        return -1;
+                    }
+                    zipOutputStream.write(buffer, 0, length);
+                    remaining -= length;
+                    progress.add(length);
+                }
+            } finally {
+                inputStream.close();
+            }
+            zipOutputStream.closeEntry();
+            count++;
+        }
+        zipOutputStream.finish();
+        return count;
+    }
+
+    /**
+     * zip中的条目名，同一个zip中不能重复，否则putNextEntry抛出ZipException
+     *
+     * @param names 已使用的条目名
+     */
+    private static String entryName(File file, Set<String> names) {
+        File parent = file.getParentFile();
+        String folder = parent == null ? "" : parent.getName() + "/";
+        String name = folder + file.getName();
+        for (int i = 2; !names.add(name); i++) {
+            name = folder + i + "_" + file.getName();
+        }
+        return name;
+    }
+
+    /**
+     * 计算文件的CRC，文件在导出过程中被追加时只导出计算CRC时的部分
+     *
+     * @return 文件大小，取消时返回-1
+     */
+    private static long crc(Task task, File file, byte[] buffer, ZipEntry entry) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                if (task.isCancelled()) {
+                    return -1;
+                }
+                crc.update(buffer, 0, length);
+                size += length;
+            }
+        } finally {
+            inputStream.close();
+        }
+        entry.setCrc(crc.getValue());
+        return size;
+    }
+
+    /**
+     * 取消或出错时不写入zip的结尾，但要释放Deflater；输出流由调用方关闭
+     */
+    private static class ExportZipOutputStream extends ZipOutputStream {
+        ExportZipOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        void release() {
+            def.end();
+        }
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (sExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    /**
+     * 按百分比回调进度，避免每个缓冲区都回调一次
+     */
+    private static class Progress {
+        private final OnExportListener mListener;
+        private final long mTotal;
+        private long mExported;
+        private int mPercent = -1;
+
+        Progress(OnExportListener listener, long total) {
+            mListener = listener;
+            mTotal = total;
+        }
+
+        void add(int length) {
+            mExported += length;
+            int percent = mTotal <= 0 ? 100 : (int) (Math.min(mExported, mTotal) * 100 / mTotal);
+            if (percent != mPercent) {
+                mPercent = percent;
+                mListener.onProgress(Math.min(mExported, mTotal), mTotal);
+            }
+        }
+    }
+
+    /**
+     * 把回调切换到主线程
+     */
+    private static class MainThreadListener implements OnExportListener {
+        private final OnExportListener mListener;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        MainThreadListener(OnExportListener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void onProgress(final long exportedBytes, final long totalBytes) {
+            if (mListener == null) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onProgress(exportedBytes, totalBytes);
+                }
+            });
+        }
+
+        @Override
+        public void onFinish(final int fileCount) {
+            if (mListener == null) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onFinish(fileCount);
+                }
+            });
+        }
+
+        @Override
+        public void onCancel() {
+            if (mListener == null) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onCancel();
+                }
+            });
+        }
+
+        @Override
+        public void onError(final IOException e) {
+            if (mListener == null) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onError(e);
+                }
+            });
+        }
+    }
+}
@@ -1,20 +1,56 @@
 package com.caowj.lib_logs.helper;
 
 import android.content.Context;
+import android.util.Log;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class LogFile {
+    static final String TAG = "LogFile";
     static  int LOG_FILE_MAX_SIZE = Constance.LOG_FILE_MAX_SIZE; //10M
+    // 切分后的文件是否在后台压缩
+    static boolean COMPRESS_ROTATED = true;
+    // 切分后的文件是否在后台生成搜索索引
+    static boolean SEARCH_INDEX = true;
+    // 批量写入时每块直接内存的大小及块数
+    static final int BATCH_CHUNK_SIZE = 32 * 1024;
+    static final int BATCH_CHUNK_COUNT = 8;
     private String mFolderPath;
     private LogTypeEnum mFileType;
     private RandomAccessFile mRandomAccessFile;
     private String mFileName= null;
     FileOutputStream logOutputStream = null;
     File mFile = null;
+    // 当前文件已写入的字节数，避免每次写入都查询文件大小
+    private long mFileSize;
+    // mmap暂存区，为null时直接写文件
+    private LogMmapBuffer mMmapBuffer;
+    // mmap暂存区的写入视图，position即写入位置
+    private ByteBuffer mMmapView;
+    // 不使用mmap暂存区时，批量写入用的直接内存块，用完后复用
+    private ByteBuffer[] mChunks;
+    private int mChunkIndex;
+    // 写入文件的次数，每次落盘加1
+    private long mGeneration;
+    // 已离开暂存区(写入文件或写入失败被丢弃)的字节总数，加上stagedLength()即为写入位置
+    private long mFlushedBytes;
+    // 当前文件中第一条日志的写入位置
+    private long mFileStartPosition;
+    // 二进制格式的文件头，为null时为文本格式
+    private byte[] mFileHeader;
+    private String mExtension = ".log";
+    private LogBinaryEncoder mBinaryEncoder;
+    // 行索引，为null时不写索引
+    private LogIndex.Writer mIndexWriter;
+    // mmap暂存区中有上次进程残留的日志，这些日志没有行索引
+    private boolean mRecovered;
+    // 当前文件在目录表中的记录
+    private LogCatalog.Entry mCatalogEntry;
 
     public LogFile(Context context, LogTypeEnum logType) {
         mFolderPath = Constance.GLOBAL_PATH
@@ -24,33 +60,148 @@ public class LogFile {
     }
 
     public String getFilePath() throws IOException {
-        return Constance.findAvailableFilePath(mFolderPath);
+        mCatalogEntry = LogCatalog.get(mFolderPath).create(mExtension);
+        return mCatalogEntry.path();
+    }
+
+    /**
+     * 使用二进制格式，新建的文件先写入文件头
+     *
+     * @param fileHeader 文件头
+     */
+    void setBinaryFormat(byte[] fileHeader) {
+        mFileHeader = fileHeader;
+        mExtension = LogBinaryDecoder.EXTENSION;
+        mBinaryEncoder = new LogBinaryEncoder(this);
+    }
+
+    /**
+     * 写日志时同时生成行索引({@link LogIndex})，需要在写入第一条日志前调用
+     */
+    void enableLineIndex() {
+        if (mIndexWriter == null) {
+            mIndexWriter = new LogIndex.Writer();
+        }
+    }
+
+    /**
+     * 记录即将写入的一条文本日志，在申请缓冲区之后、写入之前调用
+     *
+     * @param time 日志时间
+     * @param line 格式化后的日志，内容中的换行在读取时算作多行
+     */
+    void markLine(long time, CharSequence line) {
+        if (mIndexWriter != null) {
+            int lines = 0;
+            for (int i = 0, length = line.length(); i < length; i++) {
+                if (line.charAt(i) == '\n') {
+                    lines++;
+                }
+            }
+            markLine(time, Math.max(lines, 1));
+        }
+    }
+
+    /**
+     * 记录即将写入的文本日志，已知行数时使用，如logcat的一行
+     *
+     * @param time  日志时间
+     * @param lines 读取时的行数
+     */
+    void markLine(long time, int lines) {
+        if (mIndexWriter != null) {
+            mIndexWriter.mark(stagedLength(), 0, lines, time);
+        }
+    }
+
+    /**
+     * 记录即将写入的一条二进制日志
+     *
+     * @param blockOffset 所在数据块在当前批次中的偏移量
+     * @param recordIndex 在数据块中的序号
+     * @param time        日志时间
+     */
+    void markRecord(int blockOffset, int recordIndex, long time) {
+        if (mIndexWriter != null) {
+            mIndexWriter.mark(blockOffset, recordIndex, 1, time);
+        }
+    }
+
+    /**
+     * 当前批次中尚未写入文件的字节数
+     */
+    int stagedLength() {
+        if (mMmapBuffer != null) {
+            return mMmapBuffer.lengthOf(mMmapView);
+        }
+        int length = 0;
+        if (mChunks != null) {
+            for (int i = 0; i <= mChunkIndex; i++) {
+                if (mChunks[i] != null) {
+                    length += mChunks[i].position();
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 二进制格式的编码器，文本格式时为null
+     */
+    LogBinaryEncoder binaryEncoder() {
+        return mBinaryEncoder;
+    }
+
+    /**
+     * 写入文件的次数，每次落盘(可能同时切换文件)后变化
+     */
+    long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * 下一个字节的写入位置，从启动起累计暂存的字节数，不受切分和落盘影响
+     */
+    long position() {
+        return mFlushedBytes + stagedLength();
+    }
+
+    /**
+     * 结束于endPosition(写入后的{@link #position()})的日志是否在当前文件中
+     * <p>
+     * 文件在落盘时才打开或切分，尚未落盘的日志总是和当前批次一起写入当前文件或切分后的新文件
+     */
+    boolean isInCurrentFile(long endPosition) {
+        return endPosition > mFileStartPosition;
+    }
+
+    /**
+     * {@link #buffer(int)}一次能提供的最大连续空间
+     */
+    int maxContiguous() {
+        return mMmapBuffer != null ? mMmapBuffer.capacity() : BATCH_CHUNK_SIZE;
     }
 
     public String getFolderPath(){
         return mFolderPath;
     }
 
+    public LogTypeEnum getLogType() {
+        return mFileType;
+    }
+
 
     public FileOutputStream getFileOutputStream(int willWriteLength) throws IOException {
         if (logOutputStream == null) {
-            mFileName =getFilePath();
-            logOutputStream = new FileOutputStream(mFileName);
-            mFile = new File(mFileName);
+            openNewFile();
         }
 
         if(!mFile.exists()){// 文件被删掉
-            mFileName =getFilePath();
-            logOutputStream = new FileOutputStream(mFileName);
-            mFile = new File(mFileName);
+            openNewFile();
         }
 
         if (logOutputStream.getChannel().size() + willWriteLength > LOG_FILE_MAX_SIZE) {
-            logOutputStream.close();
-            Constance.appendEndTime(mFileName);
-            mFileName =getFilePath();
-            logOutputStream = new FileOutputStream(mFileName);
-            mFile = new File(mFileName);
+            rotate();
         }
         return logOutputStream;
     }
@@ -71,7 +222,7 @@ public class LogFile {
 
         if (mRandomAccessFile.length() + willWriteLength > LOG_FILE_MAX_SIZE) {
             mRandomAccessFile.close();
-            Constance.appendEndTime(mFileName);
+            onRotated(Constance.appendEndTime(mFileName));
             mFileName =getFilePath();
             mRandomAccessFile = new RandomAccessFile(mFileName, "rw");
             mFile = new File(mFileName);
@@ -79,15 +230,344 @@ public class LogFile {
         return mRandomAccessFile;
     }
 
+    private void openNewFile() throws IOException {
+        if (logOutputStream != null) {
+            logOutputStream.close();
+        }
+        // 只在落盘时打开，当前批次从这里开始写入新文件
+        mFileStartPosition = mFlushedBytes;
+        mFileName = getFilePath();
+        logOutputStream = new FileOutputStream(mFileName);
+        mFile = new File(mFileName);
+        mFileSize = 0;
+        if (mFileHeader != null) {
+            logOutputStream.write(mFileHeader);
+            mFileSize = mFileHeader.length;
+        }
+        if (mIndexWriter != null) {
+            try {
+                mIndexWriter.open(mFileName);
+            } catch (IOException e) {
+                // 没有索引不影响写日志，查看时从头读取
+                Log.e(TAG, "openIndex 异常", e);
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        logOutputStream.close();
+        logOutputStream = null;
+        if (mIndexWriter != null) {
+            mIndexWriter.close();
+        }
+        String rotatedPath = Constance.appendEndTime(mFileName);
+        LogIndex.rename(mFileName, rotatedPath);
+        onRotated(rotatedPath);
+        openNewFile();
+    }
+
+    /**
+     * 目录表中当前文件的大小，日志列表和清理不需要再查询文件
+     */
+    private void updateCatalogSize() {
+        if (mCatalogEntry != null) {
+            mCatalogEntry.setSize(mFileSize);
+        }
+    }
+
+    /**
+     * 当前批次已从fileOffset处写入文件，更新行索引
+     */
+    private void commitIndex(long fileOffset) {
+        if (mIndexWriter == null) {
+            return;
+        }
+        try {
+            if (mRecovered) {
+                mRecovered = false;
+                mIndexWriter.discard();
+                mIndexWriter.invalidate();
+                return;
+            }
+            mIndexWriter.commit(fileOffset, mBinaryEncoder != null);
+        } catch (IOException e) {
+            Log.e(TAG, "commitIndex 异常", e);
+        }
+    }
+
+    private void onRotated(String rotatedPath) {
+        // 与压缩在同一个线程中排队，先读取未压缩的文件生成索引
+        if (SEARCH_INDEX) {
+            LogSearchIndex.buildAsync(rotatedPath);
+        }
+        if (COMPRESS_ROTATED) {
+            LogCompressor.compressAsync(rotatedPath);
+        }
+        LogRetention.getInstance().schedule();
+    }
 
+    /**
+     * 批量写入用的文件通道，文件大小使用内存中记录的值，每批只检查一次文件是否被删除
+     */
+    private FileChannel getChannel(long willWriteLength) throws IOException {
+        if (logOutputStream == null || !mFile.exists()) {
+            openNewFile();
+        } else if (mFileSize > headerSize() && mFileSize + willWriteLength > LOG_FILE_MAX_SIZE) {
+            rotate();
+        }
+        return logOutputStream.getChannel();
+    }
+
+    private int headerSize() {
+        return mFileHeader != null ? mFileHeader.length : 0;
+    }
+
+    /**
+     * 开启mmap暂存区，并将上次进程退出时残留在暂存区中的日志写入文件
+     *
+     * @param mmapFile 暂存区文件
+     */
+    void openMmapBuffer(File mmapFile) {
+        if (mMmapBuffer != null) {
+            return;
+        }
+        try {
+            commit();
+            mMmapBuffer = new LogMmapBuffer(mmapFile);
+            mMmapView = mMmapBuffer.writeView();
+            mRecovered = mMmapBuffer.length() > 0;
+            flush();
+        } catch (IOException e) {
+            // 映射失败时退化为直接写文件
+            Log.e(TAG, "openMmapBuffer 异常", e);
+            mMmapBuffer = null;
+            mMmapView = null;
+        }
+    }
+
+    /**
+     * 只恢复暂存区中残留的日志，之后不再使用暂存区
+     *
+     * @param mmapFile 暂存区文件
+     */
+    void recoverMmapBuffer(File mmapFile) {
+        if (mMmapBuffer != null || !mmapFile.exists()) {
+            return;
+        }
+        openMmapBuffer(mmapFile);
+        if (mMmapBuffer != null && mMmapBuffer.length() == 0) {
+            mMmapBuffer.close();
+            mMmapBuffer = null;
+            mMmapView = null;
+            mmapFile.delete();
+        }
+    }
+
+    /**
+     * 当前批次的写入缓冲区，保证至少有1个字节可写；写满后自动提交/写入文件
+     */
+    ByteBuffer buffer() throws IOException {
+        return buffer(1);
+    }
+
+    /**
+     * 当前批次的写入缓冲区，保证至少有minRemaining个字节可写，剩余空间不足时切换到下一块
+     *
+     * @param minRemaining 最少可写字节数，不能超过单块缓冲区的大小
+     */
+    ByteBuffer buffer(int minRemaining) throws IOException {
+        if (mMmapBuffer != null) {
+            if (mMmapView.remaining() < minRemaining) {
+                flush();
+            }
+            return mMmapView;
+        }
+
+        if (mChunks == null) {
+            mChunks = new ByteBuffer[BATCH_CHUNK_COUNT];
+        }
+        ByteBuffer chunk = mChunks[mChunkIndex];
+        if (chunk != null && chunk.remaining() < minRemaining) {
+            if (mChunkIndex == BATCH_CHUNK_COUNT - 1) {
+                writeChunks();
+            } else {
+                mChunkIndex++;
+            }
+            chunk = mChunks[mChunkIndex];
+        }
+        if (chunk == null) {
+            chunk = ByteBuffer.allocateDirect(BATCH_CHUNK_SIZE);
+            mChunks[mChunkIndex] = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * 追加到当前批次中，批次结束时调用{@link #commit()}
+     */
+    void append(byte[] bytes) throws IOException {
+        append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 追加bytes中[offset, offset + length)的部分到当前批次中
+     */
+    void append(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            ByteBuffer buffer = buffer();
+            int count = Math.min(buffer.remaining(), end - offset);
+            buffer.put(bytes, offset, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * 提交当前批次
+     * <p>
+     * 开启暂存区时只更新暂存区的长度，超过阈值后整块写入文件；否则将所有内存块一次性写入文件
+     */
+    void commit() throws IOException {
+        if (mMmapBuffer != null) {
+            mMmapBuffer.commit(mMmapView);
+            if (mMmapBuffer.length() >= mMmapBuffer.capacity() / 3) {
+                flush();
+            }
+        } else if (mChunks != null) {
+            writeChunks();
+        }
+    }
+
+    /**
+     * 提交当前批次，并将暂存区中的日志写入文件
+     */
+    void flush() throws IOException {
+        if (mMmapBuffer == null) {
+            commit();
+            return;
+        }
+        mMmapBuffer.commit(mMmapView);
+        if (mMmapBuffer.length() == 0) {
+            return;
+        }
+        ByteBuffer pending = mMmapBuffer.pending();
+        int length = pending.remaining();
+        boolean written = false;
+        try {
+            FileChannel channel = getChannel(length);
+            long fileOffset = mFileSize;
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+            mFileSize += length;
+            updateCatalogSize();
+            written = true;
+            commitIndex(fileOffset);
+        } finally {
+            // 写入失败时只去掉已写入的部分，其余的留在暂存区中下次重试
+            int consumed = written ? length : length - pending.remaining();
+            if (!written) {
+                onWriteFailed();
+            }
+            mGeneration++;
+            mFlushedBytes += consumed;
+            mMmapBuffer.consume(consumed);
+            mMmapView = mMmapBuffer.writeView();
+        }
+    }
+
+    /**
+     * 写入文件失败，可能只写入了一部分：文件大小以实际大小为准，当前批次的行索引已对不上，标记索引不可用
+     */
+    private void onWriteFailed() {
+        if (logOutputStream != null) {
+            try {
+                mFileSize = logOutputStream.getChannel().size();
+                updateCatalogSize();
+            } catch (IOException e) {
+                Log.e(TAG, "size 异常", e);
+            }
+        }
+        if (mIndexWriter != null) {
+            mIndexWriter.discard();
+            try {
+                mIndexWriter.invalidate();
+            } catch (IOException e) {
+                Log.e(TAG, "invalidateIndex 异常", e);
+            }
+        }
+    }
+
+    /**
+     * 将所有内存块通过一次聚集写入(gathering write)写入文件
+     */
+    private void writeChunks() throws IOException {
+        int count = mChunkIndex + 1;
+        long length = 0;
+        for (int i = 0; i < count; i++) {
+            if (mChunks[i] != null) {
+                mChunks[i].flip();
+                length += mChunks[i].remaining();
+            }
+        }
+        boolean committed = false;
+        try {
+            if (length > 0) {
+                FileChannel channel = getChannel(length);
+                long fileOffset = mFileSize;
+                long written = 0;
+                while (written < length) {
+                    written += channel.write(mChunks, 0, count);
+                }
+                mFileSize += length;
+                updateCatalogSize();
+                commitIndex(fileOffset);
+            }
+            committed = true;
+        } finally {
+            if (!committed) {
+                onWriteFailed();
+            }
+            mGeneration++;
+            mFlushedBytes += length;
+            for (int i = 0; i < count; i++) {
+                if (mChunks[i] != null) {
+                    mChunks[i].clear();
+                }
+            }
+            mChunkIndex = 0;
+        }
+    }
 
     public void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            Log.e(TAG, "flush 异常", e);
+        }
+        if (mMmapBuffer != null) {
+            mMmapBuffer.close();
+            mMmapBuffer = null;
+            mMmapView = null;
+        }
+        if (logOutputStream != null) {
+            try {
+                logOutputStream.close();
+            } catch (IOException e) {
+
+            }
+            logOutputStream = null;
+        }
+        if (mIndexWriter != null) {
+            mIndexWriter.close();
+        }
         if (mRandomAccessFile != null) {
             try {
                 mRandomAccessFile.close();
             } catch (IOException e) {
 
             }
+            mRandomAccessFile = null;
         }
     }
 
@@ -0,0 +1,93 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * 日志文件按行读取
+ * <p>
+ * 屏蔽文本格式和二进制格式({@link LogBinaryDecoder})的差异，读出的都是文本格式的一行日志。
+ * {@link #position()}返回的位置只能再传给同一个文件的{@link #seek(long)}，不一定是字节偏移量。
+ * 只依赖JDK，可以在PC上直接使用。
+ */
+public abstract class LogFileReader implements Closeable {
+
+    /**
+     * 打开日志文件，根据文件头自动识别格式，压缩文件({@link LogCompressor})透明解压
+     *
+     * @param path 日志文件路径
+     */
+    public static LogFileReader open(String path) throws IOException {
+        LogInput input = LogInput.open(path);
+        try {
+            if (LogBinaryDecoder.isBinary(input)) {
+                return new LogBinaryDecoder(input);
+            }
+            return new LogTextReader(input);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 读取下一行日志(不含换行符)
+     *
+     * @return 文件结束时返回null
+     */
+    public abstract String readLine() throws IOException;
+
+    /**
+     * 下一行日志的位置
+     */
+    public abstract long position() throws IOException;
+
+    /**
+     * 跳转到{@link #position()}返回的位置，0表示文件开头
+     */
+    public abstract void seek(long position) throws IOException;
+
+    /**
+     * 文本格式日志文件，按(解压后的)字节偏移量定位
+     */
+    static class LogTextReader extends LogFileReader {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        private final LogInput mInput;
+        private final LogInput.LineBuffer mLineBuffer = new LogInput.LineBuffer();
+
+        LogTextReader(LogInput input) throws IOException {
+            mInput = input;
+            mInput.seek(0);
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            int length = mInput.readLine(mLineBuffer);
+            if (length < 0) {
+                return null;
+            }
+            if (length > 0 && mLineBuffer.bytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(mLineBuffer.bytes, 0, length, UTF_8);
+        }
+
+        @Override
+        public long position() {
+            return mInput.offset();
+        }
+
+        @Override
+        public void seek(long position) throws IOException {
+            mInput.seek(position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInput.close();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * 日志文件的稀疏行索引，与日志文件放在同一目录，文件名为 日志文件名.idx
+ * <p>
+ * 写文件线程大约每{@link #INTERVAL}行记录一个索引点：(行号, {@link LogFileReader#position()}可用的位置, 时间)，
+ * 查看日志时按行号或时间二分查找到最近的索引点再向后读取，不需要从头扫描；文件头中的总行数在每次落盘后更新。
+ * 压缩后的日志文件继续使用压缩前的索引(位置是解压后的偏移量)。
+ * 行号与{@link LogFileReader#readLine()}读出的行一致：文本格式中内容带换行的日志算多行，二进制格式中一条日志算一行，
+ * 所以索引点总是落在一条日志的开头，行号不一定是{@link #INTERVAL}的整数倍。
+ * <p>
+ * 文件结构：
+ * <pre>
+ * 文件头：MAGIC("LIDX") | 版本(4字节) | 总行数(8字节) | 状态(4字节) | 保留(4字节)
+ * 索引点：行号(4字节) | 位置(8字节) | 时间(8字节，毫秒)
+ * </pre>
+ *
+ * @see LogBuilder#lineIndex(boolean)
+ */
+public class LogIndex {
+
+    public static final String EXTENSION = ".idx";
+    // 索引点间隔的最少行数
+    public static final int INTERVAL = 256;
+    static final int MAGIC = 0x4C494458;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int ENTRY_SIZE = 20;
+    private static final int LINE_COUNT_OFFSET = 8;
+    private static final int STATE_OFFSET = 16;
+    // 有未记录的行(如mmap暂存区中恢复的日志)，索引不可用
+    private static final int STATE_INVALID = 1;
+    // 日志行开头的时间格式，与LogEncoder一致
+    private static final String LINE_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+    // logcat threadtime格式行开头的时间，没有年份
+    private static final String LOGCAT_TIME_FORMAT = "MM-dd HH:mm:ss.SSS";
+    // SimpleDateFormat不是线程安全的，每个线程复用一个，不为每行创建
+    private static final ThreadLocal<TimeParser> sTimeParser = new ThreadLocal<TimeParser>() {
+        @Override
+        protected TimeParser initialValue() {
+            return new TimeParser();
+        }
+    };
+
+    private final int mLineCount;
+    private final int[] mLines;
+    private final long[] mPositions;
+    private final long[] mTimes;
+
+    private LogIndex(int lineCount, int[] lines, long[] positions, long[] times) {
+        mLineCount = lineCount;
+        mLines = lines;
+        mPositions = positions;
+        mTimes = times;
+    }
+
+    /**
+     * 日志文件对应的索引文件路径
+     */
+    public static String indexPath(String logPath) {
+        if (logPath.endsWith(LogCompressor.EXTENSION)) {
+            logPath = logPath.substring(0, logPath.length() - LogCompressor.EXTENSION.length());
+        }
+        return logPath + EXTENSION;
+    }
+
+    /**
+     * 是否是索引文件(包括搜索索引{@link LogSearchIndex})，日志列表中不显示
+     */
+    public static boolean isIndexFile(String fileName) {
+        return fileName.endsWith(EXTENSION) || fileName.endsWith(LogSearchIndex.EXTENSION)
+                || fileName.endsWith(LogSearchIndex.TEMP_EXTENSION);
+    }
+
+    /**
+     * 删除日志文件对应的索引文件(包括搜索索引{@link LogSearchIndex})
+     */
+    public static void delete(String logPath) {
+        new File(indexPath(logPath)).delete();
+        new File(LogSearchIndex.indexPath(logPath)).delete();
+    }
+
+    /**
+     * 日志文件重命名后，索引文件跟着重命名
+     */
+    static void rename(String oldLogPath, String newLogPath) {
+        if (!oldLogPath.equals(newLogPath)) {
+            new File(indexPath(oldLogPath)).renameTo(new File(indexPath(newLogPath)));
+        }
+    }
+
+    /**
+     * 读取日志文件的索引
+     *
+     * @param logPath 日志文件路径
+     * @return 没有索引或索引不可用时返回null
+     */
+    public static LogIndex load(String logPath) {
+        File file = new File(indexPath(logPath));
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            long length = randomAccessFile.length();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) length];
+            randomAccessFile.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(STATE_OFFSET) == STATE_INVALID) {
+                return null;
+            }
+            long lineCount = buffer.getLong(LINE_COUNT_OFFSET);
+            int count = (int) ((length - HEADER_SIZE) / ENTRY_SIZE);
+            int[] lines = new int[count];
+            long[] positions = new long[count];
+            long[] times = new long[count];
+            buffer.position(HEADER_SIZE);
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                lines[size] = buffer.getInt();
+                positions[size] = buffer.getLong();
+                times[size] = buffer.getLong();
+                // 总行数在索引点之后更新，只取已经计入总行数的索引点
+                if (lines[size] < lineCount) {
+                    size++;
+                }
+            }
+            return new LogIndex((int) Math.min(lineCount, Integer.MAX_VALUE),
+                    Arrays.copyOf(lines, size), Arrays.copyOf(positions, size), Arrays.copyOf(times, size));
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+
+                }
+            }
+        }
+    }
+
+    /**
+     * 解析日志行开头的时间，支持LegoLog的格式和logcat的threadtime格式(年份按当前时间推算)
+     *
+     * @return 解析失败返回-1
+     */
+    public static long parseTime(String line) {
+        if (line == null || line.length() < LOGCAT_TIME_FORMAT.length()) {
+            return -1;
+        }
+        return sTimeParser.get().parse(line);
+    }
+
+    private static class TimeParser {
+        private final SimpleDateFormat mLineFormat = new SimpleDateFormat(LINE_TIME_FORMAT);
+        private final SimpleDateFormat mLogcatFormat = new SimpleDateFormat(LOGCAT_TIME_FORMAT);
+        private final ParsePosition mPosition = new ParsePosition(0);
+        private final Calendar mCalendar = Calendar.getInstance();
+
+        long parse(String line) {
+            // "2020-01-01 ..."第5个字符是'-'，"01-01 ..."第3个字符是'-'
+            boolean logcat = line.charAt(2) == '-';
+            if (!logcat && line.length() < LINE_TIME_FORMAT.length()) {
+                return -1;
+            }
+            mPosition.setIndex(0);
+            mPosition.setErrorIndex(-1);
+            Date date = (logcat ? mLogcatFormat : mLineFormat).parse(line, mPosition);
+            if (date == null) {
+                return -1;
+            }
+            if (!logcat) {
+                return date.getTime();
+            }
+            long now = System.currentTimeMillis();
+            mCalendar.setTimeInMillis(now);
+            int year = mCalendar.get(Calendar.YEAR);
+            mCalendar.setTime(date);
+            mCalendar.set(Calendar.YEAR, year);
+            if (mCalendar.getTimeInMillis() > now + 24 * 60 * 60 * 1000L) {
+                // 跨年查看去年的日志
+                mCalendar.add(Calendar.YEAR, -1);
+            }
+            return mCalendar.getTimeInMillis();
+        }
+    }
+
+    /**
+     * 最后一次落盘时文件中的总行数
+     */
+    public int lineCount() {
+        return mLineCount;
+    }
+
+    /**
+     * 索引点个数
+     */
+    public int size() {
+        return mLines.length;
+    }
+
+    /**
+     * 行号不超过line的最后一个索引点
+     *
+     * @return 索引点序号，没有时返回-1
+     */
+    public int floorLine(int line) {
+        int index = Arrays.binarySearch(mLines, line);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * 时间早于time的最后一个索引点，从这里向后读取可以找到第一条不早于time的日志
+     * <p>
+     * 日志时间基本有序(多线程写入时相邻几条可能有毫秒级的乱序)
+     *
+     * @return 索引点序号，没有时返回-1
+     */
+    public int floorTime(long time) {
+        int low = 0;
+        int high = mTimes.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mTimes[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * 索引点的行号(从0开始)
+     */
+    public int line(int index) {
+        return mLines[index];
+    }
+
+    /**
+     * 索引点的位置，传给{@link LogFileReader#seek(long)}
+     */
+    public long position(int index) {
+        return mPositions[index];
+    }
+
+    /**
+     * 索引点的时间
+     */
+    public long time(int index) {
+        return mTimes[index];
+    }
+
+    /**
+     * 索引文件的写入，只在写文件线程中使用，每个{@link LogFile}一个实例
+     * <p>
+     * 写入每行日志前用{@link #mark(int, int, int, long)}记录它在当前批次中的偏移量，落盘时才能确定所在的文件和文件中的位置，
+     * 由{@link #commit(long, boolean)}换算成索引点。
+     */
+    static class Writer {
+
+        // 暂存的索引点，满了之后写入文件
+        private static final int MAX_PENDING_ENTRIES = 64;
+
+        // 当前批次中每条日志的偏移量、二进制格式的块内序号、行数和时间
+        private int[] mMarkOffsets = new int[INTERVAL];
+        private int[] mMarkRecords = new int[INTERVAL];
+        private int[] mMarkLines = new int[INTERVAL];
+        private long[] mMarkTimes = new long[INTERVAL];
+        private int mMarkCount;
+
+        private final ByteBuffer mEntries = ByteBuffer.allocate(ENTRY_SIZE * MAX_PENDING_ENTRIES);
+        private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE);
+        private RandomAccessFile mRandomAccessFile;
+        private FileChannel mChannel;
+        private long mLength;
+        private long mLineCount;
+        // 下一个索引点的最小行号
+        private long mNextIndexLine;
+
+        /**
+         * 新建日志文件对应的索引文件
+         */
+        void open(String logPath) throws IOException {
+            close();
+            mLineCount = 0;
+            mNextIndexLine = 0;
+            RandomAccessFile randomAccessFile = new RandomAccessFile(indexPath(logPath), "rw");
+            try {
+                randomAccessFile.setLength(0);
+                mHeader.clear();
+                mHeader.putInt(MAGIC).putInt(VERSION).putLong(0).putInt(0).putInt(0);
+                mHeader.flip();
+                randomAccessFile.getChannel().write(mHeader, 0);
+            } catch (IOException e) {
+                randomAccessFile.close();
+                throw e;
+            }
+            mRandomAccessFile = randomAccessFile;
+            mChannel = randomAccessFile.getChannel();
+            mLength = HEADER_SIZE;
+        }
+
+        /**
+         * 记录即将写入的一条日志
+         *
+         * @param offset      该条日志(二进制格式为所在数据块)在当前批次中的偏移量
+         * @param recordIndex 二进制格式中该条日志在数据块中的序号，文本格式为0
+         * @param lines       读取时的行数
+         * @param time        日志时间
+         */
+        void mark(int offset, int recordIndex, int lines, long time) {
+            if (mMarkCount == mMarkOffsets.length) {
+                int length = mMarkCount * 2;
+                mMarkOffsets = Arrays.copyOf(mMarkOffsets, length);
+                mMarkRecords = Arrays.copyOf(mMarkRecords, length);
+                mMarkLines = Arrays.copyOf(mMarkLines, length);
+                mMarkTimes = Arrays.copyOf(mMarkTimes, length);
+            }
+            mMarkOffsets[mMarkCount] = offset;
+            mMarkRecords[mMarkCount] = recordIndex;
+            mMarkLines[mMarkCount] = lines;
+            mMarkTimes[mMarkCount] = time;
+            mMarkCount++;
+        }
+
+        /**
+         * 当前批次已写入文件，记录索引点并更新总行数
+         *
+         * @param fileOffset 当前批次在日志文件中的起始位置
+         * @param binary     是否是二进制格式
+         */
+        void commit(long fileOffset, boolean binary) throws IOException {
+            int count = mMarkCount;
+            mMarkCount = 0;
+            if (mChannel == null) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                if (mLineCount >= mNextIndexLine) {
+                    mNextIndexLine = mLineCount + INTERVAL;
+                    long position = fileOffset + mMarkOffsets[i];
+                    if (binary) {
+                        position = (position << LogBinaryDecoder.RECORD_INDEX_BITS) | mMarkRecords[i];
+                    }
+                    if (!mEntries.hasRemaining()) {
+                        writeEntries();
+                    }
+                    mEntries.putInt((int) mLineCount).putLong(position).putLong(mMarkTimes[i]);
+                }
+                mLineCount += mMarkLines[i];
+            }
+            writeEntries();
+            mHeader.clear();
+            mHeader.putLong(mLineCount);
+            mHeader.flip();
+            mChannel.write(mHeader, LINE_COUNT_OFFSET);
+        }
+
+        /**
+         * 当前批次写入失败，丢弃记录的行
+         */
+        void discard() {
+            mMarkCount = 0;
+        }
+
+        /**
+         * 文件中有未记录的行，标记索引不可用
+         */
+        void invalidate() throws IOException {
+            if (mChannel == null) {
+                return;
+            }
+            mHeader.clear();
+            mHeader.putInt(STATE_INVALID);
+            mHeader.flip();
+            mChannel.write(mHeader, STATE_OFFSET);
+            close();
+        }
+
+        private void writeEntries() throws IOException {
+            mEntries.flip();
+            while (mEntries.hasRemaining()) {
+                mLength += mChannel.write(mEntries, mLength);
+            }
+            mEntries.clear();
+        }
+
+        void close() {
+            if (mRandomAccessFile != null) {
+                try {
+                    mRandomAccessFile.close();
+                } catch (IOException e) {
+
+                }
+            }
+            mRandomAccessFile = null;
+            mChannel = null;
+            mEntries.clear();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 带缓冲、可定位的日志文件输入，供{@link LogFileReader}使用
+ * <p>
+ * 普通文件直接定位；压缩文件({@link LogCompressor})向后定位时跳过解压出来的数据，
+ * 向前定位时重新打开再跳过，始终只占用固定大小的缓冲区。
+ */
+abstract class LogInput implements Closeable {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    // mBuffer[0]在(解压后)数据中的偏移量
+    private long mBufferStart;
+    private int mBufferLength;
+    private int mBufferPosition;
+
+    static LogInput open(String path) throws IOException {
+        if (LogCompressor.isCompressed(path)) {
+            return new GzipInput(path);
+        }
+        return new FileInput(path);
+    }
+
+    /**
+     * 从当前位置读取数据
+     *
+     * @return 读取的字节数，结束时返回-1
+     */
+    protected abstract int readRaw(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * 定位到(解压后)数据中的指定位置
+     */
+    protected abstract void seekRaw(long position) throws IOException;
+
+    /**
+     * 下一个字节的位置
+     */
+    final long offset() {
+        return mBufferStart + mBufferPosition;
+    }
+
+    final void seek(long position) throws IOException {
+        if (position >= mBufferStart && position <= mBufferStart + mBufferLength) {
+            mBufferPosition = (int) (position - mBufferStart);
+            return;
+        }
+        seekRaw(position);
+        mBufferStart = position;
+        mBufferLength = 0;
+        mBufferPosition = 0;
+    }
+
+    /**
+     * @return 结束时返回-1
+     */
+    final int read() throws IOException {
+        if (mBufferPosition == mBufferLength && !fill()) {
+            return -1;
+        }
+        return mBuffer[mBufferPosition++] & 0xFF;
+    }
+
+    final int readByte() throws IOException {
+        int b = read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    final void readFully(byte[] bytes, int length) throws IOException {
+        for (int i = 0; i < length; ) {
+            if (mBufferPosition == mBufferLength && !fill()) {
+                throw new EOFException();
+            }
+            int count = Math.min(length - i, mBufferLength - mBufferPosition);
+            System.arraycopy(mBuffer, mBufferPosition, bytes, i, count);
+            mBufferPosition += count;
+            i += count;
+        }
+    }
+
+    final void skip(long length) throws IOException {
+        seek(offset() + length);
+    }
+
+    /**
+     * 读取到下一个换行符(不含)，追加到lineBuffer中
+     *
+     * @return 读到的字节数，没有数据时返回-1
+     */
+    final int readLine(LineBuffer lineBuffer) throws IOException {
+        lineBuffer.length = 0;
+        boolean read = false;
+        while (true) {
+            if (mBufferPosition == mBufferLength && !fill()) {
+                return read ? lineBuffer.length : -1;
+            }
+            read = true;
+            int start = mBufferPosition;
+            int end = start;
+            while (end < mBufferLength && mBuffer[end] != '\n') {
+                end++;
+            }
+            lineBuffer.append(mBuffer, start, end - start);
+            if (end < mBufferLength) {
+                mBufferPosition = end + 1;
+                return lineBuffer.length;
+            }
+            mBufferPosition = end;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        // 缓冲区已读完，底层输入正好在offset()处
+        long start = offset();
+        int length = readRaw(mBuffer, 0, mBuffer.length);
+        if (length <= 0) {
+            return false;
+        }
+        mBufferStart = start;
+        mBufferLength = length;
+        mBufferPosition = 0;
+        return true;
+    }
+
+    /**
+     * 可复用的行缓冲区
+     */
+    static class LineBuffer {
+        byte[] bytes = new byte[256];
+        int length;
+
+        void append(byte[] src, int offset, int count) {
+            if (length + count > bytes.length) {
+                byte[] newBytes = new byte[Math.max(bytes.length * 2, length + count)];
+                System.arraycopy(bytes, 0, newBytes, 0, length);
+                bytes = newBytes;
+            }
+            System.arraycopy(src, offset, bytes, length, count);
+            length += count;
+        }
+    }
+
+    static class FileInput extends LogInput {
+        private final RandomAccessFile mRandomAccessFile;
+
+        FileInput(String path) throws IOException {
+            mRandomAccessFile = new RandomAccessFile(path, "r");
+        }
+
+        @Override
+        protected int readRaw(byte[] buffer, int offset, int length) throws IOException {
+            return mRandomAccessFile.read(buffer, offset, length);
+        }
+
+        @Override
+        protected void seekRaw(long position) throws IOException {
+            mRandomAccessFile.seek(position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mRandomAccessFile.close();
+        }
+    }
+
+    static class GzipInput extends LogInput {
+        private final String mPath;
+        private InputStream mInputStream;
+        // 底层解压流的位置
+        private long mPosition;
+
+        GzipInput(String path) throws IOException {
+            mPath = path;
+            reopen();
+        }
+
+        private void reopen() throws IOException {
+            close();
+            FileInputStream fileInputStream = new FileInputStream(mPath);
+            try {
+                mInputStream = new GZIPInputStream(fileInputStream, BUFFER_SIZE);
+            } catch (IOException e) {
+                fileInputStream.close();
+                throw e;
+            }
+            mPosition = 0;
+        }
+
+        @Override
+        protected int readRaw(byte[] buffer, int offset, int length) throws IOException {
+            int count = mInputStream.read(buffer, offset, length);
+            if (count > 0) {
+                mPosition += count;
+            }
+            return count;
+        }
+
+        @Override
+        protected void seekRaw(long position) throws IOException {
+            if (position < mPosition) {
+                reopen();
+            }
+            while (mPosition < position) {
+                long skipped = mInputStream.skip(position - mPosition);
+                if (skipped <= 0) {
+                    // 已到文件末尾
+                    return;
+                }
+                mPosition += skipped;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mInputStream != null) {
+                mInputStream.close();
+                mInputStream = null;
+            }
+        }
+    }
+}
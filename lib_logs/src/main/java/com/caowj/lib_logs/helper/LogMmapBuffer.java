@@ -0,0 +1,137 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于mmap的日志暂存区(参考xlog/mars)
+ * <p>
+ * 日志先按批次追加到映射内存中，达到阈值后再整块写入.log文件。映射页由系统内核持有，
+ * 进程被杀或OOM时暂存区中的日志不会丢失，下次启动时由{@link LogFile#openMmapBuffer(File)}恢复。
+ * <p>
+ * 文件结构：[MAGIC(4字节)][已写入长度(4字节)][日志数据...]
+ */
+class LogMmapBuffer {
+
+    static final int BUFFER_SIZE = 128 * 1024;
+    private static final int MAGIC = 0x4C474D31;
+    private static final int HEADER_SIZE = 8;
+    private static final int LENGTH_OFFSET = 4;
+    private static final int DATA_CAPACITY = BUFFER_SIZE - HEADER_SIZE;
+
+    private final RandomAccessFile mRandomAccessFile;
+    private final MappedByteBuffer mBuffer;
+    private int mLength;
+
+    LogMmapBuffer(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        if (mRandomAccessFile.length() < BUFFER_SIZE) {
+            mRandomAccessFile.setLength(BUFFER_SIZE);
+        }
+        mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, BUFFER_SIZE);
+
+        if (mBuffer.getInt(0) == MAGIC) {
+            // 上次进程退出时残留的日志
+            int length = mBuffer.getInt(LENGTH_OFFSET);
+            mLength = length > 0 && length <= DATA_CAPACITY ? length : 0;
+        } else {
+            mBuffer.putInt(0, MAGIC);
+            mLength = 0;
+        }
+        mBuffer.putInt(LENGTH_OFFSET, mLength);
+    }
+
+    /**
+     * 暂存区中未写入文件的字节数
+     */
+    int length() {
+        return mLength;
+    }
+
+    int capacity() {
+        return DATA_CAPACITY;
+    }
+
+    /**
+     * 写入视图中的数据长度，包括未提交的部分
+     */
+    int lengthOf(ByteBuffer view) {
+        return view.position() - HEADER_SIZE;
+    }
+
+    /**
+     * 写入视图，从当前长度处开始写，写完后调用{@link #commit(ByteBuffer)}提交
+     */
+    ByteBuffer writeView() {
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(HEADER_SIZE + mLength);
+        return view;
+    }
+
+    /**
+     * 提交写入视图中已写入的数据
+     * <p>
+     * 数据写完后才更新长度，恢复时读到的都是已提交的完整批次
+     */
+    void commit(ByteBuffer view) {
+        int length = view.position() - HEADER_SIZE;
+        if (length != mLength) {
+            mLength = length;
+            mBuffer.putInt(LENGTH_OFFSET, mLength);
+        }
+    }
+
+    /**
+     * 暂存区中未写入文件的数据视图，写入文件后需调用{@link #clear()}
+     */
+    ByteBuffer pending() {
+        ByteBuffer pending = mBuffer.duplicate();
+        pending.limit(HEADER_SIZE + mLength);
+        pending.position(HEADER_SIZE);
+        return pending;
+    }
+
+    /**
+     * 前count个字节已写入文件，剩余的数据移到开头，之后重新写入
+     * <p>
+     * 移动期间长度记为0，这时进程退出只会丢掉剩余部分，不会恢复出错位的数据
+     */
+    void consume(int count) {
+        if (count >= mLength) {
+            clear();
+            return;
+        }
+        if (count <= 0) {
+            return;
+        }
+        int remaining = mLength - count;
+        mBuffer.putInt(LENGTH_OFFSET, 0);
+        // 目标位置在前，从前往后逐字节复制不会覆盖未复制的数据
+        for (int i = 0; i < remaining; i++) {
+            mBuffer.put(HEADER_SIZE + i, mBuffer.get(HEADER_SIZE + count + i));
+        }
+        mLength = remaining;
+        mBuffer.putInt(LENGTH_OFFSET, mLength);
+    }
+
+    void clear() {
+        mLength = 0;
+        mBuffer.putInt(LENGTH_OFFSET, 0);
+    }
+
+    void close() {
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.caowj.lib_logs.helper;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LegoLog日志过载策略
+ * <p>
+ * 1.按缓冲区占用比例分级丢弃：先丢Verbose，再丢Debug，缓冲区最后1/8只留给Error及isRecord=true的日志，
+ * Error及isRecord=true的日志永远不丢；<br>
+ * 2.按TAG令牌桶限流；<br>
+ * 3.记录每个TAG被丢弃的条数，由写文件线程定期写一行汇总。
+ * <p>
+ * Error及isRecord=true的日志在缓冲区满时最多等待{@link LogRecord#CRITICAL_WAIT_NANOS}，超时后同样丢弃并计入汇总；
+ * 主线程上的日志不等待，直接丢弃并计入汇总。
+ *
+ * @see LogBuilder#overloadShedding(boolean)
+ * @see LogBuilder#rateLimit(String, int, int)
+ */
+class LogOverloadPolicy {
+
+    // 默认限流最多保留的TAG个数，TAG是动态拼接的字符串时防止令牌桶无限增长
+    static final int MAX_DEFAULT_BUCKETS = 256;
+    // 令牌桶数量达到上限后，两次清理空闲令牌桶的最小间隔
+    private static final long EVICT_INTERVAL_NANOS = 1000 * 1000 * 1000L;
+    // 丢弃计数已被汇总取出
+    private static final int DRAINED = -1;
+
+    private final boolean mShedding;
+    // 单独配置了限流的TAG，配置后只读
+    private final Map<String, TokenBucket> mTagBuckets = new HashMap<>();
+    // 默认限流，为null时不限流
+    private final RateLimit mDefaultRateLimit;
+    private final ConcurrentHashMap<String, TokenBucket> mDefaultBuckets = new ConcurrentHashMap<>();
+    // 令牌桶数量达到上限后，新出现的TAG共用这个令牌桶
+    private final TokenBucket mOverflowBucket;
+    private volatile long mLastEvictTime;
+    // 每个TAG被丢弃的条数
+    private final ConcurrentHashMap<String, AtomicInteger> mDroppedCounts = new ConcurrentHashMap<>();
+    private volatile boolean mHasDropped;
+
+    LogOverloadPolicy(LogcatRecord.LogcatConfig config) {
+        mShedding = config.overloadShedding;
+        mDefaultRateLimit = config.defaultRateLimit;
+        mOverflowBucket = mDefaultRateLimit != null ? new TokenBucket(mDefaultRateLimit) : null;
+        if (config.tagRateLimits != null) {
+            for (Map.Entry<String, RateLimit> entry : config.tagRateLimits.entrySet()) {
+                mTagBuckets.put(entry.getKey(), new TokenBucket(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * 不受丢弃和限流控制的日志
+     */
+    static boolean isCritical(LogPriority priority, boolean isRecord) {
+        return isRecord || priority.priority() >= LogPriority.Error.priority();
+    }
+
+    /**
+     * 指定级别的日志最多允许占用的缓冲区条数
+     *
+     * @param capacity 缓冲区容量
+     */
+    int limit(LogPriority priority, int capacity) {
+        if (!mShedding) {
+            return capacity;
+        }
+        switch (priority) {
+            case Verbose:
+                return capacity / 2;
+            case Debug:
+                return capacity * 3 / 4;
+            case Info:
+            case Warn:
+                return capacity * 7 / 8;
+            default:
+                return capacity;
+        }
+    }
+
+    /**
+     * 按TAG限流
+     *
+     * @return true-允许写入;false-超出限流
+     */
+    boolean tryAcquire(String tag) {
+        TokenBucket bucket = mTagBuckets.get(tag);
+        if (bucket == null) {
+            if (mDefaultRateLimit == null) {
+                return true;
+            }
+            bucket = mDefaultBuckets.get(tag);
+            if (bucket == null) {
+                bucket = newDefaultBucket(tag);
+            }
+        }
+        return bucket.tryAcquire(System.nanoTime());
+    }
+
+    private TokenBucket newDefaultBucket(String tag) {
+        if (mDefaultBuckets.size() >= MAX_DEFAULT_BUCKETS && !evictIdleBuckets()) {
+            return mOverflowBucket;
+        }
+        TokenBucket newBucket = new TokenBucket(mDefaultRateLimit);
+        TokenBucket bucket = mDefaultBuckets.putIfAbsent(tag, newBucket);
+        return bucket != null ? bucket : newBucket;
+    }
+
+    /**
+     * 移除已经补满的令牌桶，补满的令牌桶与新建的等价，移除后不影响限流
+     *
+     * @return true-有空出的位置
+     */
+    private boolean evictIdleBuckets() {
+        long now = System.nanoTime();
+        if (mLastEvictTime != 0 && now - mLastEvictTime < EVICT_INTERVAL_NANOS) {
+            return false;
+        }
+        mLastEvictTime = now;
+        Iterator<TokenBucket> iterator = mDefaultBuckets.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isFull(now)) {
+                iterator.remove();
+            }
+        }
+        return mDefaultBuckets.size() < MAX_DEFAULT_BUCKETS;
+    }
+
+    void onDropped(String tag) {
+        while (true) {
+            AtomicInteger count = mDroppedCounts.get(tag);
+            if (count == null) {
+                AtomicInteger newCount = new AtomicInteger();
+                count = mDroppedCounts.putIfAbsent(tag, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            int value = count.get();
+            if (value == DRAINED) {
+                // 汇总时已经取出，换一个新的计数
+                mDroppedCounts.remove(tag, count);
+                continue;
+            }
+            if (count.compareAndSet(value, value + 1)) {
+                break;
+            }
+        }
+        mHasDropped = true;
+    }
+
+    boolean hasDropped() {
+        return mHasDropped;
+    }
+
+    /**
+     * 取出并移除各TAG的丢弃条数
+     *
+     * @param visitor 每个有丢弃的TAG回调一次
+     */
+    void drainDropped(DroppedVisitor visitor) {
+        mHasDropped = false;
+        for (Map.Entry<String, AtomicInteger> entry : mDroppedCounts.entrySet()) {
+            // 取出后移除，TAG是动态拼接的字符串时不会无限增长；标记为已取出，之后的丢弃计入新的计数
+            int count = entry.getValue().getAndSet(DRAINED);
+            mDroppedCounts.remove(entry.getKey(), entry.getValue());
+            if (count > 0) {
+                visitor.onDropped(entry.getKey(), count);
+            }
+        }
+    }
+
+    interface DroppedVisitor {
+        void onDropped(String tag, int count);
+    }
+
+    /**
+     * 限流参数
+     */
+    static class RateLimit {
+        // 每秒允许的条数
+        final int linesPerSecond;
+        // 突发允许的最大条数
+        final int burst;
+
+        RateLimit(int linesPerSecond, int burst) {
+            this.linesPerSecond = Math.max(1, linesPerSecond);
+            this.burst = Math.max(1, burst);
+        }
+    }
+
+    /**
+     * 令牌桶，令牌按时间连续补充
+     */
+    static class TokenBucket {
+        private final double mTokensPerNano;
+        private final double mCapacity;
+        private double mTokens;
+        private long mLastTime;
+
+        TokenBucket(RateLimit rateLimit) {
+            mTokensPerNano = rateLimit.linesPerSecond / 1e9;
+            mCapacity = rateLimit.burst;
+            mTokens = mCapacity;
+            mLastTime = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            mTokens = Math.min(mCapacity, mTokens + (now - mLastTime) * mTokensPerNano);
+            mLastTime = now;
+            if (mTokens < 1) {
+                return false;
+            }
+            mTokens -= 1;
+            return true;
+        }
+
+        synchronized boolean isFull(long now) {
+            return mTokens + (now - mLastTime) * mTokensPerNano >= mCapacity;
+        }
+    }
+}
@@ -7,37 +7,78 @@ import android.util.Log;
 
 import com.caowj.lib_logs.LegoLog;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.lang.ref.WeakReference;
 import java.util.Collection;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class LogRecord {
 
     static final String TAG = "LogRecord";
     static final String NET_TAG = "LegoHttpLog";
-
-    LinkedBlockingQueue<LogInfo> logLinkedBlockingQueue;
+    // mmap暂存区空闲时写入文件的间隔
+    static final long FLUSH_INTERVAL_MS = 3000;
+    // Error日志等待缓冲区空出位置时每次挂起的时间
+    static final long CRITICAL_RETRY_NANOS = 1000 * 1000L;
+    // Error日志最长等待时间，写文件线程卡住(如磁盘IO阻塞)时不能一直阻塞调用线程；主线程不等待
+    static final long CRITICAL_WAIT_NANOS = 300 * 1000 * 1000L;
+
+    LogRingBuffer mRingBuffer;
+    // 缓冲区写满、限流或等待超时而被丢弃的日志总条数
+    final AtomicLong mDroppedCount = new AtomicLong();
+    LogOverloadPolicy mOverloadPolicy;
+    // 按日志类型合并连续重复日志，只在写文件线程中使用，为null时不合并
+    LogRepeatCollapser[] mRepeatCollapsers;
 
     static LogRecord INSTANCE;
-    WeakReference<OnPrintLogListener> mOnPrintLogListener;
+    // setOnPrintLogListener对应的订阅
+    LogTail.Subscription mPrintLogSubscription;
     WriteLogThread nWriteLogThread;
     //    LogRecordConfig nLogRecordConfig;
     Map<Integer, LogFile> nLogFileMap = new HashMap<>();
     private static int PID = android.os.Process.myPid();
     private static String PName;
+    // 每行日志中时间之后的固定部分：" PID-进程名/? "
+    private static String PROCESS_INFO;
     LogcatRecord.LogcatConfig mLogRecordConfig;
     boolean mIsStop = false;
     Handler mHandler = new Handler(Looper.getMainLooper());
+    // mmap暂存区所在目录，放在应用私有目录下
+    String mMmapFolderPath;
 
     void startRecord(LogcatRecord.LogcatConfig config) {
         if(mLogRecordConfig == null||mIsStop){// 配置以第一次为主，防止插件覆盖宿主
             mLogRecordConfig = config;
             LogFile.LOG_FILE_MAX_SIZE = config.maxFileSize;
+            LogFile.COMPRESS_ROTATED = config.compressRotated;
+            LogFile.SEARCH_INDEX = config.searchIndex;
+            if (config.lineIndex) {
+                for (LogFile logFile : nLogFileMap.values()) {
+                    logFile.enableLineIndex();
+                }
+            }
+            if (config.logFormat == LogBuilder.LogFormat.BINARY) {
+                byte[] fileHeader = LogBinaryDecoder.fileHeader(PID, PName);
+                for (LogFile logFile : nLogFileMap.values()) {
+                    logFile.setBinaryFormat(fileHeader);
+                }
+            }
+        }
+        if (mRingBuffer == null) {
+            mRingBuffer = new LogRingBuffer(mLogRecordConfig.ringBufferSize, mLogRecordConfig.waitStrategy);
+        }
+        if (mOverloadPolicy == null) {
+            mOverloadPolicy = new LogOverloadPolicy(mLogRecordConfig);
+        }
+        if (mRepeatCollapsers == null && mLogRecordConfig.repeatCollapseWindowMs > 0) {
+            mRepeatCollapsers = new LogRepeatCollapser[LogTypeEnum.values().length];
+            for (int i = 0; i < mRepeatCollapsers.length; i++) {
+                mRepeatCollapsers[i] = new LogRepeatCollapser(mLogRecordConfig.repeatCollapseWindowMs);
+            }
         }
 
         start();
@@ -57,20 +98,23 @@ public class LogRecord {
     private LogRecord(Context context) {
         Constance.initLogFolder(context);
         PName = Constance.getProcessName(context);
-        logLinkedBlockingQueue = new LinkedBlockingQueue<LogInfo>();
+        PROCESS_INFO = " " + PID + "-" + PName + "/? ";
+        mMmapFolderPath = context.getFilesDir().getAbsolutePath() + File.separator + "lego_log_mmap";
 //        nLogFileMap.put(LogTypeEnum.Crash.ordinal(), new LogFile(context, LogTypeEnum.Crash));
         nLogFileMap.put(LogTypeEnum.Net.ordinal(), new LogFile(context, LogTypeEnum.Net));
 //        nLogFileMap.put(LogTypeEnum.Logcat.ordinal(), new LogFile(context, LogTypeEnum.Logcat));
         nLogFileMap.put(LogTypeEnum.Bussiness.ordinal(), new LogFile(context, LogTypeEnum.Bussiness));
     }
 
+    /**
+     * 监听net/bussiness日志，只能有一个监听；需要多个订阅者或过滤条件时使用{@link LogTail}
+     */
     public void setOnPrintLogListener(OnPrintLogListener onPrintLogListener) {
 
-        if (mOnPrintLogListener != null) {
-            mOnPrintLogListener.clear();
-        }
+        LogTail.unsubscribe(mPrintLogSubscription);
+        mPrintLogSubscription = null;
         if (onPrintLogListener != null) {
-            mOnPrintLogListener = new WeakReference<OnPrintLogListener>(onPrintLogListener);
+            mPrintLogSubscription = LogTail.subscribe(onPrintLogListener, LogTypeEnum.Net, LogTypeEnum.Bussiness);
         }
 
     }
@@ -123,6 +167,27 @@ public class LogRecord {
 
     }
 
+    /**
+     * 指定级别的日志是否会被记录到文件中
+     *
+     * @param tag         日志TAG
+     * @param logPriority 日志级别
+     * @return true-会被记录
+     */
+    public static boolean isLoggable(String tag, LogPriority logPriority) {
+        LogRecord record = INSTANCE;
+        return record != null && record.isRunning()
+                && logPriority.priority() >= record.mLogRecordConfig.priority.priority();
+    }
+
+    /**
+     * 启动以来被丢弃的日志总条数，各TAG的明细见日志文件中的丢弃汇总
+     */
+    public static long getDroppedCount() {
+        LogRecord record = INSTANCE;
+        return record != null ? record.mDroppedCount.get() : 0;
+    }
+
     //    public static void writeLog(LogTypeEnum logType, LogPriority logLevel, String tag, String logContent) {
 //        if (INSTANCE != null) {
 //            INSTANCE.write(logType, tag, logContent);
@@ -131,23 +196,48 @@ public class LogRecord {
 //    }
 
     private void write(LogPriority logPriority, LogTypeEnum logType, String tag, String logContent, boolean isRecord) {
-        StringBuilder stringBuilder  = new StringBuilder();
-        stringBuilder.append(Constance.LOG_DATA_TIME_FORMAT.format(new Date()))
-                .append(PID).append("-").append(PName).append("/? ").append(logPriority).append("/")
-                .append(tag).append(logContent).append('\n');
         if (logPriority.priority() >= mLogRecordConfig.priority.priority() || isRecord) {
-//            logContent = String.format(Locale.CHINESE, "%s %d-%s/? %s/%s: %s",
-//                    Constance.LOG_DATA_TIME_FORMAT.format(new Date()), PID, PName, logPriority, tag, logContent) + '\n';
-
+            // 调用线程只记录原始字段(时间在publish时取)，格式化和编码在写文件线程中完成
             if (tag.contains(NET_TAG)) {
                 logType = LogTypeEnum.Net;
             }
-            logLinkedBlockingQueue.offer(new LogInfo(logType, stringBuilder.toString()));
+            if (!LogOverloadPolicy.isCritical(logPriority, isRecord)) {
+                if (!mOverloadPolicy.tryAcquire(tag)
+                        || !mRingBuffer.publish(logPriority, logType, tag, logContent, isRecord,
+                        mOverloadPolicy.limit(logPriority, mRingBuffer.capacity()))) {
+                    drop(tag);
+                }
+                return;
+            }
+            // Error及强制记录的日志尽量不丢弃，缓冲区满时等待写文件线程腾出位置，超时后丢弃并计入汇总
+            long deadline = 0;
+            while (!mRingBuffer.publish(logPriority, logType, tag, logContent, isRecord)) {
+                Thread writeThread = nWriteLogThread;
+                if (writeThread == null || writeThread == Thread.currentThread() || !isRunning()
+                        || Looper.myLooper() == Looper.getMainLooper()) {
+                    // 写文件线程自己写日志或已停止时不能等待；主线程等待会卡顿甚至ANR
+                    drop(tag);
+                    return;
+                }
+                long now = System.nanoTime();
+                if (deadline == 0) {
+                    deadline = now + CRITICAL_WAIT_NANOS;
+                } else if (now - deadline >= 0) {
+                    drop(tag);
+                    return;
+                }
+                LockSupport.parkNanos(this, CRITICAL_RETRY_NANOS);
+            }
 
         }
 
     }
 
+    private void drop(String tag) {
+        mDroppedCount.incrementAndGet();
+        mOverloadPolicy.onDropped(tag);
+    }
+
     class WriteLogThread extends Thread {
 
         public WriteLogThread() {
@@ -159,44 +249,65 @@ public class LogRecord {
             LegoLog.d(TAG, "WriteLogThread start" + WriteLogThread.this.toString(), true);
             // 清除之前的LOG
             clearLog();
-//            MappedByteBuffer buffer = null;
-//            RandomAccessFile randomAccessFile = null;
-            FileOutputStream fileOutputStream = null;
+            // 恢复上次进程退出时残留在mmap暂存区中的日志
+            openMmapBuffer();
+            LogEncoder encoder = LogEncoder.get();
             LogInfo logInfo = null;
-            LogFile logFile = null;
+            long lastFlushTime = System.currentTimeMillis();
+            long lastSummaryTime = lastFlushTime;
+            final long summaryInterval = mLogRecordConfig.dropSummaryIntervalMs;
+            final int batchSize = mLogRecordConfig.batchSize;
+            final long batchLatencyNanos = TimeUnit.MICROSECONDS.toNanos(mLogRecordConfig.batchLatencyUs);
             while (!isInterrupted()) {
-                try {
-                    logInfo = logLinkedBlockingQueue.take();
-                } catch (Exception e) {
-                   continue;
+                logInfo = mRingBuffer.take(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS));
+                if (logInfo == null) {
+                    if (isInterrupted()) {
+                        break;
+                    }
+                    // 空闲超时，把暂存区中的日志写入文件
+                    lastFlushTime = System.currentTimeMillis();
+                    if (lastFlushTime - lastSummaryTime >= summaryInterval) {
+                        writeDroppedSummary(encoder, lastFlushTime);
+                        lastSummaryTime = lastFlushTime;
+                    }
+                    writeRepeated(encoder);
+                    flushFile();
+                    continue;
                 }
 
-                if (logInfo != null && logInfo.log != null) {
-
-                    if (mOnPrintLogListener != null && mOnPrintLogListener.get() != null) {
-                        mOnPrintLogListener.get().onPrintLog(logInfo.logType,logInfo.log);
+                // 批量取出日志：最多batchSize条，或等待不超过batchLatency
+                final long batchDeadline = System.nanoTime() + batchLatencyNanos;
+                long logTime = 0;
+                int count = 0;
+                while (logInfo != null) {
+                    logTime = logInfo.time;
+                    writeLogInfo(encoder, logInfo);
+                    mRingBuffer.release();
+                    if (++count >= batchSize) {
+                        break;
                     }
-
-                    logFile = nLogFileMap.get(logInfo.logType.ordinal());
-
-                    byte[] logBytes =  logInfo.log.getBytes();
-                    try {
-                        fileOutputStream = logFile.getFileOutputStream(logBytes.length );
-//                        randomAccessFile = logFile.getRandomAccessFile(logBytes.length);
-
-//                        buffer = randomAccessFile.getChannel()
-//                                .map(FileChannel.MapMode.READ_WRITE, randomAccessFile.length(), logBytes.length);
-//                        buffer.put(logBytes);
-                        fileOutputStream.write(logBytes);
-                    } catch (IOException e) {
-                        // 这里不能使用LegoLog,因为如果没有SD读写权限，会一直循环执行
-                        Log.e(TAG, null, e);
+                    logInfo = mRingBuffer.poll();
+                    if (logInfo == null) {
+                        long waitNanos = batchDeadline - System.nanoTime();
+                        if (waitNanos <= 0) {
+                            break;
+                        }
+                        logInfo = mRingBuffer.take(waitNanos);
                     }
-
                 }
+                if (logTime - lastSummaryTime >= summaryInterval) {
+                    writeDroppedSummary(encoder, logTime);
+                    lastSummaryTime = logTime;
+                }
+                commitFile();
 
+                if (logTime - lastFlushTime > FLUSH_INTERVAL_MS) {
+                    flushFile();
+                    lastFlushTime = logTime;
+                }
             }
 
+            resetRepeated(encoder);
             closeFile();
             if(!mIsStop){
                 // 重新拉起线程
@@ -214,10 +325,166 @@ public class LogRecord {
 
     }
 
+    /**
+     * 将一条日志格式化后直接编码到对应文件的当前批次中
+     */
+    private void writeLogInfo(LogEncoder encoder, LogInfo logInfo) {
+        if (logInfo.log == null) {
+            return;
+        }
+        LogRepeatCollapser collapser = mRepeatCollapsers != null ? mRepeatCollapsers[logInfo.logType.ordinal()] : null;
+        if (collapser != null) {
+            if (collapser.collapse(logInfo.time, logInfo.priority, logInfo.tag, logInfo.log)) {
+                return;
+            }
+            writeRepeated(encoder, logInfo.logType, collapser);
+        }
+        writeLine(encoder, logInfo.time, logInfo.logType, logInfo.priority, logInfo.tag, logInfo.log);
+        if (collapser != null) {
+            collapser.remember(logInfo.time, logInfo.priority, logInfo.tag, logInfo.log,
+                    nLogFileMap.get(logInfo.logType.ordinal()).position());
+        }
+    }
+
+    /**
+     * 补写所有日志类型中尚未写入的重复条数
+     */
+    private void writeRepeated(LogEncoder encoder) {
+        if (mRepeatCollapsers == null) {
+            return;
+        }
+        for (int i = 0; i < mRepeatCollapsers.length; i++) {
+            writeRepeated(encoder, LogTypeEnum.values()[i], mRepeatCollapsers[i]);
+        }
+    }
+
+    private void writeRepeated(LogEncoder encoder, LogTypeEnum logType, LogRepeatCollapser collapser) {
+        if (!collapser.hasRepeated()) {
+            return;
+        }
+        LogPriority priority = collapser.priority();
+        String tag = collapser.tag();
+        String content = collapser.content();
+        long time = collapser.lastTime();
+        boolean rotated = !nLogFileMap.get(logType.ordinal()).isInCurrentFile(collapser.endPosition());
+        int count = collapser.drainRepeatCount();
+        if (rotated) {
+            // 第一条可能已在切分前的文件中，重复的计数不能跨文件
+            writeLine(encoder, time, logType, priority, tag, content);
+            count--;
+        }
+        if (count > 0) {
+            writeLine(encoder, time, logType, priority, tag,
+                    LogRepeatCollapser.REPEATED_FORMAT_PREFIX + count + LogRepeatCollapser.REPEATED_FORMAT_SUFFIX);
+        }
+    }
+
+    /**
+     * 补写重复条数后清空合并状态，写文件线程结束时调用
+     */
+    private void resetRepeated(LogEncoder encoder) {
+        writeRepeated(encoder);
+        if (mRepeatCollapsers == null) {
+            return;
+        }
+        for (LogRepeatCollapser collapser : mRepeatCollapsers) {
+            collapser.reset();
+        }
+    }
+
+    /**
+     * 写入各TAG被丢弃条数的汇总
+     */
+    private void writeDroppedSummary(final LogEncoder encoder, final long time) {
+        if (!mOverloadPolicy.hasDropped()) {
+            return;
+        }
+        mOverloadPolicy.drainDropped(new LogOverloadPolicy.DroppedVisitor() {
+            @Override
+            public void onDropped(String tag, int count) {
+                writeLine(encoder, time, LogTypeEnum.Bussiness, LogPriority.Warn, TAG,
+                        count + " lines dropped for tag " + tag);
+            }
+        });
+    }
+
+    private void writeLine(LogEncoder encoder, long time, LogTypeEnum logType, LogPriority priority, String tag, String content) {
+        LogFile logFile = nLogFileMap.get(logType.ordinal());
+        LogBinaryEncoder binaryEncoder = logFile.binaryEncoder();
+        boolean tail = LogTail.wants(logType, priority);
+        StringBuilder line = null;
+        // 二进制格式只在有订阅时才需要拼接文本
+        if (binaryEncoder == null || tail) {
+            line = encoder.format(time, PROCESS_INFO, priority, tag, content);
+        }
+        if (tail) {
+            // 只放入订阅者的缓冲区，不等待订阅者处理
+            LogTail.publish(logType, priority, tag, line.toString());
+        }
+
+        try {
+            if (binaryEncoder != null) {
+                binaryEncoder.write(encoder, time, priority, tag, content);
+            } else {
+                // 尽量让一行日志落在同一块缓冲区中，不会被切分到两个文件里
+                logFile.buffer(Math.min(line.length() * 3, logFile.maxContiguous()));
+                logFile.markLine(time, line);
+                encoder.encode(line, logFile);
+            }
+        } catch (IOException e) {
+            // 这里不能使用LegoLog,因为如果没有SD读写权限，会一直循环执行
+            Log.e(TAG, null, e);
+        }
+    }
+
+    private void commitFile() {
+        Collection<LogFile> logFiles = nLogFileMap.values();
+        for (LogFile logFile : logFiles) {
+            try {
+                logFile.commit();
+            } catch (IOException e) {
+                Log.e(TAG, null, e);
+            }
+        }
+    }
+
+    private void openMmapBuffer() {
+        for (Map.Entry<Integer, LogFile> entry : nLogFileMap.entrySet()) {
+            LogTypeEnum logType = LogTypeEnum.values()[entry.getKey()];
+            // 多进程时每个进程使用各自的暂存区
+            // 不同格式的暂存区分开，切换格式后不会混在同一个文件里
+            File mmapFile = new File(mMmapFolderPath, (PName == null ? "main" : PName) + "_"
+                    + Constance.LOG_FOLDER_NAME_MAP.get(logType)
+                    + (entry.getValue().binaryEncoder() != null ? "_bin" : "") + ".mmap");
+            if (mLogRecordConfig.mmapBuffer) {
+                entry.getValue().openMmapBuffer(mmapFile);
+            } else {
+                entry.getValue().recoverMmapBuffer(mmapFile);
+            }
+        }
+    }
+
+    private void flushFile() {
+        Collection<LogFile> logFiles = nLogFileMap.values();
+        for (LogFile logFile : logFiles) {
+            try {
+                logFile.flush();
+            } catch (IOException e) {
+                Log.e(TAG, null, e);
+            }
+        }
+    }
+
     private void clearLog() {
         Collection<LogFile> logFiles = nLogFileMap.values();
         for (LogFile logFile : logFiles) {
-            Constance.autoClearLog(mLogRecordConfig.retainDay, logFile.getFolderPath(), TAG);
+            LogRetention.getInstance().register(logFile.getLogType(), logFile.getFolderPath(), mLogRecordConfig.retainDay);
+            if (LogFile.SEARCH_INDEX) {
+                LogSearchIndex.buildMissingAsync(logFile.getFolderPath());
+            }
+            if (LogFile.COMPRESS_ROTATED) {
+                LogCompressor.compressRotatedAsync(logFile.getFolderPath());
+            }
         }
     }
 
@@ -228,10 +495,19 @@ public class LogRecord {
         }
     }
 
+    /**
+     * 环形缓冲区中的日志槽位，由{@link LogRingBuffer}预先分配并循环复用
+     * <p>
+     * log为原始日志内容，写文件时再由{@link LogEncoder}拼接成完整的一行
+     */
     public static class LogInfo {
 
         String log;
         LogTypeEnum logType;
+        LogPriority priority;
+        String tag;
+        boolean isRecord;
+        long time;
 
         public LogInfo(LogTypeEnum logType, String log) {
             this.logType = logType;
@@ -0,0 +1,480 @@
+package com.caowj.lib_logs.helper;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.lang.reflect.Array;
+import java.nio.CharBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 日志对象的格式化，按类型注册
+ * <p>
+ * LegoLog打印非String对象时按对象的类型查找格式化方式(先找类本身，再找父类和接口；数组只按实际类型查找)，
+ * 写入当前线程复用的{@link Output}。Output限制集合、数组输出的元素个数和每个对象输出的长度，超过的部分不会生成，
+ * 打印很大的集合也不会分配大量内存。String、StringBuilder等CharSequence不经过格式化，原样输出，不限制长度。
+ * <p>
+ * 内置Collection、Map、数组、byte[]、Throwable、JSONObject/JSONArray的格式化，其他类型使用toString()。
+ * 自定义类型，如用Gson输出实体类：
+ * <pre>
+ * LogRenderer.register(User.class, new LogRenderer.Renderer&lt;User&gt;() {
+ *     public void render(User user, LogRenderer.Output output) {
+ *         output.append(gson.toJson(user));
+ *     }
+ * });
+ * </pre>
+ */
+public class LogRenderer {
+
+    // 默认集合、数组、堆栈最多输出的元素个数
+    static final int MAX_ELEMENTS_DEFAULT = 100;
+    // 默认一个格式化的对象最多输出的字符数
+    static final int MAX_LENGTH_DEFAULT = 64 * 1024;
+    // 嵌套超过该层数时不再展开，防止集合包含自身时无限递归
+    private static final int MAX_DEPTH = 8;
+    // 回收时容量超过该值的Output不保留内容数组，避免线程长期占用大块内存
+    private static final int RETAIN_CAPACITY = 16 * 1024;
+    private static final String TRUNCATED = "...(已截断)";
+    private static final String MORE_FORMAT = "...(共%d个)";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ConcurrentHashMap<Class<?>, Renderer<?>> sRenderers = new ConcurrentHashMap<>();
+    // 实际类型对应的格式化方式，注册或取消注册时清空
+    private static final ConcurrentHashMap<Class<?>, Renderer<?>> sResolved = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Output> sOutput = new ThreadLocal<>();
+    private static volatile int sMaxElements = MAX_ELEMENTS_DEFAULT;
+    private static volatile int sMaxLength = MAX_LENGTH_DEFAULT;
+
+    /**
+     * 一种类型的格式化方式
+     */
+    public interface Renderer<T> {
+        /**
+         * 把对象写入output，集合中的元素使用{@link Output#appendValue(Object)}写入；
+         * {@link Output#isFull()}后应停止遍历
+         */
+        void render(T value, Output output);
+    }
+
+    /**
+     * 格式化结果，限制元素个数和总长度；每个线程复用一个
+     */
+    public static class Output implements CharSequence {
+        private final StringBuilder mBuilder = new StringBuilder(256);
+        private int mMaxElements;
+        private int mMaxLength;
+        // 正在格式化的对象最多写到的位置，不在格式化对象时不限制
+        private int mLimit = Integer.MAX_VALUE;
+        private int mDepth;
+        private boolean mTruncated;
+        private boolean mInUse;
+
+        Output() {
+        }
+
+        public Output append(CharSequence s) {
+            if (s == null) {
+                s = "null";
+            }
+            return append(s, 0, s.length());
+        }
+
+        public Output append(CharSequence s, int start, int end) {
+            if (mTruncated) {
+                return this;
+            }
+            int room = mLimit - mBuilder.length();
+            if (end - start > room) {
+                mBuilder.append(s, start, start + room);
+                truncate();
+            } else {
+                mBuilder.append(s, start, end);
+            }
+            return this;
+        }
+
+        public Output append(char c) {
+            if (mTruncated) {
+                return this;
+            }
+            if (mBuilder.length() >= mLimit) {
+                truncate();
+            } else {
+                mBuilder.append(c);
+            }
+            return this;
+        }
+
+        /**
+         * 按注册的格式化方式写入一个对象，集合中的元素也通过该方法写入
+         * <p>
+         * 最外层的对象最多输出{@link #setMaxLength(int)}个字符(包括其中的元素)，超过时截断；
+         * 最外层的CharSequence原样写入，不限制长度
+         */
+        public Output appendValue(Object value) {
+            if (mTruncated) {
+                return this;
+            }
+            if (value == null) {
+                return append("null");
+            }
+            if (value instanceof CharSequence) {
+                return append((CharSequence) value);
+            }
+            if (mDepth >= MAX_DEPTH) {
+                return append("...");
+            }
+            boolean outermost = mDepth == 0;
+            if (outermost) {
+                mLimit = mBuilder.length() + Math.min(mMaxLength, Integer.MAX_VALUE - mBuilder.length());
+            }
+            mDepth++;
+            try {
+                render(value, this);
+            } finally {
+                mDepth--;
+                if (outermost) {
+                    // 下一个对象重新计算长度
+                    mLimit = Integer.MAX_VALUE;
+                    mTruncated = false;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 写入超过最大元素个数时的提示，如"...(共50000个)"
+         *
+         * @param total 元素总数
+         */
+        public Output appendMore(int total) {
+            return append(String.format(MORE_FORMAT, total));
+        }
+
+        /**
+         * 集合、数组最多输出的元素个数
+         */
+        public int maxElements() {
+            return mMaxElements;
+        }
+
+        /**
+         * 正在格式化的对象是否已达到最大长度，之后写入这个对象的内容都会被忽略
+         */
+        public boolean isFull() {
+            return mTruncated;
+        }
+
+        /**
+         * [start, end)之间内容的只读视图，不复制；只在{@link #recycle()}之前有效
+         */
+        public CharSequence chunk(int start, int end) {
+            return CharBuffer.wrap(mBuilder, start, end);
+        }
+
+        /**
+         * 使用完后调用，清空内容以便当前线程再次使用
+         */
+        public void recycle() {
+            mBuilder.setLength(0);
+            if (mBuilder.capacity() > RETAIN_CAPACITY) {
+                mBuilder.trimToSize();
+            }
+            mDepth = 0;
+            mLimit = Integer.MAX_VALUE;
+            mTruncated = false;
+            mInUse = false;
+        }
+
+        @Override
+        public int length() {
+            return mBuilder.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return mBuilder.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return chunk(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return mBuilder.toString();
+        }
+
+        private void truncate() {
+            mTruncated = true;
+            mBuilder.append(TRUNCATED);
+        }
+    }
+
+    // 其他数组按元素逐个格式化
+    private static final Renderer<Object> ARRAY = new Renderer<Object>() {
+        @Override
+        public void render(Object array, Output output) {
+            output.append('[');
+            int length = Array.getLength(array);
+            int count = Math.min(length, output.maxElements());
+            for (int i = 0; i < count && !output.isFull(); i++) {
+                if (i > 0) {
+                    output.append(", ");
+                }
+                Object element = array instanceof Object[] ? ((Object[]) array)[i] : Array.get(array, i);
+                output.appendValue(element == array ? "(this Array)" : element);
+            }
+            if (count < length) {
+                output.append(", ").appendMore(length);
+            }
+            output.append(']');
+        }
+    };
+
+    static {
+        sRenderers.put(Object.class, new Renderer<Object>() {
+            @Override
+            public void render(Object value, Output output) {
+                output.append(String.valueOf(value));
+            }
+        });
+        sRenderers.put(Collection.class, new Renderer<Collection<?>>() {
+            @Override
+            public void render(Collection<?> collection, Output output) {
+                output.append('[');
+                int index = 0;
+                for (Object element : collection) {
+                    if (index > 0) {
+                        output.append(", ");
+                    }
+                    if (index == output.maxElements()) {
+                        output.appendMore(collection.size());
+                        break;
+                    }
+                    output.appendValue(element == collection ? "(this Collection)" : element);
+                    if (output.isFull()) {
+                        return;
+                    }
+                    index++;
+                }
+                output.append(']');
+            }
+        });
+        sRenderers.put(Map.class, new Renderer<Map<?, ?>>() {
+            @Override
+            public void render(Map<?, ?> map, Output output) {
+                output.append('{');
+                int index = 0;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (index > 0) {
+                        output.append(", ");
+                    }
+                    if (index == output.maxElements()) {
+                        output.appendMore(map.size());
+                        break;
+                    }
+                    Object value = entry.getValue();
+                    output.appendValue(entry.getKey()).append('=').appendValue(value == map ? "(this Map)" : value);
+                    if (output.isFull()) {
+                        return;
+                    }
+                    index++;
+                }
+                output.append('}');
+            }
+        });
+        sRenderers.put(byte[].class, new Renderer<byte[]>() {
+            @Override
+            public void render(byte[] bytes, Output output) {
+                // 十六进制，如[0a 1b ff]
+                output.append('[');
+                int count = Math.min(bytes.length, output.maxElements());
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        output.append(' ');
+                    }
+                    output.append(HEX[(bytes[i] >> 4) & 0xf]).append(HEX[bytes[i] & 0xf]);
+                }
+                if (count < bytes.length) {
+                    output.append(' ').appendMore(bytes.length);
+                }
+                output.append(']');
+            }
+        });
+        sRenderers.put(Throwable.class, new Renderer<Throwable>() {
+            @Override
+            public void render(Throwable throwable, Output output) {
+                Throwable cause = throwable;
+                for (int i = 0; cause != null && i < MAX_DEPTH && !output.isFull(); i++) {
+                    if (i > 0) {
+                        output.append("\nCaused by: ");
+                    }
+                    output.append(cause.toString());
+                    StackTraceElement[] trace = cause.getStackTrace();
+                    int count = Math.min(trace.length, output.maxElements());
+                    for (int j = 0; j < count; j++) {
+                        output.append("\n\tat ").append(trace[j].toString());
+                    }
+                    if (count < trace.length) {
+                        output.append("\n\t").appendMore(trace.length);
+                    }
+                    cause = cause.getCause();
+                }
+            }
+        });
+        sRenderers.put(JSONObject.class, new Renderer<JSONObject>() {
+            @Override
+            public void render(JSONObject json, Output output) {
+                output.append('{');
+                Iterator<String> keys = json.keys();
+                int index = 0;
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    if (index > 0) {
+                        output.append(',');
+                    }
+                    if (index == output.maxElements()) {
+                        output.appendMore(json.length());
+                        break;
+                    }
+                    output.append(JSONObject.quote(key)).append(':');
+                    appendJsonValue(json.opt(key), output);
+                    if (output.isFull()) {
+                        return;
+                    }
+                    index++;
+                }
+                output.append('}');
+            }
+        });
+        sRenderers.put(JSONArray.class, new Renderer<JSONArray>() {
+            @Override
+            public void render(JSONArray json, Output output) {
+                output.append('[');
+                int count = Math.min(json.length(), output.maxElements());
+                for (int i = 0; i < count && !output.isFull(); i++) {
+                    if (i > 0) {
+                        output.append(',');
+                    }
+                    appendJsonValue(json.opt(i), output);
+                }
+                if (count < json.length()) {
+                    output.append(',').appendMore(json.length());
+                }
+                output.append(']');
+            }
+        });
+    }
+
+    private LogRenderer() {
+    }
+
+    /**
+     * 注册一种类型的格式化方式，对该类型及其子类(接口则为实现类)生效，已注册的会被替换
+     */
+    public static <T> void register(Class<T> type, Renderer<? super T> renderer) {
+        sRenderers.put(type, renderer);
+        sResolved.clear();
+    }
+
+    /**
+     * 取消注册，内置的格式化方式也可以取消，之后使用父类或toString()
+     */
+    public static void unregister(Class<?> type) {
+        if (type != Object.class) {
+            sRenderers.remove(type);
+            sResolved.clear();
+        }
+    }
+
+    /**
+     * 集合、数组、堆栈最多输出的元素个数，默认{@link #MAX_ELEMENTS_DEFAULT}
+     */
+    public static void setMaxElements(int maxElements) {
+        sMaxElements = Math.max(1, maxElements);
+    }
+
+    /**
+     * 一个格式化的对象(集合、数组、toString()的结果等，包括其中的元素)最多输出的字符数，默认{@link #MAX_LENGTH_DEFAULT}，
+     * 超过的部分以"...(已截断)"代替；直接打印或作为参数的String、StringBuilder等CharSequence不受限制
+     */
+    public static void setMaxLength(int maxLength) {
+        sMaxLength = Math.max(1, maxLength);
+    }
+
+    /**
+     * 取当前线程复用的Output，使用完后调用{@link Output#recycle()}
+     */
+    public static Output obtain() {
+        Output output = sOutput.get();
+        if (output == null || output.mInUse) {
+            // 格式化的过程中又打印了日志(如在toString()中)，使用新的
+            Output newOutput = new Output();
+            if (output == null) {
+                sOutput.set(newOutput);
+            }
+            output = newOutput;
+        }
+        output.mInUse = true;
+        output.mMaxElements = sMaxElements;
+        output.mMaxLength = sMaxLength;
+        return output;
+    }
+
+    @SuppressWarnings("unchecked")
+    static void render(Object value, Output output) {
+        ((Renderer<Object>) resolve(value.getClass())).render(value, output);
+    }
+
+    private static Renderer<?> resolve(Class<?> type) {
+        Renderer<?> renderer = sResolved.get(type);
+        if (renderer == null) {
+            renderer = find(type);
+            sResolved.put(type, renderer);
+        }
+        return renderer;
+    }
+
+    private static Renderer<?> find(Class<?> type) {
+        if (type.isArray()) {
+            Renderer<?> renderer = sRenderers.get(type);
+            return renderer != null ? renderer : ARRAY;
+        }
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            Renderer<?> renderer = sRenderers.get(c);
+            if (renderer == null) {
+                renderer = findInterface(c.getInterfaces());
+            }
+            if (renderer != null) {
+                return renderer;
+            }
+        }
+        return sRenderers.get(Object.class);
+    }
+
+    private static Renderer<?> findInterface(Class<?>[] interfaces) {
+        for (Class<?> c : interfaces) {
+            Renderer<?> renderer = sRenderers.get(c);
+            if (renderer == null) {
+                renderer = findInterface(c.getInterfaces());
+            }
+            if (renderer != null) {
+                return renderer;
+            }
+        }
+        return null;
+    }
+
+    private static void appendJsonValue(Object value, Output output) {
+        if (value instanceof String) {
+            output.append(JSONObject.quote((String) value));
+        } else {
+            output.appendValue(value);
+        }
+    }
+}
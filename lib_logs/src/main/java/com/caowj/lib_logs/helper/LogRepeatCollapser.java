@@ -0,0 +1,112 @@
+package com.caowj.lib_logs.helper;
+
+/**
+ * 连续重复日志合并(类似syslog的"last message repeated N times")
+ * <p>
+ * 只在写文件线程中使用，每个日志文件一个实例。TAG、级别、内容都相同且在时间窗口内的连续日志只写第一条，
+ * 之后遇到不同的日志、窗口到期或写入文件时，再补写一行"last message repeated N times"。
+ * 期间日志文件切分了的话，第一条写在了上一个文件中，补写时在新文件中重新写一条原始日志，每个文件都能单独阅读。
+ * 比较时先比较级别、TAG引用和内容长度，再比较内容hash，最后才逐字符比较。
+ *
+ * @see LogBuilder#repeatCollapseWindow(long)
+ */
+class LogRepeatCollapser {
+
+    static final String REPEATED_FORMAT_PREFIX = "last message repeated ";
+    static final String REPEATED_FORMAT_SUFFIX = " times";
+
+    private final long mWindowMs;
+    private LogPriority mPriority;
+    private String mTag;
+    private String mContent;
+    private int mHash;
+    // 第一条日志的时间，窗口从这里开始计算
+    private long mFirstTime;
+    // 最后一条重复日志的时间
+    private long mLastTime;
+    private int mRepeatCount;
+    // 第一条日志写入后日志文件的{@link LogFile#position()}
+    private long mEndPosition;
+
+    LogRepeatCollapser(long windowMs) {
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * 是否是上一条日志的重复，是则只计数
+     *
+     * @return true-重复日志，不需要写入
+     */
+    boolean collapse(long time, LogPriority priority, String tag, String content) {
+        if (mContent == null
+                || priority != mPriority
+                || time - mFirstTime > mWindowMs
+                || content.length() != mContent.length()
+                || !(tag == mTag || tag.equals(mTag))
+                || content.hashCode() != mHash
+                || !content.equals(mContent)) {
+            return false;
+        }
+        mRepeatCount++;
+        mLastTime = time;
+        return true;
+    }
+
+    /**
+     * 记录刚写入的日志，调用前需先通过{@link #hasRepeated()}补写重复条数
+     */
+    void remember(long time, LogPriority priority, String tag, String content, long endPosition) {
+        mPriority = priority;
+        mTag = tag;
+        mContent = content;
+        mHash = content.hashCode();
+        mFirstTime = time;
+        mLastTime = time;
+        mRepeatCount = 0;
+        mEndPosition = endPosition;
+    }
+
+    boolean hasRepeated() {
+        return mRepeatCount > 0;
+    }
+
+    LogPriority priority() {
+        return mPriority;
+    }
+
+    String tag() {
+        return mTag;
+    }
+
+    String content() {
+        return mContent;
+    }
+
+    long lastTime() {
+        return mLastTime;
+    }
+
+    long endPosition() {
+        return mEndPosition;
+    }
+
+    /**
+     * 取出重复条数并重新开始计数；之后相同的日志会重新写入一条
+     */
+    int drainRepeatCount() {
+        int count = mRepeatCount;
+        mRepeatCount = 0;
+        mContent = null;
+        return count;
+    }
+
+    /**
+     * 写文件线程结束时调用(先补写重复条数)，重新启动后不再与之前的日志合并
+     */
+    void reset() {
+        mPriority = null;
+        mTag = null;
+        mContent = null;
+        mRepeatCount = 0;
+    }
+}
@@ -0,0 +1,253 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 日志保留策略，统一管理net/bussiness/logcat/crash所有日志目录
+ * <p>
+ * 清理规则依次为：
+ * <ol>
+ * <li>删除超过保留天数的文件</li>
+ * <li>每个目录最多保留{@link Constance#LOG_FILE_MAX_SUM}个文件</li>
+ * <li>所有目录的总大小超过配额时，从最早的文件开始删除，已经降到最小保留量的类型不再删除</li>
+ * </ol>
+ * 每个文件的大小包括它的行索引({@link LogIndex})和搜索索引({@link LogSearchIndex})，删除时一起删除。
+ * 清理在后台低优先级线程中分批进行，每批最多删除{@link #MAX_DELETES_PER_PASS}个文件，没删完时稍后继续，
+ * 启动时不会因为删除大量文件而阻塞；文件信息来自{@link LogCatalog}，不需要遍历目录。正在写入的文件不会被删除。
+ *
+ * @see LogBuilder#totalQuota(long)
+ * @see LogBuilder#minQuota(LogTypeEnum, long)
+ */
+public class LogRetention {
+
+    static final String TAG = "LogRetention";
+    // 所有日志的总大小配额
+    static final long TOTAL_QUOTA_DEFAULT = 500L * 1024 * 1024; //500M
+    // 崩溃日志默认的最小保留量，不会因为其他日志太多而被删除
+    static final long CRASH_MIN_QUOTA_DEFAULT = 5L * 1024 * 1024; //5M
+    // 每批最多删除的文件数
+    static final int MAX_DELETES_PER_PASS = 32;
+    // 合并短时间内的多次清理请求(毫秒)
+    private static final long SCHEDULE_DELAY_MS = 3000;
+    // 没删完时下一批的间隔(毫秒)
+    private static final long PASS_INTERVAL_MS = 200;
+
+    private static final LogRetention INSTANCE = new LogRetention();
+
+    private final Map<LogTypeEnum, String> mFolders = new EnumMap<>(LogTypeEnum.class);
+    private final Map<LogTypeEnum, Integer> mRetainDays = new EnumMap<>(LogTypeEnum.class);
+    private final Map<LogTypeEnum, Long> mMinQuotas = new EnumMap<>(LogTypeEnum.class);
+    private long mTotalQuota = TOTAL_QUOTA_DEFAULT;
+    private boolean mQuotaConfigured;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private ScheduledThreadPoolExecutor mExecutor;
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+    private LogRetention() {
+        mMinQuotas.put(LogTypeEnum.Crash, CRASH_MIN_QUOTA_DEFAULT);
+    }
+
+    public static LogRetention getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 设置总配额及每种日志的最小保留量，配置以第一次为主，防止插件覆盖宿主
+     *
+     * @param totalQuota 所有日志的总大小(字节)，0或负数表示不限制
+     * @param minQuotas  每种日志的最小保留量(字节)，为null时使用默认值
+     */
+    synchronized void setQuota(long totalQuota, Map<LogTypeEnum, Long> minQuotas) {
+        if (mQuotaConfigured) {
+            return;
+        }
+        mQuotaConfigured = true;
+        mTotalQuota = totalQuota;
+        if (minQuotas != null) {
+            mMinQuotas.putAll(minQuotas);
+        }
+    }
+
+    /**
+     * 登记日志目录，并在后台清理
+     *
+     * @param logType    日志类型
+     * @param folderPath 日志目录
+     * @param retainDay  保留天数，0或负数表示不按天数删除
+     */
+    public void register(LogTypeEnum logType, String folderPath, int retainDay) {
+        synchronized (this) {
+            mFolders.put(logType, folderPath);
+            mRetainDays.put(logType, retainDay);
+        }
+        schedule();
+    }
+
+    /**
+     * 在后台清理，短时间内的多次调用只清理一次
+     */
+    public void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            executor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mScheduled.set(false);
+                    runPass();
+                }
+            }, SCHEDULE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized ScheduledThreadPoolExecutor executor() {
+        if (mExecutor == null) {
+            mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mExecutor;
+    }
+
+    /**
+     * 清理一批，没删完时稍后继续
+     */
+    private void runPass() {
+        if (trim(MAX_DELETES_PER_PASS) >= MAX_DELETES_PER_PASS) {
+            executor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runPass();
+                }
+            }, PASS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 按保留规则删除文件
+     *
+     * @param maxDeletes 最多删除的文件数
+     * @return 删除的文件数
+     */
+    synchronized int trim(int maxDeletes) {
+        int deleted = 0;
+        List<LogTypeEnum> types = new ArrayList<>(mFolders.keySet());
+        List<List<LogCatalog.Entry>> entries = new ArrayList<>(types.size());
+        // entries中每个文件包括索引文件在内的大小
+        List<long[]> entrySizes = new ArrayList<>(types.size());
+        long total = 0;
+        long[] sizes = new long[types.size()];
+        for (int i = 0; i < types.size(); i++) {
+            LogTypeEnum type = types.get(i);
+            LogCatalog catalog = LogCatalog.get(mFolders.get(type));
+            List<LogCatalog.Entry> list = catalog.entries();
+            String retainDate = retainDate(mRetainDays.get(type));
+            // 按天数和个数删除，最早的在前
+            int removable = 0;
+            for (LogCatalog.Entry entry : list) {
+                if (!entry.active()) {
+                    removable++;
+                }
+            }
+            List<LogCatalog.Entry> kept = new ArrayList<>(list.size());
+            long[] keptSizes = new long[list.size()];
+            for (LogCatalog.Entry entry : list) {
+                boolean expired = retainDate != null && entry.date().compareTo(retainDate) < 0;
+                if (!entry.active() && (expired || removable > Constance.LOG_FILE_MAX_SUM)) {
+                    if (deleted >= maxDeletes) {
+                        return deleted;
+                    }
+                    catalog.delete(entry.fileName());
+                    deleted++;
+                    removable--;
+                } else {
+                    long size = sizeWithIndex(entry);
+                    keptSizes[kept.size()] = size;
+                    kept.add(entry);
+                    sizes[i] += size;
+                }
+            }
+            entries.add(kept);
+            entrySizes.add(keptSizes);
+            total += sizes[i];
+        }
+        if (mTotalQuota <= 0) {
+            return deleted;
+        }
+        // 按总配额删除：每次删除所有可删类型中最早的文件
+        int[] next = new int[types.size()];
+        while (total > mTotalQuota && deleted < maxDeletes) {
+            int oldest = -1;
+            for (int i = 0; i < types.size(); i++) {
+                List<LogCatalog.Entry> list = entries.get(i);
+                while (next[i] < list.size() && list.get(next[i]).active()) {
+                    next[i]++;
+                }
+                if (next[i] >= list.size()) {
+                    continue;
+                }
+                Long minQuota = mMinQuotas.get(types.get(i));
+                LogCatalog.Entry entry = list.get(next[i]);
+                if (minQuota != null && sizes[i] - entrySizes.get(i)[next[i]] < minQuota) {
+                    continue;
+                }
+                if (oldest < 0 || entry.startTime() < entries.get(oldest).get(next[oldest]).startTime()) {
+                    oldest = i;
+                }
+            }
+            if (oldest < 0) {
+                // 剩下的都在最小保留量内
+                break;
+            }
+            long size = entrySizes.get(oldest)[next[oldest]];
+            LogCatalog.Entry entry = entries.get(oldest).get(next[oldest]++);
+            LogCatalog.get(mFolders.get(types.get(oldest))).delete(entry.fileName());
+            sizes[oldest] -= size;
+            total -= size;
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * 日志文件加上行索引和搜索索引的大小；索引在写入和切分后生成，目录表中没有记录，这里查询文件大小，不存在时为0
+     */
+    private static long sizeWithIndex(LogCatalog.Entry entry) {
+        String path = entry.path();
+        return entry.size() + new File(LogIndex.indexPath(path)).length()
+                + new File(LogSearchIndex.indexPath(path)).length();
+    }
+
+    /**
+     * 早于该日期的文件过期
+     *
+     * @return yyyy-MM-dd，不按天数删除时返回null
+     */
+    private String retainDate(Integer day) {
+        if (day == null || day <= 0) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, -day);
+        return mDateFormat.format(calendar.getTime());
+    }
+}
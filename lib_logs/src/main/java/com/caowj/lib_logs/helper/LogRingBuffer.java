@@ -0,0 +1,183 @@
+package com.caowj.lib_logs.helper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 有界、无锁的多生产者/单消费者环形缓冲区
+ * <p>
+ * 槽位({@link LogRecord.LogInfo})在创建时一次性分配并循环复用，写日志的线程只需一次CAS抢占序号，
+ * 不再为每条日志创建LogInfo和队列节点，也不会在put锁上竞争。
+ * 每个槽位对应一个序号：序号==位置 表示可写，序号==位置+1 表示已发布可读，消费后序号推进一圈。
+ *
+ * @see LogBuilder#ringBufferSize(int)
+ * @see LogBuilder#waitStrategy(int)
+ */
+class LogRingBuffer {
+
+    static final int MIN_CAPACITY = 64;
+    static final int MAX_CAPACITY = 1 << 16;
+    // PARK策略下单次挂起的最长时间，防止唤醒丢失时写线程一直挂起
+    private static final long PARK_NANOS = 100 * 1000 * 1000L;
+    // YIELD策略下先自旋的次数
+    private static final int SPIN_TRIES = 100;
+
+    private final LogRecord.LogInfo[] mSlots;
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final int mWaitStrategy;
+    // 生产者游标，多个写日志线程竞争
+    private final AtomicLong mTail = new AtomicLong();
+    // 消费者游标，只有写文件线程修改
+    private volatile long mHead;
+    private volatile Thread mWaitingConsumer;
+
+    LogRingBuffer(int capacity, @LogBuilder.WaitStrategy int waitStrategy) {
+        int size = Integer.highestOneBit(Math.max(MIN_CAPACITY, Math.min(capacity, MAX_CAPACITY)) - 1) << 1;
+        mSlots = new LogRecord.LogInfo[size];
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new LogRecord.LogInfo(null, null);
+            mSequences.set(i, i);
+        }
+        mMask = size - 1;
+        mWaitStrategy = waitStrategy;
+    }
+
+    int capacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * 当前缓冲区中待写入的日志条数(近似值)
+     */
+    int size() {
+        return (int) Math.max(0, mTail.get() - mHead);
+    }
+
+    /**
+     * 写入一条日志，缓冲区已满时直接返回false，不阻塞调用线程
+     *
+     * @return true-写入成功;false-缓冲区已满
+     */
+    boolean publish(LogPriority priority, LogTypeEnum logType, String tag, String log, boolean isRecord) {
+        return publish(priority, logType, tag, log, isRecord, mSlots.length);
+    }
+
+    /**
+     * 写入一条日志，缓冲区中待写入的条数达到limit时直接返回false
+     *
+     * @param limit 允许占用的最大条数，用于给高级别日志预留空间
+     * @return true-写入成功;false-超出limit或缓冲区已满
+     */
+    boolean publish(LogPriority priority, LogTypeEnum logType, String tag, String log, boolean isRecord, int limit) {
+        long sequence;
+        int index;
+        for (; ; ) {
+            sequence = mTail.get();
+            if (sequence - mHead >= limit) {
+                return false;
+            }
+            index = (int) sequence & mMask;
+            long diff = mSequences.get(index) - sequence;
+            if (diff == 0) {
+                if (mTail.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // 写文件线程还没有消费到这个槽位，缓冲区已满
+                return false;
+            }
+            // diff > 0：槽位已被其他线程抢占，重新读取游标
+        }
+
+        LogRecord.LogInfo slot = mSlots[index];
+        slot.logType = logType;
+        slot.priority = priority;
+        slot.tag = tag;
+        slot.log = log;
+        slot.isRecord = isRecord;
+        slot.time = System.currentTimeMillis();
+        mSequences.lazySet(index, sequence + 1);
+
+        Thread consumer = mWaitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * 取出下一条可读的日志，没有则返回null；使用完之后必须调用{@link #release()}
+     */
+    LogRecord.LogInfo poll() {
+        int index = (int) mHead & mMask;
+        if (mSequences.get(index) != mHead + 1) {
+            return null;
+        }
+        return mSlots[index];
+    }
+
+    /**
+     * 按配置的等待策略取出下一条日志，线程被中断时返回null(保留中断标记)
+     */
+    LogRecord.LogInfo take() {
+        return take(0);
+    }
+
+    /**
+     * 按配置的等待策略取出下一条日志
+     *
+     * @param timeoutNanos 最长等待时间，&lt;=0 表示一直等待
+     * @return 超时或线程被中断(保留中断标记)时返回null
+     */
+    LogRecord.LogInfo take(long timeoutNanos) {
+        final long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        int tries = 0;
+        LogRecord.LogInfo logInfo;
+        while ((logInfo = poll()) == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            long parkNanos = PARK_NANOS;
+            if (deadline != 0) {
+                parkNanos = Math.min(parkNanos, deadline - System.nanoTime());
+                if (parkNanos <= 0) {
+                    return null;
+                }
+            }
+            switch (mWaitStrategy) {
+                case LogBuilder.WaitStrategy.SPIN:
+                    break;
+                case LogBuilder.WaitStrategy.YIELD:
+                    if (++tries > SPIN_TRIES) {
+                        Thread.yield();
+                    }
+                    break;
+                case LogBuilder.WaitStrategy.PARK:
+                default:
+                    mWaitingConsumer = Thread.currentThread();
+                    // 设置等待标记后再检查一次，防止错过生产者的唤醒
+                    if (poll() == null) {
+                        LockSupport.parkNanos(this, parkNanos);
+                    }
+                    mWaitingConsumer = null;
+                    break;
+            }
+        }
+        return logInfo;
+    }
+
+    /**
+     * 释放{@link #poll()}/{@link #take()}取出的槽位，供生产者复用
+     */
+    void release() {
+        int index = (int) mHead & mMask;
+        LogRecord.LogInfo slot = mSlots[index];
+        slot.tag = null;
+        slot.log = null;
+        mSequences.lazySet(index, mHead + mSlots.length);
+        mHead++;
+    }
+}
@@ -0,0 +1,467 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 日志文件的并行搜索
+ * <p>
+ * 文件按行边界切分成多段，在ForkJoin线程池中并行匹配，结果按文件中的顺序分批回调，先找到的先显示；
+ * 新的搜索开始前调用{@link Task#cancel()}，正在执行的分段在读完当前行后立即结束。
+ * <p>
+ * 分段方式：有搜索索引({@link LogSearchIndex})时只搜索候选块；文本文件按{@link #CHUNK_SIZE}字节切分，
+ * 每段从第一个完整的行开始；二进制文件按行索引({@link LogIndex})切分；压缩文件只能顺序解压，不切分。
+ * 只依赖JDK。
+ */
+public class LogSearch {
+
+    // 文本文件每段的字节数
+    static final int CHUNK_SIZE = 256 * 1024;
+    // 二进制文件每段包含的行索引点个数
+    static final int INDEX_ENTRIES_PER_CHUNK = 4;
+    // 命中的行数上限，超过后结束搜索
+    public static final int MAX_HITS = 100000;
+    // 解析日志头时只看每行的开头部分
+    private static final int HEADER_REGION = 160;
+    // LegoLog及logcat brief/time格式："... W/TAG: " 或 "... W/TAG( 1234): "
+    private static final Pattern SLASH_HEADER = Pattern.compile("(?:^|\\s)([VDIWEFA])/(.*?)(?:\\(\\s*\\d+\\))?: ");
+    // logcat threadtime格式："... 1234  5678 W TAG     : "
+    private static final Pattern THREAD_HEADER = Pattern.compile("\\s\\d+\\s+\\d+\\s([VDIWEFA])\\s(.*?)\\s*: ");
+
+    private static ForkJoinPool sPool;
+
+    /**
+     * 搜索条件
+     */
+    public static class Query {
+        private final List<String> mKeywords = new ArrayList<>();
+        private final List<String> mRegexes = new ArrayList<>();
+        private final Set<String> mTags = new HashSet<>();
+        private LogPriority mMinPriority;
+        private boolean mCaseInsensitive = true;
+
+        /**
+         * 解析搜索框中的文本，以空格分隔，所有条件同时满足：
+         * <pre>
+         * tag:TAG     只搜索该TAG，可以有多个
+         * level:W     最低级别(V/D/I/W/E/F)
+         * re:正则     正则表达式
+         * 其他        关键字
+         * </pre>
+         */
+        public static Query parse(String text) {
+            Query query = new Query();
+            for (String term : text.trim().split("\\s+")) {
+                if (term.length() == 0) {
+                    continue;
+                }
+                if (term.startsWith("tag:") && term.length() > 4) {
+                    query.tag(term.substring(4));
+                } else if (term.startsWith("level:") && term.length() == 7) {
+                    query.minPriority(priorityOf(Character.toUpperCase(term.charAt(6))));
+                } else if (term.startsWith("re:") && term.length() > 3) {
+                    query.regex(term.substring(3));
+                } else {
+                    query.keyword(term);
+                }
+            }
+            return query;
+        }
+
+        /**
+         * 关键字，多个关键字同时匹配
+         */
+        public Query keyword(String keyword) {
+            mKeywords.add(keyword);
+            return this;
+        }
+
+        /**
+         * 正则表达式，与关键字同时匹配
+         */
+        public Query regex(String regex) {
+            mRegexes.add(regex);
+            return this;
+        }
+
+        /**
+         * 只搜索这些TAG的日志
+         */
+        public Query tag(String tag) {
+            mTags.add(tag);
+            return this;
+        }
+
+        /**
+         * 只搜索不低于该级别的日志
+         */
+        public Query minPriority(LogPriority priority) {
+            mMinPriority = priority;
+            return this;
+        }
+
+        /**
+         * 是否忽略大小写(只对ASCII字母)，默认忽略
+         */
+        public Query caseInsensitive(boolean value) {
+            mCaseInsensitive = value;
+            return this;
+        }
+
+        /**
+         * 编译所有条件，正则表达式错误时抛出{@link PatternSyntaxException}
+         */
+        Pattern[] compile() {
+            int flags = mCaseInsensitive ? Pattern.CASE_INSENSITIVE : 0;
+            Pattern[] patterns = new Pattern[mKeywords.size() + mRegexes.size()];
+            int i = 0;
+            for (String keyword : mKeywords) {
+                patterns[i++] = Pattern.compile(keyword, flags | Pattern.LITERAL);
+            }
+            for (String regex : mRegexes) {
+                patterns[i++] = Pattern.compile(regex, flags);
+            }
+            return patterns;
+        }
+
+        boolean hasHeaderFilter() {
+            return mMinPriority != null || !mTags.isEmpty();
+        }
+    }
+
+    /**
+     * 搜索结果回调，在搜索线程中执行
+     */
+    public interface Callback {
+        /**
+         * 按文件中的顺序分批返回命中的行
+         */
+        void onHits(List<String> lines);
+
+        /**
+         * 搜索结束，取消后不再回调
+         *
+         * @param truncated 命中的行数超过{@link #MAX_HITS}，结果不完整
+         */
+        void onComplete(boolean truncated);
+    }
+
+    /**
+     * 正在执行的搜索
+     */
+    public static class Task {
+        private volatile boolean mCancelled;
+        private ChunkAction mRoot;
+
+        /**
+         * 取消搜索，取消后不再有回调
+         */
+        public void cancel() {
+            mCancelled = true;
+            ChunkAction root = mRoot;
+            if (root != null) {
+                root.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * 在后台开始搜索
+     *
+     * @param path     日志文件路径
+     * @param query    搜索条件
+     * @param callback 结果回调
+     * @return 用于取消搜索
+     * @throws PatternSyntaxException 正则表达式错误
+     */
+    public static Task search(String path, Query query, Callback callback) {
+        Pattern[] patterns = query.compile();
+        final Task task = new Task();
+        final Search search = new Search(path, query, patterns, callback, task);
+        task.mRoot = new ChunkAction(search, 0, -1);
+        pool().execute(task.mRoot);
+        return task;
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (sPool == null) {
+            sPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        }
+        return sPool;
+    }
+
+    private static LogPriority priorityOf(char letter) {
+        for (LogPriority priority : LogPriority.values()) {
+            if (priority.toString().charAt(0) == letter) {
+                return priority;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 一次搜索的状态，在第一个任务中切分文件
+     */
+    private static class Search {
+        final String mPath;
+        final Query mQuery;
+        final Pattern[] mPatterns;
+        final Callback mCallback;
+        final Task mTask;
+
+        LogSearchIndex mSearchIndex;
+        boolean[] mCandidates;
+        // 每段的起止位置，mAligned为true时段的起点不一定是行首
+        long[] mStarts;
+        long[] mEnds;
+        boolean mAligned;
+
+        AtomicReferenceArray<List<String>> mResults;
+        // 下一个要回调的分段
+        private int mNextPublish;
+        private int mHitCount;
+        private boolean mTruncated;
+
+        Search(String path, Query query, Pattern[] patterns, Callback callback, Task task) {
+            mPath = path;
+            mQuery = query;
+            mPatterns = patterns;
+            mCallback = callback;
+            mTask = task;
+        }
+
+        /**
+         * 切分文件
+         */
+        void split() throws IOException {
+            mSearchIndex = LogSearchIndex.open(mPath);
+            if (mSearchIndex != null && !mQuery.mKeywords.isEmpty()) {
+                mCandidates = mSearchIndex.candidateBlocks(mQuery.mKeywords.toArray(new String[0]));
+            }
+            List<long[]> ranges = new ArrayList<>();
+            if (LogCompressor.isCompressed(mPath)) {
+                // 压缩文件不能随机访问，顺序读取并跳过非候选块
+                ranges.add(new long[]{0, Long.MAX_VALUE});
+            } else if (mSearchIndex != null) {
+                int count = mSearchIndex.blockCount();
+                for (int i = 0; i < count; i++) {
+                    if (mCandidates == null || mCandidates[i]) {
+                        long end = i + 1 < count ? mSearchIndex.blockPosition(i + 1) : Long.MAX_VALUE;
+                        ranges.add(new long[]{mSearchIndex.blockPosition(i), end});
+                    }
+                }
+            } else if (!LogBinaryDecoder.isBinary(mPath)) {
+                long length = new File(mPath).length();
+                for (long start = 0; start < length; start += CHUNK_SIZE) {
+                    ranges.add(new long[]{start, start + CHUNK_SIZE < length ? start + CHUNK_SIZE : Long.MAX_VALUE});
+                }
+                mAligned = true;
+            } else {
+                LogIndex index = LogIndex.load(mPath);
+                int size = index == null ? 0 : index.size();
+                long start = 0;
+                for (int i = INDEX_ENTRIES_PER_CHUNK; i < size; i += INDEX_ENTRIES_PER_CHUNK) {
+                    ranges.add(new long[]{start, index.position(i)});
+                    start = index.position(i);
+                }
+                ranges.add(new long[]{start, Long.MAX_VALUE});
+            }
+            mStarts = new long[ranges.size()];
+            mEnds = new long[ranges.size()];
+            for (int i = 0; i < mStarts.length; i++) {
+                mStarts[i] = ranges.get(i)[0];
+                mEnds[i] = ranges.get(i)[1];
+            }
+            mResults = new AtomicReferenceArray<>(mStarts.length);
+        }
+
+        /**
+         * 搜索一段
+         */
+        List<String> searchChunk(int chunk) throws IOException {
+            List<String> hits = new ArrayList<>();
+            Matcher[] matchers = new Matcher[mPatterns.length];
+            for (int i = 0; i < matchers.length; i++) {
+                matchers[i] = mPatterns[i].matcher("");
+            }
+            Matcher slashHeader = SLASH_HEADER.matcher("");
+            Matcher threadHeader = THREAD_HEADER.matcher("");
+            long end = mEnds[chunk];
+            LogFileReader reader = LogFileReader.open(mPath);
+            try {
+                if (mAligned && mStarts[chunk] > 0) {
+                    // 跳过上一段中的最后一行
+                    reader.seek(mStarts[chunk] - 1);
+                    reader.readLine();
+                } else {
+                    reader.seek(mStarts[chunk]);
+                }
+                String line;
+                long position;
+                while ((position = reader.position()) < end) {
+                    if (mTask.mCancelled) {
+                        return hits;
+                    }
+                    if (mCandidates != null) {
+                        int block = mSearchIndex.blockOf(position);
+                        if (block >= 0 && !mCandidates[block]) {
+                            int next = block + 1;
+                            while (next < mCandidates.length && !mCandidates[next]) {
+                                next++;
+                            }
+                            if (next == mCandidates.length) {
+                                break;
+                            }
+                            reader.seek(mSearchIndex.blockPosition(next));
+                            continue;
+                        }
+                    }
+                    if ((line = reader.readLine()) == null) {
+                        break;
+                    }
+                    if (matches(line, matchers, slashHeader, threadHeader)) {
+                        hits.add(line);
+                        if (hits.size() > MAX_HITS) {
+                            // 多保留一行，回调时据此判断结果不完整；压缩文件只有一段，不能把所有命中的行都放在内存中
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            return hits;
+        }
+
+        private boolean matches(String line, Matcher[] matchers, Matcher slashHeader, Matcher threadHeader) {
+            if (mQuery.hasHeaderFilter()) {
+                int region = Math.min(line.length(), HEADER_REGION);
+                Matcher header = slashHeader.reset(line).region(0, region);
+                if (!header.find()) {
+                    header = threadHeader.reset(line).region(0, region);
+                    if (!header.find()) {
+                        return false;
+                    }
+                }
+                if (mQuery.mMinPriority != null) {
+                    LogPriority priority = priorityOf(header.group(1).charAt(0));
+                    if (priority == null || priority.priority() < mQuery.mMinPriority.priority()) {
+                        return false;
+                    }
+                }
+                if (!mQuery.mTags.isEmpty() && !mQuery.mTags.contains(header.group(2).trim())) {
+                    return false;
+                }
+            }
+            for (Matcher matcher : matchers) {
+                if (!matcher.reset(line).find()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 一段搜索完成，按顺序回调已经完成的分段
+         */
+        synchronized void onChunkDone(int chunk, List<String> hits) {
+            mResults.set(chunk, hits);
+            while (mNextPublish < mStarts.length && mResults.get(mNextPublish) != null && !mTask.mCancelled) {
+                List<String> lines = mResults.get(mNextPublish);
+                mResults.set(mNextPublish, Collections.<String>emptyList());
+                mNextPublish++;
+                if (mHitCount + lines.size() > MAX_HITS) {
+                    lines = lines.subList(0, MAX_HITS - mHitCount);
+                    mTruncated = true;
+                }
+                mHitCount += lines.size();
+                if (!lines.isEmpty()) {
+                    mCallback.onHits(lines);
+                }
+                if (mTruncated) {
+                    mTask.mCancelled = true;
+                    mCallback.onComplete(true);
+                    return;
+                }
+            }
+            if (mNextPublish == mStarts.length && !mTask.mCancelled) {
+                mCallback.onComplete(false);
+            }
+        }
+
+        void close() {
+            if (mSearchIndex != null) {
+                try {
+                    mSearchIndex.close();
+                } catch (IOException e) {
+
+                }
+            }
+        }
+    }
+
+    /**
+     * 搜索[mFrom, mTo)范围内的分段，超过一段时一分为二并行执行；mTo为-1时先切分文件
+     */
+    private static class ChunkAction extends RecursiveAction {
+        private final Search mSearch;
+        private final int mFrom;
+        private final int mTo;
+
+        ChunkAction(Search search, int from, int to) {
+            mSearch = search;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mSearch.mTask.mCancelled) {
+                return;
+            }
+            if (mTo < 0) {
+                try {
+                    mSearch.split();
+                    if (mSearch.mStarts.length == 0) {
+                        mSearch.mCallback.onComplete(false);
+                    } else {
+                        new ChunkAction(mSearch, 0, mSearch.mStarts.length).compute();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    mSearch.mCallback.onComplete(false);
+                } finally {
+                    mSearch.close();
+                }
+                return;
+            }
+            if (mTo - mFrom > 1) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new ChunkAction(mSearch, mFrom, middle), new ChunkAction(mSearch, middle, mTo));
+                return;
+            }
+            List<String> hits;
+            try {
+                hits = mSearch.searchChunk(mFrom);
+            } catch (IOException | RuntimeException e) {
+                // 出错的一段按没有结果处理，否则后面的分段一直等待这一段，不会回调完成
+                hits = Collections.emptyList();
+            }
+            mSearch.onChunkDone(mFrom, hits);
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 已切分日志文件的三元组(trigram)倒排索引，与日志文件放在同一目录，文件名为 日志文件名.tri
+ * <p>
+ * 日志按行分成约{@link #BLOCK_SIZE}字节的块，记录每个块中出现过的所有3字节组合(UTF-8，ASCII字母统一转小写)。
+ * 搜索时关键字的每个三元组都要出现在块中，取交集后只读取候选块，其余的块直接跳过；
+ * 候选块中仍需逐行匹配，结果与全文扫描一致。少于3个字节的关键字不能过滤，需要全文扫描。
+ * <p>
+ * 文件结构：
+ * <pre>
+ * 文件头：MAGIC("LTRI") | 版本(4字节) | 块数(4字节) | 三元组个数(4字节)
+ * 块：位置(8字节) | 起始行号(4字节) | 行数(4字节)
+ * 三元组：值(4字节) | 块列表偏移量(4字节)，按值排序
+ * 块列表总长度(4字节) | 块列表(块号差值，varint)...
+ * </pre>
+ * 只依赖JDK，在后台线程中生成，见{@link #buildAsync(String)}。
+ *
+ * @see LogBuilder#searchIndex(boolean)
+ */
+public class LogSearchIndex implements Closeable {
+
+    public static final String EXTENSION = ".tri";
+    static final String TEMP_EXTENSION = ".tri.tmp";
+    // 每块日志的大小
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int MAGIC = 0x4C545249;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int BLOCK_ENTRY_SIZE = 16;
+    private static final int TRIGRAM_ENTRY_SIZE = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 等待生成或正在生成索引的文件
+    private static final Set<String> sPendingFiles = Collections.synchronizedSet(new HashSet<String>());
+
+    private final RandomAccessFile mRandomAccessFile;
+    private final ByteBuffer mBuffer;
+    private final int mBlockCount;
+    private final int mTrigramCount;
+    private final int mPostingsOffset;
+
+    private LogSearchIndex(RandomAccessFile randomAccessFile, ByteBuffer buffer) throws IOException {
+        mRandomAccessFile = randomAccessFile;
+        mBuffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("invalid search index");
+        }
+        mBlockCount = buffer.getInt(8);
+        mTrigramCount = buffer.getInt(12);
+        int postingsLengthOffset = HEADER_SIZE + mBlockCount * BLOCK_ENTRY_SIZE + mTrigramCount * TRIGRAM_ENTRY_SIZE;
+        mPostingsOffset = postingsLengthOffset + 4;
+        if (mBlockCount < 0 || mTrigramCount < 0 || mPostingsOffset > buffer.limit()
+                || mPostingsOffset + buffer.getInt(postingsLengthOffset) != buffer.limit()) {
+            throw new IOException("invalid search index");
+        }
+    }
+
+    /**
+     * 日志文件对应的索引文件路径
+     */
+    public static String indexPath(String logPath) {
+        if (logPath.endsWith(LogCompressor.EXTENSION)) {
+            logPath = logPath.substring(0, logPath.length() - LogCompressor.EXTENSION.length());
+        }
+        return logPath + EXTENSION;
+    }
+
+    /**
+     * 打开日志文件的搜索索引
+     *
+     * @param logPath 日志文件路径
+     * @return 没有索引(未切分的文件或者索引尚未生成)时返回null
+     */
+    public static LogSearchIndex open(String logPath) {
+        File file = new File(indexPath(logPath));
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            return new LogSearchIndex(randomAccessFile, buffer);
+        } catch (IOException e) {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e1) {
+
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 块数
+     */
+    public int blockCount() {
+        return mBlockCount;
+    }
+
+    /**
+     * 块开头的位置，传给{@link LogFileReader#seek(long)}；位置随块号递增
+     */
+    public long blockPosition(int block) {
+        return mBuffer.getLong(HEADER_SIZE + block * BLOCK_ENTRY_SIZE);
+    }
+
+    /**
+     * 块开头的行号(从0开始)
+     */
+    public int blockFirstLine(int block) {
+        return mBuffer.getInt(HEADER_SIZE + block * BLOCK_ENTRY_SIZE + 8);
+    }
+
+    /**
+     * 块中的行数
+     */
+    public int blockLineCount(int block) {
+        return mBuffer.getInt(HEADER_SIZE + block * BLOCK_ENTRY_SIZE + 12);
+    }
+
+    /**
+     * 位置所在的块
+     *
+     * @return 块号，在第一个块之前时返回-1
+     */
+    public int blockOf(long position) {
+        int low = 0;
+        int high = mBlockCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockPosition(mid) <= position) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * 可能同时包含所有关键字的块
+     *
+     * @param keywords 关键字，同时匹配
+     * @return 每个块是否是候选块；关键字都少于3个字节、无法过滤时返回null
+     */
+    public boolean[] candidateBlocks(String[] keywords) {
+        boolean[] candidates = null;
+        for (String keyword : keywords) {
+            if (keyword == null) {
+                continue;
+            }
+            byte[] bytes = keyword.getBytes(UTF_8);
+            for (int i = 0; i + 2 < bytes.length; i++) {
+                int trigram = trigram(bytes, i);
+                if (candidates == null) {
+                    candidates = new boolean[mBlockCount];
+                    Arrays.fill(candidates, true);
+                }
+                intersect(candidates, trigram);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 只保留包含三元组的块
+     */
+    private void intersect(boolean[] candidates, int trigram) {
+        int low = 0;
+        int high = mTrigramCount - 1;
+        int dictionary = HEADER_SIZE + mBlockCount * BLOCK_ENTRY_SIZE;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = mBuffer.getInt(dictionary + mid * TRIGRAM_ENTRY_SIZE);
+            if (value < trigram) {
+                low = mid + 1;
+            } else if (value > trigram) {
+                high = mid - 1;
+            } else {
+                found = mid;
+                break;
+            }
+        }
+        if (found < 0) {
+            Arrays.fill(candidates, false);
+            return;
+        }
+        int offset = mPostingsOffset + mBuffer.getInt(dictionary + found * TRIGRAM_ENTRY_SIZE + 4);
+        int end = found + 1 < mTrigramCount
+                ? mPostingsOffset + mBuffer.getInt(dictionary + (found + 1) * TRIGRAM_ENTRY_SIZE + 4)
+                : mBuffer.limit();
+        int block = -1;
+        int next = 0;
+        while (offset < end) {
+            int delta = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = mBuffer.get(offset++);
+                delta |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            block += delta;
+            while (next < block) {
+                candidates[next++] = false;
+            }
+            next = block + 1;
+        }
+        while (next < mBlockCount) {
+            candidates[next++] = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+
+    private static int trigram(byte[] bytes, int offset) {
+        return (lowerCase(bytes[offset]) << 16) | (lowerCase(bytes[offset + 1]) << 8) | lowerCase(bytes[offset + 2]);
+    }
+
+    private static int lowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xFF;
+    }
+
+    /**
+     * 在后台为已切分的日志文件生成索引，与压缩在同一个线程中排队
+     *
+     * @param path 日志文件路径
+     */
+    static void buildAsync(final String path) {
+        if (path == null || !sPendingFiles.add(path)) {
+            return;
+        }
+        LogCompressor.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String logPath = path;
+                    if (!new File(logPath).exists()) {
+                        // 已经压缩
+                        logPath = path + LogCompressor.EXTENSION;
+                    }
+                    build(logPath);
+                } catch (IOException e) {
+                    // 索引只用于加速搜索，生成失败时搜索退化为全文扫描
+                    new File(path + TEMP_EXTENSION).delete();
+                } finally {
+                    sPendingFiles.remove(path);
+                }
+            }
+        });
+    }
+
+    /**
+     * 为目录中还没有索引的已切分文件生成索引，清理上次未完成的临时文件
+     *
+     * @param folderPath 日志目录
+     */
+    static void buildMissingAsync(final String folderPath) {
+        LogCompressor.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = new File(folderPath).listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(TEMP_EXTENSION)) {
+                        String logPath = file.getPath().substring(0, file.getPath().length() - TEMP_EXTENSION.length());
+                        if (!sPendingFiles.contains(logPath)) {
+                            file.delete();
+                        }
+                        continue;
+                    }
+                    if (name.endsWith(LogCompressor.EXTENSION)) {
+                        name = name.substring(0, name.length() - LogCompressor.EXTENSION.length());
+                    }
+                    if (LogCompressor.ROTATED_FILE_PATTERN.matcher(name).matches()
+                            && !new File(indexPath(file.getPath())).exists()) {
+                        buildAsync(file.getParent() + File.separator + name);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 生成索引，先写入临时文件，完成后再重命名
+     *
+     * @param logPath 日志文件路径
+     */
+    static void build(String logPath) throws IOException {
+        String indexPath = indexPath(logPath);
+        File tempFile = new File(indexPath.substring(0, indexPath.length() - EXTENSION.length()) + TEMP_EXTENSION);
+        Builder builder = new Builder();
+        LogFileReader reader = LogFileReader.open(logPath);
+        try {
+            long position = reader.position();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                builder.addLine(position, line.getBytes(UTF_8));
+                position = reader.position();
+            }
+        } finally {
+            reader.close();
+        }
+        builder.writeTo(tempFile);
+        if (!tempFile.renameTo(new File(indexPath))) {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * 在内存中生成索引，三元组使用开放寻址的哈希表，每个三元组的块列表直接按varint差值编码
+     */
+    static class Builder {
+
+        private static final int EMPTY = -1;
+        private static final int INITIAL_CAPACITY = 4096;
+
+        private long[] mBlockPositions = new long[64];
+        private int[] mBlockFirstLines = new int[64];
+        private int[] mBlockLineCounts = new int[64];
+        private int mBlockCount;
+        private int mBlockBytes;
+        private int mLineCount;
+
+        private int[] mKeys;
+        // 最后加入的块号，同一块中重复出现的三元组只记录一次
+        private int[] mLastBlocks;
+        private byte[][] mPostings;
+        private int[] mPostingLengths;
+        private int mSize;
+
+        Builder() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            mKeys = new int[capacity];
+            Arrays.fill(mKeys, EMPTY);
+            mLastBlocks = new int[capacity];
+            mPostings = new byte[capacity][];
+            mPostingLengths = new int[capacity];
+        }
+
+        /**
+         * @param position 该行的位置
+         * @param bytes    该行的UTF-8编码
+         */
+        void addLine(long position, byte[] bytes) {
+            if (mBlockCount == 0 || mBlockBytes >= BLOCK_SIZE) {
+                startBlock(position);
+            }
+            int block = mBlockCount - 1;
+            for (int i = 0; i + 2 < bytes.length; i++) {
+                add(trigram(bytes, i), block);
+            }
+            mBlockBytes += bytes.length + 1;
+            mBlockLineCounts[block]++;
+            mLineCount++;
+        }
+
+        private void startBlock(long position) {
+            if (mBlockCount == mBlockPositions.length) {
+                int length = mBlockCount * 2;
+                mBlockPositions = Arrays.copyOf(mBlockPositions, length);
+                mBlockFirstLines = Arrays.copyOf(mBlockFirstLines, length);
+                mBlockLineCounts = Arrays.copyOf(mBlockLineCounts, length);
+            }
+            mBlockPositions[mBlockCount] = position;
+            mBlockFirstLines[mBlockCount] = mLineCount;
+            mBlockLineCounts[mBlockCount] = 0;
+            mBlockCount++;
+            mBlockBytes = 0;
+        }
+
+        private void add(int key, int block) {
+            int mask = mKeys.length - 1;
+            int slot = (key * 0x9E3779B9) >>> 7 & mask;
+            while (mKeys[slot] != EMPTY && mKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (mKeys[slot] == EMPTY) {
+                mKeys[slot] = key;
+                mLastBlocks[slot] = -1;
+                mPostings[slot] = new byte[4];
+                mSize++;
+            } else if (mLastBlocks[slot] == block) {
+                return;
+            }
+            int delta = block - mLastBlocks[slot];
+            mLastBlocks[slot] = block;
+            byte[] posting = mPostings[slot];
+            int length = mPostingLengths[slot];
+            if (length + 5 > posting.length) {
+                posting = Arrays.copyOf(posting, posting.length * 2);
+                mPostings[slot] = posting;
+            }
+            while ((delta & ~0x7F) != 0) {
+                posting[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            posting[length++] = (byte) delta;
+            mPostingLengths[slot] = length;
+            if (mSize * 2 > mKeys.length) {
+                rehash();
+            }
+        }
+
+        private void rehash() {
+            int[] keys = mKeys;
+            int[] lastBlocks = mLastBlocks;
+            byte[][] postings = mPostings;
+            int[] postingLengths = mPostingLengths;
+            allocate(keys.length * 2);
+            int mask = mKeys.length - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == EMPTY) {
+                    continue;
+                }
+                int slot = (keys[i] * 0x9E3779B9) >>> 7 & mask;
+                while (mKeys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                mKeys[slot] = keys[i];
+                mLastBlocks[slot] = lastBlocks[i];
+                mPostings[slot] = postings[i];
+                mPostingLengths[slot] = postingLengths[i];
+            }
+        }
+
+        void writeTo(File file) throws IOException {
+            // 高32位为三元组，低32位为槽位，排序后按三元组顺序输出
+            long[] sorted = new long[mSize];
+            int count = 0;
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mKeys[i] != EMPTY) {
+                    sorted[count++] = ((long) mKeys[i] << 32) | i;
+                }
+            }
+            Arrays.sort(sorted);
+
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                outputStream.writeInt(MAGIC);
+                outputStream.writeInt(VERSION);
+                outputStream.writeInt(mBlockCount);
+                outputStream.writeInt(mSize);
+                for (int i = 0; i < mBlockCount; i++) {
+                    outputStream.writeLong(mBlockPositions[i]);
+                    outputStream.writeInt(mBlockFirstLines[i]);
+                    outputStream.writeInt(mBlockLineCounts[i]);
+                }
+                int offset = 0;
+                for (long entry : sorted) {
+                    outputStream.writeInt((int) (entry >>> 32));
+                    outputStream.writeInt(offset);
+                    offset += mPostingLengths[(int) entry];
+                }
+                outputStream.writeInt(offset);
+                for (long entry : sorted) {
+                    outputStream.write(mPostings[(int) entry], 0, mPostingLengths[(int) entry]);
+                }
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+}
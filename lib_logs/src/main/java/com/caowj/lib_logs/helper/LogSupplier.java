@@ -0,0 +1,12 @@
+package com.caowj.lib_logs.helper;
+
+/**
+ * 延迟生成日志内容，只有日志会被输出或记录时才会调用
+ * <p>
+ * minSdkVersion 21 无法使用java.util.function.Supplier，故单独定义
+ *
+ * @see com.caowj.lib_logs.LegoLog#d(String, LogSupplier)
+ */
+public interface LogSupplier {
+    Object get();
+}
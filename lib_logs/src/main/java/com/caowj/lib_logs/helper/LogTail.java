@@ -0,0 +1,409 @@
+package com.caowj.lib_logs.helper;
+
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 实时日志订阅，支持多个订阅者
+ * <p>
+ * 写文件线程和logcat读取线程只把日志放入每个订阅者自己的有界缓冲区，不等待任何订阅者：
+ * 缓冲区正在被取出(锁被占用)或已满时按订阅者的溢出策略丢弃，丢弃的条数随下一批日志一起回调。
+ * 回调在订阅者指定的{@link Executor}中分批进行，默认是一个共用的后台线程，慢的订阅者只会丢日志，不会拖慢写文件。
+ * <p>
+ * 用法：
+ * <pre>
+ * LogTail.Subscription subscription = new LogTail.Subscription(listener)
+ *         .types(LogTypeEnum.Net)
+ *         .minPriority(LogPriority.Info)
+ *         .tag("LegoHttpLog")
+ *         .capacity(1000)
+ *         .overflow(LogTail.Overflow.SAMPLE);
+ * LogTail.subscribe(subscription);
+ * ...
+ * LogTail.unsubscribe(subscription);
+ * </pre>
+ */
+public class LogTail {
+
+    static final String TAG = "LogTail";
+    // 默认每个订阅者缓冲的日志条数
+    static final int CAPACITY_DEFAULT = 500;
+    // SAMPLE策略下缓冲区满时每隔多少条保留一条
+    static final int SAMPLE_INTERVAL_DEFAULT = 10;
+
+    private static final CopyOnWriteArrayList<Subscription> sSubscriptions = new CopyOnWriteArrayList<>();
+    // 有订阅者时才需要生成日志文本
+    private static volatile boolean sHasSubscribers;
+    private static Executor sDefaultExecutor;
+
+    /**
+     * 缓冲区满时的处理
+     */
+    public enum Overflow {
+        /**
+         * 丢弃最早的日志，保留最新的
+         */
+        DROP_OLDEST,
+        /**
+         * 按间隔抽样：每{@link Subscription#sampleInterval(int)}条新日志保留一条(替换最早的)，其余丢弃，
+         * 日志很多时仍能看到各个时段的日志
+         */
+        SAMPLE
+    }
+
+    /**
+     * 一条日志
+     */
+    public static class Line {
+        private final LogTypeEnum mLogType;
+        private final LogPriority mPriority;
+        private final String mTag;
+        private final String mText;
+
+        Line(LogTypeEnum logType, LogPriority priority, String tag, String text) {
+            mLogType = logType;
+            mPriority = priority;
+            mTag = tag;
+            mText = text;
+        }
+
+        public LogTypeEnum logType() {
+            return mLogType;
+        }
+
+        /**
+         * 级别，logcat中无法解析级别的行为null
+         */
+        public LogPriority priority() {
+            return mPriority;
+        }
+
+        public String tag() {
+            return mTag;
+        }
+
+        /**
+         * 格式化后的整行日志，与写入文件的内容相同
+         */
+        public String text() {
+            return mText;
+        }
+    }
+
+    /**
+     * 订阅回调
+     */
+    public interface OnTailListener {
+        /**
+         * 在订阅者的{@link Executor}中调用
+         *
+         * @param lines   按时间顺序的一批日志
+         * @param dropped 上一批之后因缓冲区满而丢弃的条数
+         */
+        void onTail(List<Line> lines, int dropped);
+    }
+
+    /**
+     * 一个订阅者：过滤条件、缓冲区大小及溢出策略
+     */
+    public static class Subscription {
+        final OnTailListener mListener;
+        Set<LogTypeEnum> mTypes = EnumSet.allOf(LogTypeEnum.class);
+        LogPriority mMinPriority;
+        String mTag;
+        int mCapacity = CAPACITY_DEFAULT;
+        Overflow mOverflow = Overflow.DROP_OLDEST;
+        int mSampleInterval = SAMPLE_INTERVAL_DEFAULT;
+        Executor mExecutor;
+
+        // 环形缓冲区，只在持有mLock时访问
+        private final ReentrantLock mLock = new ReentrantLock();
+        private Line[] mLines;
+        private int mHead;
+        private int mSize;
+        private int mSampleCount;
+        private final AtomicInteger mDropped = new AtomicInteger();
+        private final AtomicBoolean mScheduled = new AtomicBoolean();
+        private final Runnable mDrainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+
+        public Subscription(OnTailListener listener) {
+            mListener = listener;
+        }
+
+        /**
+         * 只接收这些类型的日志，默认全部
+         */
+        public Subscription types(LogTypeEnum... types) {
+            mTypes = types.length == 0 ? EnumSet.allOf(LogTypeEnum.class) : EnumSet.of(types[0], types);
+            return this;
+        }
+
+        /**
+         * 只接收不低于该级别的日志，默认全部(包括无法解析级别的logcat行)
+         */
+        public Subscription minPriority(LogPriority priority) {
+            mMinPriority = priority;
+            return this;
+        }
+
+        /**
+         * 只接收TAG中包含该字符串的日志，默认全部
+         */
+        public Subscription tag(String tag) {
+            mTag = tag;
+            return this;
+        }
+
+        /**
+         * 缓冲区能放的日志条数，默认{@link LogTail#CAPACITY_DEFAULT}
+         */
+        public Subscription capacity(int capacity) {
+            mCapacity = Math.max(1, capacity);
+            return this;
+        }
+
+        /**
+         * 缓冲区满时的处理，默认{@link Overflow#DROP_OLDEST}
+         */
+        public Subscription overflow(Overflow overflow) {
+            mOverflow = overflow;
+            return this;
+        }
+
+        /**
+         * {@link Overflow#SAMPLE}时每隔多少条保留一条，默认{@link LogTail#SAMPLE_INTERVAL_DEFAULT}
+         */
+        public Subscription sampleInterval(int interval) {
+            mSampleInterval = Math.max(1, interval);
+            return this;
+        }
+
+        /**
+         * 回调所在的线程，默认是共用的后台线程
+         * <p>
+         * execute()在写文件线程中调用，不能阻塞，也不能在调用线程中直接执行(如CallerRunsPolicy)，
+         * 否则会拖慢写日志；拒绝执行时这批日志留在缓冲区中，下一条日志时重试
+         */
+        public Subscription executor(Executor executor) {
+            mExecutor = executor;
+            return this;
+        }
+
+        boolean accept(LogTypeEnum logType, LogPriority priority) {
+            if (!mTypes.contains(logType)) {
+                return false;
+            }
+            return mMinPriority == null || (priority != null && priority.priority() >= mMinPriority.priority());
+        }
+
+        boolean acceptTag(String tag) {
+            return mTag == null || (tag != null && tag.contains(mTag));
+        }
+
+        /**
+         * 放入缓冲区，不等待
+         */
+        void offer(Line line) {
+            if (!mLock.tryLock()) {
+                // 正在取出，直接丢弃，不等待
+                mDropped.incrementAndGet();
+                return;
+            }
+            try {
+                if (mLines == null) {
+                    mLines = new Line[mCapacity];
+                }
+                if (mSize < mLines.length) {
+                    mLines[(mHead + mSize++) % mLines.length] = line;
+                } else if (mOverflow == Overflow.DROP_OLDEST || ++mSampleCount >= mSampleInterval) {
+                    // 替换最早的一条
+                    mSampleCount = 0;
+                    mLines[mHead] = line;
+                    mHead = (mHead + 1) % mLines.length;
+                    mDropped.incrementAndGet();
+                } else {
+                    mDropped.incrementAndGet();
+                }
+            } finally {
+                mLock.unlock();
+            }
+            if (mScheduled.compareAndSet(false, true)) {
+                try {
+                    mExecutor.execute(mDrainTask);
+                } catch (RuntimeException e) {
+                    // 如executor已关闭而拒绝执行：日志留在缓冲区中，下一条日志时重试，异常不能传到写文件线程
+                    mScheduled.set(false);
+                    Log.e(TAG, "execute 异常", e);
+                }
+            }
+        }
+
+        /**
+         * 取出缓冲区中的所有日志并回调
+         */
+        void drain() {
+            mScheduled.set(false);
+            List<Line> lines;
+            mLock.lock();
+            try {
+                if (mSize == 0) {
+                    return;
+                }
+                lines = new ArrayList<>(mSize);
+                for (int i = 0; i < mSize; i++) {
+                    int index = (mHead + i) % mLines.length;
+                    lines.add(mLines[index]);
+                    mLines[index] = null;
+                }
+                mHead = 0;
+                mSize = 0;
+                mSampleCount = 0;
+            } finally {
+                mLock.unlock();
+            }
+            if (!sSubscriptions.contains(this)) {
+                // 已取消订阅
+                return;
+            }
+            mListener.onTail(Collections.unmodifiableList(lines), mDropped.getAndSet(0));
+        }
+    }
+
+    private LogTail() {
+    }
+
+    /**
+     * 添加订阅者，之后的日志开始放入它的缓冲区
+     */
+    public static void subscribe(Subscription subscription) {
+        if (subscription.mExecutor == null) {
+            subscription.mExecutor = defaultExecutor();
+        }
+        sSubscriptions.addIfAbsent(subscription);
+        sHasSubscribers = true;
+    }
+
+    /**
+     * 移除订阅者，缓冲区中还没回调的日志不再回调
+     */
+    public static void unsubscribe(Subscription subscription) {
+        if (subscription == null) {
+            return;
+        }
+        sSubscriptions.remove(subscription);
+        sHasSubscribers = !sSubscriptions.isEmpty();
+    }
+
+    /**
+     * 兼容原来的{@link OnPrintLogListener}：弱引用持有，监听被回收后自动取消订阅
+     */
+    static Subscription subscribe(OnPrintLogListener onPrintLogListener, LogTypeEnum... types) {
+        final WeakReference<OnPrintLogListener> reference = new WeakReference<>(onPrintLogListener);
+        final Subscription[] holder = new Subscription[1];
+        holder[0] = new Subscription(new OnTailListener() {
+            @Override
+            public void onTail(List<Line> lines, int dropped) {
+                OnPrintLogListener listener = reference.get();
+                if (listener == null) {
+                    unsubscribe(holder[0]);
+                    return;
+                }
+                for (Line line : lines) {
+                    listener.onPrintLog(line.logType(), line.text());
+                }
+            }
+        }).types(types);
+        subscribe(holder[0]);
+        return holder[0];
+    }
+
+    /**
+     * 是否有订阅者接收该类型和级别的日志；没有订阅者时只读一个volatile字段，写日志时不需要再单独判断
+     */
+    static boolean wants(LogTypeEnum logType, LogPriority priority) {
+        if (!sHasSubscribers) {
+            return false;
+        }
+        for (Subscription subscription : sSubscriptions) {
+            if (subscription.accept(logType, priority)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把一条日志放入所有符合条件的订阅者的缓冲区，在写日志的线程中调用，不等待
+     */
+    static void publish(LogTypeEnum logType, LogPriority priority, String tag, String text) {
+        Line line = null;
+        for (Subscription subscription : sSubscriptions) {
+            if (subscription.accept(logType, priority) && subscription.acceptTag(tag)) {
+                if (line == null) {
+                    line = new Line(logType, priority, tag, text);
+                }
+                subscription.offer(line);
+            }
+        }
+    }
+
+    /**
+     * logcat级别字母对应的级别，无法解析时返回null
+     */
+    static LogPriority priorityOf(char priority) {
+        switch (priority) {
+            case 'V':
+                return LogPriority.Verbose;
+            case 'D':
+                return LogPriority.Debug;
+            case 'I':
+                return LogPriority.Info;
+            case 'W':
+                return LogPriority.Warn;
+            case 'E':
+                return LogPriority.Error;
+            case 'F':
+            case 'A':
+                return LogPriority.Fatal;
+            case 'S':
+                return LogPriority.Silent;
+            default:
+                return null;
+        }
+    }
+
+    private static synchronized Executor defaultExecutor() {
+        if (sDefaultExecutor == null) {
+            sDefaultExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sDefaultExecutor;
+    }
+}
@@ -0,0 +1,261 @@
+package com.caowj.lib_logs.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * logcat输出的流式解析，按行切分并解析出级别、TAG和PID
+ * <p>
+ * 从管道中读取到固定大小的缓冲区，只处理完整的行，不完整的行留到下次读取后再处理；
+ * 解析结果是缓冲区中的下标，不为每行创建String。支持threadtime(默认)和brief两种格式：
+ * <pre>
+ * threadtime：10-16 20:48:02.123  1234  5678 I Tag     : message
+ * brief：     I/Tag     ( 1234): message
+ * </pre>
+ * 无法解析的行(如"--------- beginning of main")级别为0、TAG为空，按原样输出。
+ */
+class LogcatParser {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] mBuffer;
+    // 缓冲区中未处理数据的起止位置
+    private int mStart;
+    private int mEnd;
+
+    // 当前行的解析结果
+    private int mLineStart;
+    private int mLineEnd;
+    private char mPriority;
+    private int mTagStart;
+    private int mTagEnd;
+    private int mPid;
+
+    /**
+     * 每行的处理，在读取线程中调用
+     */
+    interface LineHandler {
+        /**
+         * @param parser 当前行的解析结果，只在回调中有效
+         */
+        void onLine(LogcatParser parser) throws IOException;
+    }
+
+    /**
+     * @param bufferSize 缓冲区大小，超过这个长度的行会被切分
+     */
+    LogcatParser(int bufferSize) {
+        mBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * 阻塞读取一次，处理其中所有完整的行
+     *
+     * @return false-已到达流的末尾(logcat进程退出)，剩余不完整的行也已处理
+     */
+    boolean read(InputStream inputStream, LineHandler handler) throws IOException {
+        if (mStart > 0) {
+            System.arraycopy(mBuffer, mStart, mBuffer, 0, mEnd - mStart);
+            mEnd -= mStart;
+            mStart = 0;
+        }
+        int length = inputStream.read(mBuffer, mEnd, mBuffer.length - mEnd);
+        if (length < 0) {
+            if (mEnd > mStart) {
+                dispatch(mStart, mEnd, handler);
+            }
+            mStart = mEnd = 0;
+            return false;
+        }
+        int scan = mEnd;
+        mEnd += length;
+        for (int i = scan; i < mEnd; i++) {
+            if (mBuffer[i] == '\n') {
+                dispatch(mStart, i, handler);
+                mStart = i + 1;
+            }
+        }
+        if (mStart == 0 && mEnd == mBuffer.length) {
+            // 一行超过缓冲区大小，直接切分
+            dispatch(0, mEnd, handler);
+            mStart = mEnd = 0;
+        }
+        return true;
+    }
+
+    private void dispatch(int start, int end, LineHandler handler) throws IOException {
+        if (end > start && mBuffer[end - 1] == '\r') {
+            end--;
+        }
+        if (end <= start) {
+            return;
+        }
+        mLineStart = start;
+        mLineEnd = end;
+        parse();
+        handler.onLine(this);
+    }
+
+    private void parse() {
+        mPriority = 0;
+        mTagStart = mTagEnd = mLineStart;
+        mPid = 0;
+        if (!parseThreadTime()) {
+            parseBrief();
+        }
+    }
+
+    /**
+     * MM-dd HH:mm:ss.SSS PID TID P TAG: message
+     */
+    private boolean parseThreadTime() {
+        int i = mLineStart;
+        // 日期和时间固定18个字符
+        if (mLineEnd - i < 18 || !isDigit(mBuffer[i]) || mBuffer[i + 2] != '-' || mBuffer[i + 5] != ' '
+                || mBuffer[i + 8] != ':' || mBuffer[i + 14] != '.') {
+            return false;
+        }
+        i = skipSpaces(i + 18);
+        int pidStart = i;
+        int pid = 0;
+        while (i < mLineEnd && isDigit(mBuffer[i])) {
+            pid = pid * 10 + (mBuffer[i++] - '0');
+        }
+        if (i == pidStart) {
+            return false;
+        }
+        i = skipSpaces(i);
+        while (i < mLineEnd && isDigit(mBuffer[i])) {
+            i++;
+        }
+        i = skipSpaces(i);
+        if (i + 1 >= mLineEnd || mBuffer[i + 1] != ' ') {
+            return false;
+        }
+        char priority = (char) mBuffer[i];
+        int tagStart = i + 2;
+        int colon = indexOf(tagStart, ':');
+        if (colon < 0) {
+            return false;
+        }
+        mPriority = priority;
+        mPid = pid;
+        mTagStart = tagStart;
+        mTagEnd = trimEnd(tagStart, colon);
+        return true;
+    }
+
+    /**
+     * P/TAG( PID): message
+     */
+    private void parseBrief() {
+        int i = mLineStart;
+        if (mLineEnd - i < 3 || mBuffer[i + 1] != '/') {
+            return;
+        }
+        int open = indexOf(i + 2, '(');
+        if (open < 0) {
+            return;
+        }
+        int pid = 0;
+        int j = skipSpaces(open + 1);
+        while (j < mLineEnd && isDigit(mBuffer[j])) {
+            pid = pid * 10 + (mBuffer[j++] - '0');
+        }
+        if (j >= mLineEnd || mBuffer[j] != ')') {
+            return;
+        }
+        mPriority = (char) mBuffer[i];
+        mPid = pid;
+        mTagStart = i + 2;
+        mTagEnd = trimEnd(i + 2, open);
+    }
+
+    private int skipSpaces(int i) {
+        while (i < mLineEnd && mBuffer[i] == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && mBuffer[end - 1] == ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private int indexOf(int from, char c) {
+        for (int i = from; i < mLineEnd; i++) {
+            if (mBuffer[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * 存放当前行的缓冲区，行的内容为[{@link #lineStart()}, {@link #lineEnd()})，不含换行符
+     */
+    byte[] buffer() {
+        return mBuffer;
+    }
+
+    int lineStart() {
+        return mLineStart;
+    }
+
+    int lineEnd() {
+        return mLineEnd;
+    }
+
+    /**
+     * 级别字母(V/D/I/W/E/F/S)，无法解析时为0
+     */
+    char priority() {
+        return mPriority;
+    }
+
+    /**
+     * 进程ID，无法解析时为0
+     */
+    int pid() {
+        return mPid;
+    }
+
+    /**
+     * TAG中是否包含key(UTF-8编码)
+     */
+    boolean tagContains(byte[] key) {
+        int last = mTagEnd - key.length;
+        for (int i = mTagStart; i <= last; i++) {
+            int j = 0;
+            while (j < key.length && mBuffer[i + j] == key[j]) {
+                j++;
+            }
+            if (j == key.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 当前行的TAG，会创建String
+     */
+    String tag() {
+        return new String(mBuffer, mTagStart, mTagEnd - mTagStart, UTF_8);
+    }
+
+    /**
+     * 当前行的内容，会创建String，只在需要时(如实时显示)调用
+     */
+    String line() {
+        return new String(mBuffer, mLineStart, mLineEnd - mLineStart, UTF_8);
+    }
+}
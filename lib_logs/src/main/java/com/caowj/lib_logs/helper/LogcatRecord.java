@@ -8,11 +8,12 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.util.Log;
 
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 
@@ -45,7 +46,17 @@ public class LogcatRecord {
 //    private static int PID = android.os.Process.myPid();
 //    private static String PName;
     private static Map<Integer, LogFile> nLogFileMap = new HashMap<>();
-    private static WeakReference<OnPrintLogListener> nOnPrintLogListener;
+    // setOnPrintLogListener对应的订阅
+    private static LogTail.Subscription nPrintLogSubscription;
+    // logcat读取缓冲区的大小，超过这个长度的行会被切分
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // logcat进程退出后重启的最短及最长间隔(毫秒)
+    private static final long RESTART_MIN_DELAY_MS = 1000;
+    private static final long RESTART_MAX_DELAY_MS = 60 * 1000;
+    private static final byte[] NEW_LINE = {'\n'};
+    // 按TAG分流：TAG包含nRouteTags[i]的行写入nRouteTypes[i]对应的文件，其余写入Logcat文件
+    private static byte[][] nRouteTags = new byte[0][];
+    private static LogTypeEnum[] nRouteTypes = new LogTypeEnum[0];
 
     LogcatConfig nLogcatConfig = null;
 
@@ -74,6 +85,13 @@ public class LogcatRecord {
         }
         // wangqian add end
         LogFile.LOG_FILE_MAX_SIZE = config.maxFileSize;
+        LogFile.COMPRESS_ROTATED = config.compressRotated;
+        LogFile.SEARCH_INDEX = config.searchIndex;
+        if (config.lineIndex) {
+            for (LogFile logFile : nLogFileMap.values()) {
+                logFile.enableLineIndex();
+            }
+        }
 //        nLogPriority = new ArrayList<>(LogPriority.Silent.priority() - config.priority.priority() + 1);
 //        for (LogPriority value : LogPriority.values()) {
 //            if (config.priority.priority() <= value.priority()) {
@@ -86,10 +104,35 @@ public class LogcatRecord {
         clearLog(config.retainDay);
 
         nLogSource = config.logSource;
+        setRoutes(config);
 
         startRecordThread();
     }
 
+    /**
+     * 按TAG分流的规则：只从Logcat记录时，网络日志默认写入Net文件；
+     * 同时从LegoLog记录时LegoLog已经写入了Net/Bussiness文件，只使用配置的规则，避免重复
+     */
+    private static void setRoutes(LogcatConfig config) {
+        Map<String, LogTypeEnum> routes = new LinkedHashMap<>();
+        if (config.logcatRoutes != null) {
+            routes.putAll(config.logcatRoutes);
+        }
+        if (config.logSource == LogBuilder.LogSource.Logcat && !routes.containsKey(LogRecord.NET_TAG)) {
+            routes.put(LogRecord.NET_TAG, LogTypeEnum.Net);
+        }
+        byte[][] tags = new byte[routes.size()][];
+        LogTypeEnum[] types = new LogTypeEnum[routes.size()];
+        int i = 0;
+        for (Map.Entry<String, LogTypeEnum> entry : routes.entrySet()) {
+            tags[i] = entry.getKey().getBytes(Charset.forName("UTF-8"));
+            types[i] = entry.getValue();
+            i++;
+        }
+        nRouteTypes = types;
+        nRouteTags = tags;
+    }
+
     private static void startRecordThread() {
 
         if (nLogSource == LogBuilder.LogSource.Logcat || nLogSource == LogBuilder.LogSource.ALL) {
@@ -98,20 +141,18 @@ public class LogcatRecord {
     }
 
 
-    public static void setOnPrintLogListener(OnPrintLogListener onPrintLogListener) {
+    /**
+     * 监听logcat日志，只能有一个监听；需要多个订阅者或过滤条件时使用{@link LogTail}
+     */
+    public static synchronized void setOnPrintLogListener(OnPrintLogListener onPrintLogListener) {
 
-        if (nOnPrintLogListener != null) {
-            nOnPrintLogListener.clear();
-        }
+        LogTail.unsubscribe(nPrintLogSubscription);
+        nPrintLogSubscription = null;
         if (onPrintLogListener != null) {
-            nOnPrintLogListener = new WeakReference<>(onPrintLogListener);
+            nPrintLogSubscription = LogTail.subscribe(onPrintLogListener, LogTypeEnum.Logcat);
         }
     }
 
-    private static void printLog(String log) {
-            nOnPrintLogListener.get().onPrintLog(LogTypeEnum.Logcat,log);
-    }
-
 
     /**
      * 开启Log线程定时唤醒机制，以往APP后台睡眠时无法记录日志
@@ -131,14 +172,20 @@ public class LogcatRecord {
 
 
     /**
-     * 自动启动指定day前的数据
+     * 登记日志目录，在后台清理指定day前的数据
      *
      * @param day 保留天数
      */
     private void clearLog(int day) {
         Collection<LogFile> logFiles = nLogFileMap.values();
         for (LogFile logFile : logFiles) {
-            Constance.autoClearLog(day, logFile.getFolderPath(), TAG);
+            LogRetention.getInstance().register(logFile.getLogType(), logFile.getFolderPath(), day);
+            if (LogFile.SEARCH_INDEX) {
+                LogSearchIndex.buildMissingAsync(logFile.getFolderPath());
+            }
+            if (LogFile.COMPRESS_ROTATED) {
+                LogCompressor.compressRotatedAsync(logFile.getFolderPath());
+            }
         }
     }
 
@@ -194,7 +241,8 @@ public class LogcatRecord {
 
 
         private static Thread THREAD_INSTANCE;
-        byte[] newLineByteArray = "\n".getBytes();
+        // 当前的logcat进程
+        private Process mProcess;
 
         private static void stopThread() {
             if (THREAD_INSTANCE != null && (THREAD_INSTANCE.isAlive() || !THREAD_INSTANCE.isInterrupted())) {
@@ -222,87 +270,122 @@ public class LogcatRecord {
         public void run() {
             super.run();
 
-            Process logcatProcess = null;
-            InputStream logcatInputStream;
-            FileOutputStream fileOutputStream = null;
-            byte[] logBytes = new byte[10240 * 2];
-            String printLog = null;
+            LogcatParser parser = new LogcatParser(READ_BUFFER_SIZE);
+            LineRouter router = new LineRouter();
+            long retryDelay = RESTART_MIN_DELAY_MS;
             try {
-                //LegoLog.d("日志日志+++++++ " + nLogcatShell);
-                logcatProcess = Runtime.getRuntime().exec(nLogcatShell);
-                logcatInputStream = logcatProcess.getInputStream();
-
-                long lastUpdate = System.currentTimeMillis();
-                LogFile logFile = nLogFileMap.get(LogTypeEnum.Logcat.toValue());
-                int readLength;
                 while (!isInterrupted()) {
-
+                    Process logcatProcess = Runtime.getRuntime().exec(nLogcatShell);
+                    synchronized (this) {
+                        mProcess = logcatProcess;
+                    }
+                    InputStream logcatInputStream = logcatProcess.getInputStream();
+                    long startTime = System.currentTimeMillis();
                     try {
-                        readLength = logcatInputStream.read(logBytes);
-                        if (readLength == 0) {
-                            sleep(50);
-                            //超过60秒未读取到日志，重启logcat进程
-                            if ((System.currentTimeMillis() - lastUpdate) > 60000) {
-                                logcatProcess.destroy();
-                                logcatProcess = Runtime.getRuntime().exec(nLogcatShell);
-//                                logcatReader = new BufferedReader(new InputStreamReader(logcatProcess.getInputStream()), 10240);
-                                logcatInputStream = logcatProcess.getInputStream();
-                            }
-                            continue;
-                        }
-                        if (nOnPrintLogListener != null && nOnPrintLogListener.get() != null) {
-                            printLog = new String(logBytes,0, readLength);
-                            printLog(printLog);
+                        // 阻塞读取，没有日志时不占用CPU；logcat进程退出时返回false
+                        while (!isInterrupted() && parser.read(logcatInputStream, router)) {
+                            router.commit();
                         }
-                        fileOutputStream = logFile.getFileOutputStream(readLength + newLineByteArray.length);
-//                            buffer = randomAccessFile.getChannel()
-//                                    .map(FileChannel.MapMode.READ_WRITE, randomAccessFile.length(), logBytes.length + newLineByteArray.length);
-                        fileOutputStream.write(logBytes, 0, readLength);
-                        //添加换行符
-                        fileOutputStream.write(newLineByteArray);
-//
-//                            buffer.put(newLineByteArray);
-
-                        lastUpdate = System.currentTimeMillis();
-//                        if (nLogSource == LogBuilder.LogSource.Logcat) {
-//                            clearLogCache();
-//                        }
-
-                    } catch (InterruptedException e) {
-                        Log.e(TAG, "LogcatThread 异常", e);
-                        interrupt();
-                    } catch (Exception e) {
+                        router.commit();
+                    } catch (IOException e) {
                         // 不打印日志，防止没有SD读写权限，会一直循环打印
-//                       String message =  e.getMessage();
-//                       if(!(message!=null&&message.contains("Permission denied"))){
-//                           Log.e(TAG, "LogcatThread 异常", e);
-//                       }
-
+                    } finally {
+                        logcatProcess.destroy();
                     }
-
+                    if (isInterrupted()) {
+                        break;
+                    }
+                    // logcat进程异常退出时稍后重启，频繁退出时逐渐延长间隔
+                    retryDelay = System.currentTimeMillis() - startTime > RESTART_MAX_DELAY_MS
+                            ? RESTART_MIN_DELAY_MS : Math.min(retryDelay * 2, RESTART_MAX_DELAY_MS);
+                    sleep(retryDelay);
                 }
-
+            } catch (InterruptedException e) {
+                interrupt();
             } catch (Exception e) {
                 Log.e(TAG, "LogcatThread 异常", e);
             } finally {
+                router.close();
+            }
+
+        }
 
-                if (logcatProcess != null) {
-                    logcatProcess.destroy();
+        @Override
+        public void interrupt() {
+            super.interrupt();
+            // 结束logcat进程，阻塞中的读取随之返回
+            synchronized (this) {
+                if (mProcess != null) {
+                    mProcess.destroy();
                 }
-                if (fileOutputStream != null) {
-                    try {
-                        fileOutputStream.close();
-                    } catch (Exception e) {
+            }
+        }
 
-                    }
 
-                }
+    }
+
+    /**
+     * 按TAG将logcat的每一行写入对应的日志文件，每次读取后统一提交
+     */
+    private static class LineRouter implements LogcatParser.LineHandler {
+
+        private final LogFile[] mTouchedFiles = new LogFile[LogTypeEnum.values().length];
+        private int mTouchedCount;
 
+        @Override
+        public void onLine(LogcatParser parser) throws IOException {
+            LogTypeEnum logType = LogTypeEnum.Logcat;
+            byte[][] routeTags = nRouteTags;
+            LogTypeEnum[] routeTypes = nRouteTypes;
+            for (int i = 0; i < routeTags.length && i < routeTypes.length; i++) {
+                if (parser.tagContains(routeTags[i])) {
+                    logType = routeTypes[i];
+                    break;
+                }
             }
+            LogFile logFile = nLogFileMap.get(logType.toValue());
+            if (logFile == null) {
+                logFile = nLogFileMap.get(LogTypeEnum.Logcat.toValue());
+            }
+            // logcat行中的时间没有年份，索引使用读取到的时间
+            logFile.markLine(System.currentTimeMillis(), 1);
+            logFile.append(parser.buffer(), parser.lineStart(), parser.lineEnd() - parser.lineStart());
+            logFile.append(NEW_LINE);
+            touch(logFile);
+            // logcat的行在订阅中都属于Logcat类型，与写入的文件无关
+            LogPriority priority = LogTail.priorityOf(parser.priority());
+            if (LogTail.wants(LogTypeEnum.Logcat, priority)) {
+                LogTail.publish(LogTypeEnum.Logcat, priority, parser.tag(), parser.line());
+            }
+        }
 
+        private void touch(LogFile logFile) {
+            for (int i = 0; i < mTouchedCount; i++) {
+                if (mTouchedFiles[i] == logFile) {
+                    return;
+                }
+            }
+            mTouchedFiles[mTouchedCount++] = logFile;
         }
 
+        /**
+         * 将本次读取的所有行写入文件
+         */
+        void commit() {
+            for (int i = 0; i < mTouchedCount; i++) {
+                try {
+                    mTouchedFiles[i].commit();
+                } catch (IOException e) {
+                    // 不打印日志，防止没有SD读写权限，会一直循环打印
+                }
+                mTouchedFiles[i] = null;
+            }
+            mTouchedCount = 0;
+        }
 
+        void close() {
+            commit();
+        }
     }
 
 
@@ -419,6 +502,36 @@ public class LogcatRecord {
         // 日志文件最大尺寸
         int maxFileSize = LOG_FILE_MAX_SIZE;
         int logSource = LogBuilder.LogSource.LegoLog;
+        // LegoLog日志缓冲区容量
+        int ringBufferSize = LogBuilder.RING_BUFFER_DEFAULT_SIZE;
+        // 写文件线程等待策略
+        int waitStrategy = LogBuilder.WaitStrategy.PARK;
+        // 是否使用mmap暂存区
+        boolean mmapBuffer = true;
+        // 每批合并写入的最大日志条数
+        int batchSize = LogBuilder.BATCH_DEFAULT_SIZE;
+        // 凑满一批的最长等待时间(微秒)
+        long batchLatencyUs = LogBuilder.BATCH_DEFAULT_LATENCY_US;
+        // 缓冲区占用过高时是否按级别丢弃低级别日志
+        boolean overloadShedding = true;
+        // 按TAG限流
+        Map<String, LogOverloadPolicy.RateLimit> tagRateLimits;
+        // 未单独配置的TAG的限流，null表示不限流
+        LogOverloadPolicy.RateLimit defaultRateLimit;
+        // 丢弃汇总的写入间隔(毫秒)
+        long dropSummaryIntervalMs = LogBuilder.DROP_SUMMARY_DEFAULT_INTERVAL_MS;
+        // 连续重复日志合并的时间窗口(毫秒)，0表示不合并
+        long repeatCollapseWindowMs = LogBuilder.REPEAT_COLLAPSE_DEFAULT_WINDOW_MS;
+        // LegoLog日志文件格式
+        int logFormat = LogBuilder.LogFormat.TEXT;
+        // 切分后的文件是否在后台压缩
+        boolean compressRotated = true;
+        // 日志文件是否生成行索引
+        boolean lineIndex = true;
+        // 切分后的文件是否生成搜索索引
+        boolean searchIndex = true;
+        // logcat按TAG分流到其他日志文件
+        Map<String, LogTypeEnum> logcatRoutes;
 
     }
 
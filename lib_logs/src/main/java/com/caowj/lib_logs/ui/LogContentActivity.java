@@ -1,6 +1,7 @@
 package com.caowj.lib_logs.ui;
 
 import android.app.AlertDialog;
+import android.app.TimePickerDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.os.Bundle;
@@ -14,12 +15,15 @@ import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.TimePicker;
 import android.widget.Toast;
 
 import com.caowj.lib_logs.R;
+import com.caowj.lib_logs.helper.LogIndex;
 import com.caowj.lib_logs.ui.adapter.PageData;
 import com.caowj.lib_logs.ui.adapter.LogContentAdapter;
 
+import java.util.Calendar;
 import java.util.List;
 
 public class LogContentActivity extends AppCompatActivity implements PageData.OnPageDataListener  {
@@ -104,6 +108,31 @@ public class LogContentActivity extends AppCompatActivity implements PageData.On
         ((EditText)findViewById(R.id.et_search)).setText("");
     }
 
+    /**
+     * 选择时间，跳转到第一条不早于该时间的日志；日期取当前显示的日志的日期
+     */
+    public void seekTime(View view) {
+        if (mPageData.isSearching()) {
+            Toast.makeText(this.getApplicationContext(),"请先清空搜索条件",Toast.LENGTH_SHORT).show();
+            return;
+        }
+        long time = LogIndex.parseTime(mPageData.getData(mfirstPostion, mLogContentAdapter.getItemCount()));
+        final Calendar calendar = Calendar.getInstance();
+        if (time > 0) {
+            calendar.setTimeInMillis(time);
+        }
+        new TimePickerDialog(this, new TimePickerDialog.OnTimeSetListener() {
+            @Override
+            public void onTimeSet(TimePicker timePicker, int hourOfDay, int minute) {
+                calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
+                calendar.set(Calendar.MINUTE, minute);
+                calendar.set(Calendar.SECOND, 0);
+                calendar.set(Calendar.MILLISECOND, 0);
+                mPageData.seekToTime(calendar.getTimeInMillis());
+            }
+        }, calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE), true).show();
+    }
+
     public void back(View view) {
         finish();
     }
@@ -138,6 +167,22 @@ public class LogContentActivity extends AppCompatActivity implements PageData.On
 
     }
     @Override
+    public void onSearchHits(int count){
+        int oldCount = mLogContentAdapter.getItemCount();
+        mLogContentAdapter.setItemCount(count);
+        if(count>oldCount){
+            mLogContentAdapter.notifyItemRangeInserted(oldCount,count-oldCount);
+        }else{
+            mLogContentAdapter.notifyDataSetChanged();
+        }
+    }
+    @Override
+    public void onSeekToLine(int line){
+        if(line < mLogContentAdapter.getItemCount()){
+            mRecyclerView.scrollToPosition(line);
+        }
+    }
+    @Override
     public void onReadFirstPage(List<String> data){
         if (mLoadingDialog.isShowing()) {
             mLoadingDialog.dismiss();
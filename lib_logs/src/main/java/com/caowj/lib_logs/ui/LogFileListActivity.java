@@ -3,15 +3,20 @@ package com.caowj.lib_logs.ui;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.provider.DocumentsContract;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.caowj.lib_logs.R;
 import com.caowj.lib_logs.helper.Constance;
+import com.caowj.lib_logs.helper.LogCatalog;
+import com.caowj.lib_logs.helper.LogExporter;
 import com.caowj.lib_logs.helper.LogTypeEnum;
 import com.caowj.lib_utils.FileUtil;
 import com.caowj.lib_logs.ui.adapter.LogFileListAdapter;
@@ -19,17 +24,20 @@ import com.caowj.lib_logs.ui.adapter.LogFileListAdapter;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 
 public class LogFileListActivity extends AppCompatActivity {
+    static final int REQUEST_EXPORT = 101;
     String mFolderPath;
     LogFileListAdapter mLogFileListAdapter;
     HashSet<String> mSelectedList = new HashSet();
     LogTypeEnum mLogType;
     boolean mSelectAll = true;
+    LogExporter.Task mExportTask;
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_log_file_list);
@@ -39,6 +47,8 @@ public class LogFileListActivity extends AppCompatActivity {
         mFolderPath = Constance.GLOBAL_PATH
                 + File.separator
                 + Constance.LOG_FOLDER_NAME_MAP.get(mLogType);
+        // 目录表只在第一次使用时扫描，其他进程(logcat、崩溃)或外部清理增删的文件在打开列表时同步
+        LogCatalog.get(mFolderPath).scan();
         initRecyclerView(mLogType);
         ((TextView) findViewById(R.id.tv_title)).setText(mLogType.getName());
 
@@ -74,17 +84,13 @@ public class LogFileListActivity extends AppCompatActivity {
 
 
     private List<LogFileInfo> getData(LogTypeEnum logType) {
-
-        File folder = new File(mFolderPath);
-        File[] files = folder.listFiles();
-        if (files == null) {
-            return null;
-        }
-        List<LogFileInfo> list = new ArrayList<>(files.length);
+        // 目录表中已经去掉了正在压缩的临时文件和索引文件，大小也不需要再逐个查询
+        List<LogCatalog.Entry> entries = LogCatalog.get(mFolderPath).entries();
+        List<LogFileInfo> list = new ArrayList<>(entries.size());
         LogFileInfo fileInfo;
-        for (File file : files) {
-            fileInfo = new LogFileInfo(file.getName());
-            fileInfo.displaySize = FileUtil.byteCountToDisplaySize(file.length());
+        for (LogCatalog.Entry entry : entries) {
+            fileInfo = new LogFileInfo(entry.fileName());
+            fileInfo.displaySize = FileUtil.byteCountToDisplaySize(entry.size());
 
             list.add(fileInfo);
         }
@@ -125,16 +131,102 @@ public class LogFileListActivity extends AppCompatActivity {
     }
 
     private void delFiles() {
-        File file;
+        LogCatalog catalog = LogCatalog.get(mFolderPath);
         for (String fileName : mSelectedList) {
-            file = new File(mFolderPath + File.separator + fileName);
-            file.delete();
+            catalog.delete(fileName);
         }
         mLogFileListAdapter.setData(getData(mLogType));
     }
 
 
 
+    /**
+     * 选择保存位置后把选中的日志打包成zip
+     */
+    public void export(View view) {
+        if (mSelectedList.isEmpty()) {
+            Toast.makeText(getApplicationContext(), "请选择要导出的日志", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("application/zip");
+        intent.putExtra(Intent.EXTRA_TITLE, Constance.LOG_FOLDER_NAME_MAP.get(mLogType) + ".zip");
+        startActivityForResult(intent, REQUEST_EXPORT);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_EXPORT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            exportTo(data.getData());
+        }
+    }
+
+    private void exportTo(final Uri uri) {
+        List<String> paths = new ArrayList<>(mSelectedList.size());
+        for (String fileName : mSelectedList) {
+            paths.add(mFolderPath + File.separator + fileName);
+        }
+        final AlertDialog dialog = new AlertDialog.Builder(this).setTitle("导出中")
+                .setMessage("0%")
+                .setNegativeButton("取消", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        if (mExportTask != null) {
+                            mExportTask.cancel();
+                        }
+                    }
+                }).create();
+        dialog.setCancelable(false);
+        dialog.show();
+        mExportTask = new LogExporter(paths).listener(new LogExporter.OnExportListener() {
+            @Override
+            public void onProgress(long exportedBytes, long totalBytes) {
+                if (!isDestroyed()) {
+                    dialog.setMessage((totalBytes == 0 ? 100 : exportedBytes * 100 / totalBytes) + "%");
+                }
+            }
+
+            @Override
+            public void onFinish(int fileCount) {
+                onExportEnd(dialog, "已导出" + fileCount + "个文件");
+            }
+
+            @Override
+            public void onCancel() {
+                deleteDocument(uri);
+                onExportEnd(dialog, "已取消导出");
+            }
+
+            @Override
+            public void onError(IOException e) {
+                deleteDocument(uri);
+                onExportEnd(dialog, "导出失败：" + e.getMessage());
+            }
+        }).exportTo(this, uri);
+    }
+
+    private void onExportEnd(AlertDialog dialog, String message) {
+        mExportTask = null;
+        if (isDestroyed()) {
+            return;
+        }
+        dialog.dismiss();
+        Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * 删除取消或失败后不完整的文件
+     */
+    private void deleteDocument(Uri uri) {
+        try {
+            DocumentsContract.deleteDocument(getContentResolver(), uri);
+        } catch (Exception e) {
+            // 有些文档提供者不支持删除
+        }
+    }
+
     public void selectAll(View view) {
         if (mSelectAll) {
             List<LogFileInfo> data = mLogFileListAdapter.getData();
@@ -163,4 +255,12 @@ public class LogFileListActivity extends AppCompatActivity {
         finish();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mExportTask != null) {
+            mExportTask.cancel();
+        }
+    }
+
 }
@@ -3,10 +3,9 @@ package com.caowj.lib_logs.ui;
 import android.content.Context;
 import android.graphics.PixelFormat;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Message;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -20,13 +19,15 @@ import android.widget.Spinner;
 
 
 import com.caowj.lib_logs.R;
-import com.caowj.lib_logs.helper.LogRecord;
+import com.caowj.lib_logs.helper.LogTail;
 import com.caowj.lib_logs.helper.LogTypeEnum;
-import com.caowj.lib_logs.helper.LogcatRecord;
-import com.caowj.lib_logs.helper.OnPrintLogListener;
 import com.caowj.lib_logs.ui.adapter.LogWatchAdapter;
 import com.caowj.lib_utils.SystemUtil;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
 
 public class LogWatchWindow {
 
@@ -40,20 +41,36 @@ public class LogWatchWindow {
     private static int mFloatViewHeight = 500;
     LogWatchAdapter mLogWatchAdapter;
     RecyclerView mRecyclerView;
-    boolean mIsWatching = true;
+    volatile boolean mIsWatching = true;
     LogTypeEnum mWatchType = null;
+    // 当前的日志订阅
+    LogTail.Subscription mSubscription;
 
     String[] logTypes = new String[]{"Logcat日志","LegoLog全部日志","LegoLog业务日志","LegoLog网络日志"};
     LogTypeEnum[] logTypeEnums = new  LogTypeEnum[]{LogTypeEnum.Logcat,null,LogTypeEnum.Bussiness,LogTypeEnum.Net};
 
-    Handler mHandler = new Handler() {
+    // 待显示的日志，写日志线程追加，每帧在主线程中取出一次；暂停时继续累积，超过容量丢弃最早的
+    final ArrayDeque<String> mPendingLogs = new ArrayDeque<>();
+    // 是否已经请求了下一帧
+    boolean mFrameScheduled = false;
+    Choreographer mChoreographer = Choreographer.getInstance();
+    Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
         @Override
-        public void handleMessage(Message msg) {
-            super.handleMessage(msg);
-            if(msg.what == 1){
-                mLogWatchAdapter.addData((String)msg.obj);
-                mRecyclerView.smoothScrollToPosition(mLogWatchAdapter.getItemCount());
+        public void doFrame(long frameTimeNanos) {
+            List<String> lines;
+            synchronized (mPendingLogs) {
+                mFrameScheduled = false;
+                if (!mIsWatching || mPendingLogs.isEmpty()) {
+                    return;
+                }
+                lines = new ArrayList<>(mPendingLogs);
+                mPendingLogs.clear();
+            }
+            if (mLogWatchAdapter == null) {
+                return;
             }
+            mLogWatchAdapter.addData(lines);
+            mRecyclerView.scrollToPosition(mLogWatchAdapter.getItemCount() - 1);
         }
     };
 
@@ -101,7 +118,9 @@ public class LogWatchWindow {
         mFloatView.findViewById(R.id.btn_close).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                LogRecord.getINSTANCE().setOnPrintLogListener(null);
+                LogTail.unsubscribe(mSubscription);
+                mSubscription = null;
+                mChoreographer.removeFrameCallback(mFrameCallback);
                 mWindowManager.removeView(mFloatView);
             }
         });
@@ -110,7 +129,7 @@ public class LogWatchWindow {
         mLogWatchAdapter = new LogWatchAdapter(mFloatView.getContext());
         mRecyclerView.setAdapter(mLogWatchAdapter);
 
-        LogcatRecord.setOnPrintLogListener(mOnPrintLogListener);
+        subscribe(LogTypeEnum.Logcat);
 
         Spinner spinner = mFloatView.findViewById(R.id.spinner);
 
@@ -121,12 +140,10 @@ public class LogWatchWindow {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
                 mWatchType = logTypeEnums[position];
-                if(mWatchType == LogTypeEnum.Logcat){
-                    LogcatRecord.setOnPrintLogListener(mOnPrintLogListener);
-                    LogRecord.getINSTANCE().setOnPrintLogListener(null);
+                if(mWatchType == null){
+                    subscribe(LogTypeEnum.Net, LogTypeEnum.Bussiness);
                 }else{
-                    LogcatRecord.setOnPrintLogListener(null);
-                    LogRecord.getINSTANCE().setOnPrintLogListener(mOnPrintLogListener);
+                    subscribe(mWatchType);
                 }
 
 
@@ -145,6 +162,8 @@ public class LogWatchWindow {
                 mIsWatching = isChecked;
                 if(mIsWatching){
                     buttonView.setText("实时监听");
+                    // 显示暂停期间累积的日志
+                    scheduleFrame();
                 }else{
                     buttonView.setText("暂停监听");
                 }
@@ -166,23 +185,49 @@ public class LogWatchWindow {
         });
     }
     boolean isDisplay = true;
-    OnPrintLogListener mOnPrintLogListener = new OnPrintLogListener() {
+    LogTail.OnTailListener mOnTailListener = new LogTail.OnTailListener() {
         @Override
-        public void onPrintLog(LogTypeEnum logType, String logMessage){
-            if(mIsWatching){
-                if(mWatchType!=null){
-                    if(logType != mWatchType){
-                        return;
+        public void onTail(List<LogTail.Line> lines, int dropped) {
+            synchronized (mPendingLogs) {
+                for (LogTail.Line line : lines) {
+                    if (mPendingLogs.size() >= LogWatchAdapter.CAPACITY) {
+                        mPendingLogs.pollFirst();
                     }
+                    mPendingLogs.addLast(line.text());
                 }
-                Message message = mHandler.obtainMessage(1);
-                message.obj = logMessage;
-                message.sendToTarget();
+            }
+            if (mIsWatching) {
+                scheduleFrame();
             }
         }
 
     };
 
+    /**
+     * 切换监听的日志类型，在日志订阅线程中回调，最多缓冲一屏的日志
+     */
+    private void subscribe(LogTypeEnum... types) {
+        LogTail.unsubscribe(mSubscription);
+        mSubscription = new LogTail.Subscription(mOnTailListener)
+                .types(types)
+                .capacity(LogWatchAdapter.CAPACITY)
+                .overflow(LogTail.Overflow.DROP_OLDEST);
+        LogTail.subscribe(mSubscription);
+    }
+
+    /**
+     * 请求在下一帧显示待显示的日志，一帧内多次请求只显示一次
+     */
+    private void scheduleFrame() {
+        synchronized (mPendingLogs) {
+            if (mFrameScheduled) {
+                return;
+            }
+            mFrameScheduled = true;
+        }
+        mChoreographer.postFrameCallback(mFrameCallback);
+    }
+
     private class OnFloatViewTouchListener implements View.OnTouchListener {
         int lastX;
         int lastY;
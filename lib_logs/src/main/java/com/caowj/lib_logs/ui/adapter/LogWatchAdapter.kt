@@ -12,7 +12,11 @@ import java.util.*
 
 class LogWatchAdapter : RecyclerView.Adapter<LogWatchAdapter.RecyclerHolder> {
 
-    private val dataList: MutableList<String> = ArrayList()
+    // 环形缓冲区，满了之后覆盖最早的日志，不需要移动元素
+    private val dataList: Array<String?> = arrayOfNulls(CAPACITY)
+    // 最早一条日志在dataList中的位置
+    private var head = 0
+    private var size = 0
     var mContext: Context
     private var mOnItemCheckedListener: OnRecyclerViewCheckedChangeListener? = null
     private var mOnItemClickListener: OnItemClickListener? = null
@@ -23,32 +27,62 @@ class LogWatchAdapter : RecyclerView.Adapter<LogWatchAdapter.RecyclerHolder> {
 
 
     fun setData(dataList: List<String>?) {
+        clear()
         if (null != dataList) {
-            this.dataList.clear()
-            this.dataList.addAll(dataList)
-            notifyDataSetChanged()
-        } else {
-            this.dataList.clear()
-            notifyDataSetChanged()
+            append(dataList)
         }
+        notifyDataSetChanged()
     }
 
     fun addData(line: String) {
-        this.dataList.add(line)
-        var removeCount = 0
-        if (this.dataList.size > 200) {
-            while (this.dataList.size > 100) {
-                this.dataList.removeAt(0)
-                removeCount++
-            }
+        addData(Collections.singletonList(line))
+    }
 
+    /**
+     * 追加一批日志，超出容量时丢弃最早的日志，每批只通知一次
+     */
+    fun addData(lines: List<String>) {
+        if (lines.isEmpty()) {
+            return
+        }
+        val oldSize = size
+        val removeCount = append(lines)
+        val insertCount = size - (oldSize - removeCount)
+        if (removeCount >= oldSize && removeCount > 0) {
+            // 原来的日志全部被覆盖
+            notifyDataSetChanged()
+            return
         }
-
         if (removeCount > 0) {
             notifyItemRangeRemoved(0, removeCount)
         }
+        notifyItemRangeInserted(size - insertCount, insertCount)
+    }
 
-        notifyItemInserted(dataList.size)
+    /**
+     * @return 被覆盖的日志条数
+     */
+    private fun append(lines: List<String>): Int {
+        var removeCount = 0
+        // 一批超过容量时只保留最后的部分
+        val start = Math.max(0, lines.size - CAPACITY)
+        for (i in start until lines.size) {
+            if (size == CAPACITY) {
+                dataList[head] = lines[i]
+                head = (head + 1) % CAPACITY
+                removeCount++
+            } else {
+                dataList[(head + size) % CAPACITY] = lines[i]
+                size++
+            }
+        }
+        return removeCount
+    }
+
+    private fun clear() {
+        Arrays.fill(dataList, null)
+        head = 0
+        size = 0
     }
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerHolder {
@@ -59,13 +93,13 @@ class LogWatchAdapter : RecyclerView.Adapter<LogWatchAdapter.RecyclerHolder> {
 
     override fun onBindViewHolder(holder: RecyclerHolder, position: Int) {
 
-        var info = dataList[position]
+        var info = dataList[(head + position) % CAPACITY]
         holder.tvLog.text = info
 
     }
 
     override fun getItemCount(): Int {
-        return dataList.size
+        return size
     }
 
 
@@ -85,6 +119,11 @@ class LogWatchAdapter : RecyclerView.Adapter<LogWatchAdapter.RecyclerHolder> {
         fun onItemClick(view: View, data: LogFileInfo)
     }
 
+    companion object {
+        // 最多显示的日志条数
+        const val CAPACITY = 500
+    }
+
     class RecyclerHolder constructor(itemView: View) : RecyclerView.ViewHolder(itemView) {
 
         var tvLog: TextView
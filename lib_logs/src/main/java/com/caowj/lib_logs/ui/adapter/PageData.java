@@ -1,30 +1,59 @@
 package com.caowj.lib_logs.ui.adapter;
 
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
+import android.util.LruCache;
 import android.util.SparseArray;
 
-import java.io.FileNotFoundException;
+import com.caowj.lib_logs.helper.LogFileReader;
+import com.caowj.lib_logs.helper.LogIndex;
+import com.caowj.lib_logs.helper.LogSearch;
+
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.regex.PatternSyntaxException;
 
 public class PageData {
 
     public static int PAGE_SIZE = 30;
+    // 滚动方向上预读的页数，反方向只保留一页
+    static final int PREFETCH_PAGES = 3;
+    // 页缓存占用的内存上限
+    static final int CACHE_MAX_BYTES = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, 8 * 1024 * 1024);
+    // 读取文件和关闭文件的任务依次在这个串行执行器中执行，mReader、mIndex只在其中访问
+    static final Executor READ_EXECUTOR = AsyncTask.SERIAL_EXECUTOR;
     String mPath;
     OnPageDataListener mOnPageDataListener;
-    // 存储每页开头的文件位置，为来回滚动翻页重新加载文件内容使用
-    SparseArray<Long> mPagePosition = new SparseArray<>();
-    // 存储缓存的页码和内容
-    SparseArray<List<String>> cachePageDatas = new SparseArray<>();
-    // 存储缓存的页码，为了找到最小的和最大的页码
-    List<Integer> mCachedPageNums = new ArrayList<>();
-    RandomAccessFile mRandomAccessFile = null;
-    List<Task> mRunningTask = new ArrayList<>();
+    // 存储每页开头的文件位置，为来回滚动翻页重新加载文件内容使用；读取线程写入、主线程清空，访问时加锁
+    final SparseArray<Long> mPagePosition = new SparseArray<>();
+    // 存储缓存的页码和内容，按占用的字节数淘汰最久未使用的页
+    LruCache<Integer, List<String>> cachePageDatas = new LruCache<Integer, List<String>>(CACHE_MAX_BYTES) {
+        @Override
+        protected int sizeOf(Integer pageNum, List<String> lines) {
+            int size = 64;
+            for (String line : lines) {
+                size += 40 + line.length() * 2;
+            }
+            return size;
+        }
+    };
+    // 自动识别文本/二进制格式
+    LogFileReader mReader = null;
+    // 行索引，没有索引的文件只能按页顺序读取
+    LogIndex mIndex = null;
+    volatile boolean mIndexLoaded = false;
+    // 搜索结果，为null时不在搜索；搜索相关的字段只在主线程访问
+    List<String> mSearchHits = null;
+    LogSearch.Task mSearchTask = null;
+    // 每次搜索加1，忽略上一次搜索的回调
+    int mSearchGeneration;
+    Handler mHandler = new Handler(Looper.getMainLooper());
+    // 正在读取或排队中的页，滚出预读范围后取消，只在主线程访问
+    SparseArray<ReadFileTask> mRunningTask = new SparseArray<>();
 //    public RecyclerView recyclerView;
 //    public LogContentActivity contentActivity;
     public PageData(String filePath,OnPageDataListener onPageDataListener){
@@ -36,19 +65,23 @@ public class PageData {
     }
     int requstpageNum;
     public String getData(int position,int itemCount){
+        if (mSearchHits != null) {
+            return position < mSearchHits.size() ? mSearchHits.get(position) : "";
+        }
         int pageNum = position/PAGE_SIZE;
         int index = position%PAGE_SIZE;
 
 
-        if( cachePageDatas.get(pageNum)==null){
+        List<String> page = cachePageDatas.get(pageNum);
+        if( page==null){
             requstpageNum = pageNum;
             mOnPageDataListener.requestLoadNewPage(pageNum);
             return "";
         }else{
-            if(index>=cachePageDatas.get(pageNum).size()){
+            if(index>=page.size()){
                 return "";
             }else{
-                return cachePageDatas.get(pageNum).get(index);
+                return page.get(index);
             }
 
         }
@@ -56,31 +89,32 @@ public class PageData {
 
     }
 
-    String[] mKeywords;
     boolean firstRead = false;
+    /**
+     * 从头显示文件，关键字不为空时改为搜索
+     *
+     * @param keyword 搜索条件，格式见{@link LogSearch.Query#parse(String)}
+     */
     public void firstRead(String keyword){
-        if(TextUtils.isEmpty(keyword)){
-            mKeywords = null;
-        }else{
-            if(keyword.trim().length() == 0){
-                mKeywords = null;
-            }else{
-                mKeywords = keyword.trim().split(" ");
-            }
+        cancelSearch();
+        if(!TextUtils.isEmpty(keyword)&&keyword.trim().length()>0){
+            search(keyword);
+            return;
         }
-
-        cachePageDatas.clear();
-        mCachedPageNums.clear();
-        mPagePosition.clear();
+        // 上一次搜索还没读完的页不再需要
+        cancelTasks(Integer.MAX_VALUE, Integer.MIN_VALUE);
+        cachePageDatas.evictAll();
+        clearPagePositions();
+        mIndexLoaded = false;
         firstRead = true;
-        readPage(0,mKeywords);
+        readPage(0);
     }
 
-    private void readPage(int pageNum, String[] mKeywords){
+    private void readPage(int pageNum){
 
         if(cachePageDatas.get(pageNum)==null){
-            if(!mRunningTask.contains(new Task(mKeywords,pageNum))){
-                readFileAsync(pageNum, mKeywords);
+            if(mRunningTask.get(pageNum)==null){
+                readFileAsync(pageNum);
             }
 
         }else{
@@ -93,125 +127,269 @@ public class PageData {
     }
 
     /**
-     * 可见区域的item位置发生变化，要重新缓存
+     * 可见区域的item位置发生变化，按滚动方向预读，取消已经滚出预读范围的读取
+     * <p>
+     * 已读取的页保留在按字节数淘汰的LRU缓存中，来回滚动时不需要重新读文件
      * @param minP 最小的索引
      * @param maxP 最大的索引
+     * @param isUp 是否向上滚动
      */
     public void onVisiblePositionChange(int minP,int maxP,boolean isUp){
+        if (mSearchHits != null) {
+            return;
+        }
         int minPageNum = minP/PAGE_SIZE;
         int maxPageNum = maxP/PAGE_SIZE;
-        int minWillCachePageNum = minPageNum-2;
-        int maxWillCachePageNum = maxPageNum+2;
+        int minWillCachePageNum = minPageNum-(isUp?PREFETCH_PAGES:1);
+        int maxWillCachePageNum = maxPageNum+(isUp?1:PREFETCH_PAGES);
         if(minWillCachePageNum<0){
             minWillCachePageNum = 0;
         }
-//        Log.e("wangq","onVisiblePositionChange:minP=="+minP+",maxP="+maxP);
-//        Log.e("wangq","onVisiblePositionChange:mCachedPageNums=="+ mCachedPageNums.size());
-        // 已经缓存的页码排序
-        Collections.sort(mCachedPageNums);
-        if(mCachedPageNums.size()==0){
-            return;
-        }
-        int minCachedPageNum = mCachedPageNums.get(0);
-        int maxCachedPageNum = mCachedPageNums.get(mCachedPageNums.size()-1);
-        // 已经缓存的最小页码小于将要缓存的最小页码
-        if(minCachedPageNum<minWillCachePageNum){
-            while (minCachedPageNum<minWillCachePageNum){
-                //去掉之前的缓存的最小页码
-                List<String>list = cachePageDatas.get(minCachedPageNum);
-                list.clear();
-                cachePageDatas.remove(minCachedPageNum);
-                mCachedPageNums.remove(new Integer(minCachedPageNum));
-                minCachedPageNum++;
-            }
-
-        }
-        // 已经缓存的最大页码大于将要缓存的最大页码
-        if(maxCachedPageNum>maxWillCachePageNum){
-            while (maxCachedPageNum>maxWillCachePageNum){
-                cachePageDatas.remove(maxCachedPageNum);
-                mCachedPageNums.remove(new Integer(maxCachedPageNum));
-                maxCachedPageNum --;
-            }
-
-        }
+        cancelTasks(minWillCachePageNum, maxWillCachePageNum);
+        // 离可见区域近的页先读；没有行索引时向下只能按顺序读，每页的开头位置由上一页得到
         if(isUp){
             for(int i = maxWillCachePageNum;i>=minWillCachePageNum;i--){
-                readPage(i,mKeywords);
+                readPage(i);
             }
         }else{
             for(int i = minWillCachePageNum;i<maxWillCachePageNum+1;i++){
-                readPage(i,mKeywords);
+                readPage(i);
             }
         }
 
 
     }
 
-    private void onReachMaxLines(int maxLine){
-        if(mOnPageDataListener!=null){
-            mOnPageDataListener.onReadFileEnd(maxLine);
+    /**
+     * 取消页码不在[minPageNum, maxPageNum]范围内的读取，排队中的不再执行，正在执行的尽快结束
+     */
+    private void cancelTasks(int minPageNum, int maxPageNum){
+        for(int i = mRunningTask.size()-1;i>=0;i--){
+            int pageNum = mRunningTask.keyAt(i);
+            if(pageNum<minPageNum||pageNum>maxPageNum){
+                mRunningTask.valueAt(i).cancel(false);
+                mRunningTask.removeAt(i);
+            }
         }
-
     }
 
+    /**
+     * 在读取线程中调用，回调切换到主线程
+     */
+    private void onReachMaxLines(final int maxLine){
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(mOnPageDataListener!=null){
+                    mOnPageDataListener.onReadFileEnd(maxLine);
+                }
+            }
+        });
+    }
 
+    private Long pagePosition(int pageNum) {
+        synchronized (mPagePosition) {
+            return mPagePosition.get(pageNum);
+        }
+    }
 
-    private void readFileAsync(int pageNum, String[] keywords) {
+    private void putPagePosition(int pageNum, long position) {
+        synchronized (mPagePosition) {
+            mPagePosition.put(pageNum, position);
+        }
+    }
 
-        try {
-            if(mRandomAccessFile == null){
-                mRandomAccessFile = new RandomAccessFile(mPath, "r");
-            }
-        } catch (FileNotFoundException e) {
-            release();
+    private void clearPagePositions() {
+        synchronized (mPagePosition) {
+            mPagePosition.clear();
         }
+    }
 
-        mRunningTask.add(new Task(keywords,pageNum));
-        new ReadFileTask(pageNum,keywords).execute(mRandomAccessFile);
+    private void readFileAsync(int pageNum) {
+        ReadFileTask task = new ReadFileTask(pageNum);
+        mRunningTask.put(pageNum, task);
+        task.executeOnExecutor(READ_EXECUTOR);
+    }
+
+
+    /**
+     * 查找第一条不早于time的日志所在的行，结果通过{@link OnPageDataListener#onSeekToLine(int)}返回
+     * <p>
+     * 有行索引时先二分查找到最近的索引点，最多再读取一个索引间隔的行；没有索引时从头读取
+     *
+     * @param time 日志时间(毫秒)
+     */
+    public void seekToTime(long time) {
+        if (mSearchHits != null) {
+            // 搜索结果中的位置不是文件的行号
+            return;
+        }
+        new SeekTimeTask(time).executeOnExecutor(READ_EXECUTOR);
     }
 
+    /**
+     * 是否正在显示搜索结果
+     */
+    public boolean isSearching() {
+        return mSearchHits != null;
+    }
 
     public interface OnPageDataListener{
         public void onReadFileEnd(int maxLines);
         public void onReadFirstPage(List<String> data);
         public void requestLoadNewPage(int pageNum);
         public void onFinishLoadNewPage(int pageNum);
+        public void onSeekToLine(int line);
+        public void onSearchHits(int count);
+    }
+
+    /**
+     * 在后台并行搜索，结果按文件中的顺序陆续显示
+     */
+    private void search(String keyword) {
+        cancelTasks(Integer.MAX_VALUE, Integer.MIN_VALUE);
+        cachePageDatas.evictAll();
+        clearPagePositions();
+        mSearchHits = new ArrayList<>();
+        final int generation = ++mSearchGeneration;
+        try {
+            mSearchTask = LogSearch.search(mPath, LogSearch.Query.parse(keyword), new LogSearch.Callback() {
+                @Override
+                public void onHits(final List<String> lines) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != mSearchGeneration) {
+                                return;
+                            }
+                            boolean first = mSearchHits.isEmpty();
+                            mSearchHits.addAll(lines);
+                            if (first) {
+                                mOnPageDataListener.onReadFirstPage(lines);
+                            }
+                            mOnPageDataListener.onSearchHits(mSearchHits.size());
+                        }
+                    });
+                }
+
+                @Override
+                public void onComplete(boolean truncated) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == mSearchGeneration && mSearchHits.isEmpty()) {
+                                mOnPageDataListener.onReadFirstPage(mSearchHits);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (PatternSyntaxException e) {
+            // 正则表达式错误，按没有结果处理
+            mOnPageDataListener.onReadFirstPage(mSearchHits);
+        }
+    }
+
+    private void cancelSearch() {
+        mSearchGeneration++;
+        if (mSearchTask != null) {
+            mSearchTask.cancel();
+            mSearchTask = null;
+        }
+        mSearchHits = null;
+    }
+
+    /**
+     * 加载行索引，只在读取线程调用
+     */
+    private void loadIndex() {
+        if (!mIndexLoaded) {
+            mIndex = LogIndex.load(mPath);
+            mIndexLoaded = true;
+            if (mIndex != null) {
+                // 立即显示总行数
+                onReachMaxLines(mIndex.lineCount());
+            }
+        }
+    }
+
+    /**
+     * 通过行索引定位到指定行
+     *
+     * @return 文件中没有该行时返回false
+     */
+    private boolean seekToLine(int line) throws IOException {
+        int index = mIndex.floorLine(line);
+        int currentLine = 0;
+        if (index < 0) {
+            mReader.seek(0);
+        } else {
+            mReader.seek(mIndex.position(index));
+            currentLine = mIndex.line(index);
+        }
+        while (currentLine < line) {
+            if (mReader.readLine() == null) {
+                return false;
+            }
+            currentLine++;
+        }
+        return true;
     }
 
+    /**
+     * 取消搜索和读取并关闭文件，在主线程调用
+     */
     public void release(){
-        if (mRandomAccessFile != null) {
+        cancelSearch();
+        cancelTasks(Integer.MAX_VALUE, Integer.MIN_VALUE);
+        // 排在已开始的读取任务之后关闭，不会关闭正在读取的文件
+        READ_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeReader();
+            }
+        });
+    }
+
+    /**
+     * 关闭文件，只在读取线程调用；之后的读取任务会重新打开
+     */
+    private void closeReader() {
+        if (mReader != null) {
             try {
-                mRandomAccessFile.close();
+                mReader.close();
             } catch (IOException e) {
 
             }
         }
-        mRandomAccessFile = null;
+        mReader = null;
     }
 
-    private void onReadFileAsync(int pageNum, List<String> result, String[] keywords){
+    private void onReadFileAsync(ReadFileTask task, int pageNum, List<String> result){
+        if(mRunningTask.get(pageNum)!=task){
+            // 已被取消或者属于上一次搜索
+            return;
+        }
+        mRunningTask.remove(pageNum);
         if(result.size()>0){// 读取结束
             cachePageDatas.put(pageNum, result);
-            mCachedPageNums.add(pageNum);
         }
         if(pageNum==0&& firstRead){
             mOnPageDataListener.onReadFirstPage(result);
             firstRead = false;
         }
-        mRunningTask.remove(new Task(keywords,pageNum));
         mOnPageDataListener.onFinishLoadNewPage(pageNum);
 //        if(requstpageNum == pageNum){
 //            contentActivity.hideLoadingDialog();
 //        }
     }
 
-    private class ReadFileTask extends AsyncTask<RandomAccessFile, Integer, List<String> > {
+    private class ReadFileTask extends AsyncTask<Void, Integer, List<String> > {
         int mPageNum;
-        String[] mKeywords;
-        public ReadFileTask(int pageNum, String[] keywords){
+        // 读取文件出错，文件已在读取线程中关闭
+        boolean mFailed;
+        public ReadFileTask(int pageNum){
             mPageNum = pageNum;
-            mKeywords = keywords;
         }
 
 
@@ -221,56 +399,37 @@ public class PageData {
         // 作用：接收输入参数、执行任务中的耗时操作、返回 线程任务执行的结果
         // 注：必须复写，从而自定义线程任务
         @Override
-        protected List<String>  doInBackground(RandomAccessFile... params) {
+        protected List<String>  doInBackground(Void... params) {
             List<String> result = new ArrayList<String>();
 //            Log.e("wangq","doInBackgroundmPageNum=="+mPageNum);
-            long startPosition = mPagePosition.get(mPageNum)==null?0:mPagePosition.get(mPageNum);
-            if(mPageNum == 0){
-               if(mPagePosition.get(mPageNum)==null){
-                   startPosition = 0;
-               }else{
-                   startPosition = mPagePosition.get(mPageNum);
-               }
-            }else{
-                if(mPagePosition.get(mPageNum)==null){
-                  return result;
-                }else{
-                    startPosition = mPagePosition.get(mPageNum);
-                }
-            }
+            Long pagePosition = pagePosition(mPageNum);
+            long startPosition = pagePosition == null ? 0 : pagePosition;
             try {
-                if(mRandomAccessFile == null){
-                    mRandomAccessFile = new RandomAccessFile(mPath, "r");
+                if(mReader == null){
+                    mReader = LogFileReader.open(mPath);
                 }
+                loadIndex();
 
-                if(startPosition == mRandomAccessFile.length()){
-                    return result;
+                if (pagePosition == null && mPageNum != 0) {
+                    // 有行索引时可以直接跳到任意页
+                    if (mIndex == null || !seekToLine(mPageNum * PAGE_SIZE)) {
+                        return result;
+                    }
+                } else {
+                    mReader.seek(startPosition);
                 }
-                mRandomAccessFile.seek(startPosition);
                 String line = null;
 
                 long position = 0;
                 int lineNum = 0;
-                while ((line = mRandomAccessFile.readLine()) != null && lineNum < PAGE_SIZE) {
-                    line = new String(line.getBytes("ISO-8859-1"), "utf-8");
-
-                    boolean isContains = true;
-                    if(mKeywords!=null){
-                        for(String keyword:mKeywords){
-                            if(keyword.trim().length()>0){
-                                isContains = isContains&&line.contains(keyword);
-                            }
-                        }
+                while ((line = mReader.readLine()) != null && lineNum < PAGE_SIZE) {
+                    if (isCancelled()) {
+                        return result;
                     }
 
-                    if(isContains){
-                        if (mPageNum == 0) {
-                            mPagePosition.put(0, startPosition);
-                        }
-                        lineNum++;
-                        position = mRandomAccessFile.getFilePointer();
-                        result.add(line);
-                    }
+                    lineNum++;
+                    position = mReader.position();
+                    result.add(line);
                 }
 
                 if(line==null){
@@ -278,16 +437,11 @@ public class PageData {
                     onReachMaxLines(maxLines);
 
                 }else{
-                    mPagePosition.put(mPageNum + 1, position);
+                    putPagePosition(mPageNum + 1, position);
                 }
-            } catch (FileNotFoundException e) {
-
-                release();
             } catch (IOException e) {
-
-                release();
-            } finally {
-
+                closeReader();
+                mFailed = true;
             }
             return result;
 
@@ -300,37 +454,65 @@ public class PageData {
         @Override
         protected void onPostExecute(List<String>  fileData) {
 
-            onReadFileAsync(mPageNum,fileData, mKeywords);
+            onReadFileAsync(this, mPageNum, fileData);
+            if (mFailed) {
+                release();
+            }
         }
 
         // 方法5：onCancelled()
         // 作用：将异步任务设置为：取消状态
+        // 注：已被取消的任务不再影响当前显示，出错时文件已在读取线程中关闭
         @Override
         protected void onCancelled() {
 
         }
     }
 
-    class Task{
-        public Task( String[] keywords,int pageNum){
-            this.keywords = keywords;
-            this.pageNum = pageNum;
+    private class SeekTimeTask extends AsyncTask<Void, Integer, Integer> {
+        long mTime;
+        boolean mFailed;
+        public SeekTimeTask(long time){
+            mTime = time;
         }
-        String[] keywords;
-        int pageNum;
 
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Task task = (Task) o;
-            return pageNum == task.pageNum &&
-                    Objects.equals(keywords, task.keywords);
+        protected Integer doInBackground(Void... params) {
+            int currentLine = 0;
+            try {
+                if(mReader == null){
+                    mReader = LogFileReader.open(mPath);
+                }
+                loadIndex();
+                int index = mIndex == null ? -1 : mIndex.floorTime(mTime);
+                if (index < 0) {
+                    mReader.seek(0);
+                } else {
+                    mReader.seek(mIndex.position(index));
+                    currentLine = mIndex.line(index);
+                }
+                String line;
+                while ((line = mReader.readLine()) != null) {
+                    long time = LogIndex.parseTime(line);
+                    if (time >= mTime) {
+                        break;
+                    }
+                    currentLine++;
+                }
+            } catch (IOException e) {
+                closeReader();
+                mFailed = true;
+            }
+            return currentLine;
         }
 
         @Override
-        public int hashCode() {
-            return Objects.hash(keywords, pageNum);
+        protected void onPostExecute(Integer line) {
+            if (mFailed) {
+                release();
+                return;
+            }
+            mOnPageDataListener.onSeekToLine(line);
         }
     }
 }
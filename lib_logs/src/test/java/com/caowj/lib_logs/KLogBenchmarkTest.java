@@ -0,0 +1,114 @@
+package com.caowj.lib_logs;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * KLog获取调用位置的前后对比：默认的{@link KLog.CallerLocation#STACK_TRACE}(改动前的方式)与
+ * 不获取调用栈的{@link KLog.CallerLocation#NONE}、lib_logs_plugin编译时确定位置的logAt
+ * <p>
+ * 输出每次调用的平均耗时(纳秒)和分配的字节数。耗时受机器负载影响，只输出不断言；
+ * 获取调用栈会为每个栈帧分配对象，分配的字节数是稳定的，用来确认快速路径没有获取调用栈。
+ * android.util.Log在本地单元测试中为空实现，测得的主要是获取调用位置和拼接日志的开销
+ * <p>
+ * 默认的单元测试不运行，需要时执行：./gradlew :lib_logs:testDebugUnitTest -Pbenchmark
+ */
+public class KLogBenchmarkTest {
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 50000;
+
+    @After
+    public void tearDown() {
+        KLog.init(false);
+    }
+
+    @Test
+    public void callerLocation() {
+        Result stackTrace = measure(new Call() {
+            @Override
+            public void run() {
+                KLog.d("benchmark");
+            }
+        }, KLog.CallerLocation.STACK_TRACE);
+        Result throwable = measure(new Call() {
+            @Override
+            public void run() {
+                KLog.d("benchmark");
+            }
+        }, KLog.CallerLocation.THROWABLE);
+        Result none = measure(new Call() {
+            @Override
+            public void run() {
+                KLog.d("benchmark");
+            }
+        }, KLog.CallerLocation.NONE);
+        Result baked = measure(new Call() {
+            @Override
+            public void run() {
+                KLog.logAt("benchmark", KLog.D, "KLogBenchmarkTest.java", "callerLocation", 56);
+            }
+        }, KLog.CallerLocation.STACK_TRACE);
+
+        System.out.println("KLog.d                   ns/call  bytes/call");
+        print("STACK_TRACE(默认，改动前)", stackTrace, stackTrace);
+        print("THROWABLE", throwable, stackTrace);
+        print("NONE", none, stackTrace);
+        print("logAt(编译时确定位置)", baked, stackTrace);
+
+        Assume.assumeTrue("当前JVM不支持统计线程分配的字节数", stackTrace.bytes > 0);
+        // 快速路径只分配拼接日志用的少量对象，不到获取调用栈的四分之一
+        assertTrue(none.bytes * 4 < stackTrace.bytes);
+        assertTrue(baked.bytes * 4 < stackTrace.bytes);
+    }
+
+    private interface Call {
+        void run();
+    }
+
+    private static class Result {
+        long nanos;
+        long bytes;
+    }
+
+    private static Result measure(Call call, int callerLocation) {
+        KLog.init(true, callerLocation);
+        for (int i = 0; i < WARMUP; i++) {
+            call.run();
+        }
+        Result result = new Result();
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.run();
+        }
+        result.nanos = (System.nanoTime() - start) / ITERATIONS;
+        result.bytes = bytes < 0 ? 0 : (allocatedBytes() - bytes) / ITERATIONS;
+        return result;
+    }
+
+    private static void print(String name, Result result, Result before) {
+        System.out.println(String.format("%-24s %8d %11d  (%.1fx)", name, result.nanos, result.bytes,
+                (double) before.nanos / Math.max(1, result.nanos)));
+    }
+
+    /**
+     * 当前线程已分配的字节数，不支持时返回-1
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,168 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 崩溃指纹只与异常类型和最上面几个栈帧的类名、方法名有关；相同指纹的崩溃只计数，索引在重新打开后仍然有效
+ */
+public class CrashIndexTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private String mFolderPath;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolderPath = mFolder.newFolder("crash").getAbsolutePath();
+    }
+
+    @Test
+    public void fingerprintIgnoresMessageAndLine() {
+        Throwable first = exception(new IllegalStateException("first"), 10, "a.Main", "onCreate", "a.Main", "main");
+        Throwable second = exception(new IllegalStateException("second"), 99, "a.Main", "onCreate", "a.Main", "main");
+        assertEquals(CrashIndex.fingerprint(first), CrashIndex.fingerprint(second));
+    }
+
+    @Test
+    public void fingerprintDiffers() {
+        Throwable base = exception(new IllegalStateException(), 1, "a.Main", "onCreate", "a.Main", "main");
+        assertNotEquals(CrashIndex.fingerprint(base),
+                CrashIndex.fingerprint(exception(new IllegalArgumentException(), 1, "a.Main", "onCreate", "a.Main", "main")));
+        assertNotEquals(CrashIndex.fingerprint(base),
+                CrashIndex.fingerprint(exception(new IllegalStateException(), 1, "a.Main", "onResume", "a.Main", "main")));
+        // 相邻字段拼接后相同也不应相同
+        assertNotEquals(CrashIndex.fingerprint(exception(new IllegalStateException(), 1, "a.Mai", "nonCreate")),
+                CrashIndex.fingerprint(exception(new IllegalStateException(), 1, "a.Main", "onCreate")));
+    }
+
+    @Test
+    public void fingerprintUsesTopFrames() {
+        String[] frames = new String[(CrashIndex.FINGERPRINT_FRAMES + 1) * 2];
+        for (int i = 0; i < frames.length; i += 2) {
+            frames[i] = "a.Frame" + i;
+            frames[i + 1] = "run";
+        }
+        Throwable first = exception(new RuntimeException(), 1, frames);
+        frames[frames.length - 2] = "a.Other";
+        Throwable second = exception(new RuntimeException(), 1, frames);
+        // 超过FINGERPRINT_FRAMES的栈帧不参与计算
+        assertEquals(CrashIndex.fingerprint(first), CrashIndex.fingerprint(second));
+    }
+
+    @Test
+    public void fingerprintNormalizesLambda() {
+        Throwable first = exception(new RuntimeException(), 1, "a.Main$$Lambda$12/0x1234", "lambda$onCreate$0");
+        Throwable second = exception(new RuntimeException(), 1, "a.Main$$Lambda$7/0x9999", "lambda$onCreate$3");
+        assertEquals(CrashIndex.fingerprint(first), CrashIndex.fingerprint(second));
+    }
+
+    @Test
+    public void fingerprintUsesRootCause() {
+        Throwable root = exception(new NullPointerException(), 1, "a.Db", "query");
+        Throwable other = exception(new NullPointerException(), 1, "a.Net", "send");
+        Throwable first = new RuntimeException(root);
+        Throwable second = new RuntimeException(other);
+        assertNotEquals(CrashIndex.fingerprint(first), CrashIndex.fingerprint(second));
+        assertTrue(CrashIndex.rootCause(first) == root);
+    }
+
+    @Test
+    public void recordAndReopen() throws IOException {
+        Throwable ex = exception(new IllegalStateException(), 1, "a.Main", "onCreate");
+        long fingerprint = CrashIndex.fingerprint(ex);
+        CrashIndex index = CrashIndex.open(mFolderPath);
+        assertEquals(-1, index.find(fingerprint));
+        assertEquals(1, index.record(-1, fingerprint, ex, 1000, 20201016, 0));
+        int found = index.find(fingerprint);
+        assertEquals(0, found);
+        // 调用方刚写入了完整日志
+        assertTrue(index.hasDump(found));
+        assertEquals(2, index.record(found, fingerprint, ex, 2000, 0, 0));
+
+        // 重新打开时检查完整日志文件是否还在
+        index = CrashIndex.open(mFolderPath);
+        assertFalse(index.hasDump(0));
+        assertTrue(new File(mFolderPath, "crash-2020-10-16.log").createNewFile());
+        index = CrashIndex.open(mFolderPath);
+        assertEquals(0, index.find(fingerprint));
+        assertTrue(index.hasDump(0));
+
+        List<CrashIndex.Entry> entries = CrashIndex.top(mFolderPath, 10);
+        assertEquals(1, entries.size());
+        CrashIndex.Entry entry = entries.get(0);
+        assertEquals(fingerprint, entry.fingerprint());
+        assertEquals(2, entry.count());
+        assertEquals(1000, entry.firstSeen());
+        assertEquals(2000, entry.lastSeen());
+        assertEquals(new File(mFolderPath, "crash-2020-10-16.log").getPath(), entry.dumpPath());
+        assertEquals("java.lang.IllegalStateException at a.Main.onCreate", entry.title());
+    }
+
+    @Test
+    public void topOrderAndEviction() throws IOException {
+        CrashIndex index = CrashIndex.open(mFolderPath);
+        for (int i = 0; i < CrashIndex.MAX_ENTRIES; i++) {
+            Throwable ex = exception(new RuntimeException(), 1, "a.Frame" + i, "run");
+            int count = i == 5 ? 3 : 1;
+            for (int j = 0; j < count; j++) {
+                index.record(index.find(CrashIndex.fingerprint(ex)), CrashIndex.fingerprint(ex), ex, 1000 + i, 0, 0);
+            }
+        }
+        // 满了之后替换最久没有出现的
+        Throwable ex = exception(new RuntimeException(), 1, "a.New", "run");
+        index.record(-1, CrashIndex.fingerprint(ex), ex, 5000, 0, 0);
+        assertEquals(-1, index.find(CrashIndex.fingerprint(exception(new RuntimeException(), 1, "a.Frame0", "run"))));
+        assertEquals(0, index.find(CrashIndex.fingerprint(ex)));
+
+        List<CrashIndex.Entry> entries = CrashIndex.top(mFolderPath, 2);
+        assertEquals(2, entries.size());
+        assertEquals(3, entries.get(0).count());
+        // 次数相同时最近出现的在前
+        assertEquals(5000, entries.get(1).lastSeen());
+        assertNull(entries.get(1).dumpPath());
+    }
+
+    @Test
+    public void titleTruncated() throws IOException {
+        StringBuilder className = new StringBuilder("a.");
+        for (int i = 0; i < CrashIndex.TITLE_SIZE; i++) {
+            className.append('中');
+        }
+        Throwable ex = exception(new RuntimeException(), 1, className.toString(), "run");
+        CrashIndex index = CrashIndex.open(mFolderPath);
+        index.record(-1, CrashIndex.fingerprint(ex), ex, 1000, 0, 0);
+        String title = CrashIndex.top(mFolderPath, 1).get(0).title();
+        // 按UTF-8字节数截断，不截断半个字符
+        assertTrue(title.getBytes("UTF-8").length <= CrashIndex.TITLE_SIZE);
+        assertTrue(title.startsWith("java.lang.RuntimeException at a.中"));
+        assertFalse(title.contains("\uFFFD"));
+    }
+
+    /**
+     * 指定栈帧的异常
+     *
+     * @param frames 依次为类名、方法名
+     */
+    private static Throwable exception(Throwable ex, int line, String... frames) {
+        StackTraceElement[] trace = new StackTraceElement[frames.length / 2];
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] = new StackTraceElement(frames[i * 2], frames[i * 2 + 1], "Main.java", line);
+        }
+        ex.setStackTrace(trace);
+        return ex;
+    }
+}
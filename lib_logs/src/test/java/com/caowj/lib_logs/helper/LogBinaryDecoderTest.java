@@ -0,0 +1,163 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 二进制格式写入后解码，结果与文本格式的日志行相同；每次落盘开始新的数据块，任意记录的位置都可以作为读取起点
+ */
+public class LogBinaryDecoderTest {
+
+    private static final String PROCESS_INFO = " 123-com.caowj.demo/? ";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private boolean mCompressRotated;
+    private boolean mSearchIndex;
+    private LogFile mLogFile;
+    private final LogEncoder mEncoder = new LogEncoder();
+    private final List<String> mExpected = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mCompressRotated = LogFile.COMPRESS_ROTATED;
+        mSearchIndex = LogFile.SEARCH_INDEX;
+        LogFile.COMPRESS_ROTATED = false;
+        LogFile.SEARCH_INDEX = false;
+        Constance.GLOBAL_PATH = mFolder.newFolder("log").getAbsolutePath();
+        mLogFile = new LogFile(null, LogTypeEnum.Bussiness);
+        mLogFile.setBinaryFormat(LogBinaryDecoder.fileHeader(123, "com.caowj.demo"));
+    }
+
+    @After
+    public void tearDown() {
+        mLogFile.close();
+        LogFile.COMPRESS_ROTATED = mCompressRotated;
+        LogFile.SEARCH_INDEX = mSearchIndex;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        long time = 1600000000000L;
+        write(time, LogPriority.Info, "Main", "start");
+        write(time + 5, LogPriority.Debug, "Net", "中文内容");
+        // 同一数据块中重复的TAG只写编号，时间可以倒退
+        write(time + 3, LogPriority.Error, "Main", "line1\nline2");
+        mLogFile.commit();
+        // 落盘后开始新的数据块，TAG重新编号
+        write(time + 60000, LogPriority.Warn, "Net", "");
+        write(time + 60001, LogPriority.Verbose, "Main", "end");
+        mLogFile.close();
+
+        LogBinaryDecoder decoder = new LogBinaryDecoder(logFile().getPath());
+        try {
+            for (String expected : mExpected) {
+                assertEquals(expected, decoder.readLine());
+            }
+            assertNull(decoder.readLine());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void seek() throws IOException {
+        long time = 1600000000000L;
+        for (int i = 0; i < 6; i++) {
+            write(time + i, LogPriority.Info, i % 2 == 0 ? "Even" : "Odd", "line" + i);
+            if (i % 2 == 1) {
+                mLogFile.commit();
+            }
+        }
+        mLogFile.close();
+
+        LogBinaryDecoder decoder = new LogBinaryDecoder(logFile().getPath());
+        try {
+            List<Long> positions = new ArrayList<>();
+            while (true) {
+                long position = decoder.position();
+                if (decoder.readLine() == null) {
+                    break;
+                }
+                positions.add(position);
+            }
+            assertEquals(mExpected.size(), positions.size());
+            // 从每条记录的位置开始读取，块内的TAG编号和时间差都能正确还原
+            for (int i = positions.size() - 1; i >= 0; i--) {
+                decoder.seek(positions.get(i));
+                assertEquals(mExpected.get(i), decoder.readLine());
+            }
+        } finally {
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void truncatedRecord() throws IOException {
+        long time = 1600000000000L;
+        write(time, LogPriority.Info, "Main", "complete");
+        write(time + 1, LogPriority.Info, "Main", "incomplete");
+        mLogFile.close();
+
+        File file = logFile();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() - 3);
+        randomAccessFile.close();
+
+        // 最后一条记录没有写完整时当作文件结束
+        LogBinaryDecoder decoder = new LogBinaryDecoder(file.getPath());
+        try {
+            assertEquals(mExpected.get(0), decoder.readLine());
+            assertNull(decoder.readLine());
+        } finally {
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void isBinary() throws IOException {
+        write(1600000000000L, LogPriority.Info, "Main", "line");
+        mLogFile.close();
+        assertTrue(LogBinaryDecoder.isBinary(logFile().getPath()));
+
+        File text = mFolder.newFile("text.log");
+        FileOutputStream outputStream = new FileOutputStream(text);
+        outputStream.write("LGB0 text\n".getBytes("UTF-8"));
+        outputStream.close();
+        assertFalse(LogBinaryDecoder.isBinary(text.getPath()));
+    }
+
+    private void write(long time, LogPriority priority, String tag, String content) throws IOException {
+        mLogFile.binaryEncoder().write(LogEncoder.get(), time, priority, tag, content);
+        StringBuilder line = mEncoder.format(time, PROCESS_INFO, priority, tag, content);
+        mExpected.add(line.substring(0, line.length() - 1));
+    }
+
+    private File logFile() {
+        File[] files = new File(mLogFile.getFolderPath()).listFiles();
+        File found = null;
+        for (File file : files) {
+            if (file.getName().endsWith(LogBinaryDecoder.EXTENSION)) {
+                assertNull(found);
+                found = file;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,111 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 导出的zip中条目名不重复：同一个文件只导出一次，不同位置的同名目录中的同名文件加序号区分
+ */
+public class LogExporterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void sameFileOnce() throws IOException {
+        File folder = mFolder.newFolder("net");
+        File log = new File(folder, "2020-01-01_001_10-00-00-10-30-00.log");
+        write(log, "log");
+        write(new File(LogIndex.indexPath(log.getPath())), "idx");
+        File compressed = new File(folder, "2020-01-01_002_10-30-00-11-00-00.log" + LogCompressor.EXTENSION);
+        write(compressed, "gz");
+
+        // 重复的路径，以及已被压缩的文件的原路径和压缩后的路径
+        String uncompressed = compressed.getPath().substring(0,
+                compressed.getPath().length() - LogCompressor.EXTENSION.length());
+        List<File> files = LogExporter.collect(Arrays.asList(log.getPath(), log.getPath(), uncompressed,
+                compressed.getPath()), true);
+        assertEquals(3, files.size());
+
+        assertEquals(Arrays.asList("net/" + log.getName(), "net/" + log.getName() + LogIndex.EXTENSION,
+                "net/" + compressed.getName()), export(files));
+    }
+
+    @Test
+    public void sameNameInDifferentFolders() throws IOException {
+        File first = new File(mFolder.newFolder("a"), "net");
+        File second = new File(mFolder.newFolder("b"), "net");
+        assertTrue(first.mkdirs() && second.mkdirs());
+        String name = "2020-01-01_001_10-00-00-10-30-00.log";
+        write(new File(first, name), "first");
+        write(new File(LogIndex.indexPath(new File(first, name).getPath())), "idx");
+        write(new File(second, name), "second");
+        write(new File(LogIndex.indexPath(new File(second, name).getPath())), "idx");
+
+        List<File> files = LogExporter.collect(Arrays.asList(new File(first, name).getPath(),
+                new File(second, name).getPath()), true);
+        // 日志和它的索引使用相同的序号
+        assertEquals(Arrays.asList("net/" + name, "net/" + name + LogIndex.EXTENSION,
+                "net/2_" + name, "net/2_" + name + LogIndex.EXTENSION), export(files));
+    }
+
+    /**
+     * 导出后zip中的条目名
+     */
+    private static List<String> export(List<File> files) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        int count = LogExporter.writeZip(new LogExporter.Task(), files, outputStream, new LogExporter.OnExportListener() {
+            @Override
+            public void onProgress(long exportedBytes, long totalBytes) {
+            }
+
+            @Override
+            public void onFinish(int fileCount) {
+            }
+
+            @Override
+            public void onCancel() {
+            }
+
+            @Override
+            public void onError(IOException e) {
+            }
+        });
+        assertEquals(files.size(), count);
+        List<String> names = new ArrayList<>();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        try {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        } finally {
+            zipInputStream.close();
+        }
+        return names;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
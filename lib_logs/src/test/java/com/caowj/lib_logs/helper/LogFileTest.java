@@ -0,0 +1,161 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 合并重复日志时通过{@link LogFile#isInCurrentFile(long)}判断第一条日志是否已在切分前的文件中，
+ * 文件在落盘时才打开或切分，判断结果要以日志实际写入的文件为准
+ */
+public class LogFileTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private int mMaxSize;
+    private boolean mCompressRotated;
+    private boolean mSearchIndex;
+    private LogFile mLogFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mMaxSize = LogFile.LOG_FILE_MAX_SIZE;
+        mCompressRotated = LogFile.COMPRESS_ROTATED;
+        mSearchIndex = LogFile.SEARCH_INDEX;
+        LogFile.COMPRESS_ROTATED = false;
+        LogFile.SEARCH_INDEX = false;
+        Constance.GLOBAL_PATH = mFolder.newFolder("log").getAbsolutePath();
+        mLogFile = new LogFile(null, LogTypeEnum.Bussiness);
+    }
+
+    @After
+    public void tearDown() {
+        mLogFile.close();
+        LogFile.LOG_FILE_MAX_SIZE = mMaxSize;
+        LogFile.COMPRESS_ROTATED = mCompressRotated;
+        LogFile.SEARCH_INDEX = mSearchIndex;
+    }
+
+    @Test
+    public void firstFileOpen() throws IOException {
+        long end = stage("original\n");
+        // 第一次落盘时才打开文件，暂存的日志写入的就是这个文件
+        mLogFile.commit();
+        assertTrue(mLogFile.isInCurrentFile(end));
+    }
+
+    @Test
+    public void firstFileOpenFromMmapBuffer() throws IOException {
+        mLogFile.openMmapBuffer(new File(mFolder.getRoot(), "bussiness.mmap"));
+        long end = stage("original\n");
+        mLogFile.commit();
+        assertTrue(mLogFile.isInCurrentFile(end));
+        // 空闲时落盘
+        mLogFile.flush();
+        assertTrue(mLogFile.isInCurrentFile(end));
+    }
+
+    @Test
+    public void rotationDuringFlush() throws IOException {
+        LogFile.LOG_FILE_MAX_SIZE = 16;
+        stage("0123456789\n");
+        mLogFile.commit();
+        long end = stage("original\n");
+        // 落盘时切分，暂存的日志写入了新文件
+        mLogFile.commit();
+        assertTrue(mLogFile.isInCurrentFile(end));
+
+        stage("next line\n");
+        mLogFile.commit();
+        assertFalse(mLogFile.isInCurrentFile(end));
+    }
+
+    @Test
+    public void stagedLineFollowsCurrentBatch() throws IOException {
+        LogFile.LOG_FILE_MAX_SIZE = 16;
+        stage("0123456789\n");
+        mLogFile.commit();
+        long end = stage("original\n");
+        // 尚未落盘，会和当前批次写入同一个文件
+        assertTrue(mLogFile.isInCurrentFile(end));
+    }
+
+    @Test
+    public void failedFlushKeepsStagedLines() throws IOException {
+        // 日志目录的上级是普通文件，打开日志文件失败
+        File blocker = mFolder.newFile("blocker");
+        Constance.GLOBAL_PATH = blocker.getAbsolutePath();
+        mLogFile.close();
+        mLogFile = new LogFile(null, LogTypeEnum.Bussiness);
+        mLogFile.openMmapBuffer(new File(mFolder.getRoot(), "bussiness.mmap"));
+        long end = stage("original\n");
+        try {
+            mLogFile.flush();
+            fail();
+        } catch (IOException e) {
+            // 暂存区中的日志保留，下次重试
+        }
+        assertEquals(end, mLogFile.stagedLength());
+
+        assertTrue(blocker.delete());
+        stage("next line\n");
+        mLogFile.flush();
+        assertEquals(0, mLogFile.stagedLength());
+        File folder = new File(blocker, "bussiness");
+        File[] files = folder.listFiles();
+        assertEquals(1, files.length);
+        assertEquals("original\nnext line\n", read(files[0]));
+    }
+
+    @Test
+    public void partialWriteKeepsRemainder() throws IOException {
+        File file = new File(mFolder.getRoot(), "partial.mmap");
+        LogMmapBuffer buffer = new LogMmapBuffer(file);
+        ByteBuffer view = buffer.writeView();
+        view.put("0123456789".getBytes(StandardCharsets.UTF_8));
+        buffer.commit(view);
+        // 写入了前4个字节
+        buffer.consume(4);
+        buffer.close();
+
+        LogMmapBuffer recovered = new LogMmapBuffer(file);
+        ByteBuffer pending = recovered.pending();
+        byte[] bytes = new byte[pending.remaining()];
+        pending.get(bytes);
+        recovered.close();
+        assertEquals("456789", new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += inputStream.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long stage(String line) throws IOException {
+        mLogFile.append(line.getBytes(StandardCharsets.UTF_8));
+        return mLogFile.position();
+    }
+}
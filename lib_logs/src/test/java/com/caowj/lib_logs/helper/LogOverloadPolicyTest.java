@@ -0,0 +1,81 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 丢弃计数汇总后移除，和丢弃同时进行时不能丢失或重复计数
+ */
+public class LogOverloadPolicyTest {
+
+    @Test
+    public void drainRemovesTags() {
+        LogOverloadPolicy policy = new LogOverloadPolicy(new LogcatRecord.LogcatConfig());
+        policy.onDropped("a");
+        policy.onDropped("a");
+        policy.onDropped("b");
+        final Map<String, Integer> counts = new HashMap<>();
+        LogOverloadPolicy.DroppedVisitor visitor = new LogOverloadPolicy.DroppedVisitor() {
+            @Override
+            public void onDropped(String tag, int count) {
+                counts.put(tag, count);
+            }
+        };
+        policy.drainDropped(visitor);
+        assertEquals(2, (int) counts.get("a"));
+        assertEquals(1, (int) counts.get("b"));
+
+        counts.clear();
+        policy.drainDropped(visitor);
+        assertTrue(counts.isEmpty());
+
+        policy.onDropped("a");
+        policy.drainDropped(visitor);
+        assertEquals(1, (int) counts.get("a"));
+    }
+
+    @Test
+    public void concurrentDropAndDrain() throws InterruptedException {
+        final LogOverloadPolicy policy = new LogOverloadPolicy(new LogcatRecord.LogcatConfig());
+        final int threads = 4;
+        final int drops = 100000;
+        final AtomicLong drained = new AtomicLong();
+        final LogOverloadPolicy.DroppedVisitor visitor = new LogOverloadPolicy.DroppedVisitor() {
+            @Override
+            public void onDropped(String tag, int count) {
+                drained.addAndGet(count);
+            }
+        };
+        Thread[] droppers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            droppers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < drops; j++) {
+                        policy.onDropped("tag" + (j & 7));
+                    }
+                }
+            });
+            droppers[i].start();
+        }
+        boolean running = true;
+        while (running) {
+            policy.drainDropped(visitor);
+            running = false;
+            for (Thread dropper : droppers) {
+                running |= dropper.isAlive();
+            }
+        }
+        for (Thread dropper : droppers) {
+            dropper.join();
+        }
+        policy.drainDropped(visitor);
+        assertEquals((long) threads * drops, drained.get());
+    }
+}
@@ -0,0 +1,81 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 格式化对象时限制元素个数和长度，CharSequence原样输出
+ */
+public class LogRendererTest {
+
+    @After
+    public void tearDown() {
+        LogRenderer.setMaxElements(LogRenderer.MAX_ELEMENTS_DEFAULT);
+        LogRenderer.setMaxLength(LogRenderer.MAX_LENGTH_DEFAULT);
+    }
+
+    @Test
+    public void collection() {
+        assertEquals("[1, null, [a, b]]", render(Arrays.asList(1, null, Arrays.asList("a", "b"))));
+    }
+
+    @Test
+    public void maxElements() {
+        LogRenderer.setMaxElements(2);
+        assertEquals("[1, 2, ...(共3个)]", render(Arrays.asList(1, 2, 3)));
+    }
+
+    @Test
+    public void containsItself() {
+        List<Object> list = new ArrayList<>();
+        list.add(list);
+        assertTrue(render(list).startsWith("["));
+    }
+
+    @Test
+    public void truncateObject() {
+        LogRenderer.setMaxLength(8);
+        assertEquals("[1234567...(已截断)", render(Collections.singletonList("123456789")));
+    }
+
+    @Test
+    public void charSequenceNotTruncated() {
+        LogRenderer.setMaxLength(8);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append(i);
+        }
+        assertEquals(builder.toString(), render(builder));
+    }
+
+    @Test
+    public void limitPerObject() {
+        LogRenderer.setMaxLength(8);
+        LogRenderer.Output output = LogRenderer.obtain();
+        try {
+            // 参数化日志：格式字符串原样写入，每个对象单独计算长度
+            output.append("first=").appendValue(Collections.singletonList("123456789"))
+                    .append(", second=").appendValue(Collections.singletonList("12"));
+            assertEquals("first=[1234567...(已截断), second=[12]", output.toString());
+        } finally {
+            output.recycle();
+        }
+    }
+
+    private static String render(Object value) {
+        LogRenderer.Output output = LogRenderer.obtain();
+        try {
+            return output.appendValue(value).toString();
+        } finally {
+            output.recycle();
+        }
+    }
+}
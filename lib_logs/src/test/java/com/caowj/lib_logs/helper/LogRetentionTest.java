@@ -0,0 +1,60 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 总配额包括行索引和搜索索引文件，删除日志时索引一起删除
+ */
+public class LogRetentionTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void quotaIncludesIndexFiles() throws IOException {
+        File folder = mFolder.newFolder("bussiness");
+        File[] logs = new File[3];
+        for (int i = 0; i < logs.length; i++) {
+            logs[i] = new File(folder, "2020-01-01_00" + (i + 1) + "_10-00-0" + i + "-10-30-00.log");
+            write(logs[i], 100);
+            write(new File(LogIndex.indexPath(logs[i].getPath())), 50);
+            write(new File(LogSearchIndex.indexPath(logs[i].getPath())), 50);
+        }
+
+        // 日志文件共300字节，加上索引共600字节
+        LogRetention retention = LogRetention.getInstance();
+        retention.setQuota(450, null);
+        retention.register(LogTypeEnum.Bussiness, folder.getPath(), 0);
+        retention.trim(LogRetention.MAX_DELETES_PER_PASS);
+
+        // 删除最早的一个文件后降到400字节
+        assertFalse(logs[0].exists());
+        assertFalse(new File(LogIndex.indexPath(logs[0].getPath())).exists());
+        assertFalse(new File(LogSearchIndex.indexPath(logs[0].getPath())).exists());
+        for (int i = 1; i < logs.length; i++) {
+            assertTrue(logs[i].exists());
+            assertTrue(new File(LogIndex.indexPath(logs[i].getPath())).exists());
+            assertTrue(new File(LogSearchIndex.indexPath(logs[i].getPath())).exists());
+        }
+        assertEquals(2, LogCatalog.get(folder.getPath()).entries().size());
+    }
+
+    private static void write(File file, int size) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[size]);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
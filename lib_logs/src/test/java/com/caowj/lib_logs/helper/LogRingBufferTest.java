@@ -0,0 +1,119 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多个线程同时写入时每条日志只被取出一次，同一线程的日志保持顺序；缓冲区满时写入直接失败，不阻塞
+ */
+public class LogRingBufferTest {
+
+    @Test
+    public void capacity() {
+        assertEquals(LogRingBuffer.MIN_CAPACITY, new LogRingBuffer(1, LogBuilder.WaitStrategy.PARK).capacity());
+        assertEquals(128, new LogRingBuffer(100, LogBuilder.WaitStrategy.PARK).capacity());
+        assertEquals(128, new LogRingBuffer(128, LogBuilder.WaitStrategy.PARK).capacity());
+        assertEquals(LogRingBuffer.MAX_CAPACITY,
+                new LogRingBuffer(Integer.MAX_VALUE, LogBuilder.WaitStrategy.PARK).capacity());
+    }
+
+    @Test
+    public void fullAndLimit() {
+        LogRingBuffer buffer = new LogRingBuffer(64, LogBuilder.WaitStrategy.PARK);
+        for (int i = 0; i < 32; i++) {
+            assertTrue(buffer.publish(LogPriority.Debug, LogTypeEnum.Bussiness, "Tag", "log" + i, true, 32));
+        }
+        // 超过limit时失败，为高级别日志预留的空间仍可写入
+        assertFalse(buffer.publish(LogPriority.Debug, LogTypeEnum.Bussiness, "Tag", "over", true, 32));
+        for (int i = 32; i < 64; i++) {
+            assertTrue(buffer.publish(LogPriority.Error, LogTypeEnum.Bussiness, "Tag", "log" + i, true));
+        }
+        assertFalse(buffer.publish(LogPriority.Error, LogTypeEnum.Bussiness, "Tag", "full", true));
+        assertEquals(64, buffer.size());
+
+        LogRecord.LogInfo logInfo = buffer.poll();
+        assertEquals("log0", logInfo.log);
+        assertEquals(LogPriority.Debug, logInfo.priority);
+        buffer.release();
+        // 释放后槽位可以复用
+        assertTrue(buffer.publish(LogPriority.Error, LogTypeEnum.Bussiness, "Tag", "log64", true));
+        for (int i = 1; i <= 64; i++) {
+            assertEquals("log" + i, buffer.poll().log);
+            buffer.release();
+        }
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void takeTimeout() {
+        LogRingBuffer buffer = new LogRingBuffer(64, LogBuilder.WaitStrategy.PARK);
+        long start = System.nanoTime();
+        assertNull(buffer.take(TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void concurrentPark() throws InterruptedException {
+        concurrent(LogBuilder.WaitStrategy.PARK);
+    }
+
+    @Test
+    public void concurrentYield() throws InterruptedException {
+        concurrent(LogBuilder.WaitStrategy.YIELD);
+    }
+
+    private static void concurrent(int waitStrategy) throws InterruptedException {
+        final int producers = 4;
+        final int count = 20000;
+        final LogRingBuffer buffer = new LogRingBuffer(256, waitStrategy);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final String tag = String.valueOf(p);
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        // 缓冲区满时重试，真实场景中由LogOverloadPolicy处理
+                        while (!buffer.publish(LogPriority.Info, LogTypeEnum.Bussiness, tag, String.valueOf(i), true)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        start.countDown();
+
+        int[] next = new int[producers];
+        for (int received = 0; received < producers * count; received++) {
+            LogRecord.LogInfo logInfo = buffer.take(TimeUnit.SECONDS.toNanos(10));
+            assertNotNull(logInfo);
+            int producer = Integer.parseInt(logInfo.tag);
+            // 同一线程的日志按写入顺序取出，不重复也不丢失
+            assertEquals(next[producer]++, Integer.parseInt(logInfo.log));
+            buffer.release();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(buffer.poll());
+        for (int p = 0; p < producers; p++) {
+            assertEquals(count, next[p]);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 三元组索引过滤出的候选块必须包含所有匹配的行，块的位置和行号与逐行读取一致
+ */
+public class LogSearchIndexTest {
+
+    // 每块约64KB，生成3块多
+    private static final int LINE_COUNT = 6000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mLogFile;
+    private final List<String> mLines = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mLogFile = mFolder.newFile("2020-01-01_001_000000_235959.log");
+        OutputStream outputStream = new FileOutputStream(mLogFile);
+        try {
+            for (int i = 0; i < LINE_COUNT; i++) {
+                String line = "2020-01-01 00:00:00.000 123-demo/? I/Main: request " + i + " finished";
+                if (i == 2500) {
+                    line += " UniqueToken 网络异常";
+                }
+                mLines.add(line);
+                outputStream.write((line + "\n").getBytes("UTF-8"));
+            }
+        } finally {
+            outputStream.close();
+        }
+        LogSearchIndex.build(mLogFile.getPath());
+    }
+
+    @Test
+    public void blocks() throws IOException {
+        LogSearchIndex index = LogSearchIndex.open(mLogFile.getPath());
+        assertNotNull(index);
+        try {
+            assertTrue(index.blockCount() > 2);
+            assertEquals(0, index.blockPosition(0));
+            assertEquals(0, index.blockFirstLine(0));
+            int lines = 0;
+            LogFileReader reader = LogFileReader.open(mLogFile.getPath());
+            try {
+                for (int block = 0; block < index.blockCount(); block++) {
+                    assertEquals(lines, index.blockFirstLine(block));
+                    // 块的位置就是该块第一行的位置
+                    reader.seek(index.blockPosition(block));
+                    assertEquals(mLines.get(lines), reader.readLine());
+                    assertEquals(block, index.blockOf(index.blockPosition(block)));
+                    assertEquals(block, index.blockOf(index.blockPosition(block) + 1));
+                    lines += index.blockLineCount(block);
+                }
+            } finally {
+                reader.close();
+            }
+            assertEquals(LINE_COUNT, lines);
+            assertEquals(-1, index.blockOf(-1));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void candidateBlocks() throws IOException {
+        LogSearchIndex index = LogSearchIndex.open(mLogFile.getPath());
+        try {
+            int block = blockOfLine(index, 2500);
+            boolean[] expected = new boolean[index.blockCount()];
+            expected[block] = true;
+            assertArrayEquals(expected, index.candidateBlocks(new String[]{"uniquetoken"}));
+            // ASCII字母不区分大小写，多字节字符按UTF-8的字节组合
+            assertArrayEquals(expected, index.candidateBlocks(new String[]{"UNIQUE", "网络异常"}));
+            // 每个关键字都要出现
+            assertArrayEquals(new boolean[index.blockCount()],
+                    index.candidateBlocks(new String[]{"UniqueToken", "not found"}));
+
+            boolean[] all = index.candidateBlocks(new String[]{"finished"});
+            for (boolean candidate : all) {
+                assertTrue(candidate);
+            }
+            // 少于3个字节无法过滤
+            assertNull(index.candidateBlocks(new String[]{"ab", null}));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void candidatesContainMatches() throws IOException {
+        LogSearchIndex index = LogSearchIndex.open(mLogFile.getPath());
+        try {
+            String keyword = "request 59";
+            boolean[] candidates = index.candidateBlocks(new String[]{keyword});
+            for (int i = 0; i < mLines.size(); i++) {
+                if (mLines.get(i).contains(keyword)) {
+                    assertTrue(candidates[blockOfLine(index, i)]);
+                }
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void missingOrInvalidIndex() throws IOException {
+        File other = mFolder.newFile("other.log");
+        assertNull(LogSearchIndex.open(other.getPath()));
+
+        OutputStream outputStream = new FileOutputStream(LogSearchIndex.indexPath(other.getPath()));
+        outputStream.write(new byte[]{'L', 'T', 'R', 'X', 0, 0, 0, 1});
+        outputStream.close();
+        assertNull(LogSearchIndex.open(other.getPath()));
+
+        // 压缩后的文件使用原文件的索引
+        assertEquals(LogSearchIndex.indexPath(mLogFile.getPath()),
+                LogSearchIndex.indexPath(mLogFile.getPath() + LogCompressor.EXTENSION));
+        assertFalse(new File(mLogFile.getPath() + LogSearchIndex.TEMP_EXTENSION).exists());
+    }
+
+    private static int blockOfLine(LogSearchIndex index, int line) {
+        for (int block = index.blockCount() - 1; block >= 0; block--) {
+            if (index.blockFirstLine(block) <= line) {
+                return block;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,162 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分段并行搜索的结果与逐行扫描一致且按文件中的顺序回调，有没有搜索索引结果都相同
+ */
+public class LogSearchTest {
+
+    // 约1MB，文本文件切分成多段
+    private static final int LINE_COUNT = 16000;
+    private static final String[] TAGS = {"Main", "Net", "Db"};
+    private static final String PRIORITIES = "VDIWE";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mLogFile;
+    private final List<String> mLines = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mLogFile = mFolder.newFile("2020-01-01_001_000000_235959.log");
+        OutputStream outputStream = new FileOutputStream(mLogFile);
+        try {
+            for (int i = 0; i < LINE_COUNT; i++) {
+                String line = "2020-01-01 00:00:00.000 123-demo/? " + PRIORITIES.charAt(i % PRIORITIES.length())
+                        + "/" + TAGS[i % TAGS.length] + ": request " + i + (i % 7 == 0 ? " Timeout" : " ok");
+                mLines.add(line);
+                outputStream.write((line + "\n").getBytes("UTF-8"));
+            }
+        } finally {
+            outputStream.close();
+        }
+        assertTrue(mLogFile.length() > LogSearch.CHUNK_SIZE * 2);
+    }
+
+    @Test
+    public void keyword() throws InterruptedException {
+        Result result = search(new LogSearch.Query().keyword("timeout"));
+        assertFalse(result.mTruncated);
+        assertEquals(expected(" Timeout", null, null), result.mLines);
+
+        result = search(new LogSearch.Query().keyword("timeout").caseInsensitive(false));
+        assertTrue(result.mLines.isEmpty());
+    }
+
+    @Test
+    public void headerFilter() throws InterruptedException {
+        Result result = search(LogSearch.Query.parse(" tag:Net  level:W timeout "));
+        assertEquals(expected(" Timeout", "Net", "WE"), result.mLines);
+    }
+
+    @Test
+    public void regex() throws InterruptedException {
+        Result result = search(LogSearch.Query.parse("re:request\\s1\\d{3}\\s"));
+        List<String> expected = new ArrayList<>();
+        for (String line : mLines) {
+            if (line.matches(".*request 1\\d{3} .*")) {
+                expected.add(line);
+            }
+        }
+        assertEquals(expected, result.mLines);
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void invalidRegex() {
+        LogSearch.search(mLogFile.getPath(), LogSearch.Query.parse("re:("), new Result());
+    }
+
+    @Test
+    public void withSearchIndex() throws IOException, InterruptedException {
+        Result withoutIndex = search(new LogSearch.Query().keyword("request 15").keyword("Timeout"));
+        LogSearchIndex.build(mLogFile.getPath());
+        // 只搜索候选块，结果与全文扫描相同
+        Result withIndex = search(new LogSearch.Query().keyword("request 15").keyword("Timeout"));
+        assertFalse(withIndex.mLines.isEmpty());
+        assertEquals(withoutIndex.mLines, withIndex.mLines);
+    }
+
+    @Test
+    public void cancel() throws InterruptedException {
+        final LogSearch.Task[] task = new LogSearch.Task[1];
+        final CountDownLatch started = new CountDownLatch(1);
+        Result result = new Result() {
+            @Override
+            public synchronized void onHits(List<String> lines) {
+                super.onHits(lines);
+                // 收到第一批结果后取消
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                task[0].cancel();
+            }
+        };
+        task[0] = LogSearch.search(mLogFile.getPath(), new LogSearch.Query().keyword("request"), result);
+        started.countDown();
+        // 取消后不再回调
+        assertFalse(result.mDone.await(500, TimeUnit.MILLISECONDS));
+        assertTrue(task[0].isCancelled());
+        assertTrue(result.mLines.size() < LINE_COUNT);
+    }
+
+    /**
+     * 逐行扫描的结果
+     */
+    private List<String> expected(String keyword, String tag, String priorities) {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < mLines.size(); i++) {
+            if (!mLines.get(i).contains(keyword)
+                    || (tag != null && !TAGS[i % TAGS.length].equals(tag))
+                    || (priorities != null && priorities.indexOf(PRIORITIES.charAt(i % PRIORITIES.length())) < 0)) {
+                continue;
+            }
+            expected.add(mLines.get(i));
+        }
+        return expected;
+    }
+
+    private Result search(LogSearch.Query query) throws InterruptedException {
+        Result result = new Result();
+        LogSearch.search(mLogFile.getPath(), query, result);
+        assertTrue(result.mDone.await(10, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private static class Result implements LogSearch.Callback {
+        final List<String> mLines = new ArrayList<>();
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile boolean mTruncated;
+
+        @Override
+        public synchronized void onHits(List<String> lines) {
+            mLines.addAll(lines);
+        }
+
+        @Override
+        public void onComplete(boolean truncated) {
+            mTruncated = truncated;
+            mDone.countDown();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.caowj.lib_logs.helper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * logcat输出按行切分，跨两次读取的行在读到换行后才处理；解析threadtime和brief格式的级别、TAG和PID
+ */
+public class LogcatParserTest {
+
+    @Test
+    public void threadTime() throws IOException {
+        List<Line> lines = parse(64 * 1024, 0,
+                "10-16 20:48:02.123  1234  5678 I ActivityManager: Start proc\n");
+        assertEquals(1, lines.size());
+        lines.get(0).check("10-16 20:48:02.123  1234  5678 I ActivityManager: Start proc", 'I', "ActivityManager", 1234);
+    }
+
+    @Test
+    public void threadTimePaddedTag() throws IOException {
+        // TAG后面补齐的空格不属于TAG，内容中的冒号不影响
+        List<Line> lines = parse(64 * 1024, 0, "10-16 20:48:02.123   987   987 W Net     : url: http://a\n");
+        lines.get(0).check("10-16 20:48:02.123   987   987 W Net     : url: http://a", 'W', "Net", 987);
+    }
+
+    @Test
+    public void brief() throws IOException {
+        List<Line> lines = parse(64 * 1024, 0, "E/LegoHttpLog( 4321): timeout\r\n");
+        lines.get(0).check("E/LegoHttpLog( 4321): timeout", 'E', "LegoHttpLog", 4321);
+    }
+
+    @Test
+    public void unparsed() throws IOException {
+        List<Line> lines = parse(64 * 1024, 0, "--------- beginning of main\n\n10-16 bad line\n");
+        assertEquals(2, lines.size());
+        lines.get(0).check("--------- beginning of main", (char) 0, "", 0);
+        lines.get(1).check("10-16 bad line", (char) 0, "", 0);
+    }
+
+    @Test
+    public void partialReads() throws IOException {
+        String text = "10-16 20:48:02.123  1234  5678 I Main: 第一行\n"
+                + "I/Net( 1234): 第二行\n"
+                + "10-16 20:48:02.125  1234  5678 D Main: 没有换行";
+        // 每次只读3个字节，多字节字符也会被拆开
+        List<Line> lines = parse(64 * 1024, 3, text);
+        assertEquals(3, lines.size());
+        lines.get(0).check("10-16 20:48:02.123  1234  5678 I Main: 第一行", 'I', "Main", 1234);
+        lines.get(1).check("I/Net( 1234): 第二行", 'I', "Net", 1234);
+        // 流结束时处理剩余不完整的行
+        lines.get(2).check("10-16 20:48:02.125  1234  5678 D Main: 没有换行", 'D', "Main", 1234);
+    }
+
+    @Test
+    public void longLineSplit() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append('x');
+        }
+        List<Line> lines = parse(16, 0, text + "\nI/Main( 1): ok\n");
+        // 超过缓冲区的行被切分
+        assertEquals(4, lines.size());
+        assertEquals("xxxxxxxxxxxxxxxx", lines.get(0).mLine);
+        assertEquals("xxxxxxxxxxxxxxxx", lines.get(1).mLine);
+        assertEquals("xxxxxxxx", lines.get(2).mLine);
+        lines.get(3).check("I/Main( 1): ok", 'I', "Main", 1);
+    }
+
+    @Test
+    public void tagContains() throws IOException {
+        final List<Boolean> results = new ArrayList<>();
+        LogcatParser parser = new LogcatParser(1024);
+        InputStream inputStream = new ByteArrayInputStream(
+                "10-16 20:48:02.123  1234  5678 I LegoHttpLog: HttpLog in message\n".getBytes(StandardCharsets.UTF_8));
+        while (parser.read(inputStream, new LogcatParser.LineHandler() {
+            @Override
+            public void onLine(LogcatParser parser) {
+                results.add(parser.tagContains("HttpLog".getBytes(StandardCharsets.UTF_8)));
+                results.add(parser.tagContains("Lego".getBytes(StandardCharsets.UTF_8)));
+                // 只在TAG中查找，不查找内容
+                results.add(parser.tagContains("message".getBytes(StandardCharsets.UTF_8)));
+                results.add(parser.tagContains("LegoHttpLog:".getBytes(StandardCharsets.UTF_8)));
+            }
+        })) {
+            // 读到流结束
+        }
+        assertEquals(4, results.size());
+        assertTrue(results.get(0));
+        assertTrue(results.get(1));
+        assertFalse(results.get(2));
+        assertFalse(results.get(3));
+    }
+
+    private static List<Line> parse(int bufferSize, final int readSize, String text) throws IOException {
+        final List<Line> lines = new ArrayList<>();
+        LogcatParser parser = new LogcatParser(bufferSize);
+        InputStream inputStream = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, readSize > 0 ? Math.min(len, readSize) : len);
+            }
+        };
+        LogcatParser.LineHandler handler = new LogcatParser.LineHandler() {
+            @Override
+            public void onLine(LogcatParser parser) {
+                lines.add(new Line(parser));
+            }
+        };
+        while (parser.read(inputStream, handler)) {
+            // 读到流结束
+        }
+        return lines;
+    }
+
+    private static class Line {
+        final String mLine;
+        final char mPriority;
+        final String mTag;
+        final int mPid;
+
+        Line(LogcatParser parser) {
+            mLine = parser.line();
+            mPriority = parser.priority();
+            mTag = parser.tag();
+            mPid = parser.pid();
+        }
+
+        void check(String line, char priority, String tag, int pid) {
+            assertEquals(line, mLine);
+            assertEquals(priority, mPriority);
+            assertEquals(tag, mTag);
+            assertEquals(pid, mPid);
+        }
+    }
+}
@@ -0,0 +1,607 @@
+package com.caowj.lib_logs_plugin;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 改写一个类中对LegoLog/KLog的调用
+ * <p>
+ * 低于最小级别的调用连同计算参数的指令一起移除：从调用处向前按栈的变化找出压入参数的连续指令，
+ * 这些指令中没有跳转、没有写局部变量/字段/数组、方法调用只有字符串拼接(StringBuilder、String.valueOf、
+ * makeConcatWithConstants)时整段移除；否则保留参数的计算，只把调用换成弹出参数。
+ * 带recordLog参数的LegoLog调用可能要写入日志文件，不移除。
+ * <p>
+ * 保留的KLog调用换成{@code KLog.logAt}，把调用所在的文件、方法和行号作为常量传入，运行时不再获取调用栈。
+ */
+class LogCallRewriter {
+
+    static final String LEGO_LOG = "com/caowj/lib_logs/LegoLog";
+    static final String K_LOG = "com/caowj/lib_logs/KLog";
+
+    // 级别，按从低到高排列
+    static final int VERBOSE = 0;
+    static final int DEBUG = 1;
+    static final int INFO = 2;
+    static final int WARN = 3;
+    static final int ERROR = 4;
+    static final int ASSERT = 5;
+
+    // KLog中级别的取值，与KLog.V~KLog.JSON一致
+    private static final int K_LOG_V = 0x1;
+    private static final int K_LOG_JSON = 0x7;
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String STRING = "Ljava/lang/String;";
+    private static final String LOCATION = "I" + STRING + STRING + "I";
+    // 指令有副作用或改变了控制流，不能移除
+    private static final int UNSAFE = -1;
+    private static final String STRING_BUILDER = "java/lang/StringBuilder";
+    private static final String STRING_CONCAT_FACTORY = "java/lang/invoke/StringConcatFactory";
+
+    private final int mMinPriority;
+    private final boolean mBakeLocation;
+
+    // 统计，用于构建日志
+    int mRemoved;
+    int mPopped;
+    int mLocated;
+
+    /**
+     * @param minPriority  低于该级别的调用被移除
+     * @param bakeLocation 保留的KLog调用是否在编译时确定调用位置
+     */
+    LogCallRewriter(int minPriority, boolean bakeLocation) {
+        mMinPriority = minPriority;
+        mBakeLocation = bakeLocation;
+    }
+
+    /**
+     * V/D/I/W/E/A或VERBOSE/DEBUG/INFO/WARN/ERROR/ASSERT对应的级别
+     */
+    static int parsePriority(String priority) {
+        String value = priority.trim().toUpperCase();
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("priority is empty");
+        }
+        switch (value.charAt(0)) {
+            case 'V':
+                return VERBOSE;
+            case 'D':
+                return DEBUG;
+            case 'I':
+                return INFO;
+            case 'W':
+                return WARN;
+            case 'E':
+                return ERROR;
+            case 'A':
+                return ASSERT;
+            default:
+                throw new IllegalArgumentException("unknown priority: " + priority);
+        }
+    }
+
+    /**
+     * @return 改写后的类，没有需要改写的调用时返回null
+     */
+    byte[] rewrite(byte[] classBytes) {
+        ClassReader reader = new ClassReader(classBytes);
+        ClassNode classNode = new ClassNode();
+        reader.accept(classNode, 0);
+        if (LEGO_LOG.equals(classNode.name) || K_LOG.equals(classNode.name)) {
+            return null;
+        }
+        boolean changed = false;
+        for (MethodNode method : classNode.methods) {
+            changed |= rewrite(classNode, method);
+        }
+        if (!changed) {
+            return null;
+        }
+        // 只移除或替换不含跳转的连续指令，原有的栈帧不变，不需要重新计算
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private boolean rewrite(ClassNode classNode, MethodNode method) {
+        if (method.instructions.size() == 0) {
+            return false;
+        }
+        List<MethodInsnNode> calls = new ArrayList<>();
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn.getOpcode() == Opcodes.INVOKESTATIC && priorityOf((MethodInsnNode) insn) >= 0) {
+                calls.add((MethodInsnNode) insn);
+            }
+        }
+        if (calls.isEmpty()) {
+            return false;
+        }
+        Set<LabelNode> targets = null;
+        boolean changed = false;
+        for (MethodInsnNode call : calls) {
+            int priority = priorityOf(call);
+            if (priority < mMinPriority && !isRecordLog(call)) {
+                if (targets == null) {
+                    targets = jumpTargets(method);
+                }
+                if (removeCall(method, call, targets)) {
+                    mRemoved++;
+                } else {
+                    popArguments(method.instructions, call);
+                    mPopped++;
+                }
+                changed = true;
+            } else if (mBakeLocation && K_LOG.equals(call.owner) && bakeLocation(classNode, method, call)) {
+                mLocated++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 调用的级别，不是需要处理的日志调用时返回-1
+     */
+    static int priorityOf(MethodInsnNode call) {
+        boolean kLog = K_LOG.equals(call.owner);
+        if (!kLog && !LEGO_LOG.equals(call.owner)) {
+            return -1;
+        }
+        if (Type.getReturnType(call.desc).getSort() != Type.VOID) {
+            return -1;
+        }
+        switch (call.name) {
+            case "v":
+                return VERBOSE;
+            case "d":
+                return DEBUG;
+            case "i":
+                return INFO;
+            case "w":
+                return WARN;
+            case "e":
+                return ERROR;
+            case "a":
+                return kLog ? ASSERT : -1;
+            case "json":
+                return kLog ? DEBUG : -1;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * LegoLog带recordLog参数的调用，recordLog为true时不论级别都要写入文件，编译时无法确定取值，一律保留
+     */
+    private static boolean isRecordLog(MethodInsnNode call) {
+        Type[] arguments = Type.getArgumentTypes(call.desc);
+        return LEGO_LOG.equals(call.owner) && arguments.length > 0
+                && arguments[arguments.length - 1].getSort() == Type.BOOLEAN;
+    }
+
+    /**
+     * 跳转、switch、异常处理涉及的标签，移除的指令不能跨过这些标签
+     */
+    private static Set<LabelNode> jumpTargets(MethodNode method) {
+        Set<LabelNode> targets = new HashSet<>();
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof JumpInsnNode) {
+                targets.add(((JumpInsnNode) insn).label);
+            } else if (insn instanceof TableSwitchInsnNode) {
+                targets.add(((TableSwitchInsnNode) insn).dflt);
+                targets.addAll(((TableSwitchInsnNode) insn).labels);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                targets.add(((LookupSwitchInsnNode) insn).dflt);
+                targets.addAll(((LookupSwitchInsnNode) insn).labels);
+            }
+        }
+        if (method.tryCatchBlocks != null) {
+            for (TryCatchBlockNode block : method.tryCatchBlocks) {
+                targets.add(block.start);
+                targets.add(block.end);
+                targets.add(block.handler);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * 移除调用及计算参数的指令
+     *
+     * @return false-参数的计算不能安全移除，没有修改
+     */
+    private static boolean removeCall(MethodNode method, MethodInsnNode call, Set<LabelNode> targets) {
+        // 还需要向前找的参数所占的栈大小
+        int need = Type.getArgumentsAndReturnSizes(call.desc) >> 2;
+        // 静态方法的参数大小中包含了this
+        need--;
+        List<AbstractInsnNode> removed = new ArrayList<>();
+        removed.add(call);
+        AbstractInsnNode insn = call.getPrevious();
+        while (need > 0) {
+            if (insn == null) {
+                return false;
+            }
+            if (insn instanceof LabelNode) {
+                if (targets.contains(insn)) {
+                    return false;
+                }
+            } else if (insn.getOpcode() >= 0) {
+                int effect = stackEffect(insn);
+                if (effect == UNSAFE) {
+                    return false;
+                }
+                int pops = effect >> 8;
+                int pushes = effect & 0xFF;
+                if (pushes > need) {
+                    // 压入的值有一部分不是这次调用的参数
+                    return false;
+                }
+                need = need - pushes + pops;
+                removed.add(insn);
+            } else if (!(insn instanceof LineNumberNode)) {
+                // 栈帧等
+                return false;
+            }
+            insn = insn.getPrevious();
+        }
+        if (method.tryCatchBlocks != null) {
+            for (TryCatchBlockNode block : method.tryCatchBlocks) {
+                if (isEmptyAfter(block, removed)) {
+                    // try块中只有这次调用，移除后异常表的范围为空
+                    return false;
+                }
+            }
+        }
+        for (AbstractInsnNode node : removed) {
+            method.instructions.remove(node);
+        }
+        return true;
+    }
+
+    private static boolean isEmptyAfter(TryCatchBlockNode block, List<AbstractInsnNode> removed) {
+        for (AbstractInsnNode insn = block.start; insn != null && insn != block.end; insn = insn.getNext()) {
+            if (insn.getOpcode() >= 0 && !removed.contains(insn)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 保留参数的计算，把调用换成弹出参数
+     */
+    private static void popArguments(InsnList instructions, MethodInsnNode call) {
+        Type[] arguments = Type.getArgumentTypes(call.desc);
+        InsnList pops = new InsnList();
+        for (int i = arguments.length - 1; i >= 0; i--) {
+            pops.add(new InsnNode(arguments[i].getSize() == 2 ? Opcodes.POP2 : Opcodes.POP));
+        }
+        instructions.insert(call, pops);
+        instructions.remove(call);
+    }
+
+    /**
+     * 把KLog的调用换成KLog.logAt，在参数后面压入级别和调用位置
+     *
+     * @return false-不是能改写的重载
+     */
+    private static boolean bakeLocation(ClassNode classNode, MethodNode method, MethodInsnNode call) {
+        String desc;
+        switch (call.desc) {
+            case "()V":
+                desc = "(" + LOCATION + ")V";
+                break;
+            case "(" + OBJECT + ")V":
+            case "(" + STRING + ")V":
+                desc = "(" + OBJECT + LOCATION + ")V";
+                break;
+            case "(" + STRING + OBJECT + ")V":
+            case "(" + STRING + STRING + ")V":
+                desc = "(" + STRING + OBJECT + LOCATION + ")V";
+                break;
+            default:
+                return false;
+        }
+        InsnList location = new InsnList();
+        location.add(intConstant(kLogType(call.name)));
+        location.add(new LdcInsnNode(sourceFile(classNode)));
+        location.add(new LdcInsnNode(method.name));
+        location.add(intConstant(lineNumber(call)));
+        location.add(new MethodInsnNode(Opcodes.INVOKESTATIC, K_LOG, "logAt", desc, false));
+        method.instructions.insert(call, location);
+        method.instructions.remove(call);
+        return true;
+    }
+
+    /**
+     * KLog方法名对应的级别取值
+     */
+    private static int kLogType(String name) {
+        switch (name) {
+            case "v":
+                return K_LOG_V;
+            case "d":
+                return K_LOG_V + 1;
+            case "i":
+                return K_LOG_V + 2;
+            case "w":
+                return K_LOG_V + 3;
+            case "e":
+                return K_LOG_V + 4;
+            case "a":
+                return K_LOG_V + 5;
+            default:
+                return K_LOG_JSON;
+        }
+    }
+
+    /**
+     * 与StackTraceElement#getFileName相同，没有调试信息时使用类名
+     */
+    private static String sourceFile(ClassNode classNode) {
+        if (classNode.sourceFile != null) {
+            return classNode.sourceFile;
+        }
+        String name = classNode.name.substring(classNode.name.lastIndexOf('/') + 1);
+        int inner = name.indexOf('$');
+        return (inner > 0 ? name.substring(0, inner) : name) + ".java";
+    }
+
+    /**
+     * 调用之前最近的行号，没有调试信息时为-1
+     */
+    private static int lineNumber(AbstractInsnNode insn) {
+        for (AbstractInsnNode node = insn; node != null; node = node.getPrevious()) {
+            if (node instanceof LineNumberNode) {
+                return ((LineNumberNode) node).line;
+            }
+        }
+        return -1;
+    }
+
+    private static AbstractInsnNode intConstant(int value) {
+        if (value >= -1 && value <= 5) {
+            return new InsnNode(Opcodes.ICONST_0 + value);
+        }
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return new IntInsnNode(Opcodes.BIPUSH, value);
+        }
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return new IntInsnNode(Opcodes.SIPUSH, value);
+        }
+        return new LdcInsnNode(value);
+    }
+
+    /**
+     * 指令对操作数栈的影响
+     *
+     * @return 弹出的大小 << 8 | 压入的大小，按栈的槽位计算(long/double占两个)；不能移除时返回{@link #UNSAFE}
+     */
+    static int stackEffect(AbstractInsnNode insn) {
+        int opcode = insn.getOpcode();
+        if (insn instanceof MethodInsnNode) {
+            MethodInsnNode method = (MethodInsnNode) insn;
+            if (!isStringConcat(method)) {
+                // 其他方法可能有副作用，保留参数的计算
+                return UNSAFE;
+            }
+            int sizes = Type.getArgumentsAndReturnSizes(method.desc);
+            int pops = (sizes >> 2) - (opcode == Opcodes.INVOKESTATIC ? 1 : 0);
+            return effect(pops, sizes & 0x3);
+        }
+        if (insn instanceof InvokeDynamicInsnNode) {
+            InvokeDynamicInsnNode invokeDynamic = (InvokeDynamicInsnNode) insn;
+            if (!STRING_CONCAT_FACTORY.equals(invokeDynamic.bsm.getOwner())
+                    || !"makeConcatWithConstants".equals(invokeDynamic.bsm.getName())) {
+                // lambda等
+                return UNSAFE;
+            }
+            int sizes = Type.getArgumentsAndReturnSizes(invokeDynamic.desc);
+            return effect((sizes >> 2) - 1, sizes & 0x3);
+        }
+        if (insn instanceof FieldInsnNode) {
+            int size = Type.getType(((FieldInsnNode) insn).desc).getSize();
+            if (opcode == Opcodes.GETSTATIC) {
+                return effect(0, size);
+            }
+            if (opcode == Opcodes.GETFIELD) {
+                return effect(1, size);
+            }
+            return UNSAFE;
+        }
+        if (insn instanceof LdcInsnNode) {
+            Object value = ((LdcInsnNode) insn).cst;
+            return effect(0, value instanceof Long || value instanceof Double ? 2 : 1);
+        }
+        if (insn instanceof VarInsnNode) {
+            switch (opcode) {
+                case Opcodes.ILOAD:
+                case Opcodes.FLOAD:
+                case Opcodes.ALOAD:
+                    return effect(0, 1);
+                case Opcodes.LLOAD:
+                case Opcodes.DLOAD:
+                    return effect(0, 2);
+                default:
+                    return UNSAFE;
+            }
+        }
+        if (insn instanceof TypeInsnNode) {
+            return opcode == Opcodes.NEW ? effect(0, 1) : effect(1, 1);
+        }
+        if (insn instanceof IntInsnNode) {
+            return opcode == Opcodes.NEWARRAY ? effect(1, 1) : effect(0, 1);
+        }
+        if (insn instanceof MultiANewArrayInsnNode) {
+            return effect(((MultiANewArrayInsnNode) insn).dims, 1);
+        }
+        if (insn instanceof InsnNode) {
+            return simpleEffect(opcode);
+        }
+        // 跳转、switch、iinc等
+        return UNSAFE;
+    }
+
+    /**
+     * javac拼接字符串生成的调用：StringBuilder的构造、append、toString及String.valueOf
+     */
+    private static boolean isStringConcat(MethodInsnNode method) {
+        if (STRING_BUILDER.equals(method.owner)) {
+            return "<init>".equals(method.name) || "append".equals(method.name) || "toString".equals(method.name);
+        }
+        return "java/lang/String".equals(method.owner) && "valueOf".equals(method.name)
+                && method.getOpcode() == Opcodes.INVOKESTATIC;
+    }
+
+    private static int simpleEffect(int opcode) {
+        switch (opcode) {
+            case Opcodes.NOP:
+                return effect(0, 0);
+            case Opcodes.ACONST_NULL:
+            case Opcodes.ICONST_M1:
+            case Opcodes.ICONST_0:
+            case Opcodes.ICONST_1:
+            case Opcodes.ICONST_2:
+            case Opcodes.ICONST_3:
+            case Opcodes.ICONST_4:
+            case Opcodes.ICONST_5:
+            case Opcodes.FCONST_0:
+            case Opcodes.FCONST_1:
+            case Opcodes.FCONST_2:
+                return effect(0, 1);
+            case Opcodes.LCONST_0:
+            case Opcodes.LCONST_1:
+            case Opcodes.DCONST_0:
+            case Opcodes.DCONST_1:
+                return effect(0, 2);
+            case Opcodes.IALOAD:
+            case Opcodes.FALOAD:
+            case Opcodes.AALOAD:
+            case Opcodes.BALOAD:
+            case Opcodes.CALOAD:
+            case Opcodes.SALOAD:
+                return effect(2, 1);
+            case Opcodes.LALOAD:
+            case Opcodes.DALOAD:
+                return effect(2, 2);
+            case Opcodes.POP:
+                return effect(1, 0);
+            case Opcodes.POP2:
+                return effect(2, 0);
+            case Opcodes.DUP:
+                return effect(1, 2);
+            case Opcodes.DUP_X1:
+                return effect(2, 3);
+            case Opcodes.DUP_X2:
+                return effect(3, 4);
+            case Opcodes.DUP2:
+                return effect(2, 4);
+            case Opcodes.DUP2_X1:
+                return effect(3, 5);
+            case Opcodes.DUP2_X2:
+                return effect(4, 6);
+            case Opcodes.SWAP:
+                return effect(2, 2);
+            case Opcodes.IADD:
+            case Opcodes.ISUB:
+            case Opcodes.IMUL:
+            case Opcodes.IDIV:
+            case Opcodes.IREM:
+            case Opcodes.ISHL:
+            case Opcodes.ISHR:
+            case Opcodes.IUSHR:
+            case Opcodes.IAND:
+            case Opcodes.IOR:
+            case Opcodes.IXOR:
+            case Opcodes.FADD:
+            case Opcodes.FSUB:
+            case Opcodes.FMUL:
+            case Opcodes.FDIV:
+            case Opcodes.FREM:
+            case Opcodes.FCMPL:
+            case Opcodes.FCMPG:
+                return effect(2, 1);
+            case Opcodes.LADD:
+            case Opcodes.LSUB:
+            case Opcodes.LMUL:
+            case Opcodes.LDIV:
+            case Opcodes.LREM:
+            case Opcodes.LAND:
+            case Opcodes.LOR:
+            case Opcodes.LXOR:
+            case Opcodes.DADD:
+            case Opcodes.DSUB:
+            case Opcodes.DMUL:
+            case Opcodes.DDIV:
+            case Opcodes.DREM:
+                return effect(4, 2);
+            case Opcodes.LSHL:
+            case Opcodes.LSHR:
+            case Opcodes.LUSHR:
+                return effect(3, 2);
+            case Opcodes.LCMP:
+            case Opcodes.DCMPL:
+            case Opcodes.DCMPG:
+                return effect(4, 1);
+            case Opcodes.INEG:
+            case Opcodes.FNEG:
+            case Opcodes.I2F:
+            case Opcodes.F2I:
+            case Opcodes.I2B:
+            case Opcodes.I2C:
+            case Opcodes.I2S:
+            case Opcodes.ARRAYLENGTH:
+                return effect(1, 1);
+            case Opcodes.LNEG:
+            case Opcodes.DNEG:
+            case Opcodes.L2D:
+            case Opcodes.D2L:
+                return effect(2, 2);
+            case Opcodes.I2L:
+            case Opcodes.I2D:
+            case Opcodes.F2L:
+            case Opcodes.F2D:
+                return effect(1, 2);
+            case Opcodes.L2I:
+            case Opcodes.L2F:
+            case Opcodes.D2I:
+            case Opcodes.D2F:
+                return effect(2, 1);
+            default:
+                // 数组写入、return、athrow、monitor
+                return UNSAFE;
+        }
+    }
+
+    private static int effect(int pops, int pushes) {
+        return pops << 8 | pushes;
+    }
+}
@@ -0,0 +1,81 @@
+package com.caowj.lib_logs_plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 插件配置
+ * <pre>
+ * logStrip {
+ *     minPriority 'I'            // 低于该级别的调用被移除：V/D/I/W/E/A
+ *     buildTypes 'release'       // 生效的buildType
+ *     bakeLocation true          // 保留的KLog调用在编译时确定调用位置
+ * }
+ * </pre>
+ */
+public class LogStripExtension {
+
+    private String mMinPriority = "I";
+    private List<String> mBuildTypes = new ArrayList<>(Collections.singletonList("release"));
+    private boolean mBakeLocation = true;
+    // 变体名 -> buildType名
+    private final Map<String, String> mVariantBuildTypes = new HashMap<>();
+
+    public String getMinPriority() {
+        return mMinPriority;
+    }
+
+    public void setMinPriority(String minPriority) {
+        // 配置错误时在配置阶段就报错
+        LogCallRewriter.parsePriority(minPriority);
+        mMinPriority = minPriority;
+    }
+
+    public void minPriority(String minPriority) {
+        setMinPriority(minPriority);
+    }
+
+    public List<String> getBuildTypes() {
+        return mBuildTypes;
+    }
+
+    public void setBuildTypes(List<String> buildTypes) {
+        mBuildTypes = new ArrayList<>(buildTypes);
+    }
+
+    public void buildTypes(String... buildTypes) {
+        mBuildTypes = new ArrayList<>();
+        Collections.addAll(mBuildTypes, buildTypes);
+    }
+
+    public boolean isBakeLocation() {
+        return mBakeLocation;
+    }
+
+    public void setBakeLocation(boolean bakeLocation) {
+        mBakeLocation = bakeLocation;
+    }
+
+    public void bakeLocation(boolean bakeLocation) {
+        mBakeLocation = bakeLocation;
+    }
+
+    /**
+     * 记录变体使用的buildType，在插件中遍历变体时调用
+     */
+    void putVariant(String variantName, String buildType) {
+        mVariantBuildTypes.put(variantName, buildType);
+    }
+
+    /**
+     * 变体是否使用了生效的buildType，变体名如freeRelease；按buildType名精确匹配，
+     * 不按变体名后缀判断，避免如配置了release时preRelease也生效
+     */
+    boolean isEnabled(String variantName) {
+        String buildType = mVariantBuildTypes.get(variantName);
+        return buildType != null && mBuildTypes.contains(buildType);
+    }
+}
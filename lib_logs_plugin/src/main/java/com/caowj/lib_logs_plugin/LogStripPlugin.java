@@ -0,0 +1,61 @@
+package com.caowj.lib_logs_plugin;
+
+import com.android.build.api.transform.QualifiedContent;
+import com.android.build.gradle.AppExtension;
+import com.android.build.gradle.BaseExtension;
+import com.android.build.gradle.LibraryExtension;
+import com.android.build.gradle.TestedExtension;
+import com.android.build.gradle.api.BaseVariant;
+
+import org.gradle.api.Action;
+import org.gradle.api.GradleException;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * 编译时移除低级别的LegoLog/KLog调用，在com.android.application或com.android.library之后应用：
+ * <pre>
+ * apply plugin: 'com.caowj.log-strip'
+ * </pre>
+ * 应用模块处理本模块及依赖的子模块，库模块只处理本模块；第三方库中的调用不处理。
+ *
+ * @see LogStripExtension
+ * @see LogCallRewriter
+ */
+public class LogStripPlugin implements Plugin<Project> {
+
+    @Override
+    public void apply(Project project) {
+        final LogStripExtension extension = project.getExtensions().create("logStrip", LogStripExtension.class);
+        BaseExtension android = project.getExtensions().findByType(BaseExtension.class);
+        if (android == null) {
+            throw new GradleException("com.caowj.log-strip需要在com.android.application或com.android.library之后应用");
+        }
+        Set<QualifiedContent.Scope> scopes;
+        if (android instanceof AppExtension) {
+            scopes = EnumSet.of(QualifiedContent.Scope.PROJECT, QualifiedContent.Scope.SUB_PROJECTS);
+        } else {
+            // 库模块只能处理本模块的类
+            scopes = EnumSet.of(QualifiedContent.Scope.PROJECT);
+        }
+        // Transform中只能拿到变体名，先记下每个变体的buildType
+        Action<BaseVariant> variants = new Action<BaseVariant>() {
+            @Override
+            public void execute(BaseVariant variant) {
+                extension.putVariant(variant.getName(), variant.getBuildType().getName());
+            }
+        };
+        if (android instanceof AppExtension) {
+            ((AppExtension) android).getApplicationVariants().all(variants);
+        } else if (android instanceof LibraryExtension) {
+            ((LibraryExtension) android).getLibraryVariants().all(variants);
+        }
+        if (android instanceof TestedExtension) {
+            ((TestedExtension) android).getTestVariants().all(variants);
+        }
+        android.registerTransform(new LogStripTransform(project.getLogger(), extension, scopes));
+    }
+}
@@ -0,0 +1,161 @@
+package com.caowj.lib_logs_plugin;
+
+import com.android.build.api.transform.DirectoryInput;
+import com.android.build.api.transform.Format;
+import com.android.build.api.transform.JarInput;
+import com.android.build.api.transform.QualifiedContent;
+import com.android.build.api.transform.Transform;
+import com.android.build.api.transform.TransformException;
+import com.android.build.api.transform.TransformInput;
+import com.android.build.api.transform.TransformInvocation;
+import com.android.build.api.transform.TransformOutputProvider;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 逐个改写class文件，目录和jar分别原样输出到对应位置；不生效的变体直接复制
+ */
+class LogStripTransform extends Transform {
+
+    private final Logger mLogger;
+    private final LogStripExtension mExtension;
+    private final Set<QualifiedContent.Scope> mScopes;
+
+    LogStripTransform(Logger logger, LogStripExtension extension, Set<QualifiedContent.Scope> scopes) {
+        mLogger = logger;
+        mExtension = extension;
+        mScopes = scopes;
+    }
+
+    @Override
+    public String getName() {
+        return "logStrip";
+    }
+
+    @Override
+    public Set<QualifiedContent.ContentType> getInputTypes() {
+        return Collections.<QualifiedContent.ContentType>singleton(QualifiedContent.DefaultContentType.CLASSES);
+    }
+
+    @Override
+    public Set<? super QualifiedContent.Scope> getScopes() {
+        return mScopes;
+    }
+
+    @Override
+    public boolean isIncremental() {
+        return false;
+    }
+
+    @Override
+    public void transform(TransformInvocation invocation) throws TransformException, InterruptedException, IOException {
+        TransformOutputProvider outputProvider = invocation.getOutputProvider();
+        outputProvider.deleteAll();
+        String variantName = invocation.getContext().getVariantName();
+        LogCallRewriter rewriter = null;
+        if (mExtension.isEnabled(variantName)) {
+            rewriter = new LogCallRewriter(LogCallRewriter.parsePriority(mExtension.getMinPriority()),
+                    mExtension.isBakeLocation());
+        }
+        for (TransformInput input : invocation.getInputs()) {
+            for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
+                File dest = outputProvider.getContentLocation(directoryInput.getName(),
+                        directoryInput.getContentTypes(), directoryInput.getScopes(), Format.DIRECTORY);
+                transformDirectory(rewriter, directoryInput.getFile(), dest);
+            }
+            for (JarInput jarInput : input.getJarInputs()) {
+                File dest = outputProvider.getContentLocation(jarInput.getName(),
+                        jarInput.getContentTypes(), jarInput.getScopes(), Format.JAR);
+                transformJar(rewriter, jarInput.getFile(), dest);
+            }
+        }
+        if (rewriter != null) {
+            mLogger.lifecycle("logStrip[" + variantName + "]: removed " + rewriter.mRemoved
+                    + ", arguments kept " + rewriter.mPopped + ", located " + rewriter.mLocated);
+        }
+    }
+
+    private void transformDirectory(LogCallRewriter rewriter, File source, File dest) throws IOException {
+        File[] files = source.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (!dest.exists() && !dest.mkdirs()) {
+            throw new IOException(dest + "创建失败");
+        }
+        for (File file : files) {
+            File target = new File(dest, file.getName());
+            if (file.isDirectory()) {
+                transformDirectory(rewriter, file, target);
+                continue;
+            }
+            byte[] bytes = readFully(new FileInputStream(file));
+            OutputStream outputStream = new FileOutputStream(target);
+            try {
+                outputStream.write(rewrite(rewriter, file.getName(), bytes));
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+
+    private void transformJar(LogCallRewriter rewriter, File source, File dest) throws IOException {
+        File parent = dest.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException(parent + "创建失败");
+        }
+        ZipFile zipFile = new ZipFile(source);
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(dest));
+        try {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                outputStream.putNextEntry(new ZipEntry(entry.getName()));
+                if (!entry.isDirectory()) {
+                    byte[] bytes = readFully(zipFile.getInputStream(entry));
+                    outputStream.write(rewrite(rewriter, entry.getName(), bytes));
+                }
+                outputStream.closeEntry();
+            }
+        } finally {
+            outputStream.close();
+            zipFile.close();
+        }
+    }
+
+    private static byte[] rewrite(LogCallRewriter rewriter, String name, byte[] bytes) {
+        if (rewriter == null || !name.endsWith(".class")) {
+            return bytes;
+        }
+        byte[] rewritten = rewriter.rewrite(bytes);
+        return rewritten != null ? rewritten : bytes;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.caowj.lib_logs_plugin;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.util.CheckClassAdapter;
+import org.objectweb.asm.util.TraceClassVisitor;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 用ASM生成调用LegoLog/KLog的类，改写后校验字节码并加载运行：
+ * LegoLog/KLog是生成的桩类，只有logAt方法，每次调用把描述符和调用位置记录到{@link #CALLS}，
+ * 被移除的调用如果还在，运行时会找不到方法
+ */
+public class LogCallRewriterTest {
+
+    private static final String SAMPLE = "com/caowj/sample/Sample";
+    private static final String SAMPLE_FILE = "Sample.java";
+    private static final String TEST = "com/caowj/lib_logs_plugin/LogCallRewriterTest";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String STRING = "Ljava/lang/String;";
+    private static final String LOCATION = "I" + STRING + STRING + "I";
+
+    // 桩类中被调用的方法，生成的类在另一个ClassLoader中，通过父加载器访问
+    public static final List<String> CALLS = new ArrayList<>();
+    public static int sSideEffects;
+
+    /**
+     * 有副作用的参数
+     */
+    public static String sideEffect() {
+        sSideEffects++;
+        return "side effect";
+    }
+
+    private interface Body {
+        void write(MethodVisitor mv);
+    }
+
+    @Before
+    public void setUp() {
+        CALLS.clear();
+        sSideEffects = 0;
+    }
+
+    @Test
+    public void stripConcatenatedArgument() throws Exception {
+        // KLog.d("count: " + count);
+        byte[] sample = sample(new Body() {
+            @Override
+            public void write(MethodVisitor mv) {
+                mv.visitInsn(Opcodes.ICONST_3);
+                mv.visitVarInsn(Opcodes.ISTORE, 0);
+                mv.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
+                mv.visitInsn(Opcodes.DUP);
+                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+                mv.visitLdcInsn("count: ");
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                        "(" + STRING + ")Ljava/lang/StringBuilder;", false);
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                        "(I)Ljava/lang/StringBuilder;", false);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString",
+                        "()" + STRING, false);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, LogCallRewriter.K_LOG, "d", "(" + OBJECT + ")V", false);
+            }
+        });
+        LogCallRewriter rewriter = new LogCallRewriter(LogCallRewriter.INFO, true);
+        byte[] rewritten = rewriter.rewrite(sample);
+        assertNotNull(rewritten);
+        assertEquals(1, rewriter.mRemoved);
+        assertEquals(0, rewriter.mPopped);
+        // 拼接字符串的指令一起移除
+        String text = disassemble(rewritten);
+        assertFalse(text, text.contains("StringBuilder"));
+        assertFalse(text, text.contains(LogCallRewriter.K_LOG));
+
+        run(rewritten);
+        assertEquals(Arrays.<String>asList(), CALLS);
+    }
+
+    @Test
+    public void popSideEffectArgument() throws Exception {
+        // KLog.d(sideEffect());
+        byte[] sample = sample(new Body() {
+            @Override
+            public void write(MethodVisitor mv) {
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, TEST, "sideEffect", "()" + STRING, false);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, LogCallRewriter.K_LOG, "d", "(" + OBJECT + ")V", false);
+            }
+        });
+        LogCallRewriter rewriter = new LogCallRewriter(LogCallRewriter.INFO, true);
+        byte[] rewritten = rewriter.rewrite(sample);
+        assertEquals(0, rewriter.mRemoved);
+        assertEquals(1, rewriter.mPopped);
+
+        // 参数照常计算，只是不再调用
+        run(rewritten);
+        assertEquals(1, sSideEffects);
+        assertEquals(Arrays.<String>asList(), CALLS);
+    }
+
+    @Test
+    public void keepRecordLog() throws Exception {
+        // LegoLog.d("tag", "message", true);
+        byte[] sample = sample(new Body() {
+            @Override
+            public void write(MethodVisitor mv) {
+                mv.visitLdcInsn("tag");
+                mv.visitLdcInsn("message");
+                mv.visitInsn(Opcodes.ICONST_1);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, LogCallRewriter.LEGO_LOG, "d",
+                        "(" + STRING + OBJECT + "Z)V", false);
+            }
+        });
+        LogCallRewriter rewriter = new LogCallRewriter(LogCallRewriter.ASSERT, true);
+        // 需要写入文件，不论级别都保留
+        assertNull(rewriter.rewrite(sample));
+    }
+
+    @Test
+    public void stripInsideTryBlock() throws Exception {
+        // try { sSideEffects++; KLog.d("in try"); } catch (RuntimeException e) { }
+        byte[] sample = sample(new Body() {
+            @Override
+            public void write(MethodVisitor mv) {
+                Label start = new Label();
+                Label end = new Label();
+                Label handler = new Label();
+                Label done = new Label();
+                mv.visitTryCatchBlock(start, end, handler, "java/lang/RuntimeException");
+                mv.visitLabel(start);
+                mv.visitFieldInsn(Opcodes.GETSTATIC, TEST, "sSideEffects", "I");
+                mv.visitInsn(Opcodes.ICONST_1);
+                mv.visitInsn(Opcodes.IADD);
+                mv.visitFieldInsn(Opcodes.PUTSTATIC, TEST, "sSideEffects", "I");
+                mv.visitLdcInsn("in try");
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, LogCallRewriter.K_LOG, "d", "(" + OBJECT + ")V", false);
+                mv.visitLabel(end);
+                mv.visitJumpInsn(Opcodes.GOTO, done);
+                mv.visitLabel(handler);
+                mv.visitVarInsn(Opcodes.ASTORE, 0);
+                mv.visitLabel(done);
+            }
+        });
+        LogCallRewriter rewriter = new LogCallRewriter(LogCallRewriter.INFO, true);
+        byte[] rewritten = rewriter.rewrite(sample);
+        assertEquals(1, rewriter.mRemoved);
+
+        run(rewritten);
+        assertEquals(1, sSideEffects);
+        assertEquals(Arrays.<String>asList(), CALLS);
+    }
+
+    @Test
+    public void popOnlyCallInTryBlock() throws Exception {
+        // try { KLog.d("in try"); } catch (RuntimeException e) { }
+        byte[] sample = sample(new Body() {
+            @Override
+            public void write(MethodVisitor mv) {
+                Label start = new Label();
+                Label end = new Label();
+                Label handler = new Label();
+                Label done = new Label();
+                mv.visitTryCatchBlock(start, end, handler, "java/lang/RuntimeException");
+                mv.visitLabel(start);
+                mv.visitLdcInsn("in try");
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, LogCallRewriter.K_LOG, "d", "(" + OBJECT + ")V", false);
+                mv.visitLabel(end);
+                mv.visitJumpInsn(Opcodes.GOTO, done);
+                mv.visitLabel(handler);
+                mv.visitVarInsn(Opcodes.ASTORE, 0);
+                mv.visitLabel(done);
+            }
+        });
+        LogCallRewriter rewriter = new LogCallRewriter(LogCallRewriter.INFO, true);
+        byte[] rewritten = rewriter.rewrite(sample);
+        // 整段移除后try块为空，只把调用换成弹出参数
+        assertEquals(0, rewriter.mRemoved);
+        assertEquals(1, rewriter.mPopped);
+
+        run(rewritten);
+        assertEquals(Arrays.<String>asList(), CALLS);
+    }
+
+    @Test
+    public void bakeLocation() throws Exception {
+        final String[][] calls = {
+                {"i", "()V"},
+                {"i", "(" + OBJECT + ")V"},
+                {"json", "(" + STRING + ")V"},
+                {"w", "(" + STRING + OBJECT + ")V"},
+                {"v", "(" + STRING + STRING + ")V"},
+        };
+        byte[] sample = sample(new Body() {
+            @Override
+            public void write(MethodVisitor mv) {
+                for (int i = 0; i < calls.length; i++) {
+                    Label line = new Label();
+                    mv.visitLabel(line);
+                    mv.visitLineNumber(10 + i, line);
+                    int arguments = Type.getArgumentTypes(calls[i][1]).length;
+                    if (arguments == 2) {
+                        mv.visitLdcInsn("tag");
+                    }
+                    if (arguments > 0) {
+                        mv.visitLdcInsn("message");
+                    }
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, LogCallRewriter.K_LOG, calls[i][0], calls[i][1], false);
+                }
+            }
+        });
+        LogCallRewriter rewriter = new LogCallRewriter(LogCallRewriter.VERBOSE, true);
+        byte[] rewritten = rewriter.rewrite(sample);
+        assertEquals(0, rewriter.mRemoved);
+        assertEquals(calls.length, rewriter.mLocated);
+
+        run(rewritten);
+        assertEquals(Arrays.asList(
+                "logAt(" + LOCATION + ")V 3 " + SAMPLE_FILE + " run 10",
+                "logAt(" + OBJECT + LOCATION + ")V 3 " + SAMPLE_FILE + " run 11",
+                "logAt(" + OBJECT + LOCATION + ")V 7 " + SAMPLE_FILE + " run 12",
+                "logAt(" + STRING + OBJECT + LOCATION + ")V 4 " + SAMPLE_FILE + " run 13",
+                "logAt(" + STRING + OBJECT + LOCATION + ")V 1 " + SAMPLE_FILE + " run 14"), CALLS);
+    }
+
+    @Test
+    public void bakeLocationDisabled() throws Exception {
+        byte[] sample = sample(new Body() {
+            @Override
+            public void write(MethodVisitor mv) {
+                mv.visitLdcInsn("message");
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, LogCallRewriter.K_LOG, "i", "(" + OBJECT + ")V", false);
+            }
+        });
+        assertNull(new LogCallRewriter(LogCallRewriter.INFO, false).rewrite(sample));
+    }
+
+    /**
+     * 生成类SAMPLE，静态方法run()的方法体由body写入
+     */
+    private static byte[] sample(Body body) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, SAMPLE, null, "java/lang/Object", null);
+        cw.visitSource(SAMPLE_FILE, null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "()V", null, null);
+        mv.visitCode();
+        body.write(mv);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * 生成LegoLog/KLog的桩类，只有改写后会调用的logAt
+     */
+    private static byte[] stub(String name) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        String[] descs = {
+                "(" + LOCATION + ")V",
+                "(" + OBJECT + LOCATION + ")V",
+                "(" + STRING + OBJECT + LOCATION + ")V",
+        };
+        for (String desc : descs) {
+            // 调用位置是最后4个参数
+            int local = Type.getArgumentTypes(desc).length - 4;
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "logAt", desc, null, null);
+            mv.visitCode();
+            mv.visitFieldInsn(Opcodes.GETSTATIC, TEST, "CALLS", "Ljava/util/List;");
+            mv.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitLdcInsn("logAt" + desc + " ");
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(" + STRING + ")V", false);
+            append(mv, Opcodes.ILOAD, local, "I", true);
+            append(mv, Opcodes.ALOAD, local + 1, STRING, true);
+            append(mv, Opcodes.ALOAD, local + 2, STRING, true);
+            append(mv, Opcodes.ILOAD, local + 3, "I", false);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()" + STRING, false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/List", "add", "(" + OBJECT + ")Z", true);
+            mv.visitInsn(Opcodes.POP);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void append(MethodVisitor mv, int load, int local, String type, boolean space) {
+        mv.visitVarInsn(load, local);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                "(" + type + ")Ljava/lang/StringBuilder;", false);
+        if (space) {
+            mv.visitLdcInsn(" ");
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                    "(" + STRING + ")Ljava/lang/StringBuilder;", false);
+        }
+    }
+
+    /**
+     * 校验改写后的字节码(栈大小、栈帧、类型)，再和桩类一起加载并运行run()
+     */
+    private static void run(byte[] rewritten) throws Exception {
+        assertNotNull(rewritten);
+        StringWriter errors = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(rewritten), LogCallRewriterTest.class.getClassLoader(),
+                false, new PrintWriter(errors));
+        assertEquals("", errors.toString());
+
+        final Map<String, byte[]> classes = new HashMap<>();
+        classes.put(SAMPLE.replace('/', '.'), rewritten);
+        classes.put(LogCallRewriter.K_LOG.replace('/', '.'), stub(LogCallRewriter.K_LOG));
+        classes.put(LogCallRewriter.LEGO_LOG.replace('/', '.'), stub(LogCallRewriter.LEGO_LOG));
+        ClassLoader loader = new ClassLoader(LogCallRewriterTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytes = classes.get(name);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        try {
+            loader.loadClass(SAMPLE.replace('/', '.')).getMethod("run").invoke(null);
+        } catch (InvocationTargetException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    private static String disassemble(byte[] classBytes) {
+        StringWriter text = new StringWriter();
+        new ClassReader(classBytes).accept(new TraceClassVisitor(new PrintWriter(text)), 0);
+        return text.toString();
+    }
+}
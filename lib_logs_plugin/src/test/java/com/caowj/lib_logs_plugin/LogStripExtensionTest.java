@@ -0,0 +1,33 @@
+package com.caowj.lib_logs_plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按变体的buildType名精确匹配
+ */
+public class LogStripExtensionTest {
+
+    @Test
+    public void matchBuildType() {
+        LogStripExtension extension = new LogStripExtension();
+        extension.putVariant("release", "release");
+        extension.putVariant("freeRelease", "release");
+        extension.putVariant("preRelease", "preRelease");
+        extension.putVariant("freeDebug", "debug");
+
+        assertTrue(extension.isEnabled("release"));
+        assertTrue(extension.isEnabled("freeRelease"));
+        // 变体名以release结尾，但buildType不是release
+        assertFalse(extension.isEnabled("preRelease"));
+        assertFalse(extension.isEnabled("freeDebug"));
+        // 未知的变体不处理
+        assertFalse(extension.isEnabled("unknownRelease"));
+
+        extension.buildTypes("preRelease");
+        assertTrue(extension.isEnabled("preRelease"));
+        assertFalse(extension.isEnabled("release"));
+    }
+}
@@ -5,6 +5,7 @@ import android.util.Log;
 
 
 import com.caowj.lib_network.util.TextUtil;
+import com.caowj.lib_utils.JsonPrettyPrinter;
 
 import java.util.List;
 
@@ -40,6 +41,13 @@ public class DefaultHttpLogPrinter implements HttpLogPrinter {
     private static final String CENTER_LINE = "├ ";
     private static final String DEFAULT_LINE = "│ ";
     private static final String[] ARMS = new String[]{"-A-", "-R-", "-M-", "-S-"};
+    private static final String[] BODY_LINES = {"", BODY_TAG};
+    // 每行日志的最大长度，超过则自动换行
+    private static final int MAX_LINE_SIZE = 110;
+    // 格式化json时每块的大小
+    private static final int JSON_CHUNK_SIZE = 4 * 1024;
+    // 格式化后json最多输出的字符数，超过时截断
+    private static final int JSON_MAX_LENGTH = 256 * 1024;
     // 是否记录到文件
     public static boolean IS_RECORD = true;
     private static ThreadLocal<Integer> last = new ThreadLocal<Integer>() {
@@ -128,13 +136,23 @@ public class DefaultHttpLogPrinter implements HttpLogPrinter {
      */
     @Override
     public void printJsonRequest(Request request, String bodyString) {
-        final String requestBody = LINE_SEPARATOR + BODY_TAG + LINE_SEPARATOR + bodyString;
+        printRawJsonRequest(request, bodyString);
+    }
+
+    /**
+     * 打印网络请求信息,  {{@link okhttp3.RequestBody}} 可以解析的情况，请求体在打印时逐块格式化
+     *
+     * @param request
+     * @param rawBody
+     */
+    @Override
+    public void printRawJsonRequest(Request request, String rawBody) {
         final String tag = getTag(true);
 
         Log.d(tag, REQUEST_UP_LINE);
         logLines(tag, new String[]{URL_TAG + request.url()}, false);
         logLines(tag, getRequest(request), true);
-        logLines(tag, requestBody.split(LINE_SEPARATOR), true);
+        logBody(tag, rawBody, true);
         Log.d(tag, END_LINE);
     }
 
@@ -170,17 +188,17 @@ public class DefaultHttpLogPrinter implements HttpLogPrinter {
     @Override
     public void printJsonResponse(long chainMs, boolean isSuccessful, int code, String headers, MediaType contentType,
                                   String bodyString, List<String> segments, String message, final String responseUrl) {
-        bodyString = HttpContentTypeUtil.isJson(contentType) ? TextUtil.jsonFormat(bodyString)
-                : HttpContentTypeUtil.isXml(contentType) ? TextUtil.xmlFormat(bodyString) : bodyString;
-
-        final String responseBody = LINE_SEPARATOR + BODY_TAG + LINE_SEPARATOR + bodyString;
         final String tag = getTag(false);
         final String[] urlLine = {URL_TAG + responseUrl, N};
 
         Log.d(tag, RESPONSE_UP_LINE);
         logLines(tag, urlLine, true);
         logLines(tag, getResponse(headers, chainMs, code, isSuccessful, segments, message), true);
-        logLines(tag, responseBody.split(LINE_SEPARATOR), true);
+        if (HttpContentTypeUtil.isJson(contentType)) {
+            logBody(tag, bodyString, true);
+        } else {
+            logBody(tag, HttpContentTypeUtil.isXml(contentType) ? TextUtil.xmlFormat(bodyString) : bodyString, false);
+        }
         Log.d(tag, END_LINE);
     }
 
@@ -214,6 +232,70 @@ public class DefaultHttpLogPrinter implements HttpLogPrinter {
         Log.e(tag, "Http Error：", e);
     }
 
+    /**
+     * 打印请求体或响应体，json边格式化边逐行打印，不生成格式化后的完整字符串
+     *
+     * @param json 为 {@code true} 时按json格式化，不是json时只打印一次原内容
+     */
+    private void logBody(String tag, String body, boolean json) {
+        logLines(tag, BODY_LINES, true);
+        if (json) {
+            if (TextUtils.isEmpty(body)) {
+                logLines(tag, new String[]{"Empty/Null json content"}, true);
+                return;
+            }
+            LineSink sink = new LineSink(tag);
+            int result = new JsonPrettyPrinter(4)
+                    .chunkSize(JSON_CHUNK_SIZE)
+                    .maxLength(JSON_MAX_LENGTH)
+                    .print(body, sink);
+            sink.end();
+            if (result != JsonPrettyPrinter.RESULT_INVALID) {
+                return;
+            }
+            // 不是json时格式化之前就已返回，没有输出任何内容
+        }
+        logLines(tag, body.split(LINE_SEPARATOR), true);
+    }
+
+    /**
+     * 把格式化后的json块按行打印，每行最长{@link #MAX_LINE_SIZE}
+     */
+    private class LineSink implements JsonPrettyPrinter.Sink {
+        private final String mTag;
+        private final StringBuilder mLine = new StringBuilder(MAX_LINE_SIZE);
+
+        LineSink(String tag) {
+            mTag = tag;
+        }
+
+        @Override
+        public void onChunk(CharSequence chunk) {
+            for (int i = 0, length = chunk.length(); i < length; i++) {
+                char c = chunk.charAt(i);
+                if (c == '\n') {
+                    printLine();
+                    continue;
+                }
+                mLine.append(c);
+                if (mLine.length() >= MAX_LINE_SIZE) {
+                    printLine();
+                }
+            }
+        }
+
+        void end() {
+            if (mLine.length() > 0) {
+                printLine();
+            }
+        }
+
+        private void printLine() {
+            Log.d(resolveTag(mTag), DEFAULT_LINE + mLine);
+            mLine.setLength(0);
+        }
+    }
+
     /**
      * 对 {@code lines} 中的信息进行逐行打印
      *
@@ -224,7 +306,7 @@ public class DefaultHttpLogPrinter implements HttpLogPrinter {
     private void logLines(String tag, String[] lines, boolean withLineSize) {
         for (String line : lines) {
             int lineLength = line.length();
-            int MAX_LONG_SIZE = withLineSize ? 110 : lineLength;
+            int MAX_LONG_SIZE = withLineSize ? MAX_LINE_SIZE : lineLength;
             for (int i = 0; i <= lineLength / MAX_LONG_SIZE; i++) {
                 int start = i * MAX_LONG_SIZE;
                 int end = (i + 1) * MAX_LONG_SIZE;
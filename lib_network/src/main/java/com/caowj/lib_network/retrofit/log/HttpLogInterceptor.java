@@ -57,6 +57,17 @@ public class HttpLogInterceptor implements Interceptor {
      * @throws UnsupportedEncodingException
      */
     public static String parseParams(Request request) throws UnsupportedEncodingException {
+        return TextUtil.jsonFormat(parseRawParams(request));
+    }
+
+    /**
+     * 解析请求服务器的请求参数，不做格式化，由{@link HttpLogPrinter#printRawJsonRequest(Request, String)}打印时格式化
+     *
+     * @param request {@link okhttp3.Request}
+     * @return 解析后未格式化的请求信息
+     * @throws UnsupportedEncodingException
+     */
+    public static String parseRawParams(Request request) throws UnsupportedEncodingException {
         try {
             RequestBody body = request.newBuilder().build().body();
             if (body == null) return "";
@@ -74,7 +85,7 @@ public class HttpLogInterceptor implements Interceptor {
                 text = URLDecoder.decode(text, convertCharset(charset));
             }
 
-            return TextUtil.jsonFormat(text);
+            return text;
         } catch (IOException e) {
             e.printStackTrace();
             return "{\"error\": \"" + e.getMessage() + "\"}";
@@ -167,7 +178,7 @@ public class HttpLogInterceptor implements Interceptor {
 
     private void printRequest(Request request) throws IOException {
         if (request.body() != null && HttpContentTypeUtil.isParseable(request.body().contentType())) {
-            mPrinter.printJsonRequest(request, parseParams(request));
+            mPrinter.printRawJsonRequest(request, parseRawParams(request));
         } else {
             mPrinter.printFileRequest(request);
         }
@@ -1,5 +1,7 @@
 package com.caowj.lib_network.retrofit.log;
 
+import com.caowj.lib_network.util.TextUtil;
+
 import java.util.List;
 
 import okhttp3.MediaType;
@@ -19,6 +21,18 @@ public interface HttpLogPrinter {
      */
     void printJsonRequest(Request request, String bodyString);
 
+    /**
+     * 打印网络请求信息 , {{@link okhttp3.RequestBody}} 可以解析的情况；{@link HttpLogInterceptor}调用此方法
+     * <p>
+     * 默认格式化后调用{@link #printJsonRequest(Request, String)}，可以重写以便在打印时再格式化，不生成格式化后的完整字符串
+     *
+     * @param request {{@link okhttp3.Request}}
+     * @param rawBody 发送给服务器的请求体中的数据(未格式化)
+     */
+    default void printRawJsonRequest(Request request, String rawBody) {
+        printJsonRequest(request, TextUtil.jsonFormat(rawBody));
+    }
+
 
     /**
      * 打印网络请求信息, {{@link okhttp3.RequestBody}} 不可以解析的情况 或者为 null
@@ -4,9 +4,7 @@ import android.text.InputFilter;
 import android.text.Spanned;
 import android.text.TextUtils;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.caowj.lib_utils.JsonPrettyPrinter;
 
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -71,6 +69,9 @@ public class TextUtil {
         return sb.toString().trim();
     }
 
+    // 格式化后json最多的字符数，超过时截断
+    private static final int JSON_MAX_LENGTH = 256 * 1024;
+
     /**
      * json 格式化
      *
@@ -81,22 +82,8 @@ public class TextUtil {
         if (TextUtils.isEmpty(json)) {
             return "Empty/Null json content";
         }
-        String message;
-        try {
-            json = json.trim();
-            if (json.startsWith("{")) {
-                JSONObject jsonObject = new JSONObject(json);
-                message = jsonObject.toString(4);
-            } else if (json.startsWith("[")) {
-                JSONArray jsonArray = new JSONArray(json);
-                message = jsonArray.toString(4);
-            } else {
-                message = json;
-            }
-        } catch (JSONException e) {
-            message = json;
-        }
-        return message;
+        // 逐字符格式化，不解析成JSONObject，不是json时返回原内容
+        return new JsonPrettyPrinter(4).maxLength(JSON_MAX_LENGTH).format(json);
     }
 
     /**
@@ -0,0 +1,393 @@
+package com.caowj.lib_utils;
+
+import java.nio.CharBuffer;
+
+/**
+ * JSON格式化(缩进换行)，逐个字符扫描一遍，不解析成JSONObject/JSONArray
+ * <p>
+ * 字符串中的\\uXXXX转义解码为对应的字符(与原来经过org.json格式化的结果一致，中文可以直接阅读)，
+ * 控制字符、引号、反斜杠和不成对的代理字符保留转义，其他内容原样输出；
+ * 字符串之外的空白去掉后重新缩进；输出之前先扫描一遍，检查括号是否匹配、字符串是否结束，
+ * 不校验其他语法，不是JSON时不输出任何内容。输出按固定大小分块交给{@link Sink}，块在换行处优先切分，
+ * 内存占用与JSON的大小无关；超过最大长度后截断。
+ * <pre>
+ * new JsonPrettyPrinter(4).linePrefix("║ ").chunkSize(3200).maxLength(64 * 1024).print(json, sink);
+ * String text = new JsonPrettyPrinter(4).format(json);
+ * </pre>
+ */
+public class JsonPrettyPrinter {
+
+    /**
+     * 完整输出
+     */
+    public static final int RESULT_OK = 0;
+    /**
+     * 超过最大长度，后面的部分没有输出
+     */
+    public static final int RESULT_TRUNCATED = 1;
+    /**
+     * 不是JSON(不以{或[开头，括号不匹配或字符串没有结束)，没有输出任何内容
+     */
+    public static final int RESULT_INVALID = 2;
+
+    // 默认每块的大小
+    static final int CHUNK_SIZE_DEFAULT = 4 * 1024;
+    // 嵌套层数超过时不再增加缩进，防止异常数据导致缩进过长；也是检查括号类型的最大层数
+    private static final int MAX_INDENT_DEPTH = 64;
+    private static final String TRUNCATED_FORMAT = "...(已截断，原文共%d个字符)";
+
+    /**
+     * 接收格式化后的内容
+     */
+    public interface Sink {
+        /**
+         * @param chunk 一块内容，只在回调中有效，需要保留时调用toString()
+         */
+        void onChunk(CharSequence chunk);
+    }
+
+    private final int mIndent;
+    private String mLinePrefix = "";
+    private int mChunkSize = CHUNK_SIZE_DEFAULT;
+    private int mMaxLength = Integer.MAX_VALUE;
+
+    // 以下在print()中使用
+    private char[] mBuffer;
+    private int mPosition;
+    private int mLength;
+    private int mLimit;
+    private Sink mSink;
+
+    /**
+     * @param indent 每层缩进的空格数
+     */
+    public JsonPrettyPrinter(int indent) {
+        mIndent = indent;
+    }
+
+    /**
+     * 每行开头添加的内容，如"║ "
+     */
+    public JsonPrettyPrinter linePrefix(String linePrefix) {
+        mLinePrefix = linePrefix == null ? "" : linePrefix;
+        return this;
+    }
+
+    /**
+     * 每块的大小(字符数)，默认{@link #CHUNK_SIZE_DEFAULT}
+     */
+    public JsonPrettyPrinter chunkSize(int chunkSize) {
+        mChunkSize = Math.max(64, chunkSize);
+        return this;
+    }
+
+    /**
+     * 最多输出的字符数，超过时截断并在末尾注明；默认不限制
+     */
+    public JsonPrettyPrinter maxLength(int maxLength) {
+        mMaxLength = maxLength;
+        return this;
+    }
+
+    /**
+     * 格式化为字符串，不是JSON时返回原内容(去掉首尾空白)
+     */
+    public String format(String json) {
+        final StringBuilder builder = new StringBuilder(Math.min(json.length() * 2, mMaxLength == Integer.MAX_VALUE
+                ? json.length() * 2 : mMaxLength + 64));
+        int result = print(json, new Sink() {
+            @Override
+            public void onChunk(CharSequence chunk) {
+                builder.append(chunk);
+            }
+        });
+        return result == RESULT_INVALID ? json.trim() : builder.toString();
+    }
+
+    /**
+     * 格式化并分块输出，同一实例不能在多个线程中同时使用
+     *
+     * @return {@link #RESULT_OK}、{@link #RESULT_TRUNCATED}或{@link #RESULT_INVALID}
+     */
+    public int print(CharSequence json, Sink sink) {
+        int start = 0;
+        int end = json.length();
+        while (start < end && Character.isWhitespace(json.charAt(start))) {
+            start++;
+        }
+        if (start == end || !isValid(json, start, end)) {
+            return RESULT_INVALID;
+        }
+        if (mBuffer == null || mBuffer.length != mChunkSize) {
+            mBuffer = new char[mChunkSize];
+        }
+        mPosition = 0;
+        mLength = 0;
+        mLimit = mMaxLength;
+        mSink = sink;
+        try {
+            int result = scan(json, start, end);
+            if (result == RESULT_TRUNCATED) {
+                mLimit = Integer.MAX_VALUE;
+                writeString(String.format(TRUNCATED_FORMAT, json.length()));
+            }
+            flush();
+            return result;
+        } finally {
+            mSink = null;
+        }
+    }
+
+    /**
+     * 检查结构：以{或[开头，括号成对且类型匹配，字符串都已结束，根之后没有其他内容
+     */
+    private static boolean isValid(CharSequence json, int start, int end) {
+        char first = json.charAt(start);
+        if (first != '{' && first != '[') {
+            return false;
+        }
+        // 用位数组记录每层是对象还是数组，超过64层时只检查数量
+        long objectBits = 0;
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        for (int i = start; i < end; i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            if (depth == 0 && i > start && !Character.isWhitespace(c)) {
+                // 根之后还有内容
+                return false;
+            }
+            switch (c) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    if (depth < MAX_INDENT_DEPTH) {
+                        objectBits = c == '{' ? objectBits | (1L << depth) : objectBits & ~(1L << depth);
+                    }
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 0) {
+                        return false;
+                    }
+                    depth--;
+                    if (depth < MAX_INDENT_DEPTH && ((objectBits & (1L << depth)) != 0) != (c == '}')) {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return depth == 0 && !inString;
+    }
+
+    /**
+     * 格式化，调用前已经通过{@link #isValid(CharSequence, int, int)}检查
+     */
+    private int scan(CharSequence json, int start, int end) {
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        writeString(mLinePrefix);
+        for (int i = start; i < end; i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                if (!escaped && c == '\\') {
+                    int decoded = decodeEscape(json, i, end);
+                    if (decoded > 0) {
+                        if (!writeDecoded(json, i, decoded)) {
+                            return RESULT_TRUNCATED;
+                        }
+                        i += decoded - 1;
+                        continue;
+                    }
+                }
+                if (!write(c)) {
+                    return RESULT_TRUNCATED;
+                }
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            boolean ok;
+            switch (c) {
+                case '"':
+                    inString = true;
+                    ok = write(c);
+                    break;
+                case '{':
+                case '[': {
+                    depth++;
+                    int next = skipWhitespace(json, i + 1, end);
+                    if (next < end && json.charAt(next) == (c == '{' ? '}' : ']')) {
+                        // 空对象或空数组写在同一行
+                        depth--;
+                        ok = write(c) && write(json.charAt(next));
+                        i = next;
+                    } else {
+                        ok = write(c) && newLine(depth);
+                    }
+                }
+                break;
+                case '}':
+                case ']':
+                    depth--;
+                    ok = newLine(depth) && write(c);
+                    break;
+                case ',':
+                    ok = write(c) && newLine(depth);
+                    break;
+                case ':':
+                    ok = write(c) && write(' ');
+                    break;
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                    ok = true;
+                    break;
+                default:
+                    ok = write(c);
+                    break;
+            }
+            if (!ok) {
+                return RESULT_TRUNCATED;
+            }
+        }
+        return RESULT_OK;
+    }
+
+    /**
+     * i处的\\uXXXX转义能否解码：可以直接显示的字符，或成对的代理字符(两个转义)
+     *
+     * @return 可以解码时返回转义的长度(6或12)，否则返回0
+     */
+    private static int decodeEscape(CharSequence json, int i, int end) {
+        int c = unicodeEscape(json, i, end);
+        if (c < 0) {
+            return 0;
+        }
+        if (Character.isHighSurrogate((char) c)) {
+            int low = unicodeEscape(json, i + 6, end);
+            return low >= 0 && Character.isLowSurrogate((char) low) ? 12 : 0;
+        }
+        return isPrintable((char) c) ? 6 : 0;
+    }
+
+    /**
+     * 写入decodeEscape()确认可以解码的转义，代理字符成对写入，不会在中间截断
+     */
+    private boolean writeDecoded(CharSequence json, int i, int length) {
+        char c = (char) unicodeEscape(json, i, i + length);
+        if (length == 6) {
+            return write(c);
+        }
+        if (mLength + 2 > mLimit) {
+            return false;
+        }
+        return write(c) && write((char) unicodeEscape(json, i + 6, i + length));
+    }
+
+    /**
+     * @return i处为\\uXXXX时返回XXXX的值，否则返回-1
+     */
+    private static int unicodeEscape(CharSequence json, int i, int end) {
+        if (i + 6 > end || json.charAt(i) != '\\' || json.charAt(i + 1) != 'u') {
+            return -1;
+        }
+        int value = 0;
+        for (int j = i + 2; j < i + 6; j++) {
+            int digit = Character.digit(json.charAt(j), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * 解码后不影响JSON的结构和日志的显示；org.json同样会转义这些字符
+     */
+    private static boolean isPrintable(char c) {
+        return c >= 0x20 && c != '"' && c != '\\' && (c < 0x7F || c > 0x9F)
+                && c != '\u2028' && c != '\u2029' && !Character.isSurrogate(c);
+    }
+
+    private static int skipWhitespace(CharSequence json, int i, int end) {
+        while (i < end && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private boolean newLine(int depth) {
+        if (!write('\n')) {
+            return false;
+        }
+        // 剩余空间不多时在换行处切分，尽量不把一行分到两块中
+        if (mPosition > mBuffer.length - mBuffer.length / 8) {
+            flush();
+        }
+        if (!writeString(mLinePrefix)) {
+            return false;
+        }
+        int spaces = Math.min(depth, MAX_INDENT_DEPTH) * mIndent;
+        for (int i = 0; i < spaces; i++) {
+            if (!write(' ')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean writeString(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!write(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false-超过最大长度
+     */
+    private boolean write(char c) {
+        if (mLength >= mLimit) {
+            return false;
+        }
+        if (mPosition == mBuffer.length) {
+            flush();
+        }
+        mBuffer[mPosition++] = c;
+        mLength++;
+        return true;
+    }
+
+    private void flush() {
+        if (mPosition > 0) {
+            mSink.onChunk(CharBuffer.wrap(mBuffer, 0, mPosition));
+            mPosition = 0;
+        }
+    }
+}
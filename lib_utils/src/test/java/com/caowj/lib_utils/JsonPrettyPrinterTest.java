@@ -0,0 +1,99 @@
+package com.caowj.lib_utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 缩进换行、\\uXXXX解码、截断，以及不是JSON时不输出任何内容
+ */
+public class JsonPrettyPrinterTest {
+
+    @Test
+    public void format() {
+        assertEquals("{\n  \"a\": 1,\n  \"b\": [\n    true,\n    null\n  ],\n  \"c\": {}\n}",
+                new JsonPrettyPrinter(2).format(" {\"a\":1, \"b\":[true,null],\"c\":{ }} "));
+    }
+
+    @Test
+    public void keepStringContent() {
+        // 字符串中的空白和括号原样保留
+        assertEquals("[\n  \"a, {b} \\\" c\"\n]", new JsonPrettyPrinter(2).format("[\"a, {b} \\\" c\"]"));
+    }
+
+    @Test
+    public void decodeUnicodeEscape() {
+        assertEquals("[\n  \"中文\"\n]", new JsonPrettyPrinter(2).format("[\"\\u4e2d\\u6587\"]"));
+        // 成对的代理字符一起解码
+        assertEquals("[\n  \"😀\"\n]", new JsonPrettyPrinter(2).format("[\"\\ud83d\\ude00\"]"));
+    }
+
+    @Test
+    public void keepUnsafeEscape() {
+        // 控制字符、引号、反斜杠、行分隔符和不成对的代理字符保留转义
+        String json = "[\"\\u000a\\u0022\\u005c\\u2028\\ud83d\"]";
+        assertEquals("[\n  " + json.substring(1, json.length() - 1) + "\n]", new JsonPrettyPrinter(2).format(json));
+    }
+
+    @Test
+    public void invalidPrintsNothing() {
+        String[] invalid = {"", "  ", "text", "{\"a\":1", "[1}", "{\"a\":\"b}", "{}{}", "{} x", "]"};
+        for (String json : invalid) {
+            Chunks chunks = new Chunks();
+            assertEquals(json, JsonPrettyPrinter.RESULT_INVALID, new JsonPrettyPrinter(2).print(json, chunks));
+            assertTrue(json, chunks.mChunks.isEmpty());
+            assertEquals(json.trim(), new JsonPrettyPrinter(2).format(json));
+        }
+    }
+
+    @Test
+    public void truncate() {
+        // 按输出的字符数(包括缩进)截断
+        Chunks chunks = new Chunks();
+        int result = new JsonPrettyPrinter(2).maxLength(8).print("[\"0123456789\"]", chunks);
+        assertEquals(JsonPrettyPrinter.RESULT_TRUNCATED, result);
+        assertEquals("[\n  \"012...(已截断，原文共14个字符)", chunks.text());
+    }
+
+    @Test
+    public void chunks() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            json.append(i == 0 ? "" : ",").append(i);
+        }
+        json.append(']');
+        Chunks chunks = new Chunks();
+        assertEquals(JsonPrettyPrinter.RESULT_OK, new JsonPrettyPrinter(2).chunkSize(64).print(json, chunks));
+        assertTrue(chunks.mChunks.size() > 1);
+        for (String chunk : chunks.mChunks) {
+            assertTrue(chunk.length() <= 64);
+        }
+        assertEquals(new JsonPrettyPrinter(2).format(json.toString()), chunks.text());
+    }
+
+    @Test
+    public void linePrefix() {
+        assertEquals("║ {\n║     \"a\": 1\n║ }", new JsonPrettyPrinter(4).linePrefix("║ ").format("{\"a\":1}"));
+    }
+
+    private static class Chunks implements JsonPrettyPrinter.Sink {
+        final List<String> mChunks = new ArrayList<>();
+
+        @Override
+        public void onChunk(CharSequence chunk) {
+            mChunks.add(chunk.toString());
+        }
+
+        String text() {
+            StringBuilder builder = new StringBuilder();
+            for (String chunk : mChunks) {
+                builder.append(chunk);
+            }
+            return builder.toString();
+        }
+    }
+}